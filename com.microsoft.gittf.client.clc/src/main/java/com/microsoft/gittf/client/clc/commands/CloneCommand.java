@@ -25,10 +25,15 @@
 package com.microsoft.gittf.client.clc.commands;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URI;
+import java.util.Arrays;
 
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.Repository;
 
+import com.microsoft.gittf.client.clc.Console.Verbosity;
 import com.microsoft.gittf.client.clc.ExitCode;
 import com.microsoft.gittf.client.clc.Messages;
 import com.microsoft.gittf.client.clc.arguments.Argument;
@@ -39,6 +44,7 @@ import com.microsoft.gittf.client.clc.arguments.SwitchArgument;
 import com.microsoft.gittf.client.clc.arguments.ValueArgument;
 import com.microsoft.gittf.client.clc.commands.framework.Command;
 import com.microsoft.gittf.client.clc.commands.framework.CommandTaskExecutor;
+import com.microsoft.gittf.core.config.GitTFConfiguration;
 import com.microsoft.gittf.core.tasks.CloneTask;
 import com.microsoft.gittf.core.tasks.framework.TaskStatus;
 import com.microsoft.gittf.core.util.DirectoryUtil;
@@ -111,6 +117,20 @@ public class CloneCommand
 
         new SwitchArgument("mentions", Messages.getString("Command.Argument.Mentions.HelpText")), //$NON-NLS-1$ //$NON-NLS-2$
 
+        new SwitchArgument("backfill", Messages.getString("CloneCommand.Argument.Backfill.HelpText")), //$NON-NLS-1$ //$NON-NLS-2$
+
+        new SwitchArgument("resume", Messages.getString("CloneCommand.Argument.Resume.HelpText")), //$NON-NLS-1$ //$NON-NLS-2$
+
+        new ValueArgument("include", //$NON-NLS-1$
+            Messages.getString("Command.Argument.PathFilter.ValueDescription"), //$NON-NLS-1$
+            Messages.getString("Command.Argument.Include.HelpText"), //$NON-NLS-1$
+            ArgumentOptions.VALUE_REQUIRED.combine(ArgumentOptions.MULTIPLE)),
+
+        new ValueArgument("exclude", //$NON-NLS-1$
+            Messages.getString("Command.Argument.PathFilter.ValueDescription"), //$NON-NLS-1$
+            Messages.getString("Command.Argument.Exclude.HelpText"), //$NON-NLS-1$
+            ArgumentOptions.VALUE_REQUIRED.combine(ArgumentOptions.MULTIPLE)),
+
         new FreeArgument("projectcollection", //$NON-NLS-1$
             Messages.getString("Command.Argument.ProjectCollection.HelpText"), //$NON-NLS-1$
             ArgumentOptions.REQUIRED),
@@ -168,6 +188,7 @@ public class CloneCommand
         }
 
         final boolean tag = getTagFromArguments();
+        final boolean backfill = getArguments().contains("backfill"); //$NON-NLS-1$
 
         final URI serverURI = URIUtil.getServerURI(collection);
         tfsPath = ServerPath.canonicalize(tfsPath);
@@ -184,16 +205,37 @@ public class CloneCommand
         final File repositoryLocation = new File(repositoryPath);
         File parentLocationCreated = null;
 
-        if (!repositoryLocation.exists())
+        /*
+         * A clone that was interrupted after a checkpoint is resumed when it is
+         * run again.
+         */
+        Repository repository = openResumableClone(repositoryLocation, bare, serverURI, tfsPath);
+        final boolean resume = repository != null;
+
+        if (!resume)
         {
-            parentLocationCreated = DirectoryUtil.createDirectory(repositoryLocation);
-            if (parentLocationCreated == null)
+            if (getArguments().contains("resume")) //$NON-NLS-1$
+            {
+                throw new Exception(Messages.formatString("CloneCommand.NothingToResumeFormat", repositoryPath)); //$NON-NLS-1$
+            }
+
+            if (!repositoryLocation.exists())
             {
-                throw new Exception(Messages.formatString("CloneCommnad.InvalidPathFormat", repositoryPath)); //$NON-NLS-1$
+                parentLocationCreated = DirectoryUtil.createDirectory(repositoryLocation);
+                if (parentLocationCreated == null)
+                {
+                    throw new Exception(Messages.formatString("CloneCommnad.InvalidPathFormat", repositoryPath)); //$NON-NLS-1$
+                }
             }
+
+            repository = RepositoryUtil.createNewRepository(repositoryPath, bare);
         }
+        else if (!isPathFilterOfResumedClone(repository))
+        {
+            repository.close();
 
-        final Repository repository = RepositoryUtil.createNewRepository(repositoryPath, bare);
+            throw new Exception(Messages.formatString("CloneCommand.PathFilterOfResumedCloneFormat", repositoryPath)); //$NON-NLS-1$
+        }
 
         /*
          * Connect to the server
@@ -212,11 +254,23 @@ public class CloneCommand
             cloneTask.setDepth(depth);
             cloneTask.setVersionSpec(versionSpec);
             cloneTask.setTag(tag);
+            cloneTask.setIncludePaths(getPathFilterFromArguments("include")); //$NON-NLS-1$
+            cloneTask.setExcludePaths(getPathFilterFromArguments("exclude")); //$NON-NLS-1$
+            cloneTask.setResume(resume);
 
             final TaskStatus cloneStatus = new CommandTaskExecutor(getProgressMonitor()).execute(cloneTask);
 
             if (!cloneStatus.isOK())
             {
+                /* Keep the changesets cloned up to the last checkpoint */
+                if (resume || CloneTask.hasCheckpoint(repository))
+                {
+                    getConsole().getOutputStream(Verbosity.NORMAL).println(
+                        Messages.formatString("CloneCommand.CanResumeFormat", repositoryPath)); //$NON-NLS-1$
+
+                    return ExitCode.FAILURE;
+                }
+
                 FileHelpers.deleteDirectory(bare ? repository.getDirectory() : repository.getWorkTree());
 
                 if (parentLocationCreated != null)
@@ -226,6 +280,17 @@ public class CloneCommand
 
                 return ExitCode.FAILURE;
             }
+
+            /*
+             * The clone returns as soon as the tip is checked out, the history
+             * is imported by fetch --backfill, which can be interrupted and
+             * resumed.
+             */
+            if (backfill)
+            {
+                getConsole().getOutputStream(Verbosity.NORMAL).println(
+                    Messages.formatString("CloneCommand.BackfillNextStepFormat", repositoryPath)); //$NON-NLS-1$
+            }
         }
         finally
         {
@@ -234,4 +299,53 @@ public class CloneCommand
 
         return ExitCode.SUCCESS;
     }
+
+    private Repository openResumableClone(
+        final File repositoryLocation,
+        final boolean bare,
+        final URI serverURI,
+        final String tfsPath)
+        throws IOException
+    {
+        final File repositoryDirectory = bare ? repositoryLocation : new File(repositoryLocation, Constants.DOT_GIT);
+
+        if (!repositoryDirectory.isDirectory())
+        {
+            return null;
+        }
+
+        final Repository repository = new FileRepository(repositoryDirectory);
+
+        if (CloneTask.isResumable(repository, serverURI, tfsPath))
+        {
+            return repository;
+        }
+
+        repository.close();
+
+        return null;
+    }
+
+    /**
+     * The resumed clone keeps the path filter it was started with, include
+     * and exclude paths may only be specified again as they were.
+     */
+    private boolean isPathFilterOfResumedClone(final Repository repository)
+    {
+        final GitTFConfiguration configuration = GitTFConfiguration.loadFrom(repository);
+
+        if (getArguments().contains("include") //$NON-NLS-1$
+            && !Arrays.equals(getPathFilterFromArguments("include"), configuration.getIncludePaths())) //$NON-NLS-1$
+        {
+            return false;
+        }
+
+        if (getArguments().contains("exclude") //$NON-NLS-1$
+            && !Arrays.equals(getPathFilterFromArguments("exclude"), configuration.getExcludePaths())) //$NON-NLS-1$
+        {
+            return false;
+        }
+
+        return true;
+    }
 }
@@ -131,6 +131,16 @@ public class ConfigureCommand
             Messages.getString("CheckinCommand.Argument.UserMap.HelpText"), //$NON-NLS-1$)
             ArgumentOptions.VALUE_REQUIRED),
 
+        new ValueArgument("include", //$NON-NLS-1$
+            Messages.getString("Command.Argument.PathFilter.ValueDescription"), //$NON-NLS-1$
+            Messages.getString("Command.Argument.Include.HelpText"), //$NON-NLS-1$
+            ArgumentOptions.VALUE_REQUIRED.combine(ArgumentOptions.MULTIPLE).combine(ArgumentOptions.EMPTY)),
+
+        new ValueArgument("exclude", //$NON-NLS-1$
+            Messages.getString("Command.Argument.PathFilter.ValueDescription"), //$NON-NLS-1$
+            Messages.getString("Command.Argument.Exclude.HelpText"), //$NON-NLS-1$
+            ArgumentOptions.VALUE_REQUIRED.combine(ArgumentOptions.MULTIPLE).combine(ArgumentOptions.EMPTY)),
+
         new ValueArgument("username", //$NON-NLS-1$
             Messages.getString("CloneCommand.Argument.UserName.ValueDescription"), //$NON-NLS-1$
             Messages.getString("CloneCommand.Argument.UserName.HelpText"), //$NON-NLS-1$)
@@ -238,6 +248,8 @@ public class ConfigureCommand
                 !getArguments().contains("ignore-author") && //$NON-NLS-1$
                 !getArguments().contains("username") && //$NON-NLS-1$
                 !getArguments().contains("password") && //$NON-NLS-1$
+                !getArguments().contains("include") && //$NON-NLS-1$
+                !getArguments().contains("exclude") && //$NON-NLS-1$
                 !getArguments().contains("user-map")) //$NON-NLS-1$ 
             {
                 throw new Exception(Messages.getString("ConfigureCommand.InvalidOptionsSpecified")); //$NON-NLS-1$
@@ -297,6 +309,16 @@ public class ConfigureCommand
             }
         }
 
+        if (getArguments().contains("include")) //$NON-NLS-1$
+        {
+            configureTask.setIncludePaths(getPathFilterFromArguments("include")); //$NON-NLS-1$
+        }
+
+        if (getArguments().contains("exclude")) //$NON-NLS-1$
+        {
+            configureTask.setExcludePaths(getPathFilterFromArguments("exclude")); //$NON-NLS-1$
+        }
+
         if (getArguments().contains("username")) //$NON-NLS-1$
         {
             final String username = ((ValueArgument) getArguments().getArgument("username")).getValue(); //$NON-NLS-1$
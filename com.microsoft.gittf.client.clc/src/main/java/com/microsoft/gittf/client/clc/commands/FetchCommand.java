@@ -34,6 +34,7 @@ import com.microsoft.gittf.client.clc.arguments.ValueArgument;
 import com.microsoft.gittf.client.clc.commands.framework.Command;
 import com.microsoft.gittf.client.clc.commands.framework.CommandTaskExecutor;
 import com.microsoft.gittf.core.config.GitTFConfiguration;
+import com.microsoft.gittf.core.tasks.BackfillTask;
 import com.microsoft.gittf.core.tasks.FetchTask;
 import com.microsoft.gittf.core.tasks.framework.TaskStatus;
 import com.microsoft.gittf.core.util.VersionSpecUtil;
@@ -77,6 +78,8 @@ public class FetchCommand
         new SwitchArgument("force", Messages.getString("FetchCommand.Argument.Force.HelpText")), //$NON-NLS-1$ //$NON-NLS-2$
 
         new SwitchArgument("mentions", Messages.getString("Command.Argument.Mentions.HelpText")), //$NON-NLS-1$ //$NON-NLS-2$
+
+        new SwitchArgument("backfill", Messages.getString("FetchCommand.Argument.Backfill.HelpText")), //$NON-NLS-1$ //$NON-NLS-2$
     };
 
     @Override
@@ -131,6 +134,19 @@ public class FetchCommand
 
         final TaskStatus fetchStatus = new CommandTaskExecutor(getProgressMonitor()).execute(fetchTask);
 
-        return fetchStatus.isOK() ? ExitCode.SUCCESS : ExitCode.FAILURE;
+        if (!fetchStatus.isOK())
+        {
+            return ExitCode.FAILURE;
+        }
+
+        if (getArguments().contains("backfill")) //$NON-NLS-1$
+        {
+            final BackfillTask backfillTask = new BackfillTask(getRepository(), getVersionControlService(), witClient);
+            final TaskStatus backfillStatus = new CommandTaskExecutor(getProgressMonitor()).execute(backfillTask);
+
+            return backfillStatus.isOK() ? ExitCode.SUCCESS : ExitCode.FAILURE;
+        }
+
+        return ExitCode.SUCCESS;
     }
 }
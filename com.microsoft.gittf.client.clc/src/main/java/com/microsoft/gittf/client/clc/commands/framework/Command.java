@@ -238,6 +238,33 @@ public abstract class Command
             || getArguments().contains("no-metadata"); //$NON-NLS-1$
     }
 
+    /**
+     * Gets the path patterns given for a path filter argument.
+     * 
+     * @param name
+     *        the name of the argument, "include" or "exclude"
+     * @return the patterns, or <code>null</code> if the argument was not
+     *         specified
+     */
+    public String[] getPathFilterFromArguments(final String name)
+    {
+        final Argument[] arguments = getArguments().getArguments(name);
+
+        if (arguments == null || arguments.length == 0)
+        {
+            return null;
+        }
+
+        final String[] patterns = new String[arguments.length];
+
+        for (int i = 0; i < arguments.length; i++)
+        {
+            patterns[i] = ((ValueArgument) arguments[i]).getValue();
+        }
+
+        return patterns;
+    }
+
     protected Repository getRepository()
         throws Exception
     {
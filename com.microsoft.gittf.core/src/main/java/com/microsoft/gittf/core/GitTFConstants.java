@@ -38,13 +38,41 @@ public final class GitTFConstants
     /**
      * The latest format version of the git tf configuration file
      */
-    public static final int GIT_TF_CURRENT_FORMAT_VERSION = 1;
+    public static final int GIT_TF_CURRENT_FORMAT_VERSION = 2;
 
     /**
      * The root of the temporary directory to use
      */
     public static final String GIT_TF_DIRNAME = "tf"; //$NON-NLS-1$
 
+    /**
+     * The name of the file that maps changesets to commits
+     */
+    public static final String GIT_TF_CHANGESETS_NAME = "git-tf-changesets"; //$NON-NLS-1$
+
+    /**
+     * The name of the file that maps TFS content hashes to blobs
+     */
+    public static final String GIT_TF_CONTENT_HASHES_NAME = "git-tf-hashes"; //$NON-NLS-1$
+
+    /**
+     * The name of the ref that points to the item manifest of the last fetched
+     * commit
+     */
+    public static final String GIT_TF_MANIFEST_REF = "refs/gittf/manifest"; //$NON-NLS-1$
+
+    /**
+     * The name of the ref that points to the last commit imported by an
+     * unfinished history backfill
+     */
+    public static final String GIT_TF_BACKFILL_REF = "refs/gittf/backfill"; //$NON-NLS-1$
+
+    /**
+     * The name of the ref that points to the last commit checkpointed by an
+     * unfinished clone
+     */
+    public static final String GIT_TF_CLONE_REF = "refs/gittf/clone"; //$NON-NLS-1$
+
     /**
      * The default depth option
      */
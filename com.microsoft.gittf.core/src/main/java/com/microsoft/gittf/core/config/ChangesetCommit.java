@@ -0,0 +1,75 @@
+/***********************************************************************************************
+ * Copyright (c) Microsoft Corporation All rights reserved.
+ * 
+ * MIT License:
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ***********************************************************************************************/
+
+package com.microsoft.gittf.core.config;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+import com.microsoft.gittf.core.util.Check;
+
+/**
+ * An entry of the changeset commit map: a changeset and the commit it was
+ * bridged to.
+ */
+public class ChangesetCommit
+{
+    private final int changesetID;
+    private final ObjectId commitID;
+    private final boolean forceHWMUpdate;
+
+    /**
+     * Constructor
+     * 
+     * @param changesetID
+     *        the changeset id
+     * @param commitID
+     *        the commit id
+     * @param forceHWMUpdate
+     *        whether to set the HWM to this changeset even if it is older
+     */
+    public ChangesetCommit(final int changesetID, final ObjectId commitID, final boolean forceHWMUpdate)
+    {
+        Check.isTrue(changesetID >= 0, "changesetID >= 0"); //$NON-NLS-1$
+        Check.notNull(commitID, "commitID"); //$NON-NLS-1$
+
+        this.changesetID = changesetID;
+        this.commitID = commitID;
+        this.forceHWMUpdate = forceHWMUpdate;
+    }
+
+    public int getChangesetID()
+    {
+        return changesetID;
+    }
+
+    public ObjectId getCommitID()
+    {
+        return commitID;
+    }
+
+    public boolean isForceHWMUpdate()
+    {
+        return forceHWMUpdate;
+    }
+}
@@ -0,0 +1,175 @@
+/***********************************************************************************************
+ * Copyright (c) Microsoft Corporation All rights reserved.
+ * 
+ * MIT License:
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ***********************************************************************************************/
+
+package com.microsoft.gittf.core.config;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.Repository;
+
+import com.microsoft.gittf.core.util.Check;
+import com.microsoft.gittf.core.util.EnvironmentUtil;
+import com.microsoft.gittf.core.util.PackObjectInserter;
+import com.microsoft.gittf.core.util.TagUtil;
+
+/**
+ * Buffers the changeset commit map updates and tfs tags of an import and
+ * writes them together. Committing the batch first writes the tag objects and
+ * flushes the inserter the commits were written with, so the map never refers
+ * to commits that are not in the repository, even if the import is
+ * interrupted. The tag refs are then created with a single batch ref update.
+ * 
+ * The batch is committed automatically once it holds GITTF_MAP_BATCH_SIZE
+ * changesets (1000 by default) or the inserter is full. Buffered entries are
+ * not visible through the {@link ChangesetCommitMap} until the batch is
+ * committed.
+ * 
+ * The content hash index the blobs of the commits were recorded in is saved
+ * when the batch is committed, right after the inserter has been flushed.
+ */
+public class ChangesetCommitBatch
+{
+    private static final String BATCH_SIZE_NAME = "GITTF_MAP_BATCH_SIZE"; //$NON-NLS-1$
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private static final Log log = LogFactory.getLog(ChangesetCommitBatch.class);
+
+    private final Repository repository;
+    private final ChangesetCommitMap changesetCommitMap;
+    private final PackObjectInserter inserter;
+    private final int maxChangesetCommits;
+    private ContentHashIndex contentHashIndex;
+
+    private final List<ChangesetCommit> changesetCommits = new ArrayList<ChangesetCommit>();
+
+    /**
+     * Constructor
+     * 
+     * @param repository
+     *        the git repository
+     * @param inserter
+     *        the inserter the commits are written with, or <code>null</code>
+     *        if the commits are flushed as they are created
+     */
+    public ChangesetCommitBatch(final Repository repository, final PackObjectInserter inserter)
+    {
+        Check.notNull(repository, "repository"); //$NON-NLS-1$
+
+        this.repository = repository;
+        this.changesetCommitMap = new ChangesetCommitMap(repository);
+        this.inserter = inserter;
+        this.maxChangesetCommits = EnvironmentUtil.getPositiveInt(BATCH_SIZE_NAME, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Sets the content hash index to save whenever the inserter is flushed.
+     * 
+     * @param contentHashIndex
+     *        the content hash index the blobs written with the inserter are
+     *        recorded in
+     */
+    public void setContentHashIndex(final ContentHashIndex contentHashIndex)
+    {
+        this.contentHashIndex = contentHashIndex;
+    }
+
+    /**
+     * Adds a changeset to the batch, and commits the batch if it is full.
+     * 
+     * @param changesetID
+     *        the changeset id
+     * @param commitID
+     *        the commit id
+     * @param forceHWMUpdate
+     *        whether to set the HWM to this changeset even if it is older
+     * @throws IOException
+     */
+    public void add(final int changesetID, final ObjectId commitID, final boolean forceHWMUpdate)
+        throws IOException
+    {
+        changesetCommits.add(new ChangesetCommit(changesetID, commitID, forceHWMUpdate));
+
+        if (changesetCommits.size() >= maxChangesetCommits || (inserter != null && inserter.isFull()))
+        {
+            commit();
+        }
+    }
+
+    /**
+     * Flushes the inserter and saves the content hash index, then writes the
+     * buffered entries to the changeset commit map and creates their tags.
+     * 
+     * @throws IOException
+     */
+    public void commit()
+        throws IOException
+    {
+        final ObjectInserter tagInserter = inserter != null ? inserter : repository.newObjectInserter();
+        final Map<String, ObjectId> tags;
+
+        try
+        {
+            /* The tag objects are written to the same pack as the commits */
+            tags = TagUtil.insertTFSChangesetTags(repository, tagInserter, changesetCommits);
+            tagInserter.flush();
+        }
+        finally
+        {
+            if (tagInserter != inserter)
+            {
+                tagInserter.release();
+            }
+        }
+
+        if (contentHashIndex != null)
+        {
+            try
+            {
+                contentHashIndex.save();
+            }
+            catch (IOException e)
+            {
+                /* Not fatal, the content will be downloaded again if needed */
+                log.warn(e);
+            }
+        }
+
+        if (changesetCommits.isEmpty())
+        {
+            return;
+        }
+
+        changesetCommitMap.setChangesetCommits(changesetCommits);
+        changesetCommits.clear();
+
+        TagUtil.updateTags(repository, tags);
+    }
+}
@@ -26,11 +26,8 @@ package com.microsoft.gittf.core.config;
 
 import java.io.File;
 import java.io.IOException;
-import java.text.MessageFormat;
-import java.util.Collections;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
-import java.util.TreeSet;
 
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectReader;
@@ -39,21 +36,20 @@ import org.eclipse.jgit.lib.StoredConfig;
 import org.eclipse.jgit.storage.file.FileBasedConfig;
 import org.eclipse.jgit.util.FS;
 
-import com.microsoft.gittf.core.GitTFConstants;
 import com.microsoft.gittf.core.util.Check;
 import com.microsoft.gittf.core.util.TagUtil;
 
 /**
  * The ChangesetCommitMap class maintains the mapping between changesets and
  * commits. It also maintains the HWM which is the latest changeset downloaded
- * from TFS. All this information is stored in the .git\git-tf file in the
- * repository. This file uses the same format used by the config files.
+ * from TFS. All this information is stored in the .git\git-tf-changesets file
+ * in the repository, see {@link ChangesetCommitStore}.
  * 
  */
 public class ChangesetCommitMap
 {
     private final Repository repository;
-    private final FileBasedConfig configFile;
+    private final ChangesetCommitStore store;
 
     /**
      * Constructor
@@ -66,8 +62,7 @@ public class ChangesetCommitMap
         Check.notNull(repository, "repository"); //$NON-NLS-1$
 
         this.repository = repository;
-        this.configFile =
-            new FileBasedConfig(new File(repository.getDirectory(), GitTFConstants.GIT_TF_NAME), FS.DETECTED);
+        this.store = new ChangesetCommitStore(repository);
     }
 
     /**
@@ -91,35 +86,26 @@ public class ChangesetCommitMap
         Check.isTrue(changesetID >= 0, "changesetID >= 0"); //$NON-NLS-1$
         Check.notNull(commitID, "commitID"); //$NON-NLS-1$
 
-        ensureConfigUptoDate();
+        store.setChangesetCommit(changesetID, commitID, forceHWMUpdate);
 
-        cleanupPreviousEntries(changesetID);
-
-        configFile.setString(
-            ConfigurationConstants.CONFIGURATION_SECTION,
-            ConfigurationConstants.COMMIT_SUBSECTION,
-            MessageFormat.format(ConfigurationConstants.COMMIT_CHANGESET_FORMAT, Integer.toString(changesetID)),
-            commitID.getName());
-
-        configFile.setInt(
-            ConfigurationConstants.CONFIGURATION_SECTION,
-            ConfigurationConstants.CHANGESET_SUBSECTION,
-            MessageFormat.format(ConfigurationConstants.CHANGESET_COMMIT_FORMAT, commitID.getName()),
-            changesetID);
-
-        /* Update the high water mark automatically */
-        if ((changesetID > getLastBridgedChangesetID(false)) || forceHWMUpdate)
-        {
-            configFile.setInt(
-                ConfigurationConstants.CONFIGURATION_SECTION,
-                ConfigurationConstants.CHANGESET_SUBSECTION,
-                ConfigurationConstants.CHANGESET_HIGHWATER,
-                changesetID);
-        }
+        TagUtil.createTFSChangesetTag(repository, commitID, changesetID);
+    }
 
-        configFile.save();
+    /**
+     * Sets the commit ids that the changesets refer to with a single update of
+     * the map. Unlike {@link #setChangesetCommit(int, ObjectId, boolean)} this
+     * does not create the tfs tags, see {@link ChangesetCommitBatch}.
+     * 
+     * @param changesetCommits
+     *        the changesets and commits, in the order they were created
+     * @throws IOException
+     */
+    public void setChangesetCommits(List<ChangesetCommit> changesetCommits)
+        throws IOException
+    {
+        Check.notNull(changesetCommits, "changesetCommits"); //$NON-NLS-1$
 
-        TagUtil.createTFSChangesetTag(repository, commitID, changesetID);
+        store.setChangesetCommits(changesetCommits);
     }
 
     /**
@@ -133,13 +119,14 @@ public class ChangesetCommitMap
     {
         Check.notNull(commitID, "commitID"); //$NON-NLS-1$
 
-        ensureConfigUptoDate();
-
-        return configFile.getInt(
-            ConfigurationConstants.CONFIGURATION_SECTION,
-            ConfigurationConstants.CHANGESET_SUBSECTION,
-            MessageFormat.format(ConfigurationConstants.CHANGESET_COMMIT_FORMAT, commitID.getName()),
-            -1);
+        try
+        {
+            return store.getChangesetID(commitID);
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
     }
 
     /**
@@ -157,21 +144,22 @@ public class ChangesetCommitMap
     {
         Check.isTrue(changesetID >= 0, "changesetID >= 0"); //$NON-NLS-1$
 
-        ensureConfigUptoDate();
+        ObjectId changesetCommitId;
 
-        String commitHash =
-            configFile.getString(
-                ConfigurationConstants.CONFIGURATION_SECTION,
-                ConfigurationConstants.COMMIT_SUBSECTION,
-                MessageFormat.format(ConfigurationConstants.COMMIT_CHANGESET_FORMAT, Integer.toString(changesetID)));
+        try
+        {
+            changesetCommitId = store.getCommitID(changesetID);
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
 
-        if (commitHash == null)
+        if (changesetCommitId == null)
         {
             return null;
         }
 
-        ObjectId changesetCommitId = ObjectId.fromString(commitHash);
-
         if (!validate)
         {
             return changesetCommitId;
@@ -181,7 +169,7 @@ public class ChangesetCommitMap
         try
         {
             objectReader = repository.newObjectReader();
-            if (changesetCommitId != null && !ObjectId.zeroId().equals(changesetCommitId))
+            if (!ObjectId.zeroId().equals(changesetCommitId))
             {
                 try
                 {
@@ -210,8 +198,8 @@ public class ChangesetCommitMap
     /**
      * Gets the last downloaded changeset id. If validate is specified, the
      * method will test the changeset id / commit id for existence, if the HWM
-     * in the config file does not exist in the repository, the method will loop
-     * through all the downloaded changesets to find the latest valid changeset
+     * in the store does not exist in the repository, the method will loop
+     * through the downloaded changesets to find the latest valid changeset
      * downloaded.
      * 
      * @param validate
@@ -220,14 +208,16 @@ public class ChangesetCommitMap
      */
     public int getLastBridgedChangesetID(boolean validate)
     {
-        ensureConfigUptoDate();
+        int changeset;
 
-        int changeset =
-            configFile.getInt(
-                ConfigurationConstants.CONFIGURATION_SECTION,
-                ConfigurationConstants.CHANGESET_SUBSECTION,
-                ConfigurationConstants.CHANGESET_HIGHWATER,
-                -1);
+        try
+        {
+            changeset = store.getHighWaterMark();
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
 
         if (changeset < 0)
         {
@@ -266,97 +256,43 @@ public class ChangesetCommitMap
      */
     public int getPreviousBridgedChangeset(int changesetID, boolean validate)
     {
-        ensureConfigUptoDate();
-
-        Set<String> downloadedChangesetEntries =
-            configFile.getNames(ConfigurationConstants.CONFIGURATION_SECTION, ConfigurationConstants.COMMIT_SUBSECTION);
-
-        Set<Integer> sortedDownloadedChangesetEntries = new TreeSet<Integer>(Collections.reverseOrder());
-
-        for (String downloadedChangesetEntry : downloadedChangesetEntries)
-        {
-            String changesetNumberString =
-                downloadedChangesetEntry.substring(MessageFormat.format(
-                    ConfigurationConstants.COMMIT_CHANGESET_FORMAT,
-                    "").length()); //$NON-NLS-1$
+        int currentChangeset = changesetID;
 
-            int changesetIDEntry = Integer.parseInt(changesetNumberString);
-
-            sortedDownloadedChangesetEntries.add(changesetIDEntry);
-        }
-
-        Iterator<Integer> changesetIterator = sortedDownloadedChangesetEntries.iterator();
-        while (changesetIterator.hasNext())
+        while (true)
         {
-            int currentChangeset = changesetIterator.next();
-
-            if (currentChangeset >= changesetID)
+            try
             {
-                continue;
+                currentChangeset = store.getPreviousChangesetID(currentChangeset);
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException(e);
             }
 
-            if (!validate)
+            if (currentChangeset < 0 || !validate)
             {
                 return currentChangeset;
             }
-            else
+
+            ObjectId commitId = getCommitID(currentChangeset, true);
+            if (commitId != null && !ObjectId.zeroId().equals(commitId))
             {
-                ObjectId commitId = getCommitID(currentChangeset, true);
-                if (commitId != null && !ObjectId.zeroId().equals(commitId))
-                {
-                    return currentChangeset;
-                }
+                return currentChangeset;
             }
         }
-
-        return -1;
     }
 
     /**
-     * Cleans the entries for the changeset specified
+     * Used for upgrade, moves the entries from the .git\git-tf config file used
+     * by earlier versions to the changeset store
      * 
-     * @param changesetID
-     */
-    private void cleanupPreviousEntries(int changesetID)
-    {
-        String commitHash =
-            configFile.getString(
-                ConfigurationConstants.CONFIGURATION_SECTION,
-                ConfigurationConstants.COMMIT_SUBSECTION,
-                MessageFormat.format(ConfigurationConstants.COMMIT_CHANGESET_FORMAT, Integer.toString(changesetID)));
-
-        if (commitHash == null || commitHash.length() == 0)
-        {
-            return;
-        }
-
-        configFile.unset(
-            ConfigurationConstants.CONFIGURATION_SECTION,
-            ConfigurationConstants.COMMIT_SUBSECTION,
-            MessageFormat.format(ConfigurationConstants.COMMIT_CHANGESET_FORMAT, Integer.toString(changesetID)));
-
-        configFile.unset(
-            ConfigurationConstants.CONFIGURATION_SECTION,
-            ConfigurationConstants.CHANGESET_SUBSECTION,
-            MessageFormat.format(ConfigurationConstants.CHANGESET_COMMIT_FORMAT, commitHash));
-    }
-
-    /**
-     * Ensures that the config cache is up to date before reading it
+     * @param repository
+     * @throws IOException
      */
-    private void ensureConfigUptoDate()
+    public static void moveConfigurationEntriesToChangesetStore(Repository repository)
+        throws IOException
     {
-        try
-        {
-            if (configFile != null && configFile.isOutdated())
-            {
-                configFile.load();
-            }
-        }
-        catch (Exception e)
-        {
-            throw new RuntimeException(e);
-        }
+        new ChangesetCommitStore(repository).upgradeLegacyFile();
     }
 
     /**
@@ -0,0 +1,719 @@
+/***********************************************************************************************
+ * Copyright (c) Microsoft Corporation All rights reserved.
+ * 
+ * MIT License:
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ***********************************************************************************************/
+
+package com.microsoft.gittf.core.config;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.internal.storage.file.LockFile;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileBasedConfig;
+import org.eclipse.jgit.util.FS;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.NB;
+
+import com.microsoft.gittf.core.GitTFConstants;
+import com.microsoft.gittf.core.Messages;
+import com.microsoft.gittf.core.util.Check;
+
+/**
+ * Stores the mapping between changesets and commits, and the HWM, in the
+ * .git\git-tf-changesets file.
+ * 
+ * The file starts with an index of the changeset ids in ascending order, the
+ * commit ids in the same order and the positions of the entries ordered by
+ * commit id, so that lookups in either direction are binary searches. New
+ * entries are appended to the file as journal records and are merged into the
+ * index once the journal grows past a quarter of the index.
+ * 
+ * Repositories created by earlier versions keep the mapping in the
+ * .git\git-tf config file. That file is only read; the first update writes
+ * the mapping to the new file and deletes the old one.
+ */
+public class ChangesetCommitStore
+{
+    private static final byte[] SIGNATURE =
+    {
+        'G', 'T', 'F', 'C'
+    };
+
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 16;
+    private static final int INDEX_ENTRY_LENGTH = 8 + Constants.OBJECT_ID_LENGTH;
+    private static final int JOURNAL_RECORD_LENGTH = 8 + Constants.OBJECT_ID_LENGTH;
+    private static final int MIN_JOURNAL_RECORDS = 1024;
+
+    private final File file;
+    private final File legacyFile;
+    private final FS fs;
+
+    /* The changeset ids of the index in ascending order */
+    private int[] changesetIDs = new int[0];
+
+    /* The raw commit ids of the index in changeset order */
+    private byte[] commitIDs = new byte[0];
+
+    /* The positions of the index entries ordered by commit id */
+    private int[] commitOrder = new int[0];
+
+    /* Entries of the journal, which take precedence over the index */
+    private final SortedMap<Integer, ObjectId> journalCommits = new TreeMap<Integer, ObjectId>();
+    private final Map<ObjectId, Integer> journalChangesets = new HashMap<ObjectId, Integer>();
+    private int journalRecords;
+    private boolean journalTruncated;
+
+    private int highWaterMark = -1;
+
+    private boolean loadedLegacy;
+    private long loadedLength = -1;
+    private long loadedLastModified;
+
+    /**
+     * Constructor
+     * 
+     * @param repository
+     *        the git repository
+     */
+    public ChangesetCommitStore(final Repository repository)
+    {
+        Check.notNull(repository, "repository"); //$NON-NLS-1$
+
+        this.file = new File(repository.getDirectory(), GitTFConstants.GIT_TF_CHANGESETS_NAME);
+        this.legacyFile = new File(repository.getDirectory(), GitTFConstants.GIT_TF_NAME);
+        this.fs = repository.getFS();
+    }
+
+    /**
+     * Gets the commit id mapped to the changeset specified.
+     * 
+     * @param changesetID
+     *        the changeset id
+     * @return the commit id or <code>null</code> if the changeset is not mapped
+     * @throws IOException
+     */
+    public ObjectId getCommitID(final int changesetID)
+        throws IOException
+    {
+        ensureUpToDate();
+
+        return lookupCommitID(changesetID);
+    }
+
+    /**
+     * Gets the changeset the commit specified is mapped to.
+     * 
+     * @param commitID
+     *        the commit id
+     * @return the changeset id or -1 if the commit is not mapped
+     * @throws IOException
+     */
+    public int getChangesetID(final AnyObjectId commitID)
+        throws IOException
+    {
+        Check.notNull(commitID, "commitID"); //$NON-NLS-1$
+
+        ensureUpToDate();
+
+        final Integer journalChangesetID = journalChangesets.get(commitID);
+        if (journalChangesetID != null && commitID.equals(lookupCommitID(journalChangesetID)))
+        {
+            return journalChangesetID;
+        }
+
+        int low = 0;
+        int high = commitOrder.length - 1;
+        int found = -1;
+
+        while (low <= high)
+        {
+            final int middle = (low + high) >>> 1;
+            final int compare = commitID.compareTo(commitIDs, commitOrder[middle] * Constants.OBJECT_ID_LENGTH);
+
+            if (compare == 0)
+            {
+                found = middle;
+                break;
+            }
+            else if (compare < 0)
+            {
+                high = middle - 1;
+            }
+            else
+            {
+                low = middle + 1;
+            }
+        }
+
+        if (found < 0)
+        {
+            return -1;
+        }
+
+        /*
+         * A commit can be mapped to more than one changeset; the entries are
+         * adjacent and the latest changeset that still maps to it wins.
+         */
+        while (found > 0 && commitID.compareTo(commitIDs, commitOrder[found - 1] * Constants.OBJECT_ID_LENGTH) == 0)
+        {
+            found--;
+        }
+
+        int changesetID = -1;
+        for (int i = found; i < commitOrder.length
+            && commitID.compareTo(commitIDs, commitOrder[i] * Constants.OBJECT_ID_LENGTH) == 0; i++)
+        {
+            final int candidate = changesetIDs[commitOrder[i]];
+
+            if (candidate > changesetID && commitID.equals(lookupCommitID(candidate)))
+            {
+                changesetID = candidate;
+            }
+        }
+
+        return changesetID;
+    }
+
+    /**
+     * Gets the highest mapped changeset lower than the changeset specified.
+     * 
+     * @param changesetID
+     *        the changeset id
+     * @return the changeset id or -1 if there is no such changeset
+     * @throws IOException
+     */
+    public int getPreviousChangesetID(final int changesetID)
+        throws IOException
+    {
+        ensureUpToDate();
+
+        int previous = -1;
+
+        final SortedMap<Integer, ObjectId> lowerJournalCommits = journalCommits.headMap(changesetID);
+        if (!lowerJournalCommits.isEmpty())
+        {
+            previous = lowerJournalCommits.lastKey();
+        }
+
+        final int position = Arrays.binarySearch(changesetIDs, changesetID);
+        final int lowerPosition = position >= 0 ? position - 1 : -position - 2;
+        if (lowerPosition >= 0 && changesetIDs[lowerPosition] > previous)
+        {
+            previous = changesetIDs[lowerPosition];
+        }
+
+        return previous;
+    }
+
+    /**
+     * Gets the HWM, the latest changeset downloaded from TFS.
+     * 
+     * @return the changeset id or -1 if no changeset has been downloaded
+     * @throws IOException
+     */
+    public int getHighWaterMark()
+        throws IOException
+    {
+        ensureUpToDate();
+
+        return highWaterMark;
+    }
+
+    /**
+     * Maps the changeset to the commit specified and updates the HWM if the
+     * changeset is newer than the HWM or the update is forced.
+     * 
+     * @param changesetID
+     *        the changeset id
+     * @param commitID
+     *        the commit id
+     * @param forceHWMUpdate
+     *        whether to set the HWM to this changeset even if it is older
+     * @throws IOException
+     */
+    public void setChangesetCommit(final int changesetID, final ObjectId commitID, final boolean forceHWMUpdate)
+        throws IOException
+    {
+        setChangesetCommits(Collections.singletonList(new ChangesetCommit(changesetID, commitID, forceHWMUpdate)));
+    }
+
+    /**
+     * Maps the changesets to the commits specified, in order, and updates the
+     * HWM as {@link #setChangesetCommit(int, ObjectId, boolean)} does. The
+     * entries are appended to the file with a single write. Each record is
+     * complete on its own, so if the write is interrupted the entries that
+     * made it to disk are still consistent.
+     * 
+     * @param changesetCommits
+     *        the entries to add
+     * @throws IOException
+     */
+    public void setChangesetCommits(final List<ChangesetCommit> changesetCommits)
+        throws IOException
+    {
+        Check.notNull(changesetCommits, "changesetCommits"); //$NON-NLS-1$
+
+        if (changesetCommits.isEmpty())
+        {
+            return;
+        }
+
+        ensureUpToDate();
+
+        final byte[] records = new byte[changesetCommits.size() * JOURNAL_RECORD_LENGTH];
+        int offset = 0;
+
+        for (final ChangesetCommit changesetCommit : changesetCommits)
+        {
+            final int changesetID = changesetCommit.getChangesetID();
+            final ObjectId commitID = changesetCommit.getCommitID();
+
+            putJournalEntry(changesetID, commitID.copy());
+
+            if (changesetID > highWaterMark || changesetCommit.isForceHWMUpdate())
+            {
+                highWaterMark = changesetID;
+            }
+
+            NB.encodeInt32(records, offset, changesetID);
+            commitID.copyRawTo(records, offset + 4);
+            NB.encodeInt32(records, offset + 4 + Constants.OBJECT_ID_LENGTH, highWaterMark);
+            offset += JOURNAL_RECORD_LENGTH;
+        }
+
+        if (loadedLegacy)
+        {
+            write();
+            deleteLegacyFile();
+        }
+        else if (!file.isFile()
+            || journalTruncated
+            || journalRecords > Math.max(MIN_JOURNAL_RECORDS, changesetIDs.length / 4))
+        {
+            write();
+        }
+        else
+        {
+            appendJournalRecords(records);
+        }
+    }
+
+    /**
+     * Moves the mapping kept in the .git\git-tf config file by earlier versions
+     * to the .git\git-tf-changesets file. Entries already in the new file take
+     * precedence.
+     * 
+     * @throws IOException
+     */
+    public void upgradeLegacyFile()
+        throws IOException
+    {
+        ensureUpToDate();
+
+        if (!legacyFile.isFile())
+        {
+            return;
+        }
+
+        if (!loadedLegacy)
+        {
+            loadLegacy();
+        }
+
+        write();
+        deleteLegacyFile();
+    }
+
+    private ObjectId lookupCommitID(final int changesetID)
+    {
+        final ObjectId journalCommitID = journalCommits.get(changesetID);
+        if (journalCommitID != null)
+        {
+            return journalCommitID;
+        }
+
+        final int position = Arrays.binarySearch(changesetIDs, changesetID);
+        return position >= 0 ? ObjectId.fromRaw(commitIDs, position * Constants.OBJECT_ID_LENGTH) : null;
+    }
+
+    private void putJournalEntry(final int changesetID, final ObjectId commitID)
+    {
+        journalCommits.put(changesetID, commitID);
+        journalChangesets.put(commitID, changesetID);
+        journalRecords++;
+    }
+
+    /**
+     * Reloads the mapping if the file changed since it was last read
+     */
+    private void ensureUpToDate()
+        throws IOException
+    {
+        final File source = file.isFile() ? file : legacyFile;
+        final boolean legacy = source == legacyFile;
+
+        if (legacy == loadedLegacy && source.length() == loadedLength && source.lastModified() == loadedLastModified)
+        {
+            return;
+        }
+
+        changesetIDs = new int[0];
+        commitIDs = new byte[0];
+        commitOrder = new int[0];
+        journalCommits.clear();
+        journalChangesets.clear();
+        journalRecords = 0;
+        journalTruncated = false;
+        highWaterMark = -1;
+
+        loadedLegacy = legacy;
+        loadedLength = source.length();
+        loadedLastModified = source.lastModified();
+
+        if (!source.isFile())
+        {
+            return;
+        }
+
+        if (legacy)
+        {
+            loadLegacy();
+        }
+        else
+        {
+            load();
+        }
+    }
+
+    private void load()
+        throws IOException
+    {
+        final byte[] data = IO.readFully(file);
+
+        if (data.length < HEADER_LENGTH
+            || !Arrays.equals(SIGNATURE, copyOfRange(data, 0, SIGNATURE.length))
+            || NB.decodeInt32(data, 4) != VERSION)
+        {
+            throw new IOException(Messages.formatString("ChangesetCommitStore.InvalidFileFormat", //$NON-NLS-1$
+                file.getAbsolutePath()));
+        }
+
+        final int count = NB.decodeInt32(data, 12);
+        final int journalOffset = HEADER_LENGTH + count * INDEX_ENTRY_LENGTH;
+
+        if (count < 0 || journalOffset > data.length)
+        {
+            throw new IOException(Messages.formatString("ChangesetCommitStore.InvalidFileFormat", //$NON-NLS-1$
+                file.getAbsolutePath()));
+        }
+
+        highWaterMark = NB.decodeInt32(data, 8);
+
+        int offset = HEADER_LENGTH;
+
+        changesetIDs = new int[count];
+        for (int i = 0; i < count; i++, offset += 4)
+        {
+            changesetIDs[i] = NB.decodeInt32(data, offset);
+        }
+
+        commitIDs = copyOfRange(data, offset, offset + count * Constants.OBJECT_ID_LENGTH);
+        offset += commitIDs.length;
+
+        commitOrder = new int[count];
+        for (int i = 0; i < count; i++, offset += 4)
+        {
+            commitOrder[i] = NB.decodeInt32(data, offset);
+        }
+
+        for (offset = journalOffset; offset + JOURNAL_RECORD_LENGTH <= data.length; offset += JOURNAL_RECORD_LENGTH)
+        {
+            putJournalEntry(NB.decodeInt32(data, offset), ObjectId.fromRaw(data, offset + 4));
+            highWaterMark = NB.decodeInt32(data, offset + 4 + Constants.OBJECT_ID_LENGTH);
+        }
+
+        /*
+         * A record that was only partly written is ignored, and the file is
+         * rewritten by the next update so that new records stay aligned.
+         */
+        journalTruncated = offset != data.length;
+    }
+
+    /**
+     * Reads the entries of the .git\git-tf config file that are not mapped
+     * yet.
+     */
+    private void loadLegacy()
+        throws IOException
+    {
+        final FileBasedConfig legacyConfig = new FileBasedConfig(legacyFile, fs);
+
+        try
+        {
+            legacyConfig.load();
+        }
+        catch (ConfigInvalidException e)
+        {
+            throw new IOException(e.getMessage());
+        }
+
+        final String changesetPrefix = MessageFormat.format(ConfigurationConstants.COMMIT_CHANGESET_FORMAT, ""); //$NON-NLS-1$
+
+        final Set<String> changesetEntries =
+            legacyConfig.getNames(ConfigurationConstants.CONFIGURATION_SECTION, ConfigurationConstants.COMMIT_SUBSECTION);
+
+        for (final String changesetEntry : changesetEntries)
+        {
+            final int changesetID = Integer.parseInt(changesetEntry.substring(changesetPrefix.length()));
+            final String commitHash =
+                legacyConfig.getString(
+                    ConfigurationConstants.CONFIGURATION_SECTION,
+                    ConfigurationConstants.COMMIT_SUBSECTION,
+                    changesetEntry);
+
+            if (commitHash != null && lookupCommitID(changesetID) == null)
+            {
+                putJournalEntry(changesetID, ObjectId.fromString(commitHash));
+            }
+        }
+
+        if (highWaterMark < 0)
+        {
+            highWaterMark =
+                legacyConfig.getInt(
+                    ConfigurationConstants.CONFIGURATION_SECTION,
+                    ConfigurationConstants.CHANGESET_SUBSECTION,
+                    ConfigurationConstants.CHANGESET_HIGHWATER,
+                    -1);
+        }
+    }
+
+    /**
+     * Merges the journal into the index and rewrites the file
+     */
+    private void write()
+        throws IOException
+    {
+        final int count = changesetIDs.length + journalCommits.size() - countJournalEntriesInIndex();
+        final int[] newChangesetIDs = new int[count];
+        final byte[] newCommitIDs = new byte[count * Constants.OBJECT_ID_LENGTH];
+
+        int position = 0;
+        int indexPosition = 0;
+
+        for (final Map.Entry<Integer, ObjectId> journalEntry : journalCommits.entrySet())
+        {
+            final int journalChangesetID = journalEntry.getKey();
+
+            while (indexPosition < changesetIDs.length && changesetIDs[indexPosition] < journalChangesetID)
+            {
+                newChangesetIDs[position] = changesetIDs[indexPosition];
+                System.arraycopy(
+                    commitIDs,
+                    indexPosition * Constants.OBJECT_ID_LENGTH,
+                    newCommitIDs,
+                    position * Constants.OBJECT_ID_LENGTH,
+                    Constants.OBJECT_ID_LENGTH);
+
+                position++;
+                indexPosition++;
+            }
+
+            if (indexPosition < changesetIDs.length && changesetIDs[indexPosition] == journalChangesetID)
+            {
+                indexPosition++;
+            }
+
+            newChangesetIDs[position] = journalChangesetID;
+            journalEntry.getValue().copyRawTo(newCommitIDs, position * Constants.OBJECT_ID_LENGTH);
+            position++;
+        }
+
+        while (indexPosition < changesetIDs.length)
+        {
+            newChangesetIDs[position] = changesetIDs[indexPosition];
+            System.arraycopy(
+                commitIDs,
+                indexPosition * Constants.OBJECT_ID_LENGTH,
+                newCommitIDs,
+                position * Constants.OBJECT_ID_LENGTH,
+                Constants.OBJECT_ID_LENGTH);
+
+            position++;
+            indexPosition++;
+        }
+
+        final Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++)
+        {
+            order[i] = i;
+        }
+
+        Arrays.sort(order, new Comparator<Integer>()
+        {
+            public int compare(final Integer first, final Integer second)
+            {
+                final int compare =
+                    ObjectId.fromRaw(newCommitIDs, first * Constants.OBJECT_ID_LENGTH).compareTo(
+                        newCommitIDs,
+                        second * Constants.OBJECT_ID_LENGTH);
+
+                return compare != 0 ? compare : newChangesetIDs[first] - newChangesetIDs[second];
+            }
+        });
+
+        final int[] newCommitOrder = new int[count];
+        for (int i = 0; i < count; i++)
+        {
+            newCommitOrder[i] = order[i];
+        }
+
+        final LockFile lockFile = new LockFile(file, fs);
+
+        if (!lockFile.lock())
+        {
+            throw new IOException(Messages.formatString("ChangesetCommitStore.CouldNotLockFormat", //$NON-NLS-1$
+                file.getAbsolutePath()));
+        }
+
+        try
+        {
+            final DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(lockFile.getOutputStream()));
+
+            try
+            {
+                out.write(SIGNATURE);
+                out.writeInt(VERSION);
+                out.writeInt(highWaterMark);
+                out.writeInt(count);
+
+                for (final int changesetID : newChangesetIDs)
+                {
+                    out.writeInt(changesetID);
+                }
+
+                out.write(newCommitIDs);
+
+                for (final int commitPosition : newCommitOrder)
+                {
+                    out.writeInt(commitPosition);
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+
+            if (!lockFile.commit())
+            {
+                throw new IOException(Messages.formatString("ChangesetCommitStore.CouldNotLockFormat", //$NON-NLS-1$
+                    file.getAbsolutePath()));
+            }
+        }
+        finally
+        {
+            lockFile.unlock();
+        }
+
+        changesetIDs = newChangesetIDs;
+        commitIDs = newCommitIDs;
+        commitOrder = newCommitOrder;
+        journalCommits.clear();
+        journalChangesets.clear();
+        journalRecords = 0;
+        journalTruncated = false;
+
+        loadedLegacy = false;
+        loadedLength = file.length();
+        loadedLastModified = file.lastModified();
+    }
+
+    private void deleteLegacyFile()
+        throws IOException
+    {
+        if (legacyFile.isFile() && !legacyFile.delete())
+        {
+            throw new IOException(Messages.formatString("ChangesetCommitStore.CouldNotDeleteLegacyFileFormat", //$NON-NLS-1$
+                legacyFile.getAbsolutePath()));
+        }
+    }
+
+    private int countJournalEntriesInIndex()
+    {
+        int count = 0;
+
+        for (final Integer changesetID : journalCommits.keySet())
+        {
+            if (Arrays.binarySearch(changesetIDs, changesetID) >= 0)
+            {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    private void appendJournalRecords(final byte[] records)
+        throws IOException
+    {
+        final FileOutputStream out = new FileOutputStream(file, true);
+
+        try
+        {
+            out.write(records);
+        }
+        finally
+        {
+            out.close();
+        }
+
+        loadedLength = file.length();
+        loadedLastModified = file.lastModified();
+    }
+
+    private static byte[] copyOfRange(final byte[] data, final int from, final int to)
+    {
+        final byte[] copy = new byte[to - from];
+        System.arraycopy(data, from, copy, 0, copy.length);
+        return copy;
+    }
+}
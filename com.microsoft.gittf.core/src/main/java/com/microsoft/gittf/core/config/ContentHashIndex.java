@@ -0,0 +1,295 @@
+/***********************************************************************************************
+ * Copyright (c) Microsoft Corporation All rights reserved.
+ * 
+ * MIT License:
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ***********************************************************************************************/
+
+
+package com.microsoft.gittf.core.config;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.NB;
+
+import com.microsoft.gittf.core.GitTFConstants;
+import com.microsoft.gittf.core.util.Check;
+
+/**
+ * Maps the MD5 content hashes TFS reports for items to the blobs that were
+ * created for that content, so content that was already downloaded once does
+ * not need to be downloaded again when a file is moved, branched or restored.
+ * 
+ * The map is stored in the .git\git-tf-hashes file as fixed size records of
+ * the content hash followed by the blob id. New entries are appended when
+ * {@link #save()} is called, which should only happen once the blobs have been
+ * flushed to the repository.
+ */
+public class ContentHashIndex
+{
+    private static final Log log = LogFactory.getLog(ContentHashIndex.class);
+
+    private static final int CONTENT_HASH_LENGTH = 16;
+    private static final int RECORD_LENGTH = CONTENT_HASH_LENGTH + Constants.OBJECT_ID_LENGTH;
+
+    private final File file;
+    private final ConcurrentMap<ContentHash, ObjectId> blobs = new ConcurrentHashMap<ContentHash, ObjectId>();
+
+    /* Guarded by this */
+    private final List<byte[]> pendingRecords = new ArrayList<byte[]>();
+
+    /*
+     * The length to cut the file back to before appending, when it does not
+     * end on a whole record, or -1. Guarded by this.
+     */
+    private long truncateLength = -1;
+
+    /**
+     * Constructor, loads the existing entries of the repository
+     * 
+     * @param repository
+     *        the git repository
+     */
+    public ContentHashIndex(final Repository repository)
+    {
+        Check.notNull(repository, "repository"); //$NON-NLS-1$
+
+        this.file = new File(repository.getDirectory(), GitTFConstants.GIT_TF_CONTENT_HASHES_NAME);
+
+        try
+        {
+            load();
+        }
+        catch (IOException e)
+        {
+            /* The index is only an optimization, start over */
+            log.warn("Could not read the content hash index", e); //$NON-NLS-1$
+            blobs.clear();
+            truncateLength = 0;
+        }
+    }
+
+    /**
+     * Gets the blob created for the content with the hash specified.
+     * 
+     * @param contentHash
+     *        the MD5 hash of the content, may be <code>null</code>
+     * @return the blob id or <code>null</code> if the content is not known
+     */
+    public ObjectId get(final byte[] contentHash)
+    {
+        if (!isValid(contentHash))
+        {
+            return null;
+        }
+
+        return blobs.get(new ContentHash(contentHash, 0));
+    }
+
+    /**
+     * Records the blob created for the content with the hash specified. The
+     * entry is written to disk by the next call to {@link #save()}.
+     * 
+     * @param contentHash
+     *        the MD5 hash of the content, may be <code>null</code>
+     * @param blobID
+     *        the blob id
+     */
+    public void put(final byte[] contentHash, final ObjectId blobID)
+    {
+        Check.notNull(blobID, "blobID"); //$NON-NLS-1$
+
+        if (!isValid(contentHash) || ObjectId.zeroId().equals(blobID))
+        {
+            return;
+        }
+
+        if (blobs.putIfAbsent(new ContentHash(contentHash, 0), blobID.copy()) == null)
+        {
+            final byte[] record = new byte[RECORD_LENGTH];
+            System.arraycopy(contentHash, 0, record, 0, CONTENT_HASH_LENGTH);
+            blobID.copyRawTo(record, CONTENT_HASH_LENGTH);
+
+            synchronized (this)
+            {
+                pendingRecords.add(record);
+            }
+        }
+    }
+
+    /**
+     * Appends the entries recorded since the last save to the index file.
+     * 
+     * @throws IOException
+     */
+    public synchronized void save()
+        throws IOException
+    {
+        if (pendingRecords.isEmpty())
+        {
+            return;
+        }
+
+        /* Keep the records written from now on aligned */
+        if (truncateLength >= 0)
+        {
+            truncate(truncateLength);
+            truncateLength = -1;
+        }
+
+        final OutputStream out = new BufferedOutputStream(new FileOutputStream(file, true));
+
+        try
+        {
+            for (final byte[] record : pendingRecords)
+            {
+                out.write(record);
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+
+        pendingRecords.clear();
+    }
+
+    private void load()
+        throws IOException
+    {
+        if (!file.isFile())
+        {
+            return;
+        }
+
+        final long length = file.length();
+        final InputStream in = new BufferedInputStream(new FileInputStream(file));
+        final byte[] record = new byte[RECORD_LENGTH];
+        long records = 0;
+
+        try
+        {
+            while (true)
+            {
+                try
+                {
+                    IO.readFully(in, record, 0, RECORD_LENGTH);
+                }
+                catch (EOFException e)
+                {
+                    /* End of file, or a record that was only partly written */
+                    break;
+                }
+
+                blobs.putIfAbsent(
+                    new ContentHash(record, 0),
+                    ObjectId.fromRaw(record, CONTENT_HASH_LENGTH));
+                records++;
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+
+        /*
+         * A record that was only partly written is ignored, and cut off by the
+         * next save so that new records stay aligned.
+         */
+        if (records * RECORD_LENGTH != length)
+        {
+            log.debug("Ignoring a partly written record in the content hash index"); //$NON-NLS-1$
+
+            truncateLength = records * RECORD_LENGTH;
+        }
+    }
+
+    private void truncate(final long length)
+        throws IOException
+    {
+        final RandomAccessFile out = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+
+        try
+        {
+            out.setLength(length);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    private static boolean isValid(final byte[] contentHash)
+    {
+        return contentHash != null && contentHash.length == CONTENT_HASH_LENGTH;
+    }
+
+    /**
+     * A MD5 content hash usable as a map key
+     */
+    private static final class ContentHash
+    {
+        private final long high;
+        private final long low;
+
+        public ContentHash(final byte[] buffer, final int offset)
+        {
+            this.high = NB.decodeInt64(buffer, offset);
+            this.low = NB.decodeInt64(buffer, offset + 8);
+        }
+
+        @Override
+        public boolean equals(final Object obj)
+        {
+            if (!(obj instanceof ContentHash))
+            {
+                return false;
+            }
+
+            final ContentHash other = (ContentHash) obj;
+            return high == other.high && low == other.low;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return (int) low;
+        }
+    }
+}
@@ -24,24 +24,34 @@
 
 package com.microsoft.gittf.core.config;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.eclipse.jgit.internal.storage.file.FileSnapshot;
 import org.eclipse.jgit.lib.ConfigConstants;
 import org.eclipse.jgit.lib.CoreConfig.AutoCRLF;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.storage.file.FileBasedConfig;
+import org.eclipse.jgit.util.SystemReader;
 
 import com.microsoft.gittf.core.GitTFConstants;
 import com.microsoft.gittf.core.Messages;
 import com.microsoft.gittf.core.OutputConstants;
 import com.microsoft.gittf.core.util.Check;
 import com.microsoft.gittf.core.util.StringUtil;
+import com.microsoft.tfs.util.StringHelpers;
 
 /**
  * Configuration data for the git-tf command, read from the .git/config file.
@@ -59,6 +69,14 @@ public class GitTFConfiguration
 {
     private static final Log log = LogFactory.getLog(GitTFConfiguration.class);
 
+    /*
+     * Parsed configuration per repository, shared by every task in the
+     * process. Entries are never handed out directly since the configuration
+     * is mutable; loadFrom returns a copy.
+     */
+    private static final Map<Repository, ConfigurationSnapshot> snapshots =
+        new WeakHashMap<Repository, ConfigurationSnapshot>();
+
     /* Server section parameters */
     private final URI serverURI;
     private final String tfsPath;
@@ -74,6 +92,8 @@ public class GitTFConfiguration
     private String tempDirectory;
     private boolean keepAuthor;
     private String userMap;
+    private String[] includePaths;
+    private String[] excludePaths;
 
     /* Parameter names defined in the local repository config file */
     private final Map<String, Boolean> locallyDefinedNames;
@@ -98,6 +118,11 @@ public class GitTFConfiguration
      *        The default setting for including metadata on changesets
      * @param tempDirectory
      *        The temporary directory to use
+     * @param includePaths
+     *        The patterns of the paths to bridge, or <code>null</code> to
+     *        bridge every path
+     * @param excludePaths
+     *        The patterns of the paths not to bridge, or <code>null</code>
      * @param locallyDefinedNames
      *        Parameter names defined in the local repository config file (must
      *        not be <code>null</code>)
@@ -115,6 +140,8 @@ public class GitTFConfiguration
         final String tempDirectory,
         final boolean keepAuthor,
         final String userMap,
+        final String[] includePaths,
+        final String[] excludePaths,
         final Map<String, Boolean> locallyDefinedNames)
     {
         Check.notNull(serverURI, "serverURI"); //$NON-NLS-1$
@@ -133,6 +160,8 @@ public class GitTFConfiguration
         this.tempDirectory = tempDirectory;
         this.keepAuthor = keepAuthor;
         this.userMap = userMap;
+        this.includePaths = includePaths;
+        this.excludePaths = excludePaths;
         this.locallyDefinedNames = locallyDefinedNames;
     }
 
@@ -159,6 +188,32 @@ public class GitTFConfiguration
         locallyDefinedNames.put(ConfigurationConstants.SERVER_PATH, true);
     }
 
+    /**
+     * Creates a copy of the given configuration.
+     * 
+     * @param configuration
+     *        The configuration to copy (must not be <code>null</code>)
+     */
+    private GitTFConfiguration(final GitTFConfiguration configuration)
+    {
+        this(
+            configuration.serverURI,
+            configuration.tfsPath,
+            configuration.username,
+            configuration.password,
+            configuration.deep,
+            configuration.tag,
+            configuration.includeMetaData,
+            configuration.fileFormatVersion,
+            configuration.buildDefinition,
+            configuration.tempDirectory,
+            configuration.keepAuthor,
+            configuration.userMap,
+            configuration.includePaths,
+            configuration.excludePaths,
+            new HashMap<String, Boolean>(configuration.locallyDefinedNames));
+    }
+
     /**
      * @return The URI of the TFS server (never <code>null</code>)
      */
@@ -298,6 +353,24 @@ public class GitTFConfiguration
         return userMap;
     }
 
+    /**
+     * @return The patterns of the paths under the server path that are
+     *         bridged, or <code>null</code> if every path is bridged
+     */
+    public String[] getIncludePaths()
+    {
+        return includePaths != null ? includePaths.clone() : null;
+    }
+
+    /**
+     * @return The patterns of the paths under the server path that are not
+     *         bridged, or <code>null</code> if no path is excluded
+     */
+    public String[] getExcludePaths()
+    {
+        return excludePaths != null ? excludePaths.clone() : null;
+    }
+
     /*
      * Configuration field setters. Each setter keeps track that the field has
      * changed along with changig the fields value
@@ -362,6 +435,18 @@ public class GitTFConfiguration
         locallyDefinedNames.put(ConfigurationConstants.USER_MAP, true);
     }
 
+    public void setIncludePaths(final String[] includePaths)
+    {
+        this.includePaths = includePaths != null ? includePaths.clone() : null;
+        locallyDefinedNames.put(ConfigurationConstants.INCLUDE, true);
+    }
+
+    public void setExcludePaths(final String[] excludePaths)
+    {
+        this.excludePaths = excludePaths != null ? excludePaths.clone() : null;
+        locallyDefinedNames.put(ConfigurationConstants.EXCLUDE, true);
+    }
+
     /**
      * Checks if the specified parameter has been explicitly defined in the
      * local config file or has to be saved in that config file.
@@ -391,6 +476,8 @@ public class GitTFConfiguration
     {
         Check.notNull(repository, "repository"); //$NON-NLS-1$
 
+        invalidate(repository);
+
         repository.getConfig().setString(
             ConfigurationConstants.CONFIGURATION_SECTION,
             ConfigurationConstants.SERVER_SUBSECTION,
@@ -418,7 +505,7 @@ public class GitTFConfiguration
                 ConfigurationConstants.CONFIGURATION_SECTION,
                 ConfigurationConstants.GENERAL_SUBSECTION,
                 ConfigurationConstants.FILE_FORMAT_VERSION,
-                GitTFConstants.GIT_TF_CURRENT_FORMAT_VERSION);
+                fileFormatVersion);
         }
 
         if (isLocallyDefined(ConfigurationConstants.TAG))
@@ -467,6 +554,16 @@ public class GitTFConfiguration
             }
         }
 
+        if (isLocallyDefined(ConfigurationConstants.INCLUDE))
+        {
+            savePaths(repository, ConfigurationConstants.INCLUDE, includePaths);
+        }
+
+        if (isLocallyDefined(ConfigurationConstants.EXCLUDE))
+        {
+            savePaths(repository, ConfigurationConstants.EXCLUDE, excludePaths);
+        }
+
         if (isLocallyDefined(ConfigurationConstants.GATED_BUILD_DEFINITION)
             && !StringUtil.isNullOrEmpty(buildDefinition))
         {
@@ -523,6 +620,25 @@ public class GitTFConfiguration
         return true;
     }
 
+    private static void savePaths(final Repository repository, final String name, final String[] paths)
+    {
+        if (paths != null && paths.length > 0)
+        {
+            repository.getConfig().setStringList(
+                ConfigurationConstants.CONFIGURATION_SECTION,
+                ConfigurationConstants.GENERAL_SUBSECTION,
+                name,
+                Arrays.asList(paths));
+        }
+        else
+        {
+            repository.getConfig().unset(
+                ConfigurationConstants.CONFIGURATION_SECTION,
+                ConfigurationConstants.GENERAL_SUBSECTION,
+                name);
+        }
+    }
+
     @Override
     public String toString()
     {
@@ -531,6 +647,16 @@ public class GitTFConfiguration
         result.append(Messages.formatString("GitTFConfiguration.ToString.ServerURIFormat", this.serverURI) + OutputConstants.NEW_LINE); //$NON-NLS-1$
         result.append(Messages.formatString("GitTFConfiguration.ToString.TfsPathFormat", this.tfsPath) + OutputConstants.NEW_LINE); //$NON-NLS-1$
 
+        if (includePaths != null && includePaths.length > 0)
+        {
+            result.append(Messages.formatString("GitTFConfiguration.ToString.IncludePathsFormat", StringHelpers.join(includePaths, ", ")) + OutputConstants.NEW_LINE); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+
+        if (excludePaths != null && excludePaths.length > 0)
+        {
+            result.append(Messages.formatString("GitTFConfiguration.ToString.ExcludePathsFormat", StringHelpers.join(excludePaths, ", ")) + OutputConstants.NEW_LINE); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+
         if (!StringUtil.isNullOrEmpty(buildDefinition))
         {
             result.append(Messages.formatString("GitTFConfiguration.ToString.GatedBuildFormat", this.buildDefinition) + OutputConstants.NEW_LINE); //$NON-NLS-1$
@@ -567,7 +693,10 @@ public class GitTFConfiguration
     }
 
     /**
-     * Loads the git-tf configuration from the given git repository.
+     * Loads the git-tf configuration from the given git repository. The parsed
+     * configuration is cached per repository and is only read again when one
+     * of the repository, user or system config files changes on disk, so this
+     * is cheap enough to call once per task.
      * 
      * @param repository
      *        The {@link Repository} to load git-tf configuration data from
@@ -579,6 +708,43 @@ public class GitTFConfiguration
     {
         Check.notNull(repository, "repository"); //$NON-NLS-1$
 
+        ConfigurationSnapshot snapshot;
+
+        synchronized (snapshots)
+        {
+            snapshot = snapshots.get(repository);
+        }
+
+        if (snapshot == null || snapshot.isModified())
+        {
+            /*
+             * Stat the config files before reading them so that a change made
+             * while reading is noticed by the next call.
+             */
+            final File[] files = getConfigFiles(repository);
+            final FileSnapshot[] fileSnapshots = new FileSnapshot[files.length];
+
+            for (int i = 0; i < files.length; i++)
+            {
+                fileSnapshots[i] = FileSnapshot.save(files[i]);
+            }
+
+            snapshot = new ConfigurationSnapshot(readFrom(repository), files, fileSnapshots);
+
+            if (files.length > 0)
+            {
+                synchronized (snapshots)
+                {
+                    snapshots.put(repository, snapshot);
+                }
+            }
+        }
+
+        return snapshot.configuration != null ? new GitTFConfiguration(snapshot.configuration) : null;
+    }
+
+    private static GitTFConfiguration readFrom(final Repository repository)
+    {
         final String projectCollection =
             repository.getConfig().getString(
                 ConfigurationConstants.CONFIGURATION_SECTION,
@@ -656,6 +822,18 @@ public class GitTFConfiguration
                 ConfigurationConstants.GENERAL_SUBSECTION,
                 ConfigurationConstants.USER_MAP);
 
+        final String[] includePaths =
+            repository.getConfig().getStringList(
+                ConfigurationConstants.CONFIGURATION_SECTION,
+                ConfigurationConstants.GENERAL_SUBSECTION,
+                ConfigurationConstants.INCLUDE);
+
+        final String[] excludePaths =
+            repository.getConfig().getStringList(
+                ConfigurationConstants.CONFIGURATION_SECTION,
+                ConfigurationConstants.GENERAL_SUBSECTION,
+                ConfigurationConstants.EXCLUDE);
+
         if (projectCollection == null)
         {
             log.error("No project collection configuration in repository"); //$NON-NLS-1$
@@ -710,6 +888,8 @@ public class GitTFConfiguration
             tempDirectory,
             keepAuthor,
             userMap,
+            includePaths.length > 0 ? includePaths : null,
+            excludePaths.length > 0 ? excludePaths : null,
             isDefined);
     }
 
@@ -724,6 +904,8 @@ public class GitTFConfiguration
     {
         Check.notNull(repository, "repository"); //$NON-NLS-1$
 
+        invalidate(repository);
+
         repository.getConfig().unsetSection(
             ConfigurationConstants.CONFIGURATION_SECTION,
             ConfigurationConstants.SERVER_SUBSECTION);
@@ -732,4 +914,81 @@ public class GitTFConfiguration
             ConfigurationConstants.CONFIGURATION_SECTION,
             ConfigurationConstants.GENERAL_SUBSECTION);
     }
+
+    private static void invalidate(final Repository repository)
+    {
+        synchronized (snapshots)
+        {
+            snapshots.remove(repository);
+        }
+    }
+
+    /**
+     * Returns the config files the repository configuration is read from: the
+     * repository config file and the user and system config files located by
+     * the {@link SystemReader} the repository opened them with. An empty array
+     * is returned when the repository configuration is not file based, in
+     * which case it is never cached.
+     */
+    private static File[] getConfigFiles(final Repository repository)
+    {
+        final StoredConfig repositoryConfig = repository.getConfig();
+
+        if (!(repositoryConfig instanceof FileBasedConfig))
+        {
+            return new File[0];
+        }
+
+        final List<File> files = new ArrayList<File>();
+        final SystemReader systemReader = SystemReader.getInstance();
+
+        addConfigFile(files, ((FileBasedConfig) repositoryConfig).getFile());
+        addConfigFile(files, systemReader.openUserConfig(null, repository.getFS()).getFile());
+        addConfigFile(files, systemReader.openSystemConfig(null, repository.getFS()).getFile());
+
+        return files.toArray(new File[files.size()]);
+    }
+
+    private static void addConfigFile(final List<File> files, final File file)
+    {
+        /* There is no system config file when git is not installed */
+        if (file != null)
+        {
+            files.add(file);
+        }
+    }
+
+    /**
+     * An immutable configuration read from a repository along with the state
+     * of the config files at the time they were read.
+     */
+    private static final class ConfigurationSnapshot
+    {
+        private final GitTFConfiguration configuration;
+        private final File[] files;
+        private final FileSnapshot[] fileSnapshots;
+
+        public ConfigurationSnapshot(
+            final GitTFConfiguration configuration,
+            final File[] files,
+            final FileSnapshot[] fileSnapshots)
+        {
+            this.configuration = configuration;
+            this.files = files;
+            this.fileSnapshots = fileSnapshots;
+        }
+
+        public boolean isModified()
+        {
+            for (int i = 0; i < files.length; i++)
+            {
+                if (fileSnapshots[i].isModified(files[i]))
+                {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
 }
@@ -0,0 +1,181 @@
+/***********************************************************************************************
+ * Copyright (c) Microsoft Corporation All rights reserved.
+ * 
+ * MIT License:
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ***********************************************************************************************/
+package com.microsoft.gittf.core.config;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.RefUpdate.Result;
+import org.eclipse.jgit.lib.Repository;
+
+import com.microsoft.gittf.core.GitTFConstants;
+import com.microsoft.gittf.core.Messages;
+import com.microsoft.gittf.core.util.Check;
+import com.microsoft.gittf.core.util.ItemManifest;
+import com.microsoft.gittf.core.util.PathFilter;
+
+/**
+ * Keeps the item manifest of the last commit created from a changeset, so
+ * that the next fetch does not need to list the items of that changeset from
+ * the server again.
+ * 
+ * The manifest is stored as a blob, prefixed with the id of the commit it
+ * describes and the path filter its items were selected with, and referenced
+ * by the {@link GitTFConstants#GIT_TF_MANIFEST_REF} ref. A manifest is only
+ * returned for the commit and path filter it was saved with.
+ */
+public final class ItemManifestStore
+{
+    private ItemManifestStore()
+    {
+    }
+
+    /**
+     * Saves the manifest of a commit, replacing the manifest saved before.
+     * 
+     * @param repository
+     *        the git repository
+     * @param commitID
+     *        the commit the manifest describes
+     * @param pathFilter
+     *        the filter the items of the commit were selected with
+     * @param manifest
+     *        the manifest of the items of the commit
+     * @throws IOException
+     */
+    public static void save(
+        final Repository repository,
+        final AnyObjectId commitID,
+        final PathFilter pathFilter,
+        final ItemManifest manifest)
+        throws IOException
+    {
+        Check.notNull(repository, "repository"); //$NON-NLS-1$
+        Check.notNull(commitID, "commitID"); //$NON-NLS-1$
+        Check.notNull(pathFilter, "pathFilter"); //$NON-NLS-1$
+        Check.notNull(manifest, "manifest"); //$NON-NLS-1$
+
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(buffer);
+
+        final byte[] rawCommitID = new byte[Constants.OBJECT_ID_LENGTH];
+        commitID.copyRawTo(rawCommitID, 0);
+
+        out.write(rawCommitID);
+        out.writeUTF(pathFilter.toString());
+        manifest.write(out);
+        out.flush();
+
+        final ObjectInserter inserter = repository.newObjectInserter();
+        final ObjectId blobID;
+
+        try
+        {
+            blobID = inserter.insert(Constants.OBJ_BLOB, buffer.toByteArray());
+            inserter.flush();
+        }
+        finally
+        {
+            inserter.release();
+        }
+
+        final RefUpdate update = repository.updateRef(GitTFConstants.GIT_TF_MANIFEST_REF);
+        update.setNewObjectId(blobID);
+        update.disableRefLog();
+
+        final Result result = update.forceUpdate();
+
+        if (result != Result.NEW && result != Result.FORCED && result != Result.NO_CHANGE)
+        {
+            throw new IOException(Messages.formatString("ItemManifestStore.CouldNotUpdateRefFormat", //$NON-NLS-1$
+                GitTFConstants.GIT_TF_MANIFEST_REF,
+                result.name()));
+        }
+    }
+
+    /**
+     * Loads the manifest of a commit.
+     * 
+     * @param repository
+     *        the git repository
+     * @param serverPath
+     *        the server path the commit was created from
+     * @param pathFilter
+     *        the filter the items must have been selected with
+     * @param commitID
+     *        the commit to load the manifest of
+     * @return the manifest, or <code>null</code> if no manifest was saved for
+     *         the commit and path filter
+     * @throws IOException
+     */
+    public static ItemManifest load(
+        final Repository repository,
+        final String serverPath,
+        final PathFilter pathFilter,
+        final AnyObjectId commitID)
+        throws IOException
+    {
+        Check.notNull(repository, "repository"); //$NON-NLS-1$
+        Check.notNullOrEmpty(serverPath, "serverPath"); //$NON-NLS-1$
+        Check.notNull(pathFilter, "pathFilter"); //$NON-NLS-1$
+        Check.notNull(commitID, "commitID"); //$NON-NLS-1$
+
+        final Ref ref = repository.getRef(GitTFConstants.GIT_TF_MANIFEST_REF);
+
+        if (ref == null || ref.getObjectId() == null)
+        {
+            return null;
+        }
+
+        final DataInputStream in =
+            new DataInputStream(new BufferedInputStream(repository.open(ref.getObjectId(), Constants.OBJ_BLOB)
+                .openStream()));
+
+        try
+        {
+            final byte[] rawCommitID = new byte[Constants.OBJECT_ID_LENGTH];
+            in.readFully(rawCommitID);
+
+            if (!ObjectId.fromRaw(rawCommitID).equals(commitID) || !pathFilter.toString().equals(in.readUTF()))
+            {
+                return null;
+            }
+
+            return ItemManifest.read(serverPath, in);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+}
@@ -24,10 +24,16 @@
 
 package com.microsoft.gittf.core.impl;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
+import com.microsoft.gittf.core.GitTFConstants;
 import com.microsoft.gittf.core.interfaces.VersionControlService;
 import com.microsoft.gittf.core.util.Check;
+import com.microsoft.gittf.core.util.StringUtil;
 import com.microsoft.tfs.core.clients.versioncontrol.GetItemsOptions;
 import com.microsoft.tfs.core.clients.versioncontrol.VersionControlClient;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Changeset;
@@ -38,6 +44,7 @@ import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.PendingChang
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.PendingSet;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.RecursionType;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Shelveset;
+import com.microsoft.tfs.core.clients.versioncontrol.specs.DownloadSpec;
 import com.microsoft.tfs.core.clients.versioncontrol.specs.version.ChangesetVersionSpec;
 import com.microsoft.tfs.core.clients.versioncontrol.specs.version.VersionSpec;
 
@@ -75,20 +82,85 @@ public class TfsVersionControlService
         return versionControlClient.getItems(path, version, recursion, DeletedState.NON_DELETED, ItemType.ANY, true).getItems();
     }
 
-    public void downloadFile(Item item, String downloadTo)
+    public boolean downloadFile(Item item, OutputStream outputStream)
         throws IOException
     {
-        item.downloadFile(versionControlClient, downloadTo);
+        if (StringUtil.isNullOrEmpty(item.getDownloadURL()))
+        {
+            /*
+             * The item was queried without download information, let the item
+             * resolve its download URL itself
+             */
+            copyAndDelete(item.downloadFileToTempLocation(versionControlClient, GitTFConstants.GIT_TF_NAME), outputStream);
+            return true;
+        }
+
+        versionControlClient.downloadFileToStream(new DownloadSpec(item.getDownloadURL()), outputStream, true);
+        return true;
     }
 
-    public void downloadShelvedFile(PendingChange shelvedChange, String downloadTo)
+    public boolean downloadShelvedFile(PendingChange shelvedChange, OutputStream outputStream)
+        throws IOException
     {
-        shelvedChange.downloadShelvedFile(versionControlClient, downloadTo);
+        if (StringUtil.isNullOrEmpty(shelvedChange.getShelvedDownloadURL()))
+        {
+            shelvedChange.updateMissingProperties(versionControlClient);
+        }
+
+        if (StringUtil.isNullOrEmpty(shelvedChange.getShelvedDownloadURL()))
+        {
+            return false;
+        }
+
+        versionControlClient.downloadFileToStream(
+            new DownloadSpec(shelvedChange.getShelvedDownloadURL()),
+            outputStream,
+            true);
+        return true;
     }
 
-    public void downloadBaseFile(PendingChange pendingChange, String downloadTo)
+    public boolean downloadBaseFile(PendingChange pendingChange, OutputStream outputStream)
+        throws IOException
     {
-        pendingChange.downloadBaseFile(versionControlClient, downloadTo);
+        if (StringUtil.isNullOrEmpty(pendingChange.getDownloadURL()))
+        {
+            pendingChange.updateMissingProperties(versionControlClient);
+        }
+
+        if (StringUtil.isNullOrEmpty(pendingChange.getDownloadURL()))
+        {
+            return false;
+        }
+
+        versionControlClient.downloadFileToStream(new DownloadSpec(pendingChange.getDownloadURL()), outputStream, true);
+        return true;
+    }
+
+    private static void copyAndDelete(final File file, final OutputStream outputStream)
+        throws IOException
+    {
+        if (file == null)
+        {
+            return;
+        }
+
+        final InputStream inputStream = new FileInputStream(file);
+
+        try
+        {
+            final byte[] buffer = new byte[8192];
+            int read;
+
+            while ((read = inputStream.read(buffer)) != -1)
+            {
+                outputStream.write(buffer, 0, read);
+            }
+        }
+        finally
+        {
+            inputStream.close();
+            file.delete();
+        }
     }
 
     public Changeset getChangeset(int changesetID)
@@ -96,6 +168,11 @@ public class TfsVersionControlService
         return versionControlClient.getChangeset(changesetID);
     }
 
+    public Changeset getChangeset(int changesetID, boolean includeChanges, boolean includeDownloadInfo)
+    {
+        return versionControlClient.getChangeset(changesetID, includeChanges, includeDownloadInfo, null, null);
+    }
+
     public Changeset[] queryHistory(
         String serverOrLocalPath,
         VersionSpec version,
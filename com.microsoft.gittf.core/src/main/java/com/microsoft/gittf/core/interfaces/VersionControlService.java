@@ -25,6 +25,7 @@
 package com.microsoft.gittf.core.interfaces;
 
 import java.io.IOException;
+import java.io.OutputStream;
 
 import com.microsoft.tfs.core.clients.versioncontrol.GetItemsOptions;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Changeset;
@@ -43,15 +44,65 @@ public interface VersionControlService
 
     Item[] getItems(String path, ChangesetVersionSpec version, RecursionType recursion);
 
-    void downloadFile(Item item, String downloadTo)
+    /**
+     * Streams the content of the item to the output stream specified.
+     * 
+     * @param item
+     *        the item to download
+     * @param outputStream
+     *        the stream to write the content to (not closed)
+     * @return <code>true</code> if content was written, <code>false</code> if
+     *         the server has no content for the item
+     * @throws IOException
+     */
+    boolean downloadFile(Item item, OutputStream outputStream)
         throws IOException;
 
-    void downloadShelvedFile(PendingChange shelvedChange, String downloadTo);
+    /**
+     * Streams the shelved content of the pending change to the output stream
+     * specified.
+     * 
+     * @param shelvedChange
+     *        the shelved change to download
+     * @param outputStream
+     *        the stream to write the content to (not closed)
+     * @return <code>true</code> if content was written, <code>false</code> if
+     *         the server has no content for the change
+     * @throws IOException
+     */
+    boolean downloadShelvedFile(PendingChange shelvedChange, OutputStream outputStream)
+        throws IOException;
 
-    void downloadBaseFile(PendingChange pendingChange, String downloadTo);
+    /**
+     * Streams the base content of the pending change to the output stream
+     * specified.
+     * 
+     * @param pendingChange
+     *        the pending change to download the base content of
+     * @param outputStream
+     *        the stream to write the content to (not closed)
+     * @return <code>true</code> if content was written, <code>false</code> if
+     *         the server has no content for the change
+     * @throws IOException
+     */
+    boolean downloadBaseFile(PendingChange pendingChange, OutputStream outputStream)
+        throws IOException;
 
     Changeset getChangeset(int changesetID);
 
+    /**
+     * Gets a changeset along with the changes it made.
+     * 
+     * @param changesetID
+     *        the changeset to get
+     * @param includeChanges
+     *        whether to include the changes of the changeset
+     * @param includeDownloadInfo
+     *        whether the items of the changes should include download URLs
+     * @return the changeset or <code>null</code> if it does not exist
+     */
+    Changeset getChangeset(int changesetID, boolean includeChanges, boolean includeDownloadInfo);
+
     Changeset[] queryHistory(
         String serverOrLocalPath,
         VersionSpec version,
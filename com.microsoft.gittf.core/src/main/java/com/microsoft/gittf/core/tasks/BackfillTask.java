@@ -0,0 +1,474 @@
+/***********************************************************************************************
+ * Copyright (c) Microsoft Corporation All rights reserved.
+ * 
+ * MIT License:
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ***********************************************************************************************/
+
+package com.microsoft.gittf.core.tasks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.RefUpdate.Result;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+import com.microsoft.gittf.core.GitTFConstants;
+import com.microsoft.gittf.core.Messages;
+import com.microsoft.gittf.core.config.ChangesetCommitBatch;
+import com.microsoft.gittf.core.config.ChangesetCommitMap;
+import com.microsoft.gittf.core.config.ContentHashIndex;
+import com.microsoft.gittf.core.config.GitTFConfiguration;
+import com.microsoft.gittf.core.interfaces.VersionControlService;
+import com.microsoft.gittf.core.tasks.framework.Task;
+import com.microsoft.gittf.core.tasks.framework.TaskExecutor;
+import com.microsoft.gittf.core.tasks.framework.TaskProgressDisplay;
+import com.microsoft.gittf.core.tasks.framework.TaskProgressMonitor;
+import com.microsoft.gittf.core.tasks.framework.TaskStatus;
+import com.microsoft.gittf.core.util.ChangesetHistory;
+import com.microsoft.gittf.core.util.ChangesetPrefetcher;
+import com.microsoft.gittf.core.util.Check;
+import com.microsoft.gittf.core.util.DirectoryUtil;
+import com.microsoft.gittf.core.util.EnvironmentUtil;
+import com.microsoft.gittf.core.util.ItemManifest;
+import com.microsoft.gittf.core.util.ObjectIdUtil;
+import com.microsoft.gittf.core.util.PackObjectInserter;
+import com.microsoft.gittf.core.util.PathFilter;
+import com.microsoft.gittf.core.util.WorkItemResolver;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Changeset;
+import com.microsoft.tfs.core.clients.workitem.WorkItemClient;
+
+/**
+ * Imports the changesets that precede the oldest commit of a repository that
+ * was cloned shallowly, so that the tip can be checked out and used before the
+ * older changesets have been downloaded.
+ * 
+ * The older changesets are imported oldest first into a separate chain of
+ * commits, which is then grafted beneath the root commit of the existing
+ * history with a replacement ref (refs/replace/&lt;root commit&gt;). The
+ * existing commits keep their ids, so branches, tags and the changeset commit
+ * map stay valid. Git shows the full history through the replacement, while
+ * git-tf keeps working on the existing commits only.
+ * 
+ * The last imported commit is recorded in
+ * {@link GitTFConstants#GIT_TF_BACKFILL_REF} every GITTF_BACKFILL_CHECKPOINT
+ * changesets (100 by default), so an interrupted backfill continues from
+ * there when it is run again.
+ */
+public class BackfillTask
+    extends Task
+{
+    private static final String CHECKPOINT_INTERVAL_NAME = "GITTF_BACKFILL_CHECKPOINT"; //$NON-NLS-1$
+    private static final int DEFAULT_CHECKPOINT_INTERVAL = 100;
+
+    private static final String R_REPLACE = "refs/replace/"; //$NON-NLS-1$
+
+    private static final Log log = LogFactory.getLog(BackfillTask.class);
+
+    private final Repository repository;
+    private final VersionControlService versionControlClient;
+    private final WorkItemClient witClient;
+
+    private int backfilledChangesetCount = 0;
+
+    public BackfillTask(final Repository repository, final VersionControlService versionControlClient)
+    {
+        this(repository, versionControlClient, null);
+    }
+
+    public BackfillTask(
+        final Repository repository,
+        final VersionControlService versionControlClient,
+        final WorkItemClient witClient)
+    {
+        Check.notNull(repository, "repository"); //$NON-NLS-1$
+        Check.notNull(versionControlClient, "versionControlClient"); //$NON-NLS-1$
+
+        this.repository = repository;
+        this.versionControlClient = versionControlClient;
+        this.witClient = witClient;
+    }
+
+    /**
+     * @return the number of changesets imported by this task, which does not
+     *         include the changesets imported before an interrupted backfill
+     *         was resumed
+     */
+    public int getBackfilledChangesetCount()
+    {
+        return backfilledChangesetCount;
+    }
+
+    @Override
+    public TaskStatus run(final TaskProgressMonitor progressMonitor)
+        throws Exception
+    {
+        final GitTFConfiguration configuration = GitTFConfiguration.loadFrom(repository);
+        final String serverPath = configuration.getServerPath();
+        final ChangesetCommitMap changesetCommitMap = new ChangesetCommitMap(repository);
+
+        final RevCommit rootCommit = findRootCommit(changesetCommitMap);
+        final int rootChangesetID = rootCommit != null ? changesetCommitMap.getChangesetID(rootCommit) : -1;
+
+        if (rootChangesetID <= 0)
+        {
+            progressMonitor.displayMessage(Messages.getString("BackfillTask.NothingToBackfill")); //$NON-NLS-1$
+            return TaskStatus.OK_STATUS;
+        }
+
+        progressMonitor.beginTask(
+            Messages.formatString("BackfillTask.BackfillingFormat", serverPath, Integer.toString(rootChangesetID)), //$NON-NLS-1$
+            1,
+            TaskProgressDisplay.DISPLAY_PROGRESS.combine(TaskProgressDisplay.DISPLAY_SUBTASK_DETAIL));
+
+        /* Continue after the last checkpoint of an interrupted backfill */
+        ObjectId lastCommitID = null;
+        int lastChangesetID = -1;
+
+        final Ref progressRef = repository.getRef(GitTFConstants.GIT_TF_BACKFILL_REF);
+        if (progressRef != null && progressRef.getObjectId() != null)
+        {
+            final int changesetID = changesetCommitMap.getChangesetID(progressRef.getObjectId());
+
+            if (changesetID >= 0 && changesetID < rootChangesetID)
+            {
+                log.info(MessageFormat.format("Resuming the backfill after changeset {0}", //$NON-NLS-1$
+                    Integer.toString(changesetID)));
+
+                lastCommitID = progressRef.getObjectId();
+                lastChangesetID = changesetID;
+            }
+        }
+
+        final ChangesetHistory history =
+            new ChangesetHistory(versionControlClient, serverPath, lastChangesetID + 1, rootChangesetID - 1);
+
+        progressMonitor.setWork(history.getWork());
+
+        final ContentHashIndex contentHashIndex = new ContentHashIndex(repository);
+        final PathFilter pathFilter = PathFilter.create(configuration);
+
+        final PackObjectInserter inserter =
+            PackObjectInserter.isSupported(repository) ? new PackObjectInserter(repository) : null;
+        final ChangesetCommitBatch changesetCommitBatch = new ChangesetCommitBatch(repository, inserter);
+        changesetCommitBatch.setContentHashIndex(contentHashIndex);
+
+        final int checkpointInterval =
+            EnvironmentUtil.getPositiveInt(CHECKPOINT_INTERVAL_NAME, DEFAULT_CHECKPOINT_INTERVAL);
+
+        /*
+         * The tree of a resumed backfill is built in full, the manifest of the
+         * checkpoint commit is not kept.
+         */
+        ObjectId lastTreeID = null;
+        ItemManifest previousManifest = null;
+
+        /* The titles of mentioned work items are kept across the pages */
+        final WorkItemResolver.TitleCache workItemTitles = new WorkItemResolver.TitleCache();
+
+        try
+        {
+            Changeset[] changesetsToDownload;
+
+            while ((changesetsToDownload = history.nextPage()).length > 0)
+            {
+                final ChangesetPrefetcher prefetcher =
+                    new ChangesetPrefetcher(
+                        versionControlClient,
+                        serverPath,
+                        changesetsToDownload,
+                        DirectoryUtil.getTempDir(repository));
+
+                prefetcher.setContentHashIndex(contentHashIndex);
+                prefetcher.setPathFilter(pathFilter);
+
+                WorkItemResolver workItemResolver = null;
+                if (witClient != null)
+                {
+                    final int[] changesetIDs = new int[changesetsToDownload.length];
+                    for (int i = 0; i < changesetsToDownload.length; i++)
+                    {
+                        changesetIDs[i] = changesetsToDownload[i].getChangesetID();
+                    }
+
+                    workItemResolver = new WorkItemResolver(witClient, changesetIDs, workItemTitles);
+                }
+
+                try
+                {
+                    prefetcher.start(previousManifest != null && lastTreeID != null);
+
+                    if (workItemResolver != null)
+                    {
+                        workItemResolver.start();
+                    }
+
+                    for (int i = 0; i < changesetsToDownload.length; i++)
+                    {
+                        final CreateCommitForChangesetVersionSpecTask commitTask =
+                            new CreateCommitForChangesetVersionSpecTask(
+                                repository,
+                                versionControlClient,
+                                changesetsToDownload[i],
+                                previousManifest,
+                                lastCommitID,
+                                witClient);
+                        commitTask.setPrefetchedListing(prefetcher.getListing(i));
+                        commitTask.setItemDownloader(prefetcher.getDownloader());
+                        commitTask.setParentTreeID(lastTreeID);
+                        commitTask.setContentHashIndex(contentHashIndex);
+                        commitTask.setObjectInserter(inserter);
+                        commitTask.setWorkItemResolver(workItemResolver);
+
+                        final int work = history.getWork(changesetsToDownload[i]);
+                        final TaskStatus commitStatus =
+                            new TaskExecutor(progressMonitor.newSubTask(work)).execute(commitTask);
+
+                        if (!commitStatus.isOK())
+                        {
+                            /* Keep the changesets that were imported */
+                            changesetCommitBatch.commit();
+                            saveCheckpoint(lastCommitID);
+
+                            return commitStatus;
+                        }
+
+                        lastCommitID = commitTask.getCommitID();
+                        lastTreeID = commitTask.getCommitTreeID();
+                        previousManifest = commitTask.getCommittedManifest();
+
+                        Check.notNull(lastCommitID, "lastCommitID"); //$NON-NLS-1$
+                        Check.notNull(lastTreeID, "lastTreeID"); //$NON-NLS-1$
+
+                        /* The changesets are older than the HWM, which is kept */
+                        changesetCommitBatch.add(changesetsToDownload[i].getChangesetID(), lastCommitID, false);
+                        backfilledChangesetCount++;
+
+                        progressMonitor.displayVerbose(Messages.formatString("BackfillTask.BackfilledChangesetFormat", //$NON-NLS-1$
+                            Integer.toString(changesetsToDownload[i].getChangesetID()),
+                            ObjectIdUtil.abbreviate(repository, lastCommitID)));
+
+                        if (backfilledChangesetCount % checkpointInterval == 0)
+                        {
+                            changesetCommitBatch.commit();
+                            saveCheckpoint(lastCommitID);
+                        }
+                    }
+                }
+                finally
+                {
+                    prefetcher.close();
+
+                    if (workItemResolver != null)
+                    {
+                        workItemResolver.close();
+                    }
+                }
+            }
+
+            changesetCommitBatch.commit();
+            saveCheckpoint(lastCommitID);
+        }
+        finally
+        {
+            if (inserter != null)
+            {
+                inserter.release();
+            }
+        }
+
+        if (lastCommitID == null)
+        {
+            progressMonitor.endTask();
+            progressMonitor.displayMessage(Messages.getString("BackfillTask.NothingToBackfill")); //$NON-NLS-1$
+
+            return TaskStatus.OK_STATUS;
+        }
+
+        graft(rootCommit, lastCommitID);
+        deleteCheckpoint();
+
+        progressMonitor.endTask();
+
+        progressMonitor.displayMessage(Messages.formatString("BackfillTask.BackfilledFormat", //$NON-NLS-1$
+            Integer.toString(backfilledChangesetCount),
+            Integer.toString(rootChangesetID),
+            ObjectIdUtil.abbreviate(repository, rootCommit)));
+
+        log.info("Backfill task completed."); //$NON-NLS-1$
+
+        return TaskStatus.OK_STATUS;
+    }
+
+    /**
+     * Follows the first parents of the last bridged commit to the root of its
+     * history.
+     * 
+     * @param changesetCommitMap
+     *        the changeset commit map
+     * @return the root commit, or <code>null</code> if nothing has been
+     *         bridged or the history has already been grafted
+     * @throws IOException
+     */
+    private RevCommit findRootCommit(final ChangesetCommitMap changesetCommitMap)
+        throws IOException
+    {
+        final int lastChangesetID = changesetCommitMap.getLastBridgedChangesetID(true);
+
+        if (lastChangesetID < 0)
+        {
+            return null;
+        }
+
+        final ObjectId lastCommitID = changesetCommitMap.getCommitID(lastChangesetID, true);
+
+        if (lastCommitID == null)
+        {
+            return null;
+        }
+
+        final Map<String, Ref> replaceRefs = repository.getRefDatabase().getRefs(R_REPLACE);
+        final RevWalk revWalk = new RevWalk(repository);
+
+        try
+        {
+            RevCommit commit = revWalk.parseCommit(lastCommitID);
+
+            while (!replaceRefs.containsKey(commit.name()))
+            {
+                if (commit.getParentCount() == 0)
+                {
+                    return commit;
+                }
+
+                commit = revWalk.parseCommit(commit.getParent(0));
+            }
+
+            return null;
+        }
+        finally
+        {
+            revWalk.release();
+        }
+    }
+
+    /**
+     * Replaces the root commit with a copy that has the backfilled history as
+     * its parent.
+     * 
+     * @param rootCommit
+     *        the root commit of the existing history
+     * @param parentCommitID
+     *        the last backfilled commit
+     * @throws IOException
+     */
+    private void graft(final RevCommit rootCommit, final ObjectId parentCommitID)
+        throws IOException
+    {
+        /*
+         * The copy is the raw root commit with a parent line inserted after the
+         * tree line, so that it differs from the root commit in nothing else.
+         */
+        final byte[] raw = rootCommit.getRawBuffer();
+        final int treeLineLength = "tree ".length() + Constants.OBJECT_ID_STRING_LENGTH + 1; //$NON-NLS-1$
+
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(raw.length + treeLineLength + 2);
+        buffer.write(raw, 0, treeLineLength);
+        buffer.write(Constants.encodeASCII("parent " + parentCommitID.name() + "\n")); //$NON-NLS-1$ //$NON-NLS-2$
+        buffer.write(raw, treeLineLength, raw.length - treeLineLength);
+
+        final ObjectInserter inserter = repository.newObjectInserter();
+        final ObjectId replacementID;
+
+        try
+        {
+            replacementID = inserter.insert(Constants.OBJ_COMMIT, buffer.toByteArray());
+            inserter.flush();
+        }
+        finally
+        {
+            inserter.release();
+        }
+
+        updateRef(R_REPLACE + rootCommit.name(), replacementID);
+    }
+
+    private void saveCheckpoint(final ObjectId commitID)
+        throws IOException
+    {
+        if (commitID != null)
+        {
+            updateRef(GitTFConstants.GIT_TF_BACKFILL_REF, commitID);
+        }
+    }
+
+    private void deleteCheckpoint()
+        throws IOException
+    {
+        if (repository.getRef(GitTFConstants.GIT_TF_BACKFILL_REF) == null)
+        {
+            return;
+        }
+
+        final RefUpdate update = repository.updateRef(GitTFConstants.GIT_TF_BACKFILL_REF);
+        update.setForceUpdate(true);
+        update.disableRefLog();
+
+        final Result result = update.delete();
+
+        if (result != Result.FORCED && result != Result.NO_CHANGE)
+        {
+            throw new IOException(Messages.formatString("BackfillTask.CouldNotUpdateRefFormat", //$NON-NLS-1$
+                GitTFConstants.GIT_TF_BACKFILL_REF,
+                result.name()));
+        }
+    }
+
+    private void updateRef(final String refName, final ObjectId objectID)
+        throws IOException
+    {
+        final RefUpdate update = repository.updateRef(refName);
+        update.setNewObjectId(objectID);
+        update.disableRefLog();
+
+        final Result result = update.forceUpdate();
+
+        if (result != Result.NEW
+            && result != Result.FORCED
+            && result != Result.FAST_FORWARD
+            && result != Result.NO_CHANGE)
+        {
+            throw new IOException(Messages.formatString("BackfillTask.CouldNotUpdateRefFormat", //$NON-NLS-1$
+                refName,
+                result.name()));
+        }
+    }
+}
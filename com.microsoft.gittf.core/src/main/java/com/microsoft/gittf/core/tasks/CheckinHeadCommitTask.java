@@ -56,6 +56,7 @@ import com.microsoft.gittf.core.tasks.framework.TaskExecutor;
 import com.microsoft.gittf.core.tasks.framework.TaskProgressDisplay;
 import com.microsoft.gittf.core.tasks.framework.TaskProgressMonitor;
 import com.microsoft.gittf.core.tasks.framework.TaskStatus;
+import com.microsoft.gittf.core.tasks.pendDiff.PendDifferenceLookahead;
 import com.microsoft.gittf.core.tasks.pendDiff.PendDifferenceTask;
 import com.microsoft.gittf.core.tasks.pendDiff.RenameMode;
 import com.microsoft.gittf.core.util.Check;
@@ -486,162 +487,193 @@ public class CheckinHeadCommitTask
             log.debug("Processing commit deltas.");
 
             /*
-             * Loop the list of commit sequence and checkin the difference one
-             * by one
+             * The next delta is analyzed, and its items extracted into a
+             * staging folder next to the working folder, while the current one
+             * is pended and checked in. The preview workspace extracts nothing.
              */
-            for (int i = 0; i < commitsToCheckin.size(); i++)
-            {
-                CommitDelta commitDelta = commitsToCheckin.get(i);
-
-                log.debug("Committing delta "
-                    + i
-                    + ": from "
-                    + (commitDelta.getFromCommit() == null ? "initial commit" : commitDelta.getFromCommit().getName())
-                    + " to "
-                    + commitDelta.getToCommit().getName());
+            final PendDifferenceLookahead lookahead =
+                new PendDifferenceLookahead(workspace.canCheckIn() ? new File(
+                    workingFolder.getParentFile(),
+                    workingFolder.getName() + ".staging") : null); //$NON-NLS-1$
 
-                progressMonitor.setDetail(Messages.formatString("CheckinHeadCommitTask.CommitFormat", //$NON-NLS-1$
-                    ObjectIdUtil.abbreviate(repository, commitDelta.getToCommit())));
+            PendDifferenceTask nextPendTask = null;
 
-                boolean isLastCommit = (i == (commitsToCheckin.size() - 1));
-
-                /* Save space: clean working folder after each checkin */
-                if (i > 0)
+            try
+            {
+                /*
+                 * Loop the list of commit sequence and checkin the difference one
+                 * by one
+                 */
+                for (int i = 0; i < commitsToCheckin.size(); i++)
                 {
-                    log.debug("Cleaning the working folder" + workingFolder.getAbsolutePath());
+                    CommitDelta commitDelta = commitsToCheckin.get(i);
 
-                    cleanWorkingFolder(workingFolder);
-                }
-
-                /* Pend the differences between the two commits */
-                final PendDifferenceTask pendTask =
-                    new PendDifferenceTask(
-                        repository,
-                        commitDelta.getFromCommit(),
-                        commitDelta.getToCommit(),
-                        workspace,
-                        serverPath,
-                        workingFolder);
+                    log.debug("Committing delta "
+                        + i
+                        + ": from "
+                        + (commitDelta.getFromCommit() == null ? "initial commit" : commitDelta.getFromCommit().getName())
+                        + " to "
+                        + commitDelta.getToCommit().getName());
 
-                pendTask.setRenameMode(renameMode);
+                    progressMonitor.setDetail(Messages.formatString("CheckinHeadCommitTask.CommitFormat", //$NON-NLS-1$
+                        ObjectIdUtil.abbreviate(repository, commitDelta.getToCommit())));
 
-                pendTask.validate();
+                    boolean isLastCommit = (i == (commitsToCheckin.size() - 1));
 
-                /* If this is preview mode, display the commit details HEADER */
-                if (preview)
-                {
-                    if (i == 0)
+                    /* Save space: clean working folder after each checkin */
+                    if (i > 0)
                     {
-                        progressMonitor.displayMessage(Messages.getString("CheckinHeadCommitTask.CheckedInPreview")); //$NON-NLS-1$
-                        progressMonitor.displayMessage(""); //$NON-NLS-1$
+                        log.debug("Cleaning the working folder" + workingFolder.getAbsolutePath());
+
+                        cleanWorkingFolder(workingFolder);
                     }
 
-                    ObjectId fromCommit = commitDelta.getFromCommit();
-                    ObjectId toCommit = commitDelta.getToCommit();
+                    /* Pend the differences between the two commits */
+                    final PendDifferenceTask pendTask;
 
-                    if (fromCommit == null || fromCommit == ObjectId.zeroId() || commitsToCheckin.size() != 1)
+                    if (nextPendTask != null)
                     {
-                        progressMonitor.displayMessage(Messages.formatString(
-                            "CheckinHeadCommitTask.CheckedInPreviewSingleCommitFormat", //$NON-NLS-1$
-                            i + 1,
-                            ObjectIdUtil.abbreviate(repository, toCommit)));
+                        log.debug("Waiting for the delta analyzed ahead of time.");
+
+                        lookahead.await(nextPendTask);
+                        pendTask = nextPendTask;
                     }
                     else
                     {
-                        progressMonitor.displayMessage(Messages.formatString(
-                            "CheckinHeadCommitTask.CheckedInPreviewDifferenceCommitsFormat", //$NON-NLS-1$
-                            i + 1,
-                            ObjectIdUtil.abbreviate(repository, toCommit),
-                            ObjectIdUtil.abbreviate(repository, fromCommit)));
+                        pendTask = createPendTask(commitDelta, workspace, workingFolder);
                     }
 
-                    String checkinComment = comment == null ? buildCommitComment(commitDelta) : comment;
-
-                    progressMonitor.displayMessage(""); //$NON-NLS-1$
-                    progressMonitor.displayMessage(indentString(checkinComment));
-
-                    progressMonitor.displayMessage(Messages.getString("CheckinHeadCommitTask.CheckedInPreviewTableHeader")); //$NON-NLS-1$
-                    progressMonitor.displayMessage("---------------------------------------------------------------------"); //$NON-NLS-1$
-                }
+                    pendTask.validate();
 
-                log.debug("Pend the differences between the two commits.");
+                    /* Prepare the next delta while this one goes to the server */
+                    nextPendTask = null;
 
-                final TaskStatus pendStatus = new TaskExecutor(progressMonitor.newSubTask(1)).execute(pendTask);
+                    if (!isLastCommit)
+                    {
+                        nextPendTask = createPendTask(commitsToCheckin.get(i + 1), workspace, workingFolder);
+                        lookahead.prepare(nextPendTask);
+                    }
 
-                if (!pendStatus.isOK())
-                {
-                    return pendStatus;
-                }
+                    /* If this is preview mode, display the commit details HEADER */
+                    if (preview)
+                    {
+                        if (i == 0)
+                        {
+                            progressMonitor.displayMessage(Messages.getString("CheckinHeadCommitTask.CheckedInPreview")); //$NON-NLS-1$
+                            progressMonitor.displayMessage(""); //$NON-NLS-1$
+                        }
 
-                if (pendStatus.getCode() == PendDifferenceTask.NOTHING_TO_PEND)
-                {
-                    continue;
-                }
+                        ObjectId fromCommit = commitDelta.getFromCommit();
+                        ObjectId toCommit = commitDelta.getToCommit();
 
-                anyThingCheckedIn = true;
+                        if (fromCommit == null || fromCommit == ObjectId.zeroId() || commitsToCheckin.size() != 1)
+                        {
+                            progressMonitor.displayMessage(Messages.formatString(
+                                "CheckinHeadCommitTask.CheckedInPreviewSingleCommitFormat", //$NON-NLS-1$
+                                i + 1,
+                                ObjectIdUtil.abbreviate(repository, toCommit)));
+                        }
+                        else
+                        {
+                            progressMonitor.displayMessage(Messages.formatString(
+                                "CheckinHeadCommitTask.CheckedInPreviewDifferenceCommitsFormat", //$NON-NLS-1$
+                                i + 1,
+                                ObjectIdUtil.abbreviate(repository, toCommit),
+                                ObjectIdUtil.abbreviate(repository, fromCommit)));
+                        }
 
-                /* If this is preview mode, display the commit details FOOTER */
-                if (preview)
-                {
-                    progressMonitor.displayMessage("---------------------------------------------------------------------"); //$NON-NLS-1$
-                    progressMonitor.displayMessage(""); //$NON-NLS-1$
-                }
-                /* else perform the actual checkin */
-                else
-                {
-                    log.debug("Checking in.");
+                        String checkinComment = comment == null ? buildCommitComment(commitDelta) : comment;
 
-                    progressMonitor.setDetail(Messages.getString("CheckinHeadCommitTask.CheckingIn")); //$NON-NLS-1$
+                        progressMonitor.displayMessage(""); //$NON-NLS-1$
+                        progressMonitor.displayMessage(indentString(checkinComment));
 
-                    log.debug("Building the change set comment.");
-                    String commitComment = buildCommitComment(commitDelta);
+                        progressMonitor.displayMessage(Messages.getString("CheckinHeadCommitTask.CheckedInPreviewTableHeader")); //$NON-NLS-1$
+                        progressMonitor.displayMessage("---------------------------------------------------------------------"); //$NON-NLS-1$
+                    }
 
-                    /*
-                     * Perform the checkin using the checkin pending changes
-                     * task
-                     */
-                    final CheckinPendingChangesTask checkinTask =
-                        new CheckinPendingChangesTask(repository, commitDelta.getToCommit(), comment == null
-                            ? commitComment : comment, versionControlClient, workspace, pendTask.getPendingChanges());
+                    log.debug("Pend the differences between the two commits.");
 
-                    checkinTask.setWorkItemCheckinInfo(getWorkItems(
-                        progressMonitor.newSubTask(1),
-                        commitComment,
-                        isLastCommit));
-                    checkinTask.setOverrideGatedCheckin(overrideGatedCheckin);
-                    checkinTask.setBuildDefinition(buildDefinition);
-                    checkinTask.setExpectedChangesetNumber(expectedChangesetNumber);
-                    checkinTask.setUserMap(userMap);
+                    final TaskStatus pendStatus = new TaskExecutor(progressMonitor.newSubTask(1)).execute(pendTask);
 
-                    log.debug("Staring the check-in task.");
+                    if (!pendStatus.isOK())
+                    {
+                        return pendStatus;
+                    }
 
-                    final TaskStatus checkinStatus =
-                        new TaskExecutor(progressMonitor.newSubTask(1)).execute(checkinTask);
+                    if (pendStatus.getCode() == PendDifferenceTask.NOTHING_TO_PEND)
+                    {
+                        continue;
+                    }
 
-                    log.debug("The check-in task ended with the status code: " + checkinStatus.getCode());
+                    anyThingCheckedIn = true;
 
-                    if (!checkinStatus.isOK())
+                    /* If this is preview mode, display the commit details FOOTER */
+                    if (preview)
                     {
-                        return checkinStatus;
+                        progressMonitor.displayMessage("---------------------------------------------------------------------"); //$NON-NLS-1$
+                        progressMonitor.displayMessage(""); //$NON-NLS-1$
                     }
+                    /* else perform the actual checkin */
+                    else
+                    {
+                        log.debug("Checking in.");
+
+                        progressMonitor.setDetail(Messages.getString("CheckinHeadCommitTask.CheckingIn")); //$NON-NLS-1$
+
+                        log.debug("Building the change set comment.");
+                        String commitComment = buildCommitComment(commitDelta);
 
-                    lastChangesetID = checkinTask.getChangesetID();
-                    lastCommitID = commitDelta.getToCommit();
-                    otherUserCheckinDetected =
-                        checkinStatus.getCode() == CheckinPendingChangesTask.CHANGESET_NUMBER_NOT_AS_EXPECTED;
+                        /*
+                         * Perform the checkin using the checkin pending changes
+                         * task
+                         */
+                        final CheckinPendingChangesTask checkinTask =
+                            new CheckinPendingChangesTask(repository, commitDelta.getToCommit(), comment == null
+                                ? commitComment : comment, versionControlClient, workspace, pendTask.getPendingChanges());
 
-                    log.debug("    lastChangesetID: " + lastChangesetID);
-                    log.debug("    lastCommitID: " + lastCommitID);
-                    log.debug("    otherUserCheckinDetected: " + otherUserCheckinDetected);
+                        checkinTask.setWorkItemCheckinInfo(getWorkItems(
+                            progressMonitor.newSubTask(1),
+                            commitComment,
+                            isLastCommit));
+                        checkinTask.setOverrideGatedCheckin(overrideGatedCheckin);
+                        checkinTask.setBuildDefinition(buildDefinition);
+                        checkinTask.setExpectedChangesetNumber(expectedChangesetNumber);
+                        checkinTask.setUserMap(userMap);
 
-                    expectedChangesetNumber = -1;
+                        log.debug("Staring the check-in task.");
 
-                    progressMonitor.displayVerbose(Messages.formatString(
-                        "CheckinHeadCommitTask.CheckedInChangesetFormat", //$NON-NLS-1$
-                        ObjectIdUtil.abbreviate(repository, lastCommitID),
-                        Integer.toString(checkinTask.getChangesetID())));
+                        final TaskStatus checkinStatus =
+                            new TaskExecutor(progressMonitor.newSubTask(1)).execute(checkinTask);
+
+                        log.debug("The check-in task ended with the status code: " + checkinStatus.getCode());
+
+                        if (!checkinStatus.isOK())
+                        {
+                            return checkinStatus;
+                        }
+
+                        lastChangesetID = checkinTask.getChangesetID();
+                        lastCommitID = commitDelta.getToCommit();
+                        otherUserCheckinDetected =
+                            checkinStatus.getCode() == CheckinPendingChangesTask.CHANGESET_NUMBER_NOT_AS_EXPECTED;
+
+                        log.debug("    lastChangesetID: " + lastChangesetID);
+                        log.debug("    lastCommitID: " + lastCommitID);
+                        log.debug("    otherUserCheckinDetected: " + otherUserCheckinDetected);
+
+                        expectedChangesetNumber = -1;
+
+                        progressMonitor.displayVerbose(Messages.formatString(
+                            "CheckinHeadCommitTask.CheckedInChangesetFormat", //$NON-NLS-1$
+                            ObjectIdUtil.abbreviate(repository, lastCommitID),
+                            Integer.toString(checkinTask.getChangesetID())));
+                    }
                 }
             }
+            finally
+            {
+                lookahead.close();
+            }
 
             log.debug("Cleaning up the workspace.");
             /* Clean up the workspace */
@@ -902,6 +934,25 @@ public class CheckinHeadCommitTask
         return commitsToCheckin;
     }
 
+    private PendDifferenceTask createPendTask(
+        final CommitDelta commitDelta,
+        final WorkspaceService workspace,
+        final File workingFolder)
+    {
+        final PendDifferenceTask pendTask =
+            new PendDifferenceTask(
+                repository,
+                commitDelta.getFromCommit(),
+                commitDelta.getToCommit(),
+                workspace,
+                serverPath,
+                workingFolder);
+
+        pendTask.setRenameMode(renameMode);
+
+        return pendTask;
+    }
+
     private void cleanWorkingFolder(final File workingFolder)
     {
         try
@@ -24,7 +24,10 @@
 
 package com.microsoft.gittf.core.tasks;
 
+import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -33,10 +36,17 @@ import org.eclipse.jgit.dircache.DirCacheCheckout;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.RefUpdate.Result;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
 
+import com.microsoft.gittf.core.GitTFConstants;
 import com.microsoft.gittf.core.Messages;
+import com.microsoft.gittf.core.config.ChangesetCommitBatch;
 import com.microsoft.gittf.core.config.ChangesetCommitMap;
+import com.microsoft.gittf.core.config.ContentHashIndex;
+import com.microsoft.gittf.core.config.GitTFConfiguration;
+import com.microsoft.gittf.core.config.ItemManifestStore;
 import com.microsoft.gittf.core.interfaces.VersionControlService;
 import com.microsoft.gittf.core.tasks.framework.NullTaskProgressMonitor;
 import com.microsoft.gittf.core.tasks.framework.Task;
@@ -44,11 +54,21 @@ import com.microsoft.gittf.core.tasks.framework.TaskExecutor;
 import com.microsoft.gittf.core.tasks.framework.TaskProgressDisplay;
 import com.microsoft.gittf.core.tasks.framework.TaskProgressMonitor;
 import com.microsoft.gittf.core.tasks.framework.TaskStatus;
+import com.microsoft.gittf.core.util.ChangesetHistory;
+import com.microsoft.gittf.core.util.ChangesetPrefetcher;
 import com.microsoft.gittf.core.util.Check;
+import com.microsoft.gittf.core.util.DirectoryUtil;
+import com.microsoft.gittf.core.util.EnvironmentUtil;
+import com.microsoft.gittf.core.util.ItemManifest;
 import com.microsoft.gittf.core.util.ObjectIdUtil;
+import com.microsoft.gittf.core.util.PackObjectInserter;
+import com.microsoft.gittf.core.util.ParallelCheckout;
+import com.microsoft.gittf.core.util.PathFilter;
 import com.microsoft.gittf.core.util.RepositoryUtil;
 import com.microsoft.gittf.core.util.TfsBranchUtil;
+import com.microsoft.gittf.core.util.WorkItemResolver;
 import com.microsoft.tfs.core.clients.versioncontrol.GetItemsOptions;
+import com.microsoft.tfs.core.clients.versioncontrol.path.ServerPath;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Changeset;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.DeletedState;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Item;
@@ -72,6 +92,15 @@ public class CloneTask
     private VersionSpec versionSpec = LatestVersionSpec.INSTANCE;
     private int depth = 1;
     private boolean tag = true;
+    private String[] includePaths;
+    private String[] excludePaths;
+    private boolean resume;
+
+    private static final String CHECKPOINT_INTERVAL_NAME = "GITTF_CLONE_CHECKPOINT"; //$NON-NLS-1$
+    private static final int DEFAULT_CHECKPOINT_INTERVAL = 1000;
+
+    private static final String CHECKPOINT_SECONDS_NAME = "GITTF_CLONE_CHECKPOINT_SECONDS"; //$NON-NLS-1$
+    private static final int DEFAULT_CHECKPOINT_SECONDS = 300;
 
     private static final Log log = LogFactory.getLog(CloneTask.class);
 
@@ -147,6 +176,105 @@ public class CloneTask
         this.tag = tag;
     }
 
+    /**
+     * Sets the patterns of the paths to clone, see {@link PathFilter}.
+     * 
+     * @param includePaths
+     *        the patterns, or <code>null</code> to clone every path
+     */
+    public void setIncludePaths(final String[] includePaths)
+    {
+        this.includePaths = includePaths;
+    }
+
+    /**
+     * Sets the patterns of the paths not to clone, see {@link PathFilter}.
+     * 
+     * @param excludePaths
+     *        the patterns, or <code>null</code> to exclude no path
+     */
+    public void setExcludePaths(final String[] excludePaths)
+    {
+        this.excludePaths = excludePaths;
+    }
+
+    /**
+     * Sets whether to resume an interrupted clone into the repository from its
+     * last checkpoint, see {@link #isResumable(Repository, URI, String)}. The
+     * repository configuration, including the path filter, is kept.
+     * 
+     * @param resume
+     *        <code>true</code> to resume the clone
+     */
+    public void setResume(final boolean resume)
+    {
+        this.resume = resume;
+    }
+
+    public boolean isResume()
+    {
+        return resume;
+    }
+
+    /**
+     * Determines whether the repository holds a clone of the server path that
+     * was interrupted. A deep clone records a checkpoint every
+     * GITTF_CLONE_CHECKPOINT changesets (1000 by default), at least every
+     * GITTF_CLONE_CHECKPOINT_SECONDS seconds (300 by default) and when it
+     * stops without completing. A clone that was killed before it could record
+     * a checkpoint has not created its master branch yet, it is resumed from
+     * the changesets recorded in the changeset commit map.
+     * 
+     * @param repository
+     *        the git repository
+     * @param serverURI
+     *        the project collection uri
+     * @param tfsPath
+     *        the server path
+     * @return <code>true</code> if the clone can be resumed
+     * @throws IOException
+     */
+    public static boolean isResumable(final Repository repository, final URI serverURI, final String tfsPath)
+        throws IOException
+    {
+        Check.notNull(repository, "repository"); //$NON-NLS-1$
+        Check.notNull(serverURI, "serverURI"); //$NON-NLS-1$
+        Check.notNullOrEmpty(tfsPath, "tfsPath"); //$NON-NLS-1$
+
+        if (!repository.getDirectory().isDirectory())
+        {
+            return false;
+        }
+
+        final GitTFConfiguration configuration = GitTFConfiguration.loadFrom(repository);
+
+        if (configuration == null
+            || !serverURI.equals(configuration.getServerURI())
+            || !ServerPath.equals(tfsPath, configuration.getServerPath()))
+        {
+            return false;
+        }
+
+        return hasCheckpoint(repository) || repository.getRef(Constants.R_HEADS + Constants.MASTER) == null;
+    }
+
+    /**
+     * Determines whether an interrupted clone recorded a checkpoint in the
+     * repository, i.e. whether it kept any of the changesets it cloned.
+     * 
+     * @param repository
+     *        the git repository
+     * @return <code>true</code> if the repository holds a checkpoint
+     * @throws IOException
+     */
+    public static boolean hasCheckpoint(final Repository repository)
+        throws IOException
+    {
+        Check.notNull(repository, "repository"); //$NON-NLS-1$
+
+        return repository.getRef(GitTFConstants.GIT_TF_CLONE_REF) != null;
+    }
+
     @Override
     public TaskStatus run(final TaskProgressMonitor progressMonitor)
         throws Exception
@@ -173,7 +301,11 @@ public class CloneTask
             return new TaskStatus(TaskStatus.ERROR, Messages.formatString("CloneTask.CannotCloneFileFormat", tfsPath)); //$NON-NLS-1$
         }
 
-        /* Determine the latest changeset on the server. */
+        /*
+         * Determine the latest changeset on the server. The history of a deep
+         * clone is queried in pages as it is downloaded.
+         */
+        final boolean deep = depth == Integer.MAX_VALUE;
         final Changeset[] changesets =
             vcClient.queryHistory(
                 tfsPath,
@@ -183,77 +315,284 @@ public class CloneTask
                 null,
                 new ChangesetVersionSpec(0),
                 versionSpec,
-                depth,
+                deep ? 1 : depth,
                 false,
                 false,
                 false,
                 false);
 
-        /*
-         * Create and configure the repository.
-         */
+        ObjectId lastCommitID = null;
+        ObjectId lastTreeID = null;
+        ItemManifest previousManifest = null;
+        int lastChangesetID = -1;
+        final PathFilter pathFilter;
 
-        repository.create(bare);
+        if (resume)
+        {
+            /*
+             * Continue after the last changeset that was cloned. The tree of
+             * that changeset is listed in full unless the manifest saved with
+             * the checkpoint describes it.
+             */
+            pathFilter = PathFilter.create(GitTFConfiguration.loadFrom(repository));
 
-        final ConfigureRepositoryTask configureTask = new ConfigureRepositoryTask(repository, serverURI, tfsPath);
-        configureTask.setTag(tag);
+            final ChangesetCommitMap changesetCommitMap = new ChangesetCommitMap(repository);
+            lastChangesetID = changesetCommitMap.getLastBridgedChangesetID(true);
+
+            if (lastChangesetID >= 0)
+            {
+                lastCommitID = changesetCommitMap.getCommitID(lastChangesetID, true);
+                previousManifest = loadManifest(pathFilter, lastCommitID);
 
-        final TaskStatus configureStatus = new TaskExecutor(new NullTaskProgressMonitor()).execute(configureTask);
+                if (previousManifest != null)
+                {
+                    lastTreeID = getTreeID(lastCommitID);
+                }
+                else
+                {
+                    previousManifest =
+                        ItemManifest.create(tfsPath, pathFilter.filter(tfsPath, vcClient.getItems(
+                            tfsPath,
+                            new ChangesetVersionSpec(lastChangesetID),
+                            RecursionType.FULL)));
+                }
 
-        if (!configureStatus.isOK())
+                progressMonitor.displayMessage(Messages.formatString("CloneTask.ResumingFormat", //$NON-NLS-1$
+                    Integer.toString(lastChangesetID)));
+            }
+        }
+        else
         {
-            return configureStatus;
+            /*
+             * Create and configure the repository.
+             */
+
+            repository.create(bare);
+
+            final ConfigureRepositoryTask configureTask = new ConfigureRepositoryTask(repository, serverURI, tfsPath);
+            configureTask.setTag(tag);
+
+            if (includePaths != null)
+            {
+                configureTask.setIncludePaths(includePaths);
+            }
+
+            if (excludePaths != null)
+            {
+                configureTask.setExcludePaths(excludePaths);
+            }
+
+            final TaskStatus configureStatus = new TaskExecutor(new NullTaskProgressMonitor()).execute(configureTask);
+
+            if (!configureStatus.isOK())
+            {
+                return configureStatus;
+            }
+
+            pathFilter = new PathFilter(includePaths, excludePaths);
         }
 
         if (changesets.length > 0)
         {
-            ObjectId lastCommitID = null;
-            ObjectId lastTreeID = null;
-            Item[] previousChangesetItems = null;
+            final int finalChangesetID = changesets[0].getChangesetID();
+            int numberOfChangesetsDownloaded = 0;
 
             /*
-             * Download changesets.
+             * A deep clone pages through the history as the changesets are
+             * downloaded, the changesets of a shallow clone have been queried
+             * already.
              */
-            final int numberOfChangesetToDownload = changesets.length;
-
-            progressMonitor.setWork(numberOfChangesetToDownload);
+            final ChangesetHistory history;
 
-            for (int i = numberOfChangesetToDownload; i > 0; i--)
+            if (deep)
+            {
+                history = new ChangesetHistory(vcClient, tfsPath, lastChangesetID + 1, finalChangesetID);
+            }
+            else
             {
-                CreateCommitForChangesetVersionSpecTask commitTask =
-                    new CreateCommitForChangesetVersionSpecTask(
-                        repository,
-                        vcClient,
-                        changesets[i - 1],
-                        previousChangesetItems,
-                        lastCommitID,
-                        witClient);
-
-                TaskStatus commitStatus = new TaskExecutor(progressMonitor.newSubTask(1)).execute(commitTask);
-
-                if (!commitStatus.isOK())
+                final List<Changeset> changesetsToDownload = new ArrayList<Changeset>(changesets.length);
+                for (int i = changesets.length - 1; i >= 0; i--)
                 {
-                    return commitStatus;
+                    if (changesets[i].getChangesetID() > lastChangesetID)
+                    {
+                        changesetsToDownload.add(changesets[i]);
+                    }
                 }
 
-                lastCommitID = commitTask.getCommitID();
-                lastTreeID = commitTask.getCommitTreeID();
-                previousChangesetItems = commitTask.getCommittedItems();
+                history =
+                    new ChangesetHistory(changesetsToDownload.toArray(new Changeset[changesetsToDownload.size()]));
+            }
+
+            /*
+             * Download changesets.
+             */
+            progressMonitor.setWork(history.getWork());
+
+            final ContentHashIndex contentHashIndex = new ContentHashIndex(repository);
 
-                Check.notNull(lastCommitID, "lastCommitID"); //$NON-NLS-1$
-                Check.notNull(lastTreeID, "lastTreeID"); //$NON-NLS-1$
+            /*
+             * Write the objects of many changesets into one pack. The
+             * changesets are recorded in the changeset commit map in batches,
+             * once the pack holding their commits has been added to the
+             * repository.
+             */
+            final PackObjectInserter inserter =
+                PackObjectInserter.isSupported(repository) ? new PackObjectInserter(repository) : null;
+            final ChangesetCommitBatch changesetCommitBatch = new ChangesetCommitBatch(repository, inserter);
+            changesetCommitBatch.setContentHashIndex(contentHashIndex);
 
-                new ChangesetCommitMap(repository).setChangesetCommit(
-                    changesets[i - 1].getChangesetID(),
-                    commitTask.getCommitID());
+            final int checkpointInterval =
+                EnvironmentUtil.getPositiveInt(CHECKPOINT_INTERVAL_NAME, DEFAULT_CHECKPOINT_INTERVAL);
+            final long checkpointMillis =
+                EnvironmentUtil.getPositiveInt(CHECKPOINT_SECONDS_NAME, DEFAULT_CHECKPOINT_SECONDS) * 1000L;
 
-                progressMonitor.displayVerbose(Messages.formatString("CloneTask.ClonedFormat", //$NON-NLS-1$
-                    Integer.toString(changesets[i - 1].getChangesetID()),
-                    ObjectIdUtil.abbreviate(repository, lastCommitID)));
+            long lastCheckpointTime = System.currentTimeMillis();
+            boolean checkpointSaved = false;
+
+            /* The titles of mentioned work items are kept across the pages */
+            final WorkItemResolver.TitleCache workItemTitles = new WorkItemResolver.TitleCache();
+
+            try
+            {
+                Changeset[] changesetsToDownload;
+
+                while ((changesetsToDownload = history.nextPage()).length > 0)
+                {
+                    /*
+                     * List and download the upcoming changesets of the page in
+                     * the background while the commits are created in order.
+                     */
+                    final ChangesetPrefetcher prefetcher =
+                        new ChangesetPrefetcher(
+                            vcClient,
+                            tfsPath,
+                            changesetsToDownload,
+                            DirectoryUtil.getTempDir(repository));
+
+                    prefetcher.setContentHashIndex(contentHashIndex);
+                    prefetcher.setPathFilter(pathFilter);
+
+                    /* Look up the work items to mention ahead of the commits */
+                    WorkItemResolver workItemResolver = null;
+                    if (witClient != null)
+                    {
+                        final int[] changesetIDs = new int[changesetsToDownload.length];
+                        for (int i = 0; i < changesetsToDownload.length; i++)
+                        {
+                            changesetIDs[i] = changesetsToDownload[i].getChangesetID();
+                        }
+
+                        workItemResolver = new WorkItemResolver(witClient, changesetIDs, workItemTitles);
+                    }
+
+                    try
+                    {
+                        prefetcher.start(previousManifest != null && lastTreeID != null);
+
+                        if (workItemResolver != null)
+                        {
+                            workItemResolver.start();
+                        }
+
+                        for (int i = 0; i < changesetsToDownload.length; i++)
+                        {
+                            CreateCommitForChangesetVersionSpecTask commitTask =
+                                new CreateCommitForChangesetVersionSpecTask(
+                                    repository,
+                                    vcClient,
+                                    changesetsToDownload[i],
+                                    previousManifest,
+                                    lastCommitID,
+                                    witClient);
+                            commitTask.setPrefetchedListing(prefetcher.getListing(i));
+                            commitTask.setItemDownloader(prefetcher.getDownloader());
+                            commitTask.setParentTreeID(lastTreeID);
+                            commitTask.setContentHashIndex(contentHashIndex);
+                            commitTask.setObjectInserter(inserter);
+                            commitTask.setWorkItemResolver(workItemResolver);
+
+                            final int work = history.getWork(changesetsToDownload[i]);
+                            TaskStatus commitStatus = new TaskExecutor(progressMonitor.newSubTask(work)).execute(commitTask);
+
+                            if (!commitStatus.isOK())
+                            {
+                                /* The changesets that were cloned are kept below */
+                                return commitStatus;
+                            }
+
+                            lastCommitID = commitTask.getCommitID();
+                            lastTreeID = commitTask.getCommitTreeID();
+                            previousManifest = commitTask.getCommittedManifest();
+
+                            Check.notNull(lastCommitID, "lastCommitID"); //$NON-NLS-1$
+                            Check.notNull(lastTreeID, "lastTreeID"); //$NON-NLS-1$
+
+                            changesetCommitBatch.add(changesetsToDownload[i].getChangesetID(), lastCommitID, false);
+                            numberOfChangesetsDownloaded++;
+
+                            progressMonitor.displayVerbose(Messages.formatString("CloneTask.ClonedFormat", //$NON-NLS-1$
+                                Integer.toString(changesetsToDownload[i].getChangesetID()),
+                                ObjectIdUtil.abbreviate(repository, lastCommitID)));
+
+                            if (numberOfChangesetsDownloaded % checkpointInterval == 0
+                                || System.currentTimeMillis() - lastCheckpointTime >= checkpointMillis)
+                            {
+                                changesetCommitBatch.commit();
+                                saveCheckpoint(lastCommitID, pathFilter, previousManifest);
+
+                                lastCheckpointTime = System.currentTimeMillis();
+                            }
+                        }
+                    }
+                    finally
+                    {
+                        prefetcher.close();
+
+                        if (workItemResolver != null)
+                        {
+                            workItemResolver.close();
+                        }
+                    }
+                }
+
+                changesetCommitBatch.commit();
+                saveCheckpoint(lastCommitID, pathFilter, previousManifest);
+                checkpointSaved = true;
+            }
+            finally
+            {
+                /*
+                 * Keep the changesets that were cloned however the clone
+                 * stopped, e.g. if the connection was lost or the memory ran
+                 * out.
+                 */
+                if (!checkpointSaved)
+                {
+                    try
+                    {
+                        changesetCommitBatch.commit();
+                        saveCheckpoint(lastCommitID, pathFilter, previousManifest);
+                    }
+                    catch (Throwable checkpointException)
+                    {
+                        log.warn("Could not save the clone checkpoint", checkpointException); //$NON-NLS-1$
+                    }
+                }
+
+                if (inserter != null)
+                {
+                    inserter.release();
+                }
             }
 
             progressMonitor.setDetail(Messages.getString("CloneTask.Finalizing")); //$NON-NLS-1$
 
+            if (lastTreeID == null)
+            {
+                /* Nothing was left to clone when the clone was resumed */
+                lastTreeID = getTreeID(lastCommitID);
+            }
+
             /* Update master head reference */
             RefUpdate ref = repository.updateRef(Constants.R_HEADS + Constants.MASTER);
             ref.setNewObjectId(lastCommitID);
@@ -263,9 +602,10 @@ public class CloneTask
             TfsBranchUtil.create(repository, Constants.R_HEADS + Constants.MASTER);
 
             /*
-             * Check out the cloned commit.
+             * Check out the cloned commit. Trees the parallel checkout does
+             * not support are checked out by a single threaded checkout.
              */
-            if (!bare)
+            if (!bare && !new ParallelCheckout(repository, lastTreeID).checkout())
             {
                 DirCache dirCache = repository.lockDirCache();
                 DirCacheCheckout checkout = new DirCacheCheckout(repository, dirCache, lastTreeID);
@@ -275,11 +615,12 @@ public class CloneTask
                 RepositoryUtil.fixFileAttributes(repository);
             }
 
-            progressMonitor.endTask();
+            /* The clone is complete and can no longer be resumed */
+            deleteCheckpoint();
 
-            final int finalChangesetID = changesets[0].getChangesetID();
+            progressMonitor.endTask();
 
-            if (numberOfChangesetToDownload == 1)
+            if (numberOfChangesetsDownloaded == 1)
             {
                 progressMonitor.displayMessage(Messages.formatString("CloneTask.ClonedFormat", //$NON-NLS-1$
                     Integer.toString(finalChangesetID),
@@ -288,7 +629,7 @@ public class CloneTask
             else
             {
                 progressMonitor.displayMessage(Messages.formatString("CloneTask.ClonedMultipleFormat", //$NON-NLS-1$
-                    changesets.length,
+                    numberOfChangesetsDownloaded,
                     Integer.toString(finalChangesetID),
                     ObjectIdUtil.abbreviate(repository, lastCommitID)));
             }
@@ -307,4 +648,108 @@ public class CloneTask
 
         return TaskStatus.OK_STATUS;
     }
+
+    /**
+     * Records the changesets cloned so far as the point an interrupted clone
+     * is resumed from. The changesets must have been committed to the
+     * changeset commit map.
+     */
+    private void saveCheckpoint(final ObjectId commitID, final PathFilter pathFilter, final ItemManifest manifest)
+        throws IOException
+    {
+        if (commitID == null)
+        {
+            return;
+        }
+
+        saveManifest(commitID, pathFilter, manifest);
+
+        final RefUpdate update = repository.updateRef(GitTFConstants.GIT_TF_CLONE_REF);
+        update.setNewObjectId(commitID);
+        update.disableRefLog();
+
+        final Result result = update.forceUpdate();
+
+        if (result != Result.NEW
+            && result != Result.FORCED
+            && result != Result.FAST_FORWARD
+            && result != Result.NO_CHANGE)
+        {
+            throw new IOException(Messages.formatString("CloneTask.CouldNotUpdateRefFormat", //$NON-NLS-1$
+                GitTFConstants.GIT_TF_CLONE_REF,
+                result.name()));
+        }
+    }
+
+    private void deleteCheckpoint()
+        throws IOException
+    {
+        if (repository.getRef(GitTFConstants.GIT_TF_CLONE_REF) == null)
+        {
+            return;
+        }
+
+        final RefUpdate update = repository.updateRef(GitTFConstants.GIT_TF_CLONE_REF);
+        update.setForceUpdate(true);
+        update.disableRefLog();
+
+        final Result result = update.delete();
+
+        if (result != Result.FORCED && result != Result.NO_CHANGE)
+        {
+            throw new IOException(Messages.formatString("CloneTask.CouldNotUpdateRefFormat", //$NON-NLS-1$
+                GitTFConstants.GIT_TF_CLONE_REF,
+                result.name()));
+        }
+    }
+
+    private ItemManifest loadManifest(final PathFilter pathFilter, final ObjectId commitID)
+    {
+        if (commitID == null)
+        {
+            return null;
+        }
+
+        try
+        {
+            return ItemManifestStore.load(repository, tfsPath, pathFilter, commitID);
+        }
+        catch (IOException e)
+        {
+            log.warn("Could not load the item manifest, listing the items from the server", e); //$NON-NLS-1$
+            return null;
+        }
+    }
+
+    private ObjectId getTreeID(final ObjectId commitID)
+        throws IOException
+    {
+        final RevWalk walker = new RevWalk(repository);
+
+        try
+        {
+            return walker.parseCommit(commitID).getTree().getId();
+        }
+        finally
+        {
+            walker.release();
+        }
+    }
+
+    private void saveManifest(final ObjectId commitID, final PathFilter pathFilter, final ItemManifest manifest)
+    {
+        if (commitID == null || manifest == null)
+        {
+            return;
+        }
+
+        try
+        {
+            ItemManifestStore.save(repository, commitID, pathFilter, manifest);
+        }
+        catch (IOException e)
+        {
+            log.warn("Could not save the item manifest", e); //$NON-NLS-1$
+        }
+    }
 }
@@ -123,6 +123,26 @@ public class ConfigureRepositoryTask
         config.setUserMap(userMap);
     }
 
+    public String[] getIncludePaths()
+    {
+        return config.getIncludePaths();
+    }
+
+    public void setIncludePaths(final String[] includePaths)
+    {
+        config.setIncludePaths(includePaths);
+    }
+
+    public String[] getExcludePaths()
+    {
+        return config.getExcludePaths();
+    }
+
+    public void setExcludePaths(final String[] excludePaths)
+    {
+        config.setExcludePaths(excludePaths);
+    }
+
     public String getUsername()
     {
         return config.getUsername();
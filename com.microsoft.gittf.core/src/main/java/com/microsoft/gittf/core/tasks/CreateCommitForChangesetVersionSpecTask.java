@@ -26,13 +26,11 @@ package com.microsoft.gittf.core.tasks;
 
 import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
 
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -46,23 +44,30 @@ import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.treewalk.TreeWalk;
 
-import com.microsoft.gittf.core.GitTFConstants;
 import com.microsoft.gittf.core.Messages;
+import com.microsoft.gittf.core.config.ChangesetCommitBatch;
 import com.microsoft.gittf.core.config.ChangesetCommitMap;
+import com.microsoft.gittf.core.config.ContentHashIndex;
 import com.microsoft.gittf.core.interfaces.VersionControlService;
 import com.microsoft.gittf.core.tasks.framework.TaskProgressDisplay;
 import com.microsoft.gittf.core.tasks.framework.TaskProgressMonitor;
 import com.microsoft.gittf.core.tasks.framework.TaskStatus;
+import com.microsoft.gittf.core.util.ChangesetDelta;
+import com.microsoft.gittf.core.util.ChangesetListing;
 import com.microsoft.gittf.core.util.Check;
-import com.microsoft.gittf.core.util.tree.CommitTreeEntry;
-import com.microsoft.gittf.core.util.tree.CommitTreePath;
-import com.microsoft.gittf.core.util.tree.CommitTreePathComparator;
+import com.microsoft.gittf.core.util.ContentBuffer;
+import com.microsoft.gittf.core.util.ItemDownloader;
+import com.microsoft.gittf.core.util.ItemManifest;
+import com.microsoft.gittf.core.util.PackObjectInserter;
+import com.microsoft.gittf.core.util.WorkItemResolver;
+import com.microsoft.gittf.core.util.ItemDownloader.ItemDownload;
+import com.microsoft.gittf.core.util.tree.CommitTreeBuilder;
 import com.microsoft.tfs.core.artifact.ArtifactID;
 import com.microsoft.tfs.core.artifact.ArtifactIDFactory;
 import com.microsoft.tfs.core.clients.versioncontrol.PropertyConstants;
 import com.microsoft.tfs.core.clients.versioncontrol.PropertyUtils;
-import com.microsoft.tfs.core.clients.versioncontrol.exceptions.VersionControlException;
 import com.microsoft.tfs.core.clients.versioncontrol.path.ServerPath;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Change;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Changeset;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Item;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.ItemType;
@@ -89,14 +94,25 @@ public class CreateCommitForChangesetVersionSpecTask
     private final Changeset changeset;
     private ObjectId commitTreeID;
     private final WorkItemClient witClient;
-    private Item[] committedItems;
-    private final Item[] previousChangesetItems;
+    private ItemManifest committedManifest;
+    private final ItemManifest previousManifest;
+
+    /* The files written to the commit and their blobs, recorded in the manifest once the commit exists */
+    private final List<Item> committedFiles = new ArrayList<Item>();
+    private final List<ObjectId> committedBlobIDs = new ArrayList<ObjectId>();
+
+    private ChangesetListing prefetchedListing;
+    private ItemDownloader sharedDownloader;
+    private ObjectId parentTreeID;
+    private ContentHashIndex sharedContentHashIndex;
+    private PackObjectInserter sharedInserter;
+    private WorkItemResolver workItemResolver;
 
     public CreateCommitForChangesetVersionSpecTask(
         final Repository repository,
         final VersionControlService versionControlClient,
         final Changeset changeset,
-        final Item[] previousCommittedItems,
+        final ItemManifest previousManifest,
         final ObjectId parentCommitID,
         final WorkItemClient witClient)
     {
@@ -107,7 +123,7 @@ public class CreateCommitForChangesetVersionSpecTask
         this.changesetID = changeset.getChangesetID();
         this.witClient = witClient;
         this.changeset = changeset;
-        this.previousChangesetItems = previousCommittedItems;
+        this.previousManifest = previousManifest;
     }
 
     public ObjectId getCommitTreeID()
@@ -115,6 +131,89 @@ public class CreateCommitForChangesetVersionSpecTask
         return commitTreeID;
     }
 
+    /**
+     * Sets the listing of the changeset if it has already been listed, so that
+     * the task does not query the server for the items again. Listed items
+     * must have been selected with the path filter of the repository.
+     * 
+     * If only the changes of the changeset were listed, they are applied to
+     * the manifest of the previous changeset, which is patched in place and
+     * becomes the committed manifest. Otherwise the items are listed from the
+     * server.
+     * 
+     * @param prefetchedListing
+     *        the listing of the changeset
+     */
+    public void setPrefetchedListing(final ChangesetListing prefetchedListing)
+    {
+        this.prefetchedListing = prefetchedListing;
+    }
+
+    /**
+     * Sets the downloader to use instead of creating one for this task. The
+     * downloader is not closed by the task.
+     * 
+     * @param downloader
+     *        the downloader to share
+     */
+    public void setItemDownloader(final ItemDownloader downloader)
+    {
+        this.sharedDownloader = downloader;
+    }
+
+    /**
+     * Sets the content hash index to use instead of loading it for this task.
+     * 
+     * @param contentHashIndex
+     *        the content hash index to share
+     */
+    public void setContentHashIndex(final ContentHashIndex contentHashIndex)
+    {
+        this.sharedContentHashIndex = contentHashIndex;
+    }
+
+    /**
+     * Sets the inserter to write the objects of the commit with instead of
+     * creating one for this task. The inserter is neither flushed nor released
+     * by the task, so the objects of many commits can be written to the same
+     * pack. Nor is the content hash index saved, it must be saved once the
+     * inserter has been flushed, see
+     * {@link ChangesetCommitBatch#setContentHashIndex(ContentHashIndex)}.
+     * 
+     * @param inserter
+     *        the inserter to share
+     */
+    public void setObjectInserter(final PackObjectInserter inserter)
+    {
+        this.sharedInserter = inserter;
+    }
+
+    /**
+     * Sets the resolver that looks up the work items associated with the
+     * changeset ahead of time, instead of querying them when the commit is
+     * created.
+     * 
+     * @param workItemResolver
+     *        the work item resolver to share
+     */
+    public void setWorkItemResolver(final WorkItemResolver workItemResolver)
+    {
+        this.workItemResolver = workItemResolver;
+    }
+
+    /**
+     * Sets the tree of the parent commit when that tree was built from the
+     * previous committed items. The commit tree is then created by rewriting
+     * only the folders that changed since the parent commit.
+     * 
+     * @param parentTreeID
+     *        the tree of the parent commit
+     */
+    public void setParentTreeID(final ObjectId parentTreeID)
+    {
+        this.parentTreeID = parentTreeID;
+    }
+
     @Override
     public TaskStatus run(final TaskProgressMonitor progressMonitor)
     {
@@ -122,6 +221,8 @@ public class CreateCommitForChangesetVersionSpecTask
             Integer.toString(changesetID)), 1, TaskProgressDisplay.DISPLAY_SUBTASK_DETAIL);
 
         ObjectInserter repositoryInserter = null;
+        ObjectReader repositoryReader = null;
+        ItemDownloader downloader = null;
 
         try
         {
@@ -136,62 +237,180 @@ public class CreateCommitForChangesetVersionSpecTask
             }
 
             /*
-             * Retrieve the items at the specified changeset version from the
-             * server
+             * If only the changes of the changeset were listed and the parent
+             * commit's tree was built from the previous manifest, the changes
+             * are applied to that manifest and tree. Otherwise retrieve the
+             * items at the specified changeset version from the server,
+             * leaving out the paths that are not bridged.
              */
+            final Change[] changes = prefetchedListing != null ? prefetchedListing.getChanges() : null;
+            final ChangesetDelta delta =
+                changes != null && previousManifest != null && parentTreeID != null ? ChangesetDelta.create(
+                    previousManifest,
+                    pathFilter,
+                    changes) : null;
+
+            Item[] committedItems = null;
 
-            committedItems =
-                versionControlService.getItems(serverPath, new ChangesetVersionSpec(changesetID), RecursionType.FULL);
+            if (delta == null)
+            {
+                committedItems =
+                    prefetchedListing != null && prefetchedListing.getItems() != null ? prefetchedListing.getItems()
+                        : pathFilter.filter(serverPath, versionControlService.getItems(
+                            serverPath,
+                            new ChangesetVersionSpec(changesetID),
+                            RecursionType.FULL));
+
+                committedManifest = committedItems != null ? ItemManifest.create(serverPath, committedItems) : null;
+            }
+
+            if (sharedInserter != null)
+            {
+                repositoryInserter = sharedInserter;
+                repositoryReader = sharedInserter.newReader();
+            }
+            else
+            {
+                repositoryInserter = repository.newObjectInserter();
+                repositoryReader = repository.newObjectReader();
+            }
 
             /*
-             * We want to optimize the tree building process. To do so we will
-             * inspect the changeset commit map for the previous changeset
-             * downloaded and use it to extract the objectIds for the files that
-             * have not changed.
+             * If the parent commit's tree was built from the previous items,
+             * only the files that changed since then need to be written and
+             * the trees of untouched folders are reused.
              */
+            Item[] itemsToCommit = committedItems;
+            ObjectId baseTreeID = null;
+            ChangesetCommitItemReader previousChangesetCommitReader = null;
+
+            final List<Item> changedItems = new ArrayList<Item>();
+            final List<String> removedPaths = new ArrayList<String>();
 
-            final ChangesetCommitMap changesetCommitMap = new ChangesetCommitMap(repository);
-            final int previousChangesetId = changesetCommitMap.getPreviousBridgedChangeset(changesetID, true);
-            final ObjectId previousChangesetCommitId =
-                previousChangesetId >= 0 ? changesetCommitMap.getCommitID(previousChangesetId, true) : null;
+            if (delta != null)
+            {
+                itemsToCommit = delta.getChangedItems();
+                removedPaths.addAll(delta.getRemovedPaths());
+                baseTreeID = parentTreeID;
+            }
+            else if (parentTreeID != null
+                && previousManifest != null
+                && committedItems != null
+                && getChanges(previousManifest, committedItems, committedManifest, changedItems, removedPaths))
+            {
+                itemsToCommit = changedItems.toArray(new Item[changedItems.size()]);
+                baseTreeID = parentTreeID;
+            }
+            else
+            {
+                /*
+                 * We want to optimize the tree building process. To do so we
+                 * will inspect the changeset commit map for the previous
+                 * changeset downloaded and use it to extract the objectIds for
+                 * the files that have not changed.
+                 */
+
+                final ChangesetCommitMap changesetCommitMap = new ChangesetCommitMap(repository);
+                final int previousChangesetId = changesetCommitMap.getPreviousBridgedChangeset(changesetID, true);
+                final ObjectId previousChangesetCommitId =
+                    previousChangesetId >= 0 ? changesetCommitMap.getCommitID(previousChangesetId, true) : null;
+
+                previousChangesetCommitReader =
+                    new ChangesetCommitItemReader(
+                        repositoryReader,
+                        previousChangesetId,
+                        previousChangesetCommitId,
+                        previousManifest);
+
+                removedPaths.clear();
+            }
 
-            final ChangesetCommitItemReader previousChangesetCommitReader =
-                new ChangesetCommitItemReader(previousChangesetId, previousChangesetCommitId, previousChangesetItems);
+            final CommitTreeBuilder treeBuilder = new CommitTreeBuilder(repositoryReader, baseTreeID);
 
-            /*
-             * We want trees sorted by children first so we can simply walk them
-             * (child-first) to build the hierarchy once we've finished
-             * inserting blobs.
-             */
-            final Map<CommitTreePath, Map<CommitTreePath, CommitTreeEntry>> treeHierarchy =
-                new TreeMap<CommitTreePath, Map<CommitTreePath, CommitTreeEntry>>(new CommitTreePathComparator());
+            for (final String removedPath : removedPaths)
+            {
+                treeBuilder.remove(removedPath);
+            }
 
-            repositoryInserter = repository.newObjectInserter();
+            downloader =
+                sharedDownloader != null ? sharedDownloader : new ItemDownloader(versionControlService, tempDir);
+            final ContentHashIndex contentHashIndex =
+                sharedContentHashIndex != null ? sharedContentHashIndex : new ContentHashIndex(repository);
 
             /*
              * Phase one: insert files as blobs in the git repository and add
-             * them to the TreeFormatter for their parent folder.
+             * them to the tree builder. Items that need to be downloaded are
+             * fetched by the downloader's worker threads while this thread
+             * inserts the ones that have already arrived, in the order they
+             * were submitted.
              */
-            if (committedItems != null)
+            if (itemsToCommit != null)
             {
-                progressMonitor.setWork(committedItems.length);
-                for (final Item item : committedItems)
+                progressMonitor.setWork(itemsToCommit.length);
+                for (final Item item : itemsToCommit)
                 {
-                    createBlob(repositoryInserter, treeHierarchy, previousChangesetCommitReader, item, progressMonitor);
+                    createBlob(
+                        repositoryReader,
+                        treeBuilder,
+                        previousChangesetCommitReader,
+                        contentHashIndex,
+                        downloader,
+                        item,
+                        progressMonitor);
+
+                    while (downloader.isFull())
+                    {
+                        insertDownloadedBlob(
+                            repositoryInserter,
+                            treeBuilder,
+                            contentHashIndex,
+                            downloader.next(),
+                            progressMonitor);
+                    }
+                }
 
-                    progressMonitor.worked(1);
+                while (downloader.hasPendingDownloads())
+                {
+                    insertDownloadedBlob(
+                        repositoryInserter,
+                        treeBuilder,
+                        contentHashIndex,
+                        downloader.next(),
+                        progressMonitor);
                 }
             }
 
-            /* Phase two: add child trees to their parents. */
+            /* Phase two: write the trees of the folders that changed. */
             progressMonitor.setDetail(Messages.getString("CreateCommitTask.CreatingTrees")); //$NON-NLS-1$
-            final ObjectId rootTree = createTrees(repositoryInserter, treeHierarchy);
+            final ObjectId rootTree = treeBuilder.build(repositoryInserter);
 
             /* Phase three: create the commit. */
             progressMonitor.setDetail(Messages.getString("CreateCommitTask.CreatingCommit")); //$NON-NLS-1$            
             final ObjectId commit = createCommit(repositoryInserter, rootTree, changeset);
 
-            repositoryInserter.flush();
+            /*
+             * The content hash index may only refer to blobs that have been
+             * flushed, the owner of a shared inserter saves it after flushing.
+             */
+            if (repositoryInserter != sharedInserter)
+            {
+                repositoryInserter.flush();
+
+                saveContentHashIndex(contentHashIndex);
+            }
+
+            /*
+             * Patch the previous manifest only once the commit exists, if the
+             * task fails the caller keeps it as the manifest of the parent
+             * commit.
+             */
+            if (delta != null)
+            {
+                delta.apply();
+                committedManifest = previousManifest;
+            }
+
+            recordBlobIDs();
 
             FileHelpers.deleteDirectory(tempDir);
 
@@ -209,111 +428,305 @@ public class CreateCommitForChangesetVersionSpecTask
         }
         finally
         {
-            if (repositoryInserter != null)
+            if (downloader != null && downloader != sharedDownloader)
+            {
+                downloader.close();
+            }
+
+            if (repositoryInserter != null && repositoryInserter != sharedInserter)
             {
                 repositoryInserter.release();
             }
+
+            if (repositoryReader != null)
+            {
+                repositoryReader.release();
+            }
+        }
+    }
+
+    /**
+     * Compares the items of the previous changeset with the items of this
+     * changeset. The blob ids of unchanged files are copied to the manifest of
+     * this changeset.
+     * 
+     * @return <code>false</code> if the changes cannot be applied to the
+     *         previous tree, which is the case when a folder name changed case
+     */
+    private static boolean getChanges(
+        final ItemManifest previousManifest,
+        final Item[] items,
+        final ItemManifest manifest,
+        final List<Item> changedItems,
+        final List<String> removedPaths)
+    {
+        final boolean[] found = new boolean[previousManifest.size()];
+
+        for (final Item item : items)
+        {
+            final int previousNode = previousManifest.find(item.getServerItem());
+
+            if (previousNode >= 0)
+            {
+                found[previousNode] = true;
+            }
+
+            if (item.getItemType() == ItemType.FOLDER)
+            {
+                if (previousNode < 0)
+                {
+                    continue;
+                }
+
+                if (previousManifest.isFile(previousNode))
+                {
+                    removedPaths.add(previousManifest.getRepositoryPath(previousNode));
+                }
+                else if (previousManifest.isFolder(previousNode)
+                    && !previousManifest.hasSameCase(previousNode, item.getServerItem()))
+                {
+                    return false;
+                }
+            }
+            else if (previousNode < 0
+                || !previousManifest.isFile(previousNode)
+                || previousManifest.getChangesetID(previousNode) != item.getChangeSetID()
+                || !previousManifest.hasSameCase(previousNode, item.getServerItem()))
+            {
+                changedItems.add(item);
+            }
+            else
+            {
+                manifest.copyBlobID(manifest.find(item.getServerItem()), previousManifest, previousNode);
+            }
+        }
+
+        for (int previousNode = 0; previousNode < found.length; previousNode++)
+        {
+            if (!found[previousNode] && previousManifest.isFile(previousNode))
+            {
+                removedPaths.add(previousManifest.getRepositoryPath(previousNode));
+            }
         }
+
+        return true;
     }
 
     private void createBlob(
-        final ObjectInserter repositoryInserter,
-        final Map<CommitTreePath, Map<CommitTreePath, CommitTreeEntry>> treeHierarchy,
+        final ObjectReader repositoryReader,
+        final CommitTreeBuilder treeBuilder,
         final ChangesetCommitItemReader previousChangesetCommitReader,
+        final ContentHashIndex contentHashIndex,
+        final ItemDownloader downloader,
         final Item item,
         final TaskProgressMonitor progressMonitor)
         throws Exception
     {
-        Check.notNull(repositoryInserter, "repositoryInserter"); //$NON-NLS-1$
-        Check.notNull(treeHierarchy, "treeHierarchy"); //$NON-NLS-1$
-        Check.notNull(previousChangesetCommitReader, "previousChangesetCommitReader"); //$NON-NLS-1$
+        Check.notNull(treeBuilder, "treeBuilder"); //$NON-NLS-1$
+        Check.notNull(downloader, "downloader"); //$NON-NLS-1$
         Check.notNull(item, "item"); //$NON-NLS-1$
         Check.notNull(progressMonitor, "progressMonitor"); //$NON-NLS-1$
 
         if (item.getItemType() == ItemType.FOLDER)
         {
+            progressMonitor.worked(1);
             return;
         }
 
-        File tempFile = null;
-        InputStream tempInputStream = null;
-        ObjectId blobID = null;
+        ObjectId blobID =
+            previousChangesetCommitReader != null ? previousChangesetCommitReader.getFileObjectId(
+                item.getServerItem(),
+                item.getChangeSetID()) : null;
 
-        try
+        if (blobID == null || ObjectId.equals(blobID, ObjectId.zeroId()))
         {
-            blobID = previousChangesetCommitReader.getFileObjectId(item.getServerItem(), item.getChangeSetID());
+            /*
+             * The same content may have been downloaded before under another
+             * path or version
+             */
+            blobID = contentHashIndex.get(item.getContentHashValue());
 
-            if (blobID == null || ObjectId.equals(blobID, ObjectId.zeroId()))
+            if (blobID != null && repositoryReader.has(blobID, OBJ_BLOB))
             {
-                tempFile = File.createTempFile(GitTFConstants.GIT_TF_NAME, null, tempDir);
+                /* The item may have been prefetched before its content was */
+                downloader.discard(item);
 
-                try
-                {
-                    versionControlService.downloadFile(item, tempFile.getAbsolutePath());
-                }
-                catch (VersionControlException e)
-                {
-                    // if the user is denied read permissions on the file an
-                    // exception will be thrown here.
+                addBlob(treeBuilder, item, blobID, progressMonitor);
 
-                    final String itemName = item.getServerItem() == null ? "" : item.getServerItem(); //$NON-NLS-1$
+                progressMonitor.worked(1);
+                return;
+            }
 
-                    progressMonitor.displayWarning(Messages.formatString(
-                        "CreateCommitForChangesetVersionSpecTask.NoContentDueToPermissionOrDestroyFormat", //$NON-NLS-1$
-                        itemName));
+            /* The blob will be inserted once the download completes */
+            downloader.submit(item);
+            return;
+        }
 
-                    log.error(e);
+        downloader.discard(item);
 
-                    return;
-                }
+        addBlob(treeBuilder, item, blobID, progressMonitor);
 
-                if (tempFile.exists())
-                {
-                    tempInputStream = new FileInputStream(tempFile);
-                    blobID = repositoryInserter.insert(OBJ_BLOB, tempFile.length(), tempInputStream);
-                }
-                else
-                {
-                    blobID = ObjectId.zeroId();
-                }
+        progressMonitor.worked(1);
+    }
+
+    private void insertDownloadedBlob(
+        final ObjectInserter repositoryInserter,
+        final CommitTreeBuilder treeBuilder,
+        final ContentHashIndex contentHashIndex,
+        final ItemDownload download,
+        final TaskProgressMonitor progressMonitor)
+        throws Exception
+    {
+        Check.notNull(repositoryInserter, "repositoryInserter"); //$NON-NLS-1$
+        Check.notNull(treeBuilder, "treeBuilder"); //$NON-NLS-1$
+        Check.notNull(download, "download"); //$NON-NLS-1$
+        Check.notNull(progressMonitor, "progressMonitor"); //$NON-NLS-1$
+
+        final Item item = download.getItem();
+        InputStream contentStream = null;
+
+        try
+        {
+            if (download.getError() != null)
+            {
+                // if the user is denied read permissions on the file an
+                // exception will be thrown here.
+
+                final String itemName = item.getServerItem() == null ? "" : item.getServerItem(); //$NON-NLS-1$
+
+                progressMonitor.displayWarning(Messages.formatString(
+                    "CreateCommitForChangesetVersionSpecTask.NoContentDueToPermissionOrDestroyFormat", //$NON-NLS-1$
+                    itemName));
+
+                log.error(download.getError());
+
+                /* Do not keep the content of a previous version either */
+                treeBuilder.remove(getRepositoryPath(item));
+
+                return;
             }
 
-            FileMode fileMode = FileMode.REGULAR_FILE;
+            final ObjectId blobID;
+            final ContentBuffer content = download.getContent();
 
-            /* handle executable files */
-            if (item.getPropertyValues() != null)
+            if (content != null)
             {
-                if (PropertyConstants.EXECUTABLE_ENABLED_VALUE.equals(PropertyUtils.selectMatching(
-                    item.getPropertyValues(),
-                    PropertyConstants.EXECUTABLE_KEY)))
-                {
-                    fileMode = FileMode.EXECUTABLE_FILE;
-                }
+                contentStream = content.openInputStream();
+                blobID = repositoryInserter.insert(OBJ_BLOB, content.length(), contentStream);
+
+                contentHashIndex.put(item.getContentHashValue(), blobID);
+            }
+            else
+            {
+                blobID = ObjectId.zeroId();
             }
 
-            createBlob(repositoryInserter, treeHierarchy, item.getServerItem(), blobID, fileMode, progressMonitor);
+            addBlob(treeBuilder, item, blobID, progressMonitor);
         }
         finally
         {
-            if (tempInputStream != null)
+            if (contentStream != null)
+            {
+                contentStream.close();
+            }
+
+            download.dispose();
+
+            progressMonitor.worked(1);
+        }
+    }
+
+    private void saveContentHashIndex(final ContentHashIndex contentHashIndex)
+    {
+        try
+        {
+            contentHashIndex.save();
+        }
+        catch (IOException e)
+        {
+            /* Not fatal, the content will be downloaded again if needed */
+            log.warn(e);
+        }
+    }
+
+    private void addBlob(
+        final CommitTreeBuilder treeBuilder,
+        final Item item,
+        final ObjectId blobID,
+        final TaskProgressMonitor progressMonitor)
+    {
+        progressMonitor.setDetail(ServerPath.getFileName(item.getServerItem()));
+
+        treeBuilder.add(getRepositoryPath(item), getFileMode(item), blobID);
+
+        committedFiles.add(item);
+        committedBlobIDs.add(blobID);
+    }
+
+    private void recordBlobIDs()
+    {
+        if (committedManifest == null)
+        {
+            return;
+        }
+
+        for (int i = 0; i < committedFiles.size(); i++)
+        {
+            final int node = committedManifest.find(committedFiles.get(i).getServerItem());
+
+            if (node >= 0)
             {
-                tempInputStream.close();
+                committedManifest.setBlobID(node, committedBlobIDs.get(i));
             }
+        }
+    }
+
+    private String getRepositoryPath(final Item item)
+    {
+        return ServerPath.makeRelative(item.getServerItem(), serverPath);
+    }
 
-            if (tempFile != null)
+    private FileMode getFileMode(final Item item)
+    {
+        /* handle executable files */
+        if (item.getPropertyValues() != null)
+        {
+            if (PropertyConstants.EXECUTABLE_ENABLED_VALUE.equals(PropertyUtils.selectMatching(
+                item.getPropertyValues(),
+                PropertyConstants.EXECUTABLE_KEY)))
             {
-                tempFile.delete();
+                return FileMode.EXECUTABLE_FILE;
             }
         }
+
+        return FileMode.REGULAR_FILE;
     }
 
     private String getMentions()
+        throws InterruptedException
     {
         if (witClient == null)
         {
             return ""; //$NON-NLS-1$
         }
 
+        if (workItemResolver != null)
+        {
+            final Map<Integer, String> resolvedWorkItems = workItemResolver.getWorkItems(changesetID);
+
+            if (resolvedWorkItems != null)
+            {
+                final StringBuilder sb = new StringBuilder();
+
+                for (final Map.Entry<Integer, String> workItem : resolvedWorkItems.entrySet())
+                {
+                    addWorkItem(sb, workItem.getKey(), workItem.getValue());
+                }
+
+                return sb.toString();
+            }
+        }
+
         final WorkItem[] workItems = getChangesetWorkItems(changesetID);
         if (workItems == null)
         {
@@ -330,28 +743,38 @@ public class CreateCommitForChangesetVersionSpecTask
         return sb.toString();
     }
 
-    public Item[] getCommittedItems()
+    /**
+     * @return the manifest of the items of the changeset, including the blob
+     *         ids of the files in the commit
+     */
+    public ItemManifest getCommittedManifest()
     {
-        return committedItems;
+        return committedManifest;
     }
 
     private void addWorkItem(final StringBuilder sb, final WorkItem workItem)
+    {
+        addWorkItem(sb, workItem.getID(), workItem.getFields().getField(CoreFieldReferenceNames.TITLE).getValue());
+    }
+
+    private void addWorkItem(final StringBuilder sb, final int workItemID, final Object title)
     {
         sb.append(NEWLINE);
         sb.append(HASH);
 
-        final String itemID = Integer.toString(workItem.getID());
+        final String itemID = Integer.toString(workItemID);
         sb.append(itemID);
         sb.append(SPACES.substring(0, Math.max(1, WIT_TITLE_PAD_WIDTH - itemID.length())));
 
-        sb.append(workItem.getFields().getField(CoreFieldReferenceNames.TITLE).getValue());
+        sb.append(title);
     }
 
     private ObjectId createCommit(
         final ObjectInserter repositoryInserter,
         final ObjectId rootTree,
         final Changeset changeset)
-        throws IOException
+        throws IOException,
+            InterruptedException
     {
         Check.notNull(changeset, "changeset"); //$NON-NLS-1$
         Check.notNull(repositoryInserter, "repositoryInserter"); //$NON-NLS-1$
@@ -373,60 +796,45 @@ public class CreateCommitForChangesetVersionSpecTask
     {
         private boolean initialized = false;
 
+        private final ObjectReader objectReader;
         private final int changesetID;
         private final ObjectId commitId;
 
-        private RevTree commitRevTree;
-        private ObjectReader objectReader;
-        private final Item[] committedItems;
+        /* The items of the commit, the blob ids are filled in from the commit */
+        private final ItemManifest manifest;
 
-        private Map<String, Integer> changesetItems;
-
-        public ChangesetCommitItemReader(final int changesetId, final ObjectId commitId, final Item[] committedItems)
+        public ChangesetCommitItemReader(
+            final ObjectReader objectReader,
+            final int changesetId,
+            final ObjectId commitId,
+            final ItemManifest manifest)
         {
+            this.objectReader = objectReader;
             this.changesetID = changesetId;
             this.commitId = commitId;
-            this.committedItems = committedItems;
+            this.manifest = manifest;
         }
 
         public ObjectId getFileObjectId(final String itemServerPath, final int requestedVersion)
         {
-            if (!initialized)
+            if (manifest == null)
             {
-                initialize();
+                return null;
             }
 
-            if (commitRevTree == null || objectReader == null)
+            final int node = manifest.find(itemServerPath);
+
+            if (node < 0 || !manifest.isFile(node) || manifest.getChangesetID(node) != requestedVersion)
             {
                 return null;
             }
 
-            TreeWalk file;
-            try
-            {
-                if (commitContainsFileAtVersion(itemServerPath, requestedVersion))
-                {
-                    file =
-                        TreeWalk.forPath(
-                            objectReader,
-                            ServerPath.makeRelative(itemServerPath, serverPath),
-                            commitRevTree);
-
-                    if (file == null)
-                    {
-                        return null;
-                    }
-
-                    return file.getObjectId(0);
-                }
-            }
-            catch (Exception e)
+            if (!manifest.hasBlobID(node) && !initialized)
             {
-                // if we cannot read the object then we do not need to optimize
-                // the call
+                initialize();
             }
 
-            return null;
+            return manifest.getBlobID(node);
         }
 
         private void initialize()
@@ -435,52 +843,49 @@ public class CreateCommitForChangesetVersionSpecTask
 
             initialized = true;
 
-            if (commitId != null)
+            if (commitId == null)
             {
-                final RevWalk walker = new RevWalk(repository);
+                return;
+            }
 
-                try
-                {
-                    final RevCommit revCommit = walker.parseCommit(commitId);
-                    commitRevTree = revCommit.getTree();
-                    objectReader = repository.newObjectReader();
-                }
-                catch (Exception e)
-                {
-                    // if we cannot read the object then we do not need to
-                    // optimize the call
-                    commitRevTree = null;
-                    objectReader = null;
+            /*
+             * Walk the commit tree once and record the blob of every file in
+             * the manifest, rather than looking up every path from the root
+             * tree. The walkers share the task's reader, which also sees
+             * objects that have been inserted but not flushed yet, so they are
+             * not released here.
+             */
+            final RevWalk walker = new RevWalk(objectReader);
 
-                    return;
-                }
-                finally
+            try
+            {
+                final RevTree commitRevTree = walker.parseCommit(commitId).getTree();
+
+                final TreeWalk treeWalker = new TreeWalk(objectReader);
+                treeWalker.addTree(commitRevTree);
+                treeWalker.setRecursive(true);
+
+                while (treeWalker.next())
                 {
-                    if (walker != null)
+                    if (treeWalker.getFileMode(0).getObjectType() != OBJ_BLOB)
                     {
-                        walker.release();
+                        continue;
                     }
-                }
 
-                changesetItems = new HashMap<String, Integer>(committedItems.length);
-                for (final Item item : committedItems)
-                {
-                    changesetItems.put(item.getServerItem().toLowerCase(), item.getChangeSetID());
+                    final int node = manifest.findRepositoryPath(treeWalker.getPathString());
+
+                    if (node >= 0 && manifest.isFile(node) && !manifest.hasBlobID(node))
+                    {
+                        manifest.setBlobID(node, treeWalker.getObjectId(0));
+                    }
                 }
             }
-        }
-
-        private boolean commitContainsFileAtVersion(final String filePath, final int requestedVersion)
-        {
-            final String filePathKey = filePath.toLowerCase();
-
-            if (changesetItems.containsKey(filePathKey))
+            catch (Exception e)
             {
-                final int changesetVersionInChangeset = changesetItems.get(filePathKey);
-                return changesetVersionInChangeset == requestedVersion;
+                // if we cannot read the object then we do not need to
+                // optimize the call
+                log.debug("Could not read the commit of changeset " + changesetID, e); //$NON-NLS-1$
             }
-
-            return false;
         }
     }
 
@@ -26,8 +26,6 @@ package com.microsoft.gittf.core.tasks;
 
 import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
 
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Calendar;
@@ -50,7 +48,6 @@ import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.treewalk.NameConflictTreeWalk;
 import org.eclipse.jgit.treewalk.TreeWalk;
 
-import com.microsoft.gittf.core.GitTFConstants;
 import com.microsoft.gittf.core.Messages;
 import com.microsoft.gittf.core.config.ChangesetCommitMap;
 import com.microsoft.gittf.core.interfaces.VersionControlService;
@@ -58,6 +55,7 @@ import com.microsoft.gittf.core.tasks.framework.TaskProgressDisplay;
 import com.microsoft.gittf.core.tasks.framework.TaskProgressMonitor;
 import com.microsoft.gittf.core.tasks.framework.TaskStatus;
 import com.microsoft.gittf.core.util.Check;
+import com.microsoft.gittf.core.util.ContentBuffer;
 import com.microsoft.gittf.core.util.StashUtil;
 import com.microsoft.gittf.core.util.tree.CommitTreeEntry;
 import com.microsoft.gittf.core.util.tree.CommitTreePath;
@@ -82,6 +80,9 @@ public abstract class CreateCommitForPendingSetsTask
 
     private boolean createStashCommit = false;
 
+    /* Reused for every item downloaded by this task */
+    private ContentBuffer contentBuffer;
+
     public CreateCommitForPendingSetsTask(
         final Repository repository,
         final VersionControlService versionControlClient,
@@ -510,27 +511,31 @@ public abstract class CreateCommitForPendingSetsTask
             return;
         }
 
-        File tempFile = null;
-        InputStream tempInputStream = null;
+        if (contentBuffer == null)
+        {
+            contentBuffer = new ContentBuffer(tempDir);
+        }
+
+        InputStream contentStream = null;
         ObjectId blobID = null;
 
         try
         {
-            tempFile = File.createTempFile(GitTFConstants.GIT_TF_NAME, null, tempDir);
+            final boolean hasContent;
 
             if (addBaseContent)
             {
-                versionControlService.downloadBaseFile(pendingChange, tempFile.getAbsolutePath());
+                hasContent = versionControlService.downloadBaseFile(pendingChange, contentBuffer);
             }
             else
             {
-                versionControlService.downloadShelvedFile(pendingChange, tempFile.getAbsolutePath());
+                hasContent = versionControlService.downloadShelvedFile(pendingChange, contentBuffer);
             }
 
-            if (tempFile.exists())
+            if (hasContent)
             {
-                tempInputStream = new FileInputStream(tempFile);
-                blobID = repositoryInserter.insert(OBJ_BLOB, tempFile.length(), tempInputStream);
+                contentStream = contentBuffer.openInputStream();
+                blobID = repositoryInserter.insert(OBJ_BLOB, contentBuffer.length(), contentStream);
             }
             else
             {
@@ -566,15 +571,12 @@ public abstract class CreateCommitForPendingSetsTask
         }
         finally
         {
-            if (tempInputStream != null)
+            if (contentStream != null)
             {
-                tempInputStream.close();
+                contentStream.close();
             }
 
-            if (tempFile != null)
-            {
-                tempFile.delete();
-            }
+            contentBuffer.reset();
         }
     }
 
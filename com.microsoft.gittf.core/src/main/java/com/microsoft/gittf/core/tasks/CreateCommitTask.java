@@ -50,6 +50,7 @@ import com.microsoft.gittf.core.tasks.framework.Task;
 import com.microsoft.gittf.core.tasks.framework.TaskProgressMonitor;
 import com.microsoft.gittf.core.util.Check;
 import com.microsoft.gittf.core.util.DirectoryUtil;
+import com.microsoft.gittf.core.util.PathFilter;
 import com.microsoft.gittf.core.util.RepositoryPath;
 import com.microsoft.gittf.core.util.tree.CommitTreeEntry;
 import com.microsoft.gittf.core.util.tree.CommitTreePath;
@@ -63,6 +64,7 @@ public abstract class CreateCommitTask
     protected final ObjectId parentCommitID;
 
     protected final String serverPath;
+    protected final PathFilter pathFilter;
     protected final File tempDir;
 
     protected ObjectId commitId;
@@ -85,6 +87,8 @@ public abstract class CreateCommitTask
         this.serverPath = configuration.getServerPath();
         Check.notNullOrEmpty(serverPath, "serverPath"); //$NON-NLS-1$
 
+        this.pathFilter = PathFilter.create(configuration);
+
         /* Set up a temporary directory */
         this.tempDir = DirectoryUtil.getTempDir(repository);
         Check.notNull(tempDir, "tempDir"); //$NON-NLS-1$
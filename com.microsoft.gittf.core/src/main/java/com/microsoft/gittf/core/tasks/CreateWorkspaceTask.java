@@ -43,6 +43,7 @@ import com.microsoft.gittf.core.tasks.framework.TaskProgressMonitor;
 import com.microsoft.gittf.core.tasks.framework.TaskStatus;
 import com.microsoft.gittf.core.util.Check;
 import com.microsoft.gittf.core.util.DirectoryUtil;
+import com.microsoft.gittf.core.util.WorkspacePool;
 import com.microsoft.tfs.core.clients.versioncontrol.VersionControlClient;
 import com.microsoft.tfs.core.clients.versioncontrol.WorkspaceLocation;
 import com.microsoft.tfs.core.clients.versioncontrol.WorkspaceOptions;
@@ -68,6 +69,7 @@ public class CreateWorkspaceTask
 
     private WorkspaceService workspace;
     private File workingFolder;
+    private WorkspacePool.Lease lease;
 
     public CreateWorkspaceTask(
         final VersionControlClient versionControlClient,
@@ -100,6 +102,72 @@ public class CreateWorkspaceTask
 
     @Override
     public TaskStatus run(final TaskProgressMonitor progressMonitor)
+    {
+        progressMonitor.beginTask(Messages.getString("CreateWorkspaceTask.CreatingWorkspace"), //$NON-NLS-1$
+            TaskProgressMonitor.INDETERMINATE,
+            TaskProgressDisplay.DISPLAY_PROGRESS);
+
+        if (!ServerPath.isServerPath(serverPath))
+        {
+            return new TaskStatus(TaskStatus.ERROR, Messages.formatString(
+                "CreateWorkspaceTask.TFSPathNotValidFormat", //$NON-NLS-1$
+                serverPath));
+        }
+
+        if (preview)
+        {
+            return createPreviewWorkspace(progressMonitor);
+        }
+
+        /* Reuse a pooled workspace when one is free */
+        final WorkspacePool.Lease pooledLease = new WorkspacePool(versionControlClient, repository, serverPath).lease();
+
+        if (pooledLease != null)
+        {
+            final TaskStatus updateStatus =
+                updateLocalVersion(progressMonitor, pooledLease.getWorkspace(), pooledLease.isInSync());
+
+            if (updateStatus.isOK())
+            {
+                this.lease = pooledLease;
+                this.workspace = new TfsWorkspace(pooledLease.getWorkspace());
+                this.workingFolder = pooledLease.getWorkingFolder();
+
+                progressMonitor.endTask();
+
+                return TaskStatus.OK_STATUS;
+            }
+
+            log.warn(MessageFormat.format("Could not update pooled workspace {0}, using a temporary workspace: {1}", //$NON-NLS-1$
+                pooledLease.getWorkspace().getName(),
+                updateStatus.getMessage()));
+
+            pooledLease.release(false);
+        }
+
+        return createTemporaryWorkspace(progressMonitor);
+    }
+
+    private TaskStatus createPreviewWorkspace(final TaskProgressMonitor progressMonitor)
+    {
+        final File tempFolder = DirectoryUtil.getTempDir(repository);
+
+        if (!tempFolder.mkdirs())
+        {
+            return new TaskStatus(TaskStatus.ERROR, Messages.formatString(
+                "CreateWorkspaceTask.CouldNotCreateTempDirFormat", //$NON-NLS-1$
+                tempFolder.getAbsolutePath()));
+        }
+
+        this.workspace = new PreviewOnlyWorkspace(progressMonitor);
+        this.workingFolder = tempFolder;
+
+        progressMonitor.endTask();
+
+        return TaskStatus.OK_STATUS;
+    }
+
+    private TaskStatus createTemporaryWorkspace(final TaskProgressMonitor progressMonitor)
     {
         final String workspaceName =
             MessageFormat.format("{0}-{1}", GitTFConstants.GIT_TF_NAME, GUID.newGUID().getGUIDString()); //$NON-NLS-1$
@@ -108,68 +176,33 @@ public class CreateWorkspaceTask
         Workspace tempWorkspace = null;
         boolean cleanup = false;
 
-        progressMonitor.beginTask(Messages.getString("CreateWorkspaceTask.CreatingWorkspace"), //$NON-NLS-1$
-            TaskProgressMonitor.INDETERMINATE,
-            TaskProgressDisplay.DISPLAY_PROGRESS);
-
         try
         {
-            if (!ServerPath.isServerPath(serverPath))
-            {
-                return new TaskStatus(TaskStatus.ERROR, Messages.formatString(
-                    "CreateWorkspaceTask.TFSPathNotValidFormat", //$NON-NLS-1$
-                    serverPath));
-            }
-
             tempFolder = DirectoryUtil.getTempDir(repository);
 
             if (!tempFolder.mkdirs())
             {
                 return new TaskStatus(TaskStatus.ERROR, Messages.formatString(
                     "CreateWorkspaceTask.CouldNotCreateTempDirFormat", //$NON-NLS-1$
-                    workingFolder.getAbsolutePath()));
+                    tempFolder.getAbsolutePath()));
             }
 
-            if (!preview)
+            tempWorkspace = versionControlClient.createWorkspace(new WorkingFolder[]
             {
-                tempWorkspace = versionControlClient.createWorkspace(new WorkingFolder[]
-                {
-                    new WorkingFolder(serverPath, tempFolder.getAbsolutePath())
-                }, workspaceName, Messages.getString("CreateWorkspaceTask.WorkspaceComment"), //$NON-NLS-1$
-                    WorkspaceLocation.SERVER,
-                    WorkspaceOptions.NONE);
+                new WorkingFolder(serverPath, tempFolder.getAbsolutePath())
+            }, workspaceName, Messages.getString("CreateWorkspaceTask.WorkspaceComment"), //$NON-NLS-1$
+                WorkspaceLocation.SERVER,
+                WorkspaceOptions.NONE);
 
-                if (updateLocalVersion)
-                {
-                    UpdateLocalVersionTask updateLocalVersionTask = null;
-                    if (localVersionSpec != null)
-                    {
-                        updateLocalVersionTask =
-                            new UpdateLocalVersionToSpecificVersionsTask(tempWorkspace, repository, localVersionSpec);
-                    }
-                    else
-                    {
-                        updateLocalVersionTask =
-                            new UpdateLocalVersionToLatestBridgedChangesetTask(tempWorkspace, repository);
-                    }
-
-                    TaskStatus updateStatus =
-                        new TaskExecutor(progressMonitor.newSubTask(TaskProgressMonitor.INDETERMINATE)).execute(updateLocalVersionTask);
-
-                    if (!updateStatus.isOK())
-                    {
-                        cleanup = true;
-                        return updateStatus;
-                    }
-                }
+            final TaskStatus updateStatus = updateLocalVersion(progressMonitor, tempWorkspace, false);
 
-                this.workspace = new TfsWorkspace(tempWorkspace);
-            }
-            else
+            if (!updateStatus.isOK())
             {
-                this.workspace = new PreviewOnlyWorkspace(progressMonitor);
+                cleanup = true;
+                return updateStatus;
             }
 
+            this.workspace = new TfsWorkspace(tempWorkspace);
             this.workingFolder = tempFolder;
 
             progressMonitor.endTask();
@@ -211,6 +244,33 @@ public class CreateWorkspaceTask
         return TaskStatus.OK_STATUS;
     }
 
+    private TaskStatus updateLocalVersion(
+        final TaskProgressMonitor progressMonitor,
+        final Workspace tfsWorkspace,
+        final boolean incremental)
+    {
+        if (!updateLocalVersion)
+        {
+            return TaskStatus.OK_STATUS;
+        }
+
+        UpdateLocalVersionTask updateLocalVersionTask = null;
+        if (localVersionSpec != null)
+        {
+            updateLocalVersionTask =
+                new UpdateLocalVersionToSpecificVersionsTask(tfsWorkspace, repository, localVersionSpec);
+        }
+        else
+        {
+            updateLocalVersionTask = new UpdateLocalVersionToLatestBridgedChangesetTask(tfsWorkspace, repository);
+        }
+
+        /* A workspace that is in sync only needs the changes since its last use */
+        updateLocalVersionTask.setIncremental(incremental);
+
+        return new TaskExecutor(progressMonitor.newSubTask(TaskProgressMonitor.INDETERMINATE)).execute(updateLocalVersionTask);
+    }
+
     public WorkspaceService getWorkspace()
     {
         return workspace;
@@ -220,4 +280,13 @@ public class CreateWorkspaceTask
     {
         return workingFolder;
     }
+
+    /**
+     * @return the lease on the pooled workspace in use, or <code>null</code>
+     *         if the workspace is temporary and should be deleted after use
+     */
+    public WorkspacePool.Lease getLease()
+    {
+        return lease;
+    }
 }
@@ -40,24 +40,34 @@ import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
 
 import com.microsoft.gittf.core.GitTFConstants;
 import com.microsoft.gittf.core.Messages;
+import com.microsoft.gittf.core.config.ChangesetCommitBatch;
 import com.microsoft.gittf.core.config.ChangesetCommitMap;
+import com.microsoft.gittf.core.config.ContentHashIndex;
 import com.microsoft.gittf.core.config.GitTFConfiguration;
+import com.microsoft.gittf.core.config.ItemManifestStore;
 import com.microsoft.gittf.core.interfaces.VersionControlService;
 import com.microsoft.gittf.core.tasks.framework.Task;
 import com.microsoft.gittf.core.tasks.framework.TaskExecutor;
 import com.microsoft.gittf.core.tasks.framework.TaskProgressDisplay;
 import com.microsoft.gittf.core.tasks.framework.TaskProgressMonitor;
 import com.microsoft.gittf.core.tasks.framework.TaskStatus;
+import com.microsoft.gittf.core.util.ChangesetHistory;
+import com.microsoft.gittf.core.util.ChangesetPrefetcher;
 import com.microsoft.gittf.core.util.Check;
+import com.microsoft.gittf.core.util.DirectoryUtil;
+import com.microsoft.gittf.core.util.ItemManifest;
 import com.microsoft.gittf.core.util.ObjectIdUtil;
+import com.microsoft.gittf.core.util.PackObjectInserter;
+import com.microsoft.gittf.core.util.PathFilter;
 import com.microsoft.gittf.core.util.RepositoryUtil;
 import com.microsoft.gittf.core.util.TfsBranchUtil;
 import com.microsoft.gittf.core.util.VersionSpecUtil;
+import com.microsoft.gittf.core.util.WorkItemResolver;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Changeset;
-import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Item;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.RecursionType;
 import com.microsoft.tfs.core.clients.versioncontrol.specs.version.ChangesetVersionSpec;
 import com.microsoft.tfs.core.clients.versioncontrol.specs.version.LatestVersionSpec;
@@ -136,12 +146,13 @@ public class FetchTask
     {
         boolean alreadyFetched = false;
 
+        final GitTFConfiguration configuration = GitTFConfiguration.loadFrom(repository);
+
         progressMonitor.beginTask(
             Messages.formatString(
-                "FetchTask.FetchingVersionFormat", GitTFConfiguration.loadFrom(repository).getServerPath(), VersionSpecUtil.getDescription(versionSpec)), 1, //$NON-NLS-1$
+                "FetchTask.FetchingVersionFormat", configuration.getServerPath(), VersionSpecUtil.getDescription(versionSpec)), 1, //$NON-NLS-1$
             TaskProgressDisplay.DISPLAY_PROGRESS.combine(TaskProgressDisplay.DISPLAY_SUBTASK_DETAIL));
 
-        final GitTFConfiguration configuration = GitTFConfiguration.loadFrom(repository);
         final ChangesetCommitMap changesetCommitMap = new ChangesetCommitMap(repository);
 
         int latestChangesetID = changesetCommitMap.getLastBridgedChangesetID(true);
@@ -175,6 +186,12 @@ public class FetchTask
             }
         }
 
+        /*
+         * A deep fetch queries the history in pages as it is downloaded, so
+         * only the latest changeset is queried here.
+         */
+        final int maxCount = force && !deep ? Integer.MAX_VALUE : GitTFConstants.GIT_TF_SHALLOW_DEPTH;
+
         Changeset[] latestChangesets =
             versionControlClient.queryHistory(
                 configuration.getServerPath(),
@@ -184,7 +201,7 @@ public class FetchTask
                 null,
                 new ChangesetVersionSpec(force && latestChangesetID > 0 ? latestChangesetID - 1 : latestChangesetID),
                 versionSpec,
-                deep || force ? Integer.MAX_VALUE : GitTFConstants.GIT_TF_SHALLOW_DEPTH,
+                maxCount,
                 false,
                 false,
                 false,
@@ -201,7 +218,7 @@ public class FetchTask
                     null,
                     null,
                     versionSpec,
-                    deep || force ? Integer.MAX_VALUE : GitTFConstants.GIT_TF_SHALLOW_DEPTH,
+                    maxCount,
                     false,
                     false,
                     false,
@@ -238,65 +255,193 @@ public class FetchTask
                 (latestChangesetID >= 0) ? changesetCommitMap.getCommitID(latestChangesetID, true) : null;
 
             /*
-             * Note: since we query history from last bridged changeset ->
-             * latest, we may have gotten the last bridged changeset returned to
-             * us as the last element. (This will be true if depth > number of
-             * changesets since last bridged changeset.) Filter this changeset
-             * out.
+             * The tree of the last bridged commit may not match its changeset
+             * (e.g. when it was created by a check in), so the first fetched
+             * tree is built in full unless the manifest saved by the last fetch
+             * describes that commit.
              */
-            Changeset[] changesets = calculateChangesetsToDownload(latestChangesets, latestChangesetID);
+            ObjectId lastTreeID = null;
 
-            changesetCounter = changesets.length - 1;
-            Item[] previousChangesetItems =
-                versionControlClient.getItems(
-                    configuration.getServerPath(),
-                    new ChangesetVersionSpec(latestChangesetID),
-                    RecursionType.FULL);
+            final PathFilter pathFilter = PathFilter.create(configuration);
 
-            progressMonitor.setWork(changesetCounter + 1);
+            ItemManifest previousManifest = loadManifest(configuration.getServerPath(), pathFilter, lastCommitID);
 
-            for (int i = changesetCounter; i >= 0; i--)
+            if (previousManifest != null)
             {
-                progressMonitor.setDetail(Messages.formatString("FetchTask.ChangesetNumberFormat", //$NON-NLS-1$
-                    Integer.toString(changesets[i].getChangesetID())));
+                lastTreeID = getTreeID(lastCommitID);
+            }
+            else
+            {
+                previousManifest =
+                    ItemManifest.create(configuration.getServerPath(), pathFilter.filter(
+                        configuration.getServerPath(),
+                        versionControlClient.getItems(
+                            configuration.getServerPath(),
+                            new ChangesetVersionSpec(latestChangesetID),
+                            RecursionType.FULL)));
+            }
 
-                CreateCommitForChangesetVersionSpecTask createCommitTask =
-                    new CreateCommitForChangesetVersionSpecTask(
-                        repository,
+            /*
+             * A deep fetch pages through the history since the last bridged
+             * changeset as the changesets are downloaded.
+             * 
+             * Note: otherwise, since we query history from last bridged
+             * changeset -> latest, we may have gotten the last bridged
+             * changeset returned to us as the last element. (This will be true
+             * if depth > number of changesets since last bridged changeset.)
+             * Filter this changeset out.
+             */
+            final ChangesetHistory history;
+
+            if (deep && finalChangesetID > latestChangesetID)
+            {
+                history =
+                    new ChangesetHistory(
                         versionControlClient,
-                        changesets[i],
-                        previousChangesetItems,
-                        lastCommitID,
-                        witClient);
-                TaskStatus createCommitTaskStatus =
-                    new TaskExecutor(progressMonitor.newSubTask(1)).execute(createCommitTask);
-
-                if (!createCommitTaskStatus.isOK())
-                {
-                    log.info("Commit Creation failed"); //$NON-NLS-1$
+                        configuration.getServerPath(),
+                        force ? latestChangesetID : latestChangesetID + 1,
+                        finalChangesetID);
+            }
+            else
+            {
+                history = new ChangesetHistory(reverse(calculateChangesetsToDownload(latestChangesets, latestChangesetID)));
+            }
 
-                    return createCommitTaskStatus;
-                }
+            progressMonitor.setWork(history.getWork());
 
-                lastCommitID = createCommitTask.getCommitID();
-                fetchedChangesetId = changesets[i].getChangesetID();
-                previousChangesetItems = createCommitTask.getCommittedItems();
+            final ContentHashIndex contentHashIndex = new ContentHashIndex(repository);
 
-                try
+            /*
+             * Write the objects of many changesets into one pack. The
+             * changesets are recorded in the changeset commit map in batches,
+             * once the pack holding their commits has been added to the
+             * repository.
+             */
+            final PackObjectInserter inserter =
+                PackObjectInserter.isSupported(repository) ? new PackObjectInserter(repository) : null;
+            final ChangesetCommitBatch changesetCommitBatch = new ChangesetCommitBatch(repository, inserter);
+            changesetCommitBatch.setContentHashIndex(contentHashIndex);
+
+            int numberOfChangesetsDownloaded = 0;
+
+            /* The titles of mentioned work items are kept across the pages */
+            final WorkItemResolver.TitleCache workItemTitles = new WorkItemResolver.TitleCache();
+
+            try
+            {
+                Changeset[] changesetsToDownload;
+
+                while ((changesetsToDownload = history.nextPage()).length > 0)
                 {
-                    boolean forceHWMUpdate = i == changesetCounter && force;
-                    changesetCommitMap.setChangesetCommit(changesets[i].getChangesetID(), lastCommitID, forceHWMUpdate);
+                    /*
+                     * List and download the upcoming changesets of the page in
+                     * the background while the commits are created in order.
+                     */
+                    final ChangesetPrefetcher prefetcher =
+                        new ChangesetPrefetcher(
+                            versionControlClient,
+                            configuration.getServerPath(),
+                            changesetsToDownload,
+                            DirectoryUtil.getTempDir(repository));
+
+                    prefetcher.setContentHashIndex(contentHashIndex);
+                    prefetcher.setPathFilter(pathFilter);
+
+                    /* Look up the work items to mention ahead of the commits */
+                    final WorkItemResolver workItemResolver =
+                        witClient != null ? new WorkItemResolver(
+                            witClient,
+                            getChangesetIDs(changesetsToDownload),
+                            workItemTitles)
+                            : null;
+
+                    try
+                    {
+                        prefetcher.start(previousManifest != null && lastTreeID != null);
+
+                        if (workItemResolver != null)
+                        {
+                            workItemResolver.start();
+                        }
+
+                        for (int i = 0; i < changesetsToDownload.length; i++)
+                        {
+                            final Changeset changeset = changesetsToDownload[i];
+
+                            progressMonitor.setDetail(Messages.formatString("FetchTask.ChangesetNumberFormat", //$NON-NLS-1$
+                                Integer.toString(changeset.getChangesetID())));
+
+                            CreateCommitForChangesetVersionSpecTask createCommitTask =
+                                new CreateCommitForChangesetVersionSpecTask(
+                                    repository,
+                                    versionControlClient,
+                                    changeset,
+                                    previousManifest,
+                                    lastCommitID,
+                                    witClient);
+                            createCommitTask.setPrefetchedListing(prefetcher.getListing(i));
+                            createCommitTask.setItemDownloader(prefetcher.getDownloader());
+                            createCommitTask.setParentTreeID(lastTreeID);
+                            createCommitTask.setContentHashIndex(contentHashIndex);
+                            createCommitTask.setObjectInserter(inserter);
+                            createCommitTask.setWorkItemResolver(workItemResolver);
+
+                            final int work = history.getWork(changeset);
+                            TaskStatus createCommitTaskStatus =
+                                new TaskExecutor(progressMonitor.newSubTask(work)).execute(createCommitTask);
+
+                            if (!createCommitTaskStatus.isOK())
+                            {
+                                log.info("Commit Creation failed"); //$NON-NLS-1$
+
+                                /* Keep the changesets that were fetched */
+                                changesetCommitBatch.commit();
+                                saveManifest(lastCommitID, pathFilter, previousManifest);
+
+                                return createCommitTaskStatus;
+                            }
+
+                            lastCommitID = createCommitTask.getCommitID();
+                            lastTreeID = createCommitTask.getCommitTreeID();
+                            fetchedChangesetId = changeset.getChangesetID();
+                            previousManifest = createCommitTask.getCommittedManifest();
+
+                            boolean forceHWMUpdate = numberOfChangesetsDownloaded == 0 && force;
+                            changesetCommitBatch.add(changeset.getChangesetID(), lastCommitID, forceHWMUpdate);
+                            numberOfChangesetsDownloaded++;
+
+                            progressMonitor.displayVerbose(Messages.formatString("FetchTask.FetchedChangesetFormat", //$NON-NLS-1$
+                                Integer.toString(changeset.getChangesetID()),
+                                ObjectIdUtil.abbreviate(repository, lastCommitID)));
+                        }
+                    }
+                    finally
+                    {
+                        prefetcher.close();
+
+                        if (workItemResolver != null)
+                        {
+                            workItemResolver.close();
+                        }
+                    }
                 }
-                catch (IOException e)
+
+                changesetCommitBatch.commit();
+                saveManifest(lastCommitID, pathFilter, previousManifest);
+            }
+            catch (Exception e)
+            {
+                return new TaskStatus(TaskStatus.ERROR, e);
+            }
+            finally
+            {
+                if (inserter != null)
                 {
-                    return new TaskStatus(TaskStatus.ERROR, e);
+                    inserter.release();
                 }
-
-                progressMonitor.displayVerbose(Messages.formatString("FetchTask.FetchedChangesetFormat", //$NON-NLS-1$
-                    Integer.toString(changesets[i].getChangesetID()),
-                    ObjectIdUtil.abbreviate(repository, lastCommitID)));
             }
 
+            changesetCounter = numberOfChangesetsDownloaded - 1;
             finalCommitID = lastCommitID;
         }
 
@@ -365,6 +510,84 @@ public class FetchTask
         return TaskStatus.OK_STATUS;
     }
 
+    private ItemManifest loadManifest(final String serverPath, final PathFilter pathFilter, final ObjectId commitID)
+    {
+        if (commitID == null)
+        {
+            return null;
+        }
+
+        try
+        {
+            return ItemManifestStore.load(repository, serverPath, pathFilter, commitID);
+        }
+        catch (IOException e)
+        {
+            log.warn("Could not load the item manifest, listing the items from the server", e); //$NON-NLS-1$
+            return null;
+        }
+    }
+
+    private void saveManifest(final ObjectId commitID, final PathFilter pathFilter, final ItemManifest manifest)
+    {
+        if (commitID == null || manifest == null)
+        {
+            return;
+        }
+
+        try
+        {
+            ItemManifestStore.save(repository, commitID, pathFilter, manifest);
+        }
+        catch (IOException e)
+        {
+            log.warn("Could not save the item manifest", e); //$NON-NLS-1$
+        }
+    }
+
+    private ObjectId getTreeID(final ObjectId commitID)
+    {
+        final RevWalk walker = new RevWalk(repository);
+
+        try
+        {
+            return walker.parseCommit(commitID).getTree().getId();
+        }
+        catch (IOException e)
+        {
+            log.warn("Could not read the tree of the last fetched commit", e); //$NON-NLS-1$
+            return null;
+        }
+        finally
+        {
+            walker.release();
+        }
+    }
+
+    private static Changeset[] reverse(final Changeset[] changesets)
+    {
+        final Changeset[] reversed = new Changeset[changesets.length];
+
+        for (int i = 0; i < changesets.length; i++)
+        {
+            reversed[i] = changesets[changesets.length - 1 - i];
+        }
+
+        return reversed;
+    }
+
+    private static int[] getChangesetIDs(final Changeset[] changesets)
+    {
+        final int[] changesetIDs = new int[changesets.length];
+
+        for (int i = 0; i < changesets.length; i++)
+        {
+            changesetIDs[i] = changesets[i].getChangesetID();
+        }
+
+        return changesetIDs;
+    }
+
     private Changeset[] calculateChangesetsToDownload(Changeset[] changesets, int latestChangeset)
     {
         Check.notNullOrEmpty(changesets, "changesets"); //$NON-NLS-1$
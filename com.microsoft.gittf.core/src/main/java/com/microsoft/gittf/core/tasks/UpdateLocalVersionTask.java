@@ -24,6 +24,7 @@
 
 package com.microsoft.gittf.core.tasks;
 
+import java.text.MessageFormat;
 import java.util.ArrayList;
 
 import org.apache.commons.logging.Log;
@@ -35,6 +36,7 @@ import com.microsoft.gittf.core.tasks.framework.TaskProgressMonitor;
 import com.microsoft.gittf.core.tasks.framework.TaskStatus;
 import com.microsoft.gittf.core.util.Check;
 import com.microsoft.tfs.core.clients.versioncontrol.ClientLocalVersionUpdate;
+import com.microsoft.tfs.core.clients.versioncontrol.GetOptions;
 import com.microsoft.tfs.core.clients.versioncontrol.UpdateLocalVersionQueue;
 import com.microsoft.tfs.core.clients.versioncontrol.UpdateLocalVersionQueueOptions;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.GetOperation;
@@ -57,6 +59,8 @@ public abstract class UpdateLocalVersionTask
 
     protected final Workspace workspace;
 
+    private boolean incremental = false;
+
     /**
      * Constructor
      * 
@@ -70,6 +74,35 @@ public abstract class UpdateLocalVersionTask
         this.workspace = workspace;
     }
 
+    /**
+     * Sets whether the server may rely on the local versions it already holds
+     * for the workspace. An incremental update only receives the items whose
+     * local version differs from the target version instead of every item
+     * under the server path, so its cost follows the number of changes rather
+     * than the size of the tree. Only workspaces whose local versions are
+     * known to be accurate, such as a pooled workspace that is being reused,
+     * should be updated incrementally.
+     * 
+     * @param incremental
+     */
+    public void setIncremental(final boolean incremental)
+    {
+        this.incremental = incremental;
+    }
+
+    public boolean isIncremental()
+    {
+        return incremental;
+    }
+
+    /**
+     * @return the options to query the get operations with
+     */
+    protected GetOptions getGetOptions()
+    {
+        return incremental ? GetOptions.NO_DISK_UPDATE : GetOptions.NO_DISK_UPDATE.combine(GetOptions.GET_ALL);
+    }
+
     protected abstract GetOperation[][] getGetOperations();
 
     @Override
@@ -109,6 +142,17 @@ public abstract class UpdateLocalVersionTask
             }
         }
 
+        log.debug(MessageFormat.format("Updating the local version of {0} items{1}", //$NON-NLS-1$
+            localVersionUpdates.size(),
+            incremental ? " incrementally" : "")); //$NON-NLS-1$ //$NON-NLS-2$
+
+        if (localVersionUpdates.size() == 0)
+        {
+            /* The workspace is already up to date */
+
+            return TaskStatus.OK_STATUS;
+        }
+
         /* Update the local version information using the Update queue */
         UpdateLocalVersionQueue queue = null;
 
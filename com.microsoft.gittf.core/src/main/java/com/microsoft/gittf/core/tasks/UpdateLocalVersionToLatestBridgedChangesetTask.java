@@ -29,7 +29,6 @@ import org.eclipse.jgit.lib.Repository;
 import com.microsoft.gittf.core.config.ChangesetCommitMap;
 import com.microsoft.gittf.core.config.GitTFConfiguration;
 import com.microsoft.gittf.core.util.Check;
-import com.microsoft.tfs.core.clients.versioncontrol.GetOptions;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.GetOperation;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.GetRequest;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.RecursionType;
@@ -103,7 +102,7 @@ public class UpdateLocalVersionToLatestBridgedChangesetTask
                         new ChangesetVersionSpec(lastDownloadedChangeset))
                 },
                 0,
-                GetOptions.NO_DISK_UPDATE.combine(GetOptions.GET_ALL),
+                getGetOptions(),
                 null,
                 null,
                 false);
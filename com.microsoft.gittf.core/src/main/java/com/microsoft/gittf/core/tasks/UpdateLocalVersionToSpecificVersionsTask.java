@@ -28,7 +28,6 @@ import org.eclipse.jgit.lib.Repository;
 
 import com.microsoft.gittf.core.config.GitTFConfiguration;
 import com.microsoft.gittf.core.util.Check;
-import com.microsoft.tfs.core.clients.versioncontrol.GetOptions;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.GetOperation;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.GetRequest;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.RecursionType;
@@ -108,7 +107,7 @@ public class UpdateLocalVersionToSpecificVersionsTask
                     new GetRequest(new ItemSpec(configuration.getServerPath(), RecursionType.FULL), versionSpec)
                 },
                 0,
-                GetOptions.NO_DISK_UPDATE.combine(GetOptions.GET_ALL),
+                getGetOptions(),
                 null,
                 null,
                 false);
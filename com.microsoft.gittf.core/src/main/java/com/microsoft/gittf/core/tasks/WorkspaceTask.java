@@ -37,6 +37,7 @@ import com.microsoft.gittf.core.tasks.framework.TaskExecutor;
 import com.microsoft.gittf.core.tasks.framework.TaskProgressMonitor;
 import com.microsoft.gittf.core.tasks.framework.TaskStatus;
 import com.microsoft.gittf.core.util.Check;
+import com.microsoft.gittf.core.util.WorkspacePool;
 import com.microsoft.tfs.core.clients.versioncontrol.VersionControlClient;
 import com.microsoft.tfs.core.clients.versioncontrol.specs.version.VersionSpec;
 
@@ -145,14 +146,16 @@ public abstract class WorkspaceTask
                 throw new Exception(createStatus.getMessage());
             }
 
-            workspaceData = new WorkspaceInfo(createTask.getWorkspace(), createTask.getWorkingFolder());
+            workspaceData =
+                new WorkspaceInfo(createTask.getWorkspace(), createTask.getWorkingFolder(), createTask.getLease());
         }
 
         return workspaceData;
     }
 
     /**
-     * Clean up the workspace object
+     * Clean up the workspace object. A pooled workspace is returned to the
+     * pool, a temporary one is deleted.
      * 
      * @param progressMonitor
      */
@@ -160,7 +163,18 @@ public abstract class WorkspaceTask
     {
         TaskStatus deleteWorkspaceStatus = TaskStatus.OK_STATUS;
 
-        if (workspaceData != null)
+        if (workspaceData != null && workspaceData.getLease() != null)
+        {
+            try
+            {
+                workspaceData.getLease().release(true);
+            }
+            finally
+            {
+                workspaceData = null;
+            }
+        }
+        else if (workspaceData != null)
         {
             try
             {
@@ -186,14 +200,19 @@ public abstract class WorkspaceTask
     {
         private final WorkspaceService workspace;
         private final File workingFolder;
+        private final WorkspacePool.Lease lease;
 
-        private WorkspaceInfo(final WorkspaceService workspace, final File workingFolder)
+        private WorkspaceInfo(
+            final WorkspaceService workspace,
+            final File workingFolder,
+            final WorkspacePool.Lease lease)
         {
             Check.notNull(workspace, "workspace"); //$NON-NLS-1$
             Check.notNull(workingFolder, "workingFolder"); //$NON-NLS-1$
 
             this.workspace = workspace;
             this.workingFolder = workingFolder;
+            this.lease = lease;
         }
 
         public WorkspaceService getWorkspace()
@@ -205,5 +224,10 @@ public abstract class WorkspaceTask
         {
             return workingFolder;
         }
+
+        public WorkspacePool.Lease getLease()
+        {
+            return lease;
+        }
     }
 }
@@ -59,6 +59,7 @@ public class CheckinAnalysisChangeCollection
     private final List<DeleteChange> deletes = new ArrayList<DeleteChange>();
     private final List<RenameChange> renames = new ArrayList<RenameChange>();
     private final List<PropertyChange> properties = new ArrayList<PropertyChange>();
+    private final List<String> unbridgedPaths = new ArrayList<String>();
 
     private boolean processDeletedFolders = true;
 
@@ -269,6 +270,29 @@ public class CheckinAnalysisChangeCollection
         }
     }
 
+    /**
+     * Records an item whose content is added or changed in git but is not
+     * pended because its path is not bridged
+     * 
+     * @param path
+     *        the path of the item
+     */
+    public final void skipUnbridged(String path)
+    {
+        unbridgedPaths.add(path);
+    }
+
+    /**
+     * Gets the paths of the items whose content changes are not pended
+     * because their paths are not bridged
+     * 
+     * @return
+     */
+    public final List<String> getUnbridgedPaths()
+    {
+        return Collections.unmodifiableList(unbridgedPaths);
+    }
+
     /**
      * Determies the size of the collection
      * 
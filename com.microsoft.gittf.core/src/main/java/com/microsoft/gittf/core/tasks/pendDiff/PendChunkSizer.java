@@ -0,0 +1,171 @@
+/***********************************************************************************************
+ * Copyright (c) Microsoft Corporation All rights reserved.
+ * 
+ * MIT License:
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ***********************************************************************************************/
+package com.microsoft.gittf.core.tasks.pendDiff;
+
+import com.microsoft.gittf.core.util.Check;
+import com.microsoft.gittf.core.util.EnvironmentUtil;
+
+/**
+ * Chooses how many changes are sent to the server in a single pend call. The
+ * chunk size starts at GITTF_MAX_CHANGES (10 by default) and doubles while the
+ * time the server spends on each change stays flat, up to
+ * GITTF_MAX_CHANGES_LIMIT (1000 by default). It is halved when a chunk fails,
+ * takes longer than GITTF_PEND_CHUNK_MILLIS (15 seconds by default) or the
+ * time per change rises sharply.
+ */
+public class PendChunkSizer
+{
+    private static final String INITIAL_SIZE_NAME = "GITTF_MAX_CHANGES"; //$NON-NLS-1$
+    private static final int DEFAULT_INITIAL_SIZE = 10;
+
+    private static final String MAXIMUM_SIZE_NAME = "GITTF_MAX_CHANGES_LIMIT"; //$NON-NLS-1$
+    private static final int DEFAULT_MAXIMUM_SIZE = 1000;
+
+    private static final String TARGET_MILLIS_NAME = "GITTF_PEND_CHUNK_MILLIS"; //$NON-NLS-1$
+    private static final int DEFAULT_TARGET_MILLIS = 15000;
+
+    /*
+     * The time per change may grow by this factor over the best time seen and
+     * still be considered flat
+     */
+    private static final double FLAT_FACTOR = 1.5;
+
+    /*
+     * The time per change that exceeds the best time seen by this factor is
+     * considered a sign of an overloaded server
+     */
+    private static final double OVERLOAD_FACTOR = 3.0;
+
+    /* Chunks faster than this are too quick to measure reliably */
+    private static final long MEASURABLE_MILLIS = 50;
+
+    private final int maximumSize;
+    private final long targetMillis;
+
+    private int chunkSize;
+    private double bestMillisPerChange = -1;
+
+    /**
+     * Creates a sizer configured from the environment.
+     */
+    public PendChunkSizer()
+    {
+        this(
+            EnvironmentUtil.getPositiveInt(INITIAL_SIZE_NAME, DEFAULT_INITIAL_SIZE),
+            EnvironmentUtil.getPositiveInt(MAXIMUM_SIZE_NAME, DEFAULT_MAXIMUM_SIZE),
+            EnvironmentUtil.getPositiveInt(TARGET_MILLIS_NAME, DEFAULT_TARGET_MILLIS));
+    }
+
+    /**
+     * Constructor
+     * 
+     * @param initialSize
+     *        the size of the first chunk
+     * @param maximumSize
+     *        the largest chunk size to grow to
+     * @param targetMillis
+     *        the longest a single chunk should take
+     */
+    public PendChunkSizer(final int initialSize, final int maximumSize, final long targetMillis)
+    {
+        Check.isTrue(initialSize > 0, "initialSize > 0"); //$NON-NLS-1$
+        Check.isTrue(maximumSize > 0, "maximumSize > 0"); //$NON-NLS-1$
+        Check.isTrue(targetMillis > 0, "targetMillis > 0"); //$NON-NLS-1$
+
+        this.maximumSize = Math.max(initialSize, maximumSize);
+        this.targetMillis = targetMillis;
+        this.chunkSize = initialSize;
+    }
+
+    /**
+     * @return the number of changes to send in the next chunk
+     */
+    public synchronized int getChunkSize()
+    {
+        return chunkSize;
+    }
+
+    /**
+     * Records a chunk that was pended successfully and adjusts the size of the
+     * next chunk.
+     * 
+     * @param size
+     *        the number of changes in the chunk
+     * @param elapsedMillis
+     *        the time the server took to pend the chunk
+     */
+    public synchronized void succeeded(final int size, final long elapsedMillis)
+    {
+        Check.isTrue(size > 0, "size > 0"); //$NON-NLS-1$
+
+        if (elapsedMillis > targetMillis)
+        {
+            shrink();
+            return;
+        }
+
+        /*
+         * A chunk smaller than the current size is the tail of a list; its
+         * fixed costs are spread over fewer changes so it says little about
+         * the server
+         */
+        if (size < chunkSize)
+        {
+            return;
+        }
+
+        final double millisPerChange = (double) elapsedMillis / size;
+
+        if (elapsedMillis < MEASURABLE_MILLIS
+            || bestMillisPerChange < 0
+            || millisPerChange <= bestMillisPerChange * FLAT_FACTOR)
+        {
+            chunkSize = (int) Math.min((long) chunkSize * 2, maximumSize);
+        }
+        else if (millisPerChange > bestMillisPerChange * OVERLOAD_FACTOR)
+        {
+            shrink();
+        }
+
+        if (elapsedMillis >= MEASURABLE_MILLIS
+            && (bestMillisPerChange < 0 || millisPerChange < bestMillisPerChange))
+        {
+            bestMillisPerChange = millisPerChange;
+        }
+    }
+
+    /**
+     * Records a chunk that failed or timed out, halving the size of the next
+     * chunk.
+     */
+    public synchronized void failed()
+    {
+        shrink();
+    }
+
+    private void shrink()
+    {
+        chunkSize = Math.max(1, chunkSize / 2);
+    }
+}
@@ -0,0 +1,203 @@
+/***********************************************************************************************
+ * Copyright (c) Microsoft Corporation All rights reserved.
+ * 
+ * MIT License:
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ***********************************************************************************************/
+
+package com.microsoft.gittf.core.tasks.pendDiff;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.microsoft.gittf.core.GitTFConstants;
+import com.microsoft.gittf.core.tasks.framework.NullTaskProgressMonitor;
+import com.microsoft.gittf.core.util.Check;
+import com.microsoft.tfs.util.FileHelpers;
+
+/**
+ * Prepares the next {@link PendDifferenceTask} of a sequence on a background
+ * thread while the current one is pended and checked in. Preparing a task
+ * analyzes the differences between its commits and, when a staging folder is
+ * given, extracts the items it will pend into that folder; none of this
+ * contacts the server.
+ * 
+ * The work done ahead is best effort: a task whose preparation failed simply
+ * analyzes and extracts its items again when it is run, and reports any error
+ * then.
+ */
+public class PendDifferenceLookahead
+{
+    private static final Log log = LogFactory.getLog(PendDifferenceLookahead.class);
+
+    private final File stagingRoot;
+    private final ExecutorService executor;
+
+    private PendDifferenceTask preparingTask;
+    private Future<Void> preparation;
+    private int stagingCount = 0;
+
+    /**
+     * Constructor
+     * 
+     * @param stagingRoot
+     *        the folder to stage the items to pend beneath, or null to only
+     *        analyze the tasks ahead of time. The folder should be on the same
+     *        file system as the working folder of the tasks.
+     */
+    public PendDifferenceLookahead(final File stagingRoot)
+    {
+        this.stagingRoot = stagingRoot;
+        this.executor = Executors.newSingleThreadExecutor(new LookaheadThreadFactory());
+    }
+
+    /**
+     * Starts preparing the task on the background thread. Only one task is
+     * prepared at a time, it must be waited for with
+     * {@link #await(PendDifferenceTask)} before the next one is prepared.
+     * 
+     * @param task
+     *        the task to prepare
+     */
+    public void prepare(final PendDifferenceTask task)
+    {
+        Check.notNull(task, "task"); //$NON-NLS-1$
+        Check.isTrue(preparation == null, "preparation == null"); //$NON-NLS-1$
+
+        /*
+         * The staging folder of the previous task may still be moved into the
+         * working folder while this one is prepared, so they alternate.
+         */
+        final File stagingFolder =
+            stagingRoot != null ? new File(stagingRoot, Integer.toString(stagingCount++ % 2)) : null;
+
+        preparingTask = task;
+        preparation = executor.submit(new Callable<Void>()
+        {
+            public Void call()
+            {
+                try
+                {
+                    task.analyze(new NullTaskProgressMonitor());
+
+                    if (stagingFolder != null)
+                    {
+                        /* Clear the items of a task that had nothing to pend */
+                        FileHelpers.deleteDirectory(stagingFolder);
+
+                        task.stage(stagingFolder);
+                    }
+                }
+                catch (Exception e)
+                {
+                    log.debug("Could not prepare the differences ahead of time", e); //$NON-NLS-1$
+                }
+
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Waits for the preparation of the task to finish. A task that was not
+     * prepared is left untouched.
+     * 
+     * @param task
+     *        the task to wait for
+     */
+    public void await(final PendDifferenceTask task)
+    {
+        Check.notNull(task, "task"); //$NON-NLS-1$
+
+        if (preparation == null || preparingTask != task)
+        {
+            return;
+        }
+
+        try
+        {
+            preparation.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (CancellationException e)
+        {
+            log.debug("The preparation was cancelled", e); //$NON-NLS-1$
+        }
+        catch (ExecutionException e)
+        {
+            log.debug("Could not prepare the differences ahead of time", e.getCause()); //$NON-NLS-1$
+        }
+        finally
+        {
+            preparingTask = null;
+            preparation = null;
+        }
+    }
+
+    /**
+     * Stops the background thread and deletes the staging folders
+     */
+    public void close()
+    {
+        executor.shutdownNow();
+
+        try
+        {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        preparingTask = null;
+        preparation = null;
+
+        if (stagingRoot != null)
+        {
+            FileHelpers.deleteDirectory(stagingRoot);
+        }
+    }
+
+    private static class LookaheadThreadFactory
+        implements ThreadFactory
+    {
+        public Thread newThread(final Runnable runnable)
+        {
+            final Thread thread = new Thread(runnable, GitTFConstants.GIT_TF_NAME + "-lookahead"); //$NON-NLS-1$
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    }
+}
@@ -24,11 +24,9 @@
 
 package com.microsoft.gittf.core.tasks.pendDiff;
 
-import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
 import static org.eclipse.jgit.lib.Constants.OBJ_TREE;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -40,6 +38,7 @@ import java.util.Set;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffEntry.ChangeType;
 import org.eclipse.jgit.diff.RenameDetector;
 import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
@@ -60,7 +59,10 @@ import com.microsoft.gittf.core.tasks.framework.TaskProgressMonitor;
 import com.microsoft.gittf.core.tasks.framework.TaskStatus;
 import com.microsoft.gittf.core.util.Check;
 import com.microsoft.gittf.core.util.CommitUtil;
+import com.microsoft.gittf.core.util.EnvironmentUtil;
 import com.microsoft.gittf.core.util.ObjectIdUtil;
+import com.microsoft.gittf.core.util.PathFilter;
+import com.microsoft.gittf.core.util.WorkingFolderExtractor;
 import com.microsoft.gittf.core.util.WorkspaceOperationErrorListener;
 import com.microsoft.tfs.core.clients.versioncontrol.GetOptions;
 import com.microsoft.tfs.core.clients.versioncontrol.PendChangesOptions;
@@ -72,8 +74,8 @@ import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.PendingSet;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.PropertyValue;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.RecursionType;
 import com.microsoft.tfs.core.clients.versioncontrol.specs.ItemSpec;
-import com.microsoft.tfs.jni.PlatformMiscUtils;
-import com.microsoft.tfs.util.StringHelpers;
+import com.microsoft.tfs.core.ws.runtime.exceptions.TransportException;
+import com.microsoft.tfs.util.FileHelpers;
 
 /**
  * The task converts the differences between two commits into a list of pending
@@ -89,7 +91,11 @@ public class PendDifferenceTask
      */
     public static final int NOTHING_TO_PEND = 1;
 
-    private final int MAX_CHANGES_TO_SEND;
+    private static final String PEND_RETRIES_NAME = "GITTF_PEND_RETRIES"; //$NON-NLS-1$
+    private static final int DEFAULT_PEND_RETRIES = 3;
+
+    /* The number of unbridged paths listed before the rest are summarized */
+    private static final int MAX_REPORTED_UNBRIDGED_PATHS = 10;
 
     private final static Log log = LogFactory.getLog(PendDifferenceTask.class);
 
@@ -101,11 +107,32 @@ public class PendDifferenceTask
     private final File localWorkingFolder;
 
     private final GitTFConfiguration configuration;
+    private final PathFilter pathFilter;
+    private final int pendRetries;
+
+    /* Each kind of change is chunked independently */
+    private final PendChunkSizer renameSizer = new PendChunkSizer();
+    private final PendChunkSizer deleteSizer = new PendChunkSizer();
+    private final PendChunkSizer editSizer = new PendChunkSizer();
+    private final PendChunkSizer addSizer = new PendChunkSizer();
+    private final PendChunkSizer propertySizer = new PendChunkSizer();
 
     private RenameMode renameMode = RenameMode.JUSTFILES;
 
     private PendingChange[] pendingChanges;
 
+    /* The changes to pend, possibly analyzed ahead of run */
+    private CheckinAnalysisChangeCollection analysis;
+
+    /* The folder the items were extracted to ahead of run, if any */
+    private File stagingFolder;
+
+    /* Whether the staged items have been moved into the working folder */
+    private boolean staged = false;
+
+    /* Extracts the items to pend while pendChanges runs */
+    private WorkingFolderExtractor extractor;
+
     private boolean validated = false;
 
     /**
@@ -144,17 +171,18 @@ public class PendDifferenceTask
             localWorkingFolder.exists() && localWorkingFolder.isDirectory(),
             "localWorkingFolder.exists && localWorkingFolder.isDirectory"); //$NON-NLS-1$
 
-        MAX_CHANGES_TO_SEND = getMaxChangesToSend();
-
         this.repository = repository;
         this.commitFrom = commitFrom;
         this.commitTo = commitTo;
         this.workspace = workspace;
         this.serverPathRoot = serverPathRoot;
         this.localWorkingFolder = localWorkingFolder;
+        this.pendRetries = EnvironmentUtil.getPositiveInt(PEND_RETRIES_NAME, DEFAULT_PEND_RETRIES);
 
         this.configuration = GitTFConfiguration.loadFrom(repository);
         Check.notNull(this.configuration, "configuration"); //$NON-NLS-1$
+
+        this.pathFilter = PathFilter.create(configuration);
     }
 
     /**
@@ -220,40 +248,21 @@ public class PendDifferenceTask
         progressMonitor.worked(5);
         progressMonitor.setDetail(null);
 
-        /* Get the RevTree objects for the to and from commits */
-        RevTree fromTree = (commitFrom != null) ? commitFrom.getTree() : null;
-        RevTree toTree = commitTo.getTree();
-        Check.notNull(toTree, "toTree"); //$NON-NLS-1$
-
-        final TaskProgressMonitor analyzeMonitor = progressMonitor.newSubTask(75);
-        final CheckinAnalysisChangeCollection analysis;
-
         try
         {
-            log.debug("Validate the commit tree objects for any violations");
-
-            /* Validate the commit tree objects for any violations */
-            validate();
-
-            /*
-             * If we are comparing two commits analyze the difference between
-             * both commits
-             */
-            if (fromTree != null)
+            if (analysis == null)
             {
-                log.debug("Analyzing differences");
+                final TaskProgressMonitor analyzeMonitor = progressMonitor.newSubTask(75);
 
-                analysis = analyzeDifferences(repository, fromTree, toTree, renameMode, analyzeMonitor);
+                analyze(analyzeMonitor);
+
+                analyzeMonitor.endTask();
             }
-            /*
-             * Otherwise we need to create ADD changes for all the items in the
-             * tree
-             */
             else
             {
-                log.debug("Analyzing entire tree to pend ADDs");
+                log.debug("The differences were analyzed ahead of time");
 
-                analysis = analyzeTree(repository, toTree, analyzeMonitor);
+                progressMonitor.worked(75);
             }
         }
         catch (Exception e)
@@ -263,7 +272,7 @@ public class PendDifferenceTask
             return new TaskStatus(TaskStatus.ERROR, e);
         }
 
-        analyzeMonitor.endTask();
+        reportUnbridgedPaths(progressMonitor);
 
         final TaskProgressMonitor pendMonitor = progressMonitor.newSubTask(20);
 
@@ -277,6 +286,9 @@ public class PendDifferenceTask
 
         try
         {
+            /* Move the items extracted ahead of time into the working folder */
+            staged = promoteStagingFolder();
+
             /* Pend the changes found in the analysis in the workspace */
             pendingChanges = pendChanges(analysis, pendMonitor);
         }
@@ -301,6 +313,179 @@ public class PendDifferenceTask
         return TaskStatus.OK_STATUS;
     }
 
+    /**
+     * Validates the commits and analyzes the differences between them. Only
+     * the repository is read, so the analysis can run on another thread ahead
+     * of {@link #run(TaskProgressMonitor)}, which then pends the changes found
+     * here rather than analyzing the commits again.
+     * 
+     * @param progressMonitor
+     *        the progress monitor to use to report progress
+     * @return the collection of changes to pend
+     * @throws Exception
+     */
+    public CheckinAnalysisChangeCollection analyze(final TaskProgressMonitor progressMonitor)
+        throws Exception
+    {
+        Check.notNull(progressMonitor, "progressMonitor"); //$NON-NLS-1$
+
+        if (analysis != null)
+        {
+            return analysis;
+        }
+
+        /* Get the RevTree objects for the to and from commits */
+        RevTree fromTree = (commitFrom != null) ? commitFrom.getTree() : null;
+        RevTree toTree = commitTo.getTree();
+        Check.notNull(toTree, "toTree"); //$NON-NLS-1$
+
+        /*
+         * Folder renames and deletes also apply to the items beneath the
+         * folders that are not bridged, so only files are renamed and deleted
+         * when the paths are filtered.
+         */
+        if (pathFilter.isFiltering() && renameMode == RenameMode.ALL)
+        {
+            log.debug("Paths are filtered, not pending folder renames and deletes"); //$NON-NLS-1$
+
+            renameMode = RenameMode.JUSTFILES;
+        }
+
+        log.debug("Validate the commit tree objects for any violations");
+
+        /* Validate the commit tree objects for any violations */
+        validate();
+
+        /*
+         * If we are comparing two commits analyze the difference between both
+         * commits
+         */
+        if (fromTree != null)
+        {
+            log.debug("Analyzing differences");
+
+            analysis = analyzeDifferences(repository, fromTree, toTree, renameMode, pathFilter, progressMonitor);
+        }
+        /*
+         * Otherwise we need to create ADD changes for all the items in the tree
+         */
+        else
+        {
+            log.debug("Analyzing entire tree to pend ADDs");
+
+            analysis = analyzeTree(repository, toTree, pathFilter, progressMonitor);
+        }
+
+        return analysis;
+    }
+
+    /**
+     * Warns about the content changes of the commit that are left out of the
+     * check-in because their paths are not bridged
+     * 
+     * @param progressMonitor
+     *        the progress monitor to display the warnings on
+     */
+    private void reportUnbridgedPaths(final TaskProgressMonitor progressMonitor)
+    {
+        final List<String> unbridgedPaths = analysis.getUnbridgedPaths();
+
+        if (unbridgedPaths.isEmpty())
+        {
+            return;
+        }
+
+        progressMonitor.displayWarning(Messages.formatString("PendDifferenceTask.ChangesNotBridgedFormat", //$NON-NLS-1$
+            ObjectIdUtil.abbreviate(repository, commitTo.getId()),
+            Integer.toString(unbridgedPaths.size())));
+
+        for (int i = 0; i < unbridgedPaths.size(); i++)
+        {
+            if (i < MAX_REPORTED_UNBRIDGED_PATHS)
+            {
+                progressMonitor.displayWarning(Messages.formatString("PendDifferenceTask.ChangeNotBridgedFormat", //$NON-NLS-1$
+                    unbridgedPaths.get(i)));
+            }
+            else
+            {
+                log.info(MessageFormat.format("Change to {0} is not checked in, the path is not bridged", //$NON-NLS-1$
+                    unbridgedPaths.get(i)));
+            }
+        }
+
+        if (unbridgedPaths.size() > MAX_REPORTED_UNBRIDGED_PATHS)
+        {
+            progressMonitor.displayWarning(Messages.formatString("PendDifferenceTask.MoreChangesNotBridgedFormat", //$NON-NLS-1$
+                Integer.toString(unbridgedPaths.size() - MAX_REPORTED_UNBRIDGED_PATHS)));
+        }
+    }
+
+    /**
+     * Extracts the items whose content is needed by the analysis into a
+     * staging folder ahead of {@link #run(TaskProgressMonitor)}, which moves
+     * the staging folder into the place of the local working folder instead
+     * of extracting the items while pending. The staging folder should be on
+     * the same file system as the local working folder.
+     * 
+     * @param stagingFolder
+     *        the folder to extract the items into
+     * @throws Exception
+     */
+    public void stage(final File stagingFolder)
+        throws Exception
+    {
+        Check.notNull(stagingFolder, "stagingFolder"); //$NON-NLS-1$
+        Check.notNull(analysis, "analysis"); //$NON-NLS-1$
+
+        stagingFolder.mkdirs();
+
+        final WorkingFolderExtractor stagingExtractor = new WorkingFolderExtractor(repository, stagingFolder);
+
+        try
+        {
+            scheduleExtractions(stagingExtractor, analysis);
+            stagingExtractor.finish();
+        }
+        finally
+        {
+            stagingExtractor.close();
+        }
+
+        this.stagingFolder = stagingFolder;
+    }
+
+    /**
+     * Replaces the local working folder with the staging folder the items were
+     * extracted to ahead of time
+     * 
+     * @return true if the staged items are in the working folder, false if
+     *         the items have to be extracted while pending
+     */
+    private boolean promoteStagingFolder()
+    {
+        if (stagingFolder == null)
+        {
+            return false;
+        }
+
+        FileHelpers.deleteDirectory(localWorkingFolder);
+
+        if (!stagingFolder.renameTo(localWorkingFolder))
+        {
+            log.warn(MessageFormat.format("Could not move the staged items from {0} to {1}, extracting them again", //$NON-NLS-1$
+                stagingFolder.getAbsolutePath(),
+                localWorkingFolder.getAbsolutePath()));
+
+            localWorkingFolder.mkdirs();
+
+            return false;
+        }
+
+        log.debug("Moved the staged items into the working folder");
+
+        return true;
+    }
+
     /**
      * Runs all the validations required on the source and destination commits
      * 
@@ -413,8 +598,42 @@ public class PendDifferenceTask
         RenameMode renameMode,
         final TaskProgressMonitor progressMonitor)
         throws Exception
+    {
+        return analyzeDifferences(repository, fromRootTree, toRootTree, renameMode, PathFilter.ALL, progressMonitor);
+    }
+
+    /**
+     * Creates the CheckinAnalysisChangeCollection analysis object that includes
+     * the list of pending changes needed that map to the differences between
+     * the fromCommit and toCommit, leaving out the changes to paths that are
+     * not bridged
+     * 
+     * @param repository
+     *        the git repository
+     * @param fromRootTree
+     *        the from commit tree
+     * @param toRootTree
+     *        the to commit tree
+     * @param renameMode
+     *        the rename mode to use when generating the analysis
+     * @param pathFilter
+     *        the filter that selects the bridged paths
+     * @param progressMonitor
+     *        the progress monitor to use to report progress
+     * @return
+     * @throws Exception
+     */
+    public static CheckinAnalysisChangeCollection analyzeDifferences(
+        Repository repository,
+        RevObject fromRootTree,
+        RevObject toRootTree,
+        RenameMode renameMode,
+        PathFilter pathFilter,
+        final TaskProgressMonitor progressMonitor)
+        throws Exception
     {
         Check.notNull(fromRootTree, "fromRootTree"); //$NON-NLS-1$
+        Check.notNull(pathFilter, "pathFilter"); //$NON-NLS-1$
         Check.notNull(toRootTree, "toRootTree"); //$NON-NLS-1$
         Check.notNull(progressMonitor, "progressMonitor"); //$NON-NLS-1$
 
@@ -485,6 +704,17 @@ public class PendDifferenceTask
             /* Append each change in to the analysis object */
             for (DiffEntry change : treeDifferences)
             {
+                if (!isBridged(change, pathFilter))
+                {
+                    /* Deleting an item that was never bridged loses nothing */
+                    if (change.getChangeType() != ChangeType.DELETE)
+                    {
+                        analysis.skipUnbridged(change.getNewPath());
+                    }
+
+                    continue;
+                }
+
                 switch (change.getChangeType())
                 {
                     case ADD:
@@ -535,6 +765,27 @@ public class PendDifferenceTask
                         break;
 
                     case RENAME:
+                        if (!pathFilter.includes(change.getNewPath(), false))
+                        {
+                            /* Renamed to a path that is not bridged */
+                            analysis.pendDelete(new DeleteChange(change.getOldPath(), change.getOldMode()));
+                            analysis.skipUnbridged(change.getNewPath());
+                            break;
+                        }
+
+                        if (!pathFilter.includes(change.getOldPath(), false))
+                        {
+                            /* Renamed from a path that is not bridged */
+                            analysis.pendAdd(new AddChange(change.getNewPath(), CommitUtil.resolveAbbreviatedId(
+                                repository,
+                                change.getNewId())));
+                            analysis.pendPropertyIfChanged(new PropertyChange(
+                                change.getNewPath(),
+                                CommitUtil.resolveAbbreviatedId(repository, change.getNewId()),
+                                change.getNewMode()));
+                            break;
+                        }
+
                         analysis.pendRename(new RenameChange(
                             change.getOldPath(),
                             change.getNewPath(),
@@ -563,6 +814,32 @@ public class PendDifferenceTask
         return analysis;
     }
 
+    /**
+     * Determines whether either side of a change is on a bridged path
+     */
+    private static boolean isBridged(final DiffEntry change, final PathFilter pathFilter)
+    {
+        if (!pathFilter.isFiltering())
+        {
+            return true;
+        }
+
+        if (change.getChangeType() != ChangeType.ADD && pathFilter.includes(change.getOldPath(), false))
+        {
+            return true;
+        }
+
+        if (change.getChangeType() != ChangeType.DELETE && pathFilter.includes(change.getNewPath(), false))
+        {
+            return true;
+        }
+
+        log.debug(MessageFormat.format("Ignoring change to {0}, the path is not bridged", //$NON-NLS-1$
+            change.getChangeType() == ChangeType.DELETE ? change.getOldPath() : change.getNewPath()));
+
+        return false;
+    }
+
     private static boolean isCaseSensitiveRename(
         DiffEntry change,
         Map<String, DiffEntry> deleteChanges,
@@ -599,8 +876,34 @@ public class PendDifferenceTask
         RevTree toRootTree,
         TaskProgressMonitor progressMonitor)
         throws Exception
+    {
+        return analyzeTree(repository, toRootTree, PathFilter.ALL, progressMonitor);
+    }
+
+    /**
+     * Creates a CheckinAnalysisChangeCollection for the to commit tree,
+     * creating an ADD change for every item in the tree on a bridged path.
+     * 
+     * @param repository
+     *        the git repository
+     * @param toRootTree
+     *        the to commit tree
+     * @param pathFilter
+     *        the filter that selects the bridged paths
+     * @param progressMonitor
+     *        the progress monitor to use to report progress
+     * @return
+     * @throws Exception
+     */
+    public static CheckinAnalysisChangeCollection analyzeTree(
+        Repository repository,
+        RevTree toRootTree,
+        PathFilter pathFilter,
+        TaskProgressMonitor progressMonitor)
+        throws Exception
     {
         Check.notNull(toRootTree, "toRootTree"); //$NON-NLS-1$
+        Check.notNull(pathFilter, "pathFilter"); //$NON-NLS-1$
         Check.notNull(progressMonitor, "progressMonitor"); //$NON-NLS-1$
 
         progressMonitor.beginTask(
@@ -623,7 +926,14 @@ public class PendDifferenceTask
             {
                 final ObjectId toID = treeWalker.getObjectId(0);
 
-                if (!ObjectId.zeroId().equals(toID))
+                if (!pathFilter.includes(treeWalker.getPathString(), false))
+                {
+                    log.debug(MessageFormat.format("Ignoring item {0}, the path is not bridged", //$NON-NLS-1$
+                        treeWalker.getPathString()));
+
+                    analysis.skipUnbridged(treeWalker.getPathString());
+                }
+                else if (!ObjectId.zeroId().equals(toID))
                 {
                     analysis.pendAdd(new AddChange(treeWalker.getPathString(), toID));
                 }
@@ -676,6 +986,12 @@ public class PendDifferenceTask
         {
             errorListener = workspace.getErrorListener();
 
+            if (!staged)
+            {
+                extractor = new WorkingFolderExtractor(repository, localWorkingFolder);
+                scheduleExtractions(extractor, analysis);
+            }
+
             /* Pend Renames */
             progressMonitor.setDetail(Messages.getString("PendDifferencesTask.PendingRenames")); //$NON-NLS-1$
             pendRenames(analysis, errorListener);
@@ -686,7 +1002,13 @@ public class PendDifferenceTask
             pendDeletes(analysis, errorListener);
             progressMonitor.worked(1);
 
-            /* Pend Edits */
+            /*
+             * The changes are pended on this thread only: the workspace and
+             * its error listener are not known to be safe to use from several
+             * threads, and the listener reports the failures of every call
+             * made through the workspace. Only the extraction of the files
+             * runs in the background, ahead of the chunks that need them.
+             */
             progressMonitor.setDetail(Messages.getString("PendDifferencesTask.PendingEdits")); //$NON-NLS-1$
             pendEdits(analysis, errorListener);
             progressMonitor.worked(1);
@@ -724,6 +1046,12 @@ public class PendDifferenceTask
                 errorListener.dispose();
             }
 
+            if (extractor != null)
+            {
+                extractor.close();
+                extractor = null;
+            }
+
             progressMonitor.endTask();
         }
     }
@@ -742,20 +1070,21 @@ public class PendDifferenceTask
         final WorkspaceOperationErrorListener errorListener)
         throws Exception
     {
-        final List<DeleteChange> deletesChunk = new ArrayList<DeleteChange>();
-
-        for (final DeleteChange delete : analysis.getDeletes())
+        pendInChunks("deletes", analysis.getDeletes(), deleteSizer, new ChunkPender<DeleteChange>() //$NON-NLS-1$
         {
-            if (deletesChunk.size() == MAX_CHANGES_TO_SEND)
+            @Override
+            public void pend(final List<DeleteChange> deletes)
+                throws Exception
             {
-                pendDeletesInt(deletesChunk, errorListener);
-                deletesChunk.clear();
+                pendDeletesInt(deletes, errorListener);
             }
 
-            deletesChunk.add(delete);
-        }
-
-        pendDeletesInt(deletesChunk, errorListener);
+            @Override
+            public void undo(final List<DeleteChange> deletes)
+            {
+                workspace.undo(createDeleteSpecs(deletes), GetOptions.NO_DISK_UPDATE);
+            }
+        });
     }
 
     private void pendDeletesInt(final List<DeleteChange> deletes, final WorkspaceOperationErrorListener errorListener)
@@ -769,15 +1098,7 @@ public class PendDifferenceTask
         }
 
         /* Build the delete specs */
-        ItemSpec[] deleteSpecs = new ItemSpec[deletes.size()];
-        for (int i = 0; i < deletes.size(); i++)
-        {
-            final DeleteChange delete = deletes.get(i);
-
-            deleteSpecs[i] =
-                new ItemSpec(ServerPath.combine(serverPathRoot, delete.getPath()), delete.getType() == FileMode.TREE
-                    ? RecursionType.FULL : RecursionType.NONE);
-        }
+        final ItemSpec[] deleteSpecs = createDeleteSpecs(deletes);
 
         /* Pend the deletes in the workspace */
         int count =
@@ -796,6 +1117,21 @@ public class PendDifferenceTask
         }
     }
 
+    private ItemSpec[] createDeleteSpecs(final List<DeleteChange> deletes)
+    {
+        final ItemSpec[] deleteSpecs = new ItemSpec[deletes.size()];
+        for (int i = 0; i < deletes.size(); i++)
+        {
+            final DeleteChange delete = deletes.get(i);
+
+            deleteSpecs[i] =
+                new ItemSpec(ServerPath.combine(serverPathRoot, delete.getPath()), delete.getType() == FileMode.TREE
+                    ? RecursionType.FULL : RecursionType.NONE);
+        }
+
+        return deleteSpecs;
+    }
+
     /**
      * Pends the edits in the CheckinAnalysisChangeCollection
      * 
@@ -810,20 +1146,27 @@ public class PendDifferenceTask
         final WorkspaceOperationErrorListener errorListener)
         throws Exception
     {
-        final List<EditChange> editsChunk = new ArrayList<EditChange>();
-
-        for (final EditChange edit : analysis.getEdits())
+        pendInChunks("edits", analysis.getEdits(), editSizer, new ChunkPender<EditChange>() //$NON-NLS-1$
         {
-            if (editsChunk.size() == MAX_CHANGES_TO_SEND)
+            @Override
+            public void pend(final List<EditChange> edits)
+                throws Exception
             {
-                pendEditsInt(editsChunk, errorListener);
-                editsChunk.clear();
+                pendEditsInt(edits, errorListener);
             }
 
-            editsChunk.add(edit);
-        }
+            @Override
+            public void undo(final List<EditChange> edits)
+            {
+                final List<String> paths = new ArrayList<String>(edits.size());
+                for (final EditChange edit : edits)
+                {
+                    paths.add(edit.getPath());
+                }
 
-        pendEditsInt(editsChunk, errorListener);
+                undoPaths(paths);
+            }
+        });
     }
 
     private void pendEditsInt(final List<EditChange> edits, final WorkspaceOperationErrorListener errorListener)
@@ -889,20 +1232,16 @@ public class PendDifferenceTask
             return;
         }
 
-        final List<PropertyChange> propertiesChunk = new ArrayList<PropertyChange>();
-
-        for (final PropertyChange property : analysis.getProperties())
+        /* Setting a property again is harmless, so there is nothing to undo */
+        pendInChunks("properties", analysis.getProperties(), propertySizer, new ChunkPender<PropertyChange>() //$NON-NLS-1$
         {
-            if (propertiesChunk.size() == MAX_CHANGES_TO_SEND)
+            @Override
+            public void pend(final List<PropertyChange> propertyChanges)
+                throws Exception
             {
-                pendPropertiessInt(propertiesChunk, errorListener);
-                propertiesChunk.clear();
+                pendPropertiessInt(propertyChanges, errorListener);
             }
-
-            propertiesChunk.add(property);
-        }
-
-        pendPropertiessInt(propertiesChunk, errorListener);
+        });
     }
 
     private void pendPropertiessInt(
@@ -1014,20 +1353,27 @@ public class PendDifferenceTask
     private void pendBatchRenames(final List<RenameChange> renames, final WorkspaceOperationErrorListener errorListener)
         throws Exception
     {
-        final List<RenameChange> renamesChunk = new ArrayList<RenameChange>();
-
-        for (final RenameChange rename : renames)
+        pendInChunks("renames", renames, renameSizer, new ChunkPender<RenameChange>() //$NON-NLS-1$
         {
-            if (renamesChunk.size() == MAX_CHANGES_TO_SEND)
+            @Override
+            public void pend(final List<RenameChange> renamesChunk)
+                throws Exception
             {
                 pendBatchRenamesInt(renamesChunk, errorListener);
-                renamesChunk.clear();
             }
 
-            renamesChunk.add(rename);
-        }
+            @Override
+            public void undo(final List<RenameChange> renamesChunk)
+            {
+                final List<String> paths = new ArrayList<String>(renamesChunk.size());
+                for (final RenameChange rename : renamesChunk)
+                {
+                    paths.add(rename.getNewPath());
+                }
 
-        pendBatchRenamesInt(renamesChunk, errorListener);
+                undoPaths(paths);
+            }
+        });
     }
 
     private void pendBatchRenamesInt(
@@ -1163,20 +1509,27 @@ public class PendDifferenceTask
         final WorkspaceOperationErrorListener errorListener)
         throws Exception
     {
-        final List<AddChange> addsChunk = new ArrayList<AddChange>();
-
-        for (final AddChange add : analysis.getAdds())
+        pendInChunks("adds", analysis.getAdds(), addSizer, new ChunkPender<AddChange>() //$NON-NLS-1$
         {
-            if (addsChunk.size() == MAX_CHANGES_TO_SEND)
+            @Override
+            public void pend(final List<AddChange> adds)
+                throws Exception
             {
-                pendAddsInt(addsChunk, errorListener);
-                addsChunk.clear();
+                pendAddsInt(adds, errorListener);
             }
 
-            addsChunk.add(add);
-        }
+            @Override
+            public void undo(final List<AddChange> adds)
+            {
+                final List<String> paths = new ArrayList<String>(adds.size());
+                for (final AddChange add : adds)
+                {
+                    paths.add(add.getPath());
+                }
 
-        pendAddsInt(addsChunk, errorListener);
+                undoPaths(paths);
+            }
+        });
     }
 
     private void pendAddsInt(final List<AddChange> adds, final WorkspaceOperationErrorListener errorListener)
@@ -1216,9 +1569,10 @@ public class PendDifferenceTask
     }
 
     /**
-     * Extracts an item for the git repository to the path specified. This is
-     * used to extract files whose content have changed and will need to be
-     * uploaded to pend an edit for
+     * Extracts an item for the git repository to the path specified, waiting
+     * for its scheduled extraction if there is one. This is used to extract
+     * files whose content have changed and will need to be uploaded to pend
+     * an edit for
      * 
      * @param itemPath
      *        the path on disk to extract the item to
@@ -1229,73 +1583,166 @@ public class PendDifferenceTask
     private void extractToWorkingFolder(String itemPath, ObjectId objectID)
         throws Exception
     {
-        /* Ensure that the location exits */
-        File workingFile = new File(localWorkingFolder, itemPath);
+        /* Staged items were moved into the working folder already extracted */
+        if (staged)
+        {
+            return;
+        }
+
+        extractor.extract(itemPath, objectID);
+    }
+
+    /**
+     * Schedules the extraction of every item whose content is needed, in the
+     * order the items are pended, so that the files are written while earlier
+     * chunks are sent to the server
+     * 
+     * @param extractor
+     *        the extractor to schedule the items on
+     * @param analysis
+     *        the collection of changes to pend
+     * @throws Exception
+     */
+    private static void scheduleExtractions(
+        final WorkingFolderExtractor extractor,
+        final CheckinAnalysisChangeCollection analysis)
+        throws Exception
+    {
+        for (final RenameChange rename : analysis.getRenames())
+        {
+            if (rename.isEdit())
+            {
+                extractor.schedule(rename.getNewPath(), rename.getObjectID());
+            }
+        }
 
-        File parentDir = workingFile.getParentFile();
-        boolean parentDirExist = parentDir.exists();
-        if (!parentDirExist)
+        for (final EditChange edit : analysis.getEdits())
         {
-            parentDirExist = parentDir.mkdirs();
+            extractor.schedule(edit.getPath(), edit.getObjectID());
         }
 
-        if (!parentDirExist)
+        for (final AddChange add : analysis.getAdds())
         {
-            throw new Exception(Messages.formatString(
-                "PendDifferenceTask.CouldNotCreateItemPathFormat", parentDir.getAbsolutePath())); //$NON-NLS-1$
+            extractor.schedule(add.getPath(), add.getObjectID());
         }
 
-        if (workingFile.exists())
+        for (final PropertyChange property : analysis.getProperties())
         {
-            workingFile.delete();
+            extractor.schedule(property.getPath(), property.getObjectID());
         }
+    }
 
-        /* Extract the item from git */
-        FileOutputStream workingOutput = new FileOutputStream(workingFile);
+    /**
+     * Pends the changes specified in chunks whose size is chosen by the chunk
+     * sizer. A chunk that fails to reach the server is undone and sent again
+     * in smaller chunks, up to GITTF_PEND_RETRIES (3 by default) times in a
+     * row.
+     * 
+     * @param kind
+     *        the kind of changes, used for logging
+     * @param changes
+     *        the changes to pend
+     * @param sizer
+     *        the chunk sizer for this kind of change
+     * @param pender
+     *        pends and undoes a single chunk
+     * @throws Exception
+     */
+    private <T> void pendInChunks(
+        final String kind,
+        final List<T> changes,
+        final PendChunkSizer sizer,
+        final ChunkPender<T> pender)
+        throws Exception
+    {
+        int start = 0;
+        int chunks = 0;
+        int failures = 0;
+        long totalMillis = 0;
 
-        try
+        while (start < changes.size())
         {
-            /* Copy the blob from the object database to the file */
-            repository.getObjectDatabase().open(objectID, OBJ_BLOB).copyTo(workingOutput);
+            final int end = Math.min(start + sizer.getChunkSize(), changes.size());
+            final List<T> chunk = changes.subList(start, end);
+            final long chunkStart = System.currentTimeMillis();
 
-            if (!workingFile.exists())
+            try
             {
-                throw new Exception(Messages.formatString("PendDifferenceTask.CouldNotCreateItemFormat", itemPath)); //$NON-NLS-1$
+                pender.pend(chunk);
+            }
+            catch (TransportException e)
+            {
+                failures++;
+
+                if (failures > pendRetries)
+                {
+                    throw e;
+                }
+
+                sizer.failed();
+
+                log.warn(MessageFormat.format("Pending {0} {1} failed after {2} ms, retrying in chunks of {3}: {4}", //$NON-NLS-1$
+                    chunk.size(),
+                    kind,
+                    System.currentTimeMillis() - chunkStart,
+                    sizer.getChunkSize(),
+                    e.getMessage()));
+
+                /* Part of the chunk may have been pended before the failure */
+                pender.undo(chunk);
+                continue;
             }
+
+            final long elapsedMillis = System.currentTimeMillis() - chunkStart;
+            sizer.succeeded(chunk.size(), elapsedMillis);
+
+            log.debug(MessageFormat.format("Pended {0} {1} in {2} ms, next chunk size {3}", //$NON-NLS-1$
+                chunk.size(),
+                kind,
+                elapsedMillis,
+                sizer.getChunkSize()));
+
+            start = end;
+            chunks++;
+            failures = 0;
+            totalMillis += elapsedMillis;
         }
-        finally
+
+        if (chunks > 0)
         {
-            workingOutput.close();
+            log.info(MessageFormat.format("Pended {0} {1} in {2} chunks, {3} ms", //$NON-NLS-1$
+                changes.size(),
+                kind,
+                chunks,
+                totalMillis));
         }
     }
 
-    private static int getMaxChangesToSend()
+    private void undoPaths(final List<String> paths)
     {
-        final String MAX_CHANGES_TO_PEND_NAME = "GITTF_MAX_CHANGES"; //$NON-NLS-1$
-        final String MAX_CHANGES_TO_PEND_NAME_ALTERNATE = "gittf_max_changes"; //$NON-NLS-1$
-        final int DEFAULT_MAX_CHANGES_TO_PEND = 10;
-
-        int count = -1;
-
-        String value = PlatformMiscUtils.getInstance().getEnvironmentVariable(MAX_CHANGES_TO_PEND_NAME);
-
-        if (StringHelpers.isNullOrEmpty(value))
+        final ItemSpec[] specs = new ItemSpec[paths.size()];
+        for (int i = 0; i < paths.size(); i++)
         {
-            value = PlatformMiscUtils.getInstance().getEnvironmentVariable(MAX_CHANGES_TO_PEND_NAME_ALTERNATE);
+            specs[i] = new ItemSpec(ServerPath.combine(serverPathRoot, paths.get(i)), RecursionType.NONE);
         }
 
-        try
-        {
-            if (!StringHelpers.isNullOrEmpty(value))
-            {
-                count = Integer.parseInt(value);
-            }
+        workspace.undo(specs, GetOptions.NO_DISK_UPDATE);
+    }
 
-        }
-        catch (final Exception e)
+    /**
+     * Pends a single chunk of changes and undoes it when it has to be retried
+     */
+    private abstract class ChunkPender<T>
+    {
+        public abstract void pend(List<T> chunk)
+            throws Exception;
+
+        /**
+         * Undoes any change in the chunk that may have been pended. Changes
+         * that can be pended twice need not be undone.
+         */
+        public void undo(final List<T> chunk)
         {
         }
-
-        return count > 0 ? count : DEFAULT_MAX_CHANGES_TO_PEND;
     }
 }
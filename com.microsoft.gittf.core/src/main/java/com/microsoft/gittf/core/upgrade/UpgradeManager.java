@@ -60,7 +60,7 @@ public class UpgradeManager
         }
 
         /* Load the current file format version */
-        final int existingFormat = currentConfiguration.getFileFormatVersion();
+        int existingFormat = currentConfiguration.getFileFormatVersion();
 
         /* if the format version is up to date return */
         if (existingFormat == GitTFConstants.GIT_TF_CURRENT_FORMAT_VERSION)
@@ -72,6 +72,13 @@ public class UpgradeManager
         if (existingFormat == 0)
         {
             upgradeFromV0ToV1(repository, currentConfiguration);
+            existingFormat = 1;
+        }
+
+        /* if the version is one upgrade to version two */
+        if (existingFormat == 1)
+        {
+            upgradeFromV1ToV2(repository, currentConfiguration);
         }
     }
 
@@ -109,4 +116,17 @@ public class UpgradeManager
         currentConfiguration.setFileFormatVersion(1);
         currentConfiguration.saveTo(repository);
     }
+
+    private static void upgradeFromV1ToV2(final Repository repository, final GitTFConfiguration currentConfiguration)
+        throws Exception
+    {
+        /*
+         * Move the changeset commit mapping from the "git-tf" config file to
+         * the indexed "git-tf-changesets" file
+         */
+        ChangesetCommitMap.moveConfigurationEntriesToChangesetStore(repository);
+
+        currentConfiguration.setFileFormatVersion(2);
+        currentConfiguration.saveTo(repository);
+    }
 }
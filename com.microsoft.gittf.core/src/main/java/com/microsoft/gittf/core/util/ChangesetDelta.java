@@ -0,0 +1,319 @@
+/***********************************************************************************************
+ * Copyright (c) Microsoft Corporation All rights reserved.
+ * 
+ * MIT License:
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ***********************************************************************************************/
+package com.microsoft.gittf.core.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.microsoft.tfs.core.clients.versioncontrol.path.ServerPath;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Change;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.ChangeType;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Item;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.ItemType;
+
+/**
+ * The changes a changeset made to the items under a server path, resolved
+ * against the {@link ItemManifest} of the changeset preceding it, so that the
+ * whole tree does not need to be listed from the server for every changeset
+ * and the manifest does not need to be created again.
+ * 
+ * Creating the delta leaves the manifest as it is. Once the commit of the
+ * changeset has been created, {@link #apply()} patches the manifest into the
+ * manifest of the changeset.
+ */
+public final class ChangesetDelta
+{
+    /* Folder changes that imply changes to children that are not listed */
+    private static final ChangeType FOLDER_CHANGES_REQUIRING_LISTING = ChangeType.combine(new ChangeType[]
+    {
+        ChangeType.RENAME, ChangeType.DELETE, ChangeType.UNDELETE, ChangeType.BRANCH, ChangeType.SOURCE_RENAME
+    });
+
+    /* Changes that remove the item from its previous path */
+    private static final ChangeType REMOVING_CHANGES = ChangeType.DELETE.combine(ChangeType.SOURCE_RENAME);
+
+    private final ItemManifest manifest;
+
+    /* Nodes of the manifest to remove, before the added items are added */
+    private final List<Integer> removedNodes = new ArrayList<Integer>();
+    private final List<String> removedPaths = new ArrayList<String>();
+    private final List<Item> addedItems = new ArrayList<Item>();
+    private final List<Item> changedItems = new ArrayList<Item>();
+
+    private ChangesetDelta(final ItemManifest manifest)
+    {
+        this.manifest = manifest;
+    }
+
+    /**
+     * Determines whether the items of a changeset must be listed in full
+     * because its changes cannot be applied on their own, whatever the items
+     * of the changeset preceding it. This is the case when the changes are not
+     * known, or when a folder at or under the server path was renamed,
+     * deleted, undeleted or branched, since the children of the folder may not
+     * be part of the change list.
+     * 
+     * @param serverPath
+     *        the server path the items are listed under
+     * @param changes
+     *        the changes of the changeset, may be <code>null</code>
+     * @return <code>true</code> if the items must be listed
+     */
+    public static boolean requiresListing(final String serverPath, final Change[] changes)
+    {
+        Check.notNullOrEmpty(serverPath, "serverPath"); //$NON-NLS-1$
+
+        if (changes == null)
+        {
+            return true;
+        }
+
+        for (final Change change : changes)
+        {
+            final Item item = change.getItem();
+            final ChangeType changeType = change.getChangeType();
+
+            if (item == null || item.getServerItem() == null || changeType == null)
+            {
+                return true;
+            }
+
+            if (item.getItemType() == ItemType.FOLDER
+                && changeType.containsAny(FOLDER_CHANGES_REQUIRING_LISTING)
+                && (ServerPath.isChild(serverPath, item.getServerItem()) || ServerPath.isChild(
+                    item.getServerItem(),
+                    serverPath)))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Resolves the changes of a changeset against the manifest of the
+     * changeset preceding it.
+     * 
+     * Changes that cannot be applied reliably without a full listing, such as
+     * renames or deletes of folders whose children are not part of the change
+     * list, or changes to the case of folder names, cause this method to
+     * return <code>null</code>; the caller should fall back to listing the
+     * items from the server.
+     * 
+     * @param manifest
+     *        the manifest of the changeset preceding the changeset (must not be
+     *        <code>null</code>)
+     * @param pathFilter
+     *        the filter the items of the manifest were selected with (must not
+     *        be <code>null</code>)
+     * @param changes
+     *        the changes of the changeset, including download information
+     * @return the delta, or <code>null</code> if the changes could not be
+     *         applied
+     */
+    public static ChangesetDelta create(final ItemManifest manifest, final PathFilter pathFilter, final Change[] changes)
+    {
+        Check.notNull(manifest, "manifest"); //$NON-NLS-1$
+        Check.notNull(pathFilter, "pathFilter"); //$NON-NLS-1$
+
+        final String serverPath = manifest.getServerPath();
+
+        if (requiresListing(serverPath, changes))
+        {
+            return null;
+        }
+
+        final ChangesetDelta delta = new ChangesetDelta(manifest);
+
+        for (final Change change : changes)
+        {
+            final Item item = change.getItem();
+            final ChangeType changeType = change.getChangeType();
+            final String serverItem = item.getServerItem();
+            final boolean folder = item.getItemType() == ItemType.FOLDER;
+            final boolean inPath = ServerPath.isChild(serverPath, serverItem);
+
+            final int itemNode = manifest.findItemID(item.getItemID());
+
+            if (folder && changeType.containsAny(FOLDER_CHANGES_REQUIRING_LISTING) && itemNode >= 0)
+            {
+                /* The folder was moved out of the server path */
+                return null;
+            }
+
+            final int pathNode = inPath ? manifest.find(serverItem) : -1;
+            final int previousNode = itemNode >= 0 ? itemNode : pathNode;
+
+            if (changeType.containsAny(REMOVING_CHANGES)
+                || item.getDeletionID() != 0
+                || !inPath
+                || !pathFilter.includes(ServerPath.makeRelative(serverItem, serverPath), folder))
+            {
+                /* The item was removed, or moved out of the paths that are listed */
+                if (previousNode >= 0 && !delta.remove(previousNode))
+                {
+                    return null;
+                }
+
+                continue;
+            }
+
+            if (!hasSameFolderCase(manifest, serverItem))
+            {
+                return null;
+            }
+
+            if (previousNode >= 0 && previousNode != pathNode && !delta.remove(previousNode))
+            {
+                return null;
+            }
+
+            if (pathNode >= 0)
+            {
+                if (folder)
+                {
+                    if (manifest.isFile(pathNode))
+                    {
+                        /* A folder replaced the file */
+                        delta.remove(pathNode);
+                    }
+                    else if (!manifest.hasSameCase(pathNode, serverItem))
+                    {
+                        return null;
+                    }
+                }
+                else if (!manifest.isFile(pathNode))
+                {
+                    /* A file replaced a folder */
+                    return null;
+                }
+                else if (!manifest.hasSameCase(pathNode, serverItem))
+                {
+                    delta.remove(pathNode);
+                }
+                else if (pathNode == previousNode && manifest.getChangesetID(pathNode) == item.getChangeSetID())
+                {
+                    continue;
+                }
+            }
+
+            delta.addedItems.add(item);
+
+            if (!folder)
+            {
+                delta.changedItems.add(item);
+            }
+        }
+
+        return delta;
+    }
+
+    /**
+     * @return the files that were added or changed, with their download
+     *         information
+     */
+    public Item[] getChangedItems()
+    {
+        return changedItems.toArray(new Item[changedItems.size()]);
+    }
+
+    /**
+     * @return the paths of the files that were removed, relative to the server
+     *         path
+     */
+    public List<String> getRemovedPaths()
+    {
+        return removedPaths;
+    }
+
+    /**
+     * Patches the manifest into the manifest of the changeset. The blob ids of
+     * the changed files are cleared.
+     */
+    public void apply()
+    {
+        for (final Integer node : removedNodes)
+        {
+            manifest.remove(node);
+        }
+
+        for (final Item item : addedItems)
+        {
+            manifest.add(
+                item.getServerItem(),
+                item.getItemID(),
+                item.getChangeSetID(),
+                item.getItemType() == ItemType.FOLDER);
+        }
+
+        manifest.compact();
+    }
+
+    /**
+     * Records that a node is removed.
+     * 
+     * @return <code>false</code> if the node is a folder with items under it,
+     *         or the server path itself
+     */
+    private boolean remove(final int node)
+    {
+        if (node == 0 || manifest.hasChildren(node))
+        {
+            return false;
+        }
+
+        removedNodes.add(node);
+
+        if (manifest.isFile(node))
+        {
+            removedPaths.add(manifest.getRepositoryPath(node));
+        }
+
+        return true;
+    }
+
+    /**
+     * Determines whether the nearest folder above an item that is in the
+     * manifest has the same case as the server path of the item.
+     */
+    private static boolean hasSameFolderCase(final ItemManifest manifest, final String serverItem)
+    {
+        final String serverPath = manifest.getServerPath();
+
+        for (String folder = ServerPath.getParent(serverItem); folder != null
+            && ServerPath.isChild(serverPath, folder)
+            && !ServerPath.equals(folder, serverPath); folder = ServerPath.getParent(folder))
+        {
+            final int node = manifest.find(folder);
+
+            if (node >= 0)
+            {
+                return manifest.hasSameCase(node, folder);
+            }
+        }
+
+        return true;
+    }
+}
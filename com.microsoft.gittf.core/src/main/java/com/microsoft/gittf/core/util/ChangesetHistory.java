@@ -0,0 +1,278 @@
+/***********************************************************************************************
+ * Copyright (c) Microsoft Corporation All rights reserved.
+ * 
+ * MIT License:
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ***********************************************************************************************/
+
+package com.microsoft.gittf.core.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.microsoft.gittf.core.interfaces.VersionControlService;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Changeset;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.RecursionType;
+import com.microsoft.tfs.core.clients.versioncontrol.specs.version.ChangesetVersionSpec;
+
+/**
+ * Pages through the history of a server path in ascending changeset order, so
+ * that a long history can be imported as it is queried instead of being held
+ * in memory in full. Each page holds at most GITTF_HISTORY_PAGE_SIZE
+ * changesets (500 by default).
+ * 
+ * A history may also be created from changesets that have already been
+ * queried, in which case they are returned as a single page.
+ */
+public class ChangesetHistory
+{
+    private static final Log log = LogFactory.getLog(ChangesetHistory.class);
+
+    private static final String PAGE_SIZE_NAME = "GITTF_HISTORY_PAGE_SIZE"; //$NON-NLS-1$
+    private static final int DEFAULT_PAGE_SIZE = 500;
+
+    private static final Changeset[] NO_CHANGESETS = new Changeset[0];
+
+    private final VersionControlService versionControlService;
+    private final String serverPath;
+    private final int firstChangesetID;
+    private final int lastChangesetID;
+    private final int pageSize;
+
+    private Changeset[] queriedChangesets;
+    private int nextChangesetID;
+    private int workedChangesetID;
+    private boolean exhausted;
+
+    /**
+     * Creates a history that queries the changesets of the server path in the
+     * range specified.
+     * 
+     * @param versionControlService
+     *        the version control service
+     * @param serverPath
+     *        the server path
+     * @param firstChangesetID
+     *        the oldest changeset to return
+     * @param lastChangesetID
+     *        the latest changeset to return
+     */
+    public ChangesetHistory(
+        final VersionControlService versionControlService,
+        final String serverPath,
+        final int firstChangesetID,
+        final int lastChangesetID)
+    {
+        this(
+            versionControlService,
+            serverPath,
+            firstChangesetID,
+            lastChangesetID,
+            EnvironmentUtil.getPositiveInt(PAGE_SIZE_NAME, DEFAULT_PAGE_SIZE));
+    }
+
+    /**
+     * Creates a history that queries the changesets of the server path in the
+     * range specified.
+     * 
+     * @param versionControlService
+     *        the version control service
+     * @param serverPath
+     *        the server path
+     * @param firstChangesetID
+     *        the oldest changeset to return
+     * @param lastChangesetID
+     *        the latest changeset to return
+     * @param pageSize
+     *        the maximum number of changesets per page
+     */
+    public ChangesetHistory(
+        final VersionControlService versionControlService,
+        final String serverPath,
+        final int firstChangesetID,
+        final int lastChangesetID,
+        final int pageSize)
+    {
+        Check.notNull(versionControlService, "versionControlService"); //$NON-NLS-1$
+        Check.notNullOrEmpty(serverPath, "serverPath"); //$NON-NLS-1$
+        Check.isTrue(firstChangesetID >= 0, "firstChangesetID >= 0"); //$NON-NLS-1$
+        Check.isTrue(pageSize > 0, "pageSize > 0"); //$NON-NLS-1$
+
+        this.versionControlService = versionControlService;
+        this.serverPath = serverPath;
+        this.firstChangesetID = firstChangesetID;
+        this.lastChangesetID = lastChangesetID;
+        this.pageSize = pageSize;
+
+        this.nextChangesetID = firstChangesetID;
+        this.workedChangesetID = firstChangesetID - 1;
+        this.exhausted = firstChangesetID > lastChangesetID;
+    }
+
+    /**
+     * Creates a history of changesets that have already been queried.
+     * 
+     * @param changesets
+     *        the changesets, in ascending order
+     */
+    public ChangesetHistory(final Changeset[] changesets)
+    {
+        Check.notNull(changesets, "changesets"); //$NON-NLS-1$
+
+        this.versionControlService = null;
+        this.serverPath = null;
+        this.firstChangesetID = -1;
+        this.lastChangesetID = -1;
+        this.pageSize = changesets.length;
+
+        this.queriedChangesets = changesets;
+        this.exhausted = true;
+    }
+
+    /**
+     * Gets the amount of work it takes to import the history, to be used
+     * along with {@link #getWork(Changeset)} to report progress before the
+     * number of changesets is known.
+     * 
+     * @return
+     */
+    public int getWork()
+    {
+        if (versionControlService == null)
+        {
+            return pageSize;
+        }
+
+        return Math.max(lastChangesetID - firstChangesetID + 1, 0);
+    }
+
+    /**
+     * Gets the share of {@link #getWork()} a changeset accounts for. The
+     * history is assumed to be imported in order, so this must be called once
+     * for every changeset, in the order they were returned.
+     * 
+     * @param changeset
+     *        the changeset that was imported
+     * @return
+     */
+    public int getWork(final Changeset changeset)
+    {
+        Check.notNull(changeset, "changeset"); //$NON-NLS-1$
+
+        if (versionControlService == null)
+        {
+            return 1;
+        }
+
+        final int work = Math.max(changeset.getChangesetID() - workedChangesetID, 0);
+        workedChangesetID = Math.max(changeset.getChangesetID(), workedChangesetID);
+
+        return work;
+    }
+
+    /**
+     * Gets the next page of changesets.
+     * 
+     * @return the changesets of the page in ascending order, or an empty array
+     *         once all changesets have been returned
+     */
+    public Changeset[] nextPage()
+    {
+        if (queriedChangesets != null)
+        {
+            final Changeset[] page = queriedChangesets;
+            queriedChangesets = null;
+
+            return page;
+        }
+
+        if (exhausted)
+        {
+            return NO_CHANGESETS;
+        }
+
+        Changeset[] page = queryHistory(pageSize, true);
+
+        if (page.length > 1 && page[0].getChangesetID() > page[page.length - 1].getChangesetID())
+        {
+            if (page.length < pageSize)
+            {
+                /* The server ignored the sort order, but the page is complete */
+                page = reverse(page);
+            }
+            else
+            {
+                /*
+                 * The server ignored the sort order and returned the latest
+                 * changesets of the range rather than the next ones, the rest
+                 * of the range is queried at once.
+                 */
+                log.warn("The server does not sort the history in ascending order, querying the history in full"); //$NON-NLS-1$
+
+                page = reverse(queryHistory(Integer.MAX_VALUE, false));
+                exhausted = true;
+            }
+        }
+
+        if (page.length < pageSize)
+        {
+            exhausted = true;
+        }
+
+        if (page.length > 0)
+        {
+            nextChangesetID = page[page.length - 1].getChangesetID() + 1;
+            exhausted |= nextChangesetID > lastChangesetID;
+        }
+
+        return page;
+    }
+
+    private Changeset[] queryHistory(final int maxCount, final boolean sortAscending)
+    {
+        final ChangesetVersionSpec versionTo = new ChangesetVersionSpec(lastChangesetID);
+
+        return versionControlService.queryHistory(
+            serverPath,
+            versionTo,
+            0,
+            RecursionType.FULL,
+            null,
+            new ChangesetVersionSpec(nextChangesetID),
+            versionTo,
+            maxCount,
+            false,
+            false,
+            false,
+            sortAscending);
+    }
+
+    private static Changeset[] reverse(final Changeset[] changesets)
+    {
+        final Changeset[] reversed = new Changeset[changesets.length];
+
+        for (int i = 0; i < changesets.length; i++)
+        {
+            reversed[i] = changesets[changesets.length - 1 - i];
+        }
+
+        return reversed;
+    }
+}
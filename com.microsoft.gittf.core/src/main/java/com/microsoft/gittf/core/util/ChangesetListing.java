@@ -0,0 +1,87 @@
+/***********************************************************************************************
+ * Copyright (c) Microsoft Corporation All rights reserved.
+ * 
+ * MIT License:
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ***********************************************************************************************/
+package com.microsoft.gittf.core.util;
+
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Change;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Item;
+
+/**
+ * What was listed of a changeset ahead of creating its commit: either the
+ * items under the server path at the changeset, or only the changes the
+ * changeset made when they can be applied to the manifest of the changeset
+ * preceding it, see {@link ChangesetDelta}.
+ */
+public final class ChangesetListing
+{
+    private final Item[] items;
+    private final Change[] changes;
+
+    private ChangesetListing(final Item[] items, final Change[] changes)
+    {
+        this.items = items;
+        this.changes = changes;
+    }
+
+    /**
+     * @param items
+     *        the items under the server path at the changeset, may be
+     *        <code>null</code>
+     * @return a listing of the items of a changeset
+     */
+    public static ChangesetListing fromItems(final Item[] items)
+    {
+        return new ChangesetListing(items, null);
+    }
+
+    /**
+     * @param changes
+     *        the changes of the changeset, including download information
+     *        (must not be <code>null</code>)
+     * @return a listing of the changes of a changeset
+     */
+    public static ChangesetListing fromChanges(final Change[] changes)
+    {
+        Check.notNull(changes, "changes"); //$NON-NLS-1$
+
+        return new ChangesetListing(null, changes);
+    }
+
+    /**
+     * @return the items under the server path at the changeset, or
+     *         <code>null</code> if only the changes were listed
+     */
+    public Item[] getItems()
+    {
+        return items;
+    }
+
+    /**
+     * @return the changes of the changeset, or <code>null</code> if the items
+     *         were listed
+     */
+    public Change[] getChanges()
+    {
+        return changes;
+    }
+}
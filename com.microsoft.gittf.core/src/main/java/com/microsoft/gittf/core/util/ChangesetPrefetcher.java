@@ -0,0 +1,437 @@
+/***********************************************************************************************
+ * Copyright (c) Microsoft Corporation All rights reserved.
+ * 
+ * MIT License:
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ***********************************************************************************************/
+
+package com.microsoft.gittf.core.util;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.microsoft.gittf.core.GitTFConstants;
+import com.microsoft.gittf.core.Messages;
+import com.microsoft.gittf.core.config.ContentHashIndex;
+import com.microsoft.gittf.core.interfaces.VersionControlService;
+import com.microsoft.tfs.core.clients.versioncontrol.path.ServerPath;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Change;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.ChangeType;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Changeset;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Item;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.ItemType;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.RecursionType;
+import com.microsoft.tfs.core.clients.versioncontrol.specs.version.ChangesetVersionSpec;
+import com.microsoft.tfs.util.FileHelpers;
+
+/**
+ * Lists the items of upcoming changesets on a background thread while the
+ * caller builds the commits of earlier ones. Once a changeset has been listed,
+ * the items that changed in it are handed to the {@link ItemDownloader} to
+ * prefetch their content.
+ * 
+ * The prefetcher never runs more than a fixed number of changesets ahead of
+ * the caller; the look-ahead window is read from the GITTF_PREFETCH_CHANGESETS
+ * environment variable. Changesets are always handed back in order.
+ * 
+ * Rather than listing the whole tree for every changeset, only the changes the
+ * changeset made are listed, and the caller applies them to the manifest of
+ * the changeset before it, see {@link ChangesetDelta}. The tree is still
+ * listed in full for the first changeset unless the caller has that manifest,
+ * whenever the changes cannot be applied on their own, and every
+ * GITTF_FULL_LISTING_INTERVAL changesets as a consistency check.
+ */
+public class ChangesetPrefetcher
+{
+    private static final Log log = LogFactory.getLog(ChangesetPrefetcher.class);
+
+    private static final String PREFETCH_CHANGESETS_NAME = "GITTF_PREFETCH_CHANGESETS"; //$NON-NLS-1$
+    private static final int DEFAULT_PREFETCH_CHANGESETS = 2;
+
+    private static final String FULL_LISTING_INTERVAL_NAME = "GITTF_FULL_LISTING_INTERVAL"; //$NON-NLS-1$
+    private static final int DEFAULT_FULL_LISTING_INTERVAL = 100;
+
+    private final VersionControlService versionControlService;
+    private final String serverPath;
+    private final Changeset[] changesets;
+    private final File tempDir;
+    private final ItemDownloader downloader;
+    private final int window;
+    private final int fullListingInterval;
+
+    private final ChangesetListing[] listings;
+    private final RuntimeException[] errors;
+
+    /* Guarded by this */
+    private int listedCount = 0;
+    private int consumedCount = 0;
+    private boolean closed = false;
+
+    private Thread thread;
+    private ContentHashIndex contentHashIndex;
+    private PathFilter pathFilter = PathFilter.ALL;
+
+    /**
+     * Constructor
+     * 
+     * @param versionControlService
+     *        the version control service
+     * @param serverPath
+     *        the server path to list
+     * @param changesets
+     *        the changesets to list, in the order they will be requested
+     * @param tempDir
+     *        the directory the downloader may spill large items to. The
+     *        directory is created by the prefetcher and deleted when it is
+     *        closed.
+     */
+    public ChangesetPrefetcher(
+        final VersionControlService versionControlService,
+        final String serverPath,
+        final Changeset[] changesets,
+        final File tempDir)
+    {
+        this(versionControlService, serverPath, changesets, tempDir, EnvironmentUtil.getPositiveInt(
+            PREFETCH_CHANGESETS_NAME,
+            DEFAULT_PREFETCH_CHANGESETS));
+    }
+
+    /**
+     * Constructor
+     * 
+     * @param versionControlService
+     *        the version control service
+     * @param serverPath
+     *        the server path to list
+     * @param changesets
+     *        the changesets to list, in the order they will be requested
+     * @param tempDir
+     *        the directory the downloader may spill large items to. The
+     *        directory is created by the prefetcher and deleted when it is
+     *        closed.
+     * @param window
+     *        the number of changesets the prefetcher may list ahead of the
+     *        caller
+     */
+    public ChangesetPrefetcher(
+        final VersionControlService versionControlService,
+        final String serverPath,
+        final Changeset[] changesets,
+        final File tempDir,
+        final int window)
+    {
+        Check.notNull(versionControlService, "versionControlService"); //$NON-NLS-1$
+        Check.notNullOrEmpty(serverPath, "serverPath"); //$NON-NLS-1$
+        Check.notNull(changesets, "changesets"); //$NON-NLS-1$
+        Check.notNull(tempDir, "tempDir"); //$NON-NLS-1$
+        Check.isTrue(window > 0, "window > 0"); //$NON-NLS-1$
+
+        this.versionControlService = versionControlService;
+        this.serverPath = serverPath;
+        this.changesets = changesets;
+        this.tempDir = tempDir;
+        this.downloader = new ItemDownloader(versionControlService, tempDir);
+        this.window = window;
+        this.fullListingInterval =
+            EnvironmentUtil.getPositiveInt(FULL_LISTING_INTERVAL_NAME, DEFAULT_FULL_LISTING_INTERVAL);
+
+        this.listings = new ChangesetListing[changesets.length];
+        this.errors = new RuntimeException[changesets.length];
+    }
+
+    /**
+     * Gets the downloader that prefetched content is handed to. Tasks building
+     * the commits should share it so they pick up the prefetched content.
+     * 
+     * @return
+     */
+    public ItemDownloader getDownloader()
+    {
+        return downloader;
+    }
+
+    /**
+     * Sets the index of content that was downloaded before. Items whose
+     * content is in the index are not prefetched.
+     * 
+     * @param contentHashIndex
+     *        the content hash index
+     */
+    public void setContentHashIndex(final ContentHashIndex contentHashIndex)
+    {
+        this.contentHashIndex = contentHashIndex;
+    }
+
+    /**
+     * Sets the filter that selects the items to list. The manifests the listed
+     * changes are applied to must have been selected with the same filter.
+     * 
+     * @param pathFilter
+     *        the path filter
+     */
+    public void setPathFilter(final PathFilter pathFilter)
+    {
+        Check.notNull(pathFilter, "pathFilter"); //$NON-NLS-1$
+
+        this.pathFilter = pathFilter;
+    }
+
+    /**
+     * Starts listing changesets in the background.
+     * 
+     * @param incremental
+     *        <code>true</code> if the caller can apply the changes of the first
+     *        changeset to the manifest and tree of the changeset preceding it.
+     *        Otherwise the first changeset is listed in full and all of its
+     *        files are prefetched.
+     */
+    public void start(final boolean incremental)
+        throws IOException
+    {
+        Check.isTrue(thread == null, "thread == null"); //$NON-NLS-1$
+
+        if (!tempDir.isDirectory() && !tempDir.mkdirs())
+        {
+            throw new IOException(Messages.formatString("CreateCommitTask.ErrorCreatingTempDirectoryMessageFormat", //$NON-NLS-1$
+                tempDir.getAbsolutePath()));
+        }
+
+        thread = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    prefetch(incremental);
+                }
+                catch (Throwable e)
+                {
+                    log.error(e);
+                    fail(e);
+                }
+            }
+        }, GitTFConstants.GIT_TF_NAME + "-prefetch"); //$NON-NLS-1$
+
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Waits for the changeset at the index specified to be listed and returns
+     * its listing. Changesets must be requested in order, and each changeset
+     * may only be requested once.
+     * 
+     * @param index
+     *        the index of the changeset in the array passed to the constructor
+     * @return
+     * @throws InterruptedException
+     */
+    public synchronized ChangesetListing getListing(final int index)
+        throws InterruptedException
+    {
+        Check.isTrue(index == consumedCount, "index == consumedCount"); //$NON-NLS-1$
+
+        while (listedCount <= index && errors[index] == null)
+        {
+            wait();
+        }
+
+        final ChangesetListing listing = listings[index];
+        final RuntimeException error = errors[index];
+
+        /* Release the listing, the caller owns it now */
+        listings[index] = null;
+        consumedCount++;
+        notifyAll();
+
+        if (error != null)
+        {
+            throw error;
+        }
+
+        return listing;
+    }
+
+    /**
+     * Stops listing changesets, discards any prefetched content and deletes
+     * the temporary directory.
+     */
+    public void close()
+    {
+        synchronized (this)
+        {
+            closed = true;
+            notifyAll();
+        }
+
+        downloader.close();
+
+        FileHelpers.deleteDirectory(tempDir);
+    }
+
+    private void prefetch(final boolean incremental)
+    {
+        boolean canApplyChanges = incremental;
+
+        for (int index = 0; index < changesets.length; index++)
+        {
+            synchronized (this)
+            {
+                try
+                {
+                    while (!closed && index - consumedCount >= window)
+                    {
+                        wait();
+                    }
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+
+                if (closed)
+                {
+                    return;
+                }
+            }
+
+            final int changesetID = changesets[index].getChangesetID();
+            final ChangesetListing listing =
+                listChangeset(changesetID, canApplyChanges && (index + 1) % fullListingInterval != 0);
+
+            synchronized (this)
+            {
+                listings[index] = listing;
+                listedCount++;
+                notifyAll();
+            }
+
+            try
+            {
+                prefetchChangedItems(changesetID, listing, !canApplyChanges);
+            }
+            catch (RuntimeException e)
+            {
+                /* Not fatal, the items will be downloaded on demand */
+                log.warn(e);
+            }
+
+            /* The caller has the manifest and tree of the listed changeset */
+            canApplyChanges = true;
+        }
+    }
+
+    private ChangesetListing listChangeset(final int changesetID, final boolean applyChanges)
+    {
+        if (applyChanges)
+        {
+            final Changeset changeset = versionControlService.getChangeset(changesetID, true, true);
+
+            if (changeset != null && !ChangesetDelta.requiresListing(serverPath, changeset.getChanges()))
+            {
+                return ChangesetListing.fromChanges(changeset.getChanges());
+            }
+
+            log.debug("Listing changeset " + changesetID + " in full"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+
+        return ChangesetListing.fromItems(pathFilter.filter(serverPath, versionControlService.getItems(
+            serverPath,
+            new ChangesetVersionSpec(changesetID),
+            RecursionType.FULL)));
+    }
+
+    /**
+     * Hands the failure to the caller waiting for the changeset that was being
+     * listed
+     */
+    private synchronized void fail(final Throwable e)
+    {
+        if (listedCount < changesets.length)
+        {
+            errors[listedCount] = e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * Prefetches the files that were changed in the changeset.
+     * 
+     * @param allFiles
+     *        <code>true</code> to prefetch every listed file, when the commit
+     *        will not be built from the tree of the changeset before it
+     */
+    private void prefetchChangedItems(final int changesetID, final ChangesetListing listing, final boolean allFiles)
+    {
+        if (listing.getChanges() != null)
+        {
+            for (final Change change : listing.getChanges())
+            {
+                final Item item = change.getItem();
+
+                if (change.getChangeType().contains(ChangeType.DELETE)
+                    || item.getDeletionID() != 0
+                    || !ServerPath.isChild(serverPath, item.getServerItem())
+                    || !pathFilter.includes(ServerPath.makeRelative(item.getServerItem(), serverPath), false))
+                {
+                    continue;
+                }
+
+                if (!prefetch(changesetID, item, false))
+                {
+                    return;
+                }
+            }
+        }
+        else if (listing.getItems() != null)
+        {
+            for (final Item item : listing.getItems())
+            {
+                if (!prefetch(changesetID, item, allFiles))
+                {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return <code>false</code> if the downloader is saturated, the rest is
+     *         fetched on demand
+     */
+    private boolean prefetch(final int changesetID, final Item item, final boolean allFiles)
+    {
+        if (item.getItemType() == ItemType.FOLDER || (!allFiles && item.getChangeSetID() != changesetID))
+        {
+            return true;
+        }
+
+        if (contentHashIndex != null && contentHashIndex.get(item.getContentHashValue()) != null)
+        {
+            return true;
+        }
+
+        return downloader.prefetch(item);
+    }
+}
@@ -0,0 +1,231 @@
+/***********************************************************************************************
+ * Copyright (c) Microsoft Corporation All rights reserved.
+ * 
+ * MIT License:
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ***********************************************************************************************/
+
+package com.microsoft.gittf.core.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.microsoft.gittf.core.GitTFConstants;
+
+/**
+ * An output stream that keeps content in a reusable in-memory buffer and only
+ * spills to a temporary file once the content grows past a threshold. After
+ * the content has been consumed the buffer can be reset and written again
+ * without reallocating its memory.
+ * 
+ * The threshold is read from the GITTF_IN_MEMORY_CONTENT_LIMIT environment
+ * variable (in bytes).
+ * 
+ * @threadsafety not thread safe
+ */
+public class ContentBuffer
+    extends OutputStream
+{
+    private static final String IN_MEMORY_LIMIT_NAME = "GITTF_IN_MEMORY_CONTENT_LIMIT"; //$NON-NLS-1$
+    private static final int DEFAULT_IN_MEMORY_LIMIT = 1024 * 1024;
+
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+    private final File tempDir;
+    private final int inMemoryLimit;
+
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private int count;
+
+    private File spillFile;
+    private OutputStream spillStream;
+    private long spillLength;
+
+    /**
+     * Constructor
+     * 
+     * @param tempDir
+     *        the directory to spill large content to
+     */
+    public ContentBuffer(final File tempDir)
+    {
+        this(tempDir, getInMemoryLimit());
+    }
+
+    /**
+     * Constructor
+     * 
+     * @param tempDir
+     *        the directory to spill large content to
+     * @param inMemoryLimit
+     *        the largest content, in bytes, that is kept in memory
+     */
+    public ContentBuffer(final File tempDir, final int inMemoryLimit)
+    {
+        Check.notNull(tempDir, "tempDir"); //$NON-NLS-1$
+        Check.isTrue(inMemoryLimit >= 0, "inMemoryLimit >= 0"); //$NON-NLS-1$
+
+        this.tempDir = tempDir;
+        this.inMemoryLimit = inMemoryLimit;
+    }
+
+    /**
+     * Gets the largest content size, in bytes, kept in memory
+     * 
+     * @return
+     */
+    public static int getInMemoryLimit()
+    {
+        return EnvironmentUtil.getPositiveInt(IN_MEMORY_LIMIT_NAME, DEFAULT_IN_MEMORY_LIMIT);
+    }
+
+    @Override
+    public void write(final int b)
+        throws IOException
+    {
+        write(new byte[]
+        {
+            (byte) b
+        }, 0, 1);
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len)
+        throws IOException
+    {
+        if (spillStream == null && count + len > inMemoryLimit)
+        {
+            spill();
+        }
+
+        if (spillStream != null)
+        {
+            spillStream.write(b, off, len);
+            spillLength += len;
+            return;
+        }
+
+        ensureCapacity(count + len);
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+    }
+
+    /**
+     * Finishes writing. Must be called before the content is read back.
+     */
+    @Override
+    public void close()
+        throws IOException
+    {
+        if (spillStream != null)
+        {
+            spillStream.close();
+            spillStream = null;
+        }
+    }
+
+    /**
+     * @return the number of bytes written since the last reset
+     */
+    public long length()
+    {
+        return spillFile != null ? spillLength : count;
+    }
+
+    /**
+     * @return <code>true</code> if the content did not fit in memory and was
+     *         written to a temporary file
+     */
+    public boolean isSpilled()
+    {
+        return spillFile != null;
+    }
+
+    /**
+     * Opens a stream over the content written since the last reset.
+     * 
+     * @return
+     * @throws IOException
+     */
+    public InputStream openInputStream()
+        throws IOException
+    {
+        close();
+
+        if (spillFile != null)
+        {
+            return new FileInputStream(spillFile);
+        }
+
+        return new ByteArrayInputStream(buffer, 0, count);
+    }
+
+    /**
+     * Discards the content so the buffer can be written again. The in-memory
+     * buffer is kept for reuse, any temporary file is deleted.
+     */
+    public void reset()
+    {
+        try
+        {
+            close();
+        }
+        catch (IOException e)
+        {
+            /* ignore, the file is deleted below */
+        }
+
+        if (spillFile != null)
+        {
+            spillFile.delete();
+            spillFile = null;
+        }
+
+        spillLength = 0;
+        count = 0;
+    }
+
+    private void spill()
+        throws IOException
+    {
+        spillFile = File.createTempFile(GitTFConstants.GIT_TF_NAME, null, tempDir);
+        spillStream = new FileOutputStream(spillFile);
+
+        spillStream.write(buffer, 0, count);
+        spillLength = count;
+    }
+
+    private void ensureCapacity(final int capacity)
+    {
+        if (capacity <= buffer.length)
+        {
+            return;
+        }
+
+        final byte[] newBuffer = new byte[Math.max(capacity, Math.min(buffer.length * 2, inMemoryLimit))];
+        System.arraycopy(buffer, 0, newBuffer, 0, count);
+        buffer = newBuffer;
+    }
+}
@@ -63,6 +63,21 @@ public final class DirectoryUtil
             return new File(config.getTempDirectory());
         }
 
+        return getGitTFDir(repository);
+    }
+
+    /**
+     * Get the git-tf directory inside the git directory of the repository.
+     * Unlike the temp directory it is never shared with another repository.
+     * 
+     * @param repository
+     *        the git repository
+     * @return
+     */
+    public static File getGitTFDir(final Repository repository)
+    {
+        Check.notNull(repository, "repository"); //$NON-NLS-1$
+
         File rootDirectory = repository.getDirectory().getAbsoluteFile();
 
         try
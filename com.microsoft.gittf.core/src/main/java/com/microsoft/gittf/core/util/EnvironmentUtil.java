@@ -0,0 +1,75 @@
+/***********************************************************************************************
+ * Copyright (c) Microsoft Corporation All rights reserved.
+ * 
+ * MIT License:
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ***********************************************************************************************/
+
+package com.microsoft.gittf.core.util;
+
+import com.microsoft.tfs.util.StringHelpers;
+
+/**
+ * Reads git-tf tuning knobs from the environment. Every variable may be
+ * specified either in upper case (GITTF_FOO) or lower case (gittf_foo).
+ */
+public final class EnvironmentUtil
+{
+    private EnvironmentUtil()
+    {
+    }
+
+    /**
+     * Reads a positive integer from the environment.
+     * 
+     * @param name
+     *        the upper case name of the environment variable
+     * @param defaultValue
+     *        the value to use if the variable is not set or is not a positive
+     *        integer
+     * @return
+     */
+    public static int getPositiveInt(final String name, final int defaultValue)
+    {
+        Check.notNullOrEmpty(name, "name"); //$NON-NLS-1$
+
+        String value = System.getenv(name);
+
+        if (StringHelpers.isNullOrEmpty(value))
+        {
+            value = System.getenv(name.toLowerCase());
+        }
+
+        int result = -1;
+
+        try
+        {
+            if (!StringHelpers.isNullOrEmpty(value))
+            {
+                result = Integer.parseInt(value.trim());
+            }
+        }
+        catch (final NumberFormatException e)
+        {
+        }
+
+        return result > 0 ? result : defaultValue;
+    }
+}
@@ -0,0 +1,489 @@
+/***********************************************************************************************
+ * Copyright (c) Microsoft Corporation All rights reserved.
+ * 
+ * MIT License:
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ***********************************************************************************************/
+
+package com.microsoft.gittf.core.util;
+
+import java.io.File;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.microsoft.gittf.core.GitTFConstants;
+import com.microsoft.gittf.core.interfaces.VersionControlService;
+import com.microsoft.tfs.core.clients.versioncontrol.exceptions.VersionControlException;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Item;
+
+/**
+ * Downloads TFS items on a bounded pool of worker threads. Items are submitted
+ * by a single consumer thread and the results are handed back to that thread
+ * in submission order, so that the consumer can feed a single (non thread
+ * safe) ObjectInserter while the downloads happen concurrently.
+ * 
+ * Content is streamed into {@link ContentBuffer}s that are recycled once the
+ * consumer disposes of a download, so small files never touch the disk.
+ * 
+ * Other threads may {@link #prefetch(Item)} items ahead of the consumer, for
+ * example the items of the next changeset. When the consumer later submits a
+ * prefetched item it picks up the download that is already in progress; an
+ * item that the consumer resolves without downloading it must be
+ * {@link #discard(Item)}ed instead so that its prefetch is released.
+ * 
+ * The number of workers is read from the GITTF_DOWNLOAD_THREADS environment
+ * variable.
+ */
+public class ItemDownloader
+{
+    private static final String DOWNLOAD_THREADS_NAME = "GITTF_DOWNLOAD_THREADS"; //$NON-NLS-1$
+    private static final int DEFAULT_DOWNLOAD_THREADS = 4;
+
+    /* The number of downloads allowed in flight per worker thread */
+    private static final int PENDING_DOWNLOADS_PER_THREAD = 4;
+
+    /* The number of unclaimed prefetched downloads allowed per worker thread */
+    private static final int PREFETCHED_DOWNLOADS_PER_THREAD = 8;
+
+    private static final AtomicInteger poolCounter = new AtomicInteger();
+
+    private final VersionControlService versionControlService;
+    private final File tempDir;
+    private final int maxPendingDownloads;
+    private final ExecutorService executor;
+
+    private final LinkedList<Future<ItemDownload>> pendingDownloads = new LinkedList<Future<ItemDownload>>();
+    private final Queue<ContentBuffer> freeBuffers = new ConcurrentLinkedQueue<ContentBuffer>();
+
+    private final ConcurrentMap<String, PrefetchedDownload> prefetchedDownloads =
+        new ConcurrentHashMap<String, PrefetchedDownload>();
+    private final Semaphore prefetchPermits;
+
+    /**
+     * Constructor
+     * 
+     * @param versionControlService
+     *        the version control service to download items from
+     * @param tempDir
+     *        the directory to spill large item content to
+     */
+    public ItemDownloader(final VersionControlService versionControlService, final File tempDir)
+    {
+        this(versionControlService, tempDir, getDownloadThreadCount());
+    }
+
+    /**
+     * Constructor
+     * 
+     * @param versionControlService
+     *        the version control service to download items from
+     * @param tempDir
+     *        the directory to spill large item content to
+     * @param threadCount
+     *        the number of download worker threads
+     */
+    public ItemDownloader(final VersionControlService versionControlService, final File tempDir, final int threadCount)
+    {
+        Check.notNull(versionControlService, "versionControlService"); //$NON-NLS-1$
+        Check.notNull(tempDir, "tempDir"); //$NON-NLS-1$
+        Check.isTrue(threadCount > 0, "threadCount > 0"); //$NON-NLS-1$
+
+        this.versionControlService = versionControlService;
+        this.tempDir = tempDir;
+        this.maxPendingDownloads = threadCount * PENDING_DOWNLOADS_PER_THREAD;
+        this.executor = Executors.newFixedThreadPool(threadCount, new DownloadThreadFactory());
+        this.prefetchPermits = new Semaphore(threadCount * PREFETCHED_DOWNLOADS_PER_THREAD);
+    }
+
+    /**
+     * Gets the number of download worker threads to use
+     * 
+     * @return
+     */
+    public static int getDownloadThreadCount()
+    {
+        return EnvironmentUtil.getPositiveInt(DOWNLOAD_THREADS_NAME, DEFAULT_DOWNLOAD_THREADS);
+    }
+
+    /**
+     * Queues the item for download.
+     * 
+     * @param item
+     *        the item to download
+     */
+    public void submit(final Item item)
+    {
+        Check.notNull(item, "item"); //$NON-NLS-1$
+
+        final Future<ItemDownload> prefetched = prefetchedDownloads.remove(getPrefetchKey(item));
+
+        if (prefetched != null)
+        {
+            prefetchPermits.release();
+            pendingDownloads.addLast(prefetched);
+            return;
+        }
+
+        pendingDownloads.addLast(executor.submit(newDownload(item)));
+    }
+
+    /**
+     * Starts downloading the item ahead of the consumer. Prefetching never
+     * blocks: if too many prefetched downloads are waiting to be claimed the
+     * item is not prefetched and will be downloaded when it is submitted. This
+     * method may be called from any thread.
+     * 
+     * @param item
+     *        the item to prefetch
+     * @return <code>true</code> if the item is being prefetched
+     */
+    public boolean prefetch(final Item item)
+    {
+        Check.notNull(item, "item"); //$NON-NLS-1$
+
+        if (executor.isShutdown() || !prefetchPermits.tryAcquire())
+        {
+            return false;
+        }
+
+        final PrefetchedDownload download = new PrefetchedDownload(newDownload(item));
+
+        if (prefetchedDownloads.putIfAbsent(getPrefetchKey(item), download) != null)
+        {
+            /* Already prefetched */
+            prefetchPermits.release();
+            return true;
+        }
+
+        executor.execute(download);
+        return true;
+    }
+
+    /**
+     * Drops the prefetched download of an item that the consumer resolved
+     * without submitting it, for example because the same content is already
+     * in the repository. A download that has not started is cancelled, the
+     * content of one that has is released as soon as it completes. Does
+     * nothing if the item was not prefetched.
+     * 
+     * @param item
+     *        the item that will not be submitted
+     */
+    public void discard(final Item item)
+    {
+        Check.notNull(item, "item"); //$NON-NLS-1$
+
+        final PrefetchedDownload prefetched = prefetchedDownloads.remove(getPrefetchKey(item));
+
+        if (prefetched != null)
+        {
+            prefetchPermits.release();
+            prefetched.discard();
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the caller should consume a download result
+     *         before submitting more items
+     */
+    public boolean isFull()
+    {
+        return pendingDownloads.size() >= maxPendingDownloads;
+    }
+
+    /**
+     * @return <code>true</code> if there are submitted items that have not been
+     *         consumed yet
+     */
+    public boolean hasPendingDownloads()
+    {
+        return !pendingDownloads.isEmpty();
+    }
+
+    /**
+     * Waits for the oldest submitted item to finish downloading and returns it.
+     * The caller owns the returned download and must dispose it.
+     * 
+     * @return
+     * @throws Exception
+     */
+    public ItemDownload next()
+        throws Exception
+    {
+        Check.isTrue(hasPendingDownloads(), "hasPendingDownloads"); //$NON-NLS-1$
+
+        final Future<ItemDownload> download = pendingDownloads.removeFirst();
+
+        try
+        {
+            return download.get();
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof Exception)
+            {
+                throw (Exception) e.getCause();
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * Stops the worker threads and discards any download that was not
+     * consumed.
+     */
+    public void close()
+    {
+        executor.shutdownNow();
+
+        pendingDownloads.addAll(prefetchedDownloads.values());
+        prefetchedDownloads.clear();
+
+        for (final Future<ItemDownload> download : pendingDownloads)
+        {
+            if (download.isDone() && !download.isCancelled())
+            {
+                try
+                {
+                    download.get().dispose();
+                }
+                catch (Exception e)
+                {
+                    /* ignore, the download failed */
+                }
+            }
+        }
+
+        pendingDownloads.clear();
+    }
+
+    private Callable<ItemDownload> newDownload(final Item item)
+    {
+        return new Callable<ItemDownload>()
+        {
+            public ItemDownload call()
+                throws Exception
+            {
+                return download(item);
+            }
+        };
+    }
+
+    private static String getPrefetchKey(final Item item)
+    {
+        return item.getServerItem().toLowerCase() + ";" + item.getChangeSetID(); //$NON-NLS-1$
+    }
+
+    private ItemDownload download(final Item item)
+        throws Exception
+    {
+        ContentBuffer buffer = freeBuffers.poll();
+
+        if (buffer == null)
+        {
+            buffer = new ContentBuffer(tempDir);
+        }
+
+        try
+        {
+            final boolean hasContent = versionControlService.downloadFile(item, buffer);
+            buffer.close();
+
+            if (!hasContent)
+            {
+                recycle(buffer);
+                return new ItemDownload(item, null, null);
+            }
+
+            return new ItemDownload(item, buffer, null);
+        }
+        catch (VersionControlException e)
+        {
+            /*
+             * If the user is denied read permissions on the file or the file
+             * was destroyed an exception will be thrown here. Hand it back to
+             * the consumer so that it can warn about it.
+             */
+            recycle(buffer);
+            return new ItemDownload(item, null, e);
+        }
+        catch (Exception e)
+        {
+            recycle(buffer);
+            throw e;
+        }
+    }
+
+    private void recycle(final ContentBuffer buffer)
+    {
+        buffer.reset();
+        freeBuffers.add(buffer);
+    }
+
+    /**
+     * A download started ahead of the consumer, which releases its content by
+     * itself once it is discarded.
+     */
+    private static class PrefetchedDownload
+        extends FutureTask<ItemDownload>
+    {
+        private volatile boolean discarded = false;
+        private final AtomicBoolean disposed = new AtomicBoolean();
+
+        public PrefetchedDownload(final Callable<ItemDownload> download)
+        {
+            super(download);
+        }
+
+        @Override
+        public void run()
+        {
+            /* Do not start downloading an item nobody will claim */
+            if (discarded)
+            {
+                cancel(false);
+                return;
+            }
+
+            super.run();
+        }
+
+        public void discard()
+        {
+            discarded = true;
+
+            if (isDone())
+            {
+                disposeResult();
+            }
+        }
+
+        @Override
+        protected void done()
+        {
+            if (discarded)
+            {
+                disposeResult();
+            }
+        }
+
+        private void disposeResult()
+        {
+            if (isCancelled() || !disposed.compareAndSet(false, true))
+            {
+                return;
+            }
+
+            try
+            {
+                get().dispose();
+            }
+            catch (Exception e)
+            {
+                /* ignore, the download failed */
+            }
+        }
+    }
+
+    /**
+     * The result of downloading a single item.
+     */
+    public class ItemDownload
+    {
+        private final Item item;
+        private ContentBuffer content;
+        private final VersionControlException error;
+
+        private ItemDownload(final Item item, final ContentBuffer content, final VersionControlException error)
+        {
+            this.item = item;
+            this.content = content;
+            this.error = error;
+        }
+
+        public Item getItem()
+        {
+            return item;
+        }
+
+        /**
+         * @return the downloaded content or <code>null</code> if the server
+         *         did not return any content for the item
+         */
+        public ContentBuffer getContent()
+        {
+            return content;
+        }
+
+        /**
+         * @return the error raised while downloading the item or
+         *         <code>null</code> if the download succeeded
+         */
+        public VersionControlException getError()
+        {
+            return error;
+        }
+
+        /**
+         * Releases the downloaded content so its buffer can be reused
+         */
+        public void dispose()
+        {
+            if (content != null)
+            {
+                recycle(content);
+                content = null;
+            }
+        }
+    }
+
+    private static class DownloadThreadFactory
+        implements ThreadFactory
+    {
+        private final int poolNumber = poolCounter.incrementAndGet();
+        private final AtomicInteger threadCounter = new AtomicInteger();
+
+        public Thread newThread(final Runnable runnable)
+        {
+            final Thread thread = new Thread(runnable, GitTFConstants.GIT_TF_NAME + "-download-" //$NON-NLS-1$
+                + poolNumber
+                + "-" //$NON-NLS-1$
+                + threadCounter.incrementAndGet());
+
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    }
+}
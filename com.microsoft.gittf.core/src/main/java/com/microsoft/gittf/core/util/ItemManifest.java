@@ -0,0 +1,1148 @@
+/***********************************************************************************************
+ * Copyright (c) Microsoft Corporation All rights reserved.
+ * 
+ * MIT License:
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ***********************************************************************************************/
+package com.microsoft.gittf.core.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+import com.microsoft.gittf.core.Messages;
+import com.microsoft.tfs.core.clients.versioncontrol.path.ServerPath;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Item;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.ItemType;
+
+/**
+ * A compact description of the items under a server path at one
+ * changeset: the path, the changeset the item was last changed in, whether
+ * it is a file or a folder and, once known, the id of the blob holding its
+ * content.
+ * 
+ * The items are stored as a tree of path segments in parallel arrays rather
+ * than as {@link Item} objects, and segment names are shared between items.
+ * The children of every folder are sorted by their lower case name, so that
+ * items can be looked up by path ignoring case without allocating.
+ * 
+ * Folders that contain items but were not listed themselves are part of the
+ * tree, but are neither files nor folders for {@link #isFile(int)} and
+ * {@link #isFolder(int)}.
+ * 
+ * Manifests can be written to and read from a stream, so that the manifest of
+ * a commit can be kept with the commit.
+ * 
+ * A manifest can be patched with the changes of the next changeset, see
+ * {@link ChangesetDelta}, so that it can be carried from one changeset to the
+ * next rather than created from a full listing each time. Removed items leave
+ * unused nodes behind until the manifest is compacted.
+ */
+public class ItemManifest
+{
+    private static final byte FILE = 1;
+    private static final byte FOLDER = 2;
+    private static final byte HAS_BLOB = 4;
+    private static final byte REMOVED = 8;
+
+    private static final int ROOT = 0;
+
+    private static final int MAGIC = 0x4754464d; /* GTFM */
+    private static final int VERSION = 1;
+
+    /* Orders server paths by their lower case segments */
+    private static final Comparator<Item> PATH_ORDER = new Comparator<Item>()
+    {
+        public int compare(final Item first, final Item second)
+        {
+            final String firstPath = first.getServerItem();
+            final String secondPath = second.getServerItem();
+            final int length = Math.min(firstPath.length(), secondPath.length());
+
+            for (int i = 0; i < length; i++)
+            {
+                final int difference = getSortKey(firstPath.charAt(i)) - getSortKey(secondPath.charAt(i));
+
+                if (difference != 0)
+                {
+                    return difference;
+                }
+            }
+
+            return firstPath.length() - secondPath.length();
+        }
+    };
+
+    private final String serverPath;
+
+    private int size;
+    private String[] names;
+    private int[] parents;
+    private int[] changesetIDs;
+    private int[] itemIDs;
+    private byte[] flags;
+    private byte[] blobIDs;
+
+    /* The sorted children of every node, null for nodes without children */
+    private int[][] children;
+
+    private int removedCount;
+
+    /*
+     * Open addressing table of the nodes by item id, holding node + 1 so that
+     * 0 marks a free slot. Built when an item is first looked up by id.
+     */
+    private int[] itemIndex;
+    private int itemIndexCount;
+
+    private ItemManifest(final String serverPath, final int capacity)
+    {
+        this.serverPath = serverPath;
+
+        names = new String[capacity];
+        parents = new int[capacity];
+        changesetIDs = new int[capacity];
+        itemIDs = new int[capacity];
+        flags = new byte[capacity];
+    }
+
+    /**
+     * Creates the manifest of the given items.
+     * 
+     * @param serverPath
+     *        the server path the items are listed under (must not be
+     *        <code>null</code>)
+     * @param items
+     *        the items, items not under the server path are ignored (must not
+     *        be <code>null</code>)
+     * @return the manifest
+     */
+    public static ItemManifest create(final String serverPath, final Item[] items)
+    {
+        Check.notNullOrEmpty(serverPath, "serverPath"); //$NON-NLS-1$
+        Check.notNull(items, "items"); //$NON-NLS-1$
+
+        final Item[] sortedItems = new Item[items.length];
+        System.arraycopy(items, 0, sortedItems, 0, items.length);
+        Arrays.sort(sortedItems, PATH_ORDER);
+
+        final ItemManifest manifest = new ItemManifest(serverPath, items.length + 1);
+        manifest.addNode(null, -1);
+
+        final Map<String, String> internedNames = new HashMap<String, String>();
+
+        /* The nodes of the folders the previous item is in, by depth */
+        int[] path = new int[16];
+        int depth = 0;
+
+        for (final Item item : sortedItems)
+        {
+            final String serverItem = item.getServerItem();
+            final int start = manifest.getRelativeStart(serverItem);
+
+            if (start < 0)
+            {
+                continue;
+            }
+
+            int node = ROOT;
+            int segmentDepth = 0;
+            int segmentStart = start;
+
+            while (segmentStart < serverItem.length())
+            {
+                int segmentEnd = serverItem.indexOf('/', segmentStart);
+                if (segmentEnd < 0)
+                {
+                    segmentEnd = serverItem.length();
+                }
+
+                segmentDepth++;
+
+                if (segmentDepth <= depth
+                    && compareName(manifest.names[path[segmentDepth]], serverItem, segmentStart, segmentEnd) == 0)
+                {
+                    node = path[segmentDepth];
+                }
+                else
+                {
+                    String name = serverItem.substring(segmentStart, segmentEnd);
+                    final String internedName = internedNames.get(name);
+
+                    if (internedName != null)
+                    {
+                        name = internedName;
+                    }
+                    else
+                    {
+                        internedNames.put(name, name);
+                    }
+
+                    node = manifest.addNode(name, node);
+
+                    if (segmentDepth >= path.length)
+                    {
+                        final int[] newPath = new int[path.length * 2];
+                        System.arraycopy(path, 0, newPath, 0, path.length);
+                        path = newPath;
+                    }
+
+                    path[segmentDepth] = node;
+                    depth = segmentDepth;
+                }
+
+                segmentStart = segmentEnd + 1;
+            }
+
+            depth = segmentDepth;
+
+            manifest.changesetIDs[node] = item.getChangeSetID();
+            manifest.itemIDs[node] = item.getItemID();
+            manifest.flags[node] = item.getItemType() == ItemType.FOLDER ? FOLDER : FILE;
+        }
+
+        manifest.indexChildren();
+
+        return manifest;
+    }
+
+    /**
+     * Reads a manifest written by {@link #write(DataOutput)}.
+     * 
+     * @param serverPath
+     *        the server path the items must be listed under (must not be
+     *        <code>null</code>)
+     * @param in
+     *        the input to read from
+     * @return the manifest, or <code>null</code> if the manifest was written
+     *         for another server path
+     * @throws IOException
+     *         if the manifest cannot be read or is not valid
+     */
+    public static ItemManifest read(final String serverPath, final DataInput in)
+        throws IOException
+    {
+        Check.notNullOrEmpty(serverPath, "serverPath"); //$NON-NLS-1$
+        Check.notNull(in, "in"); //$NON-NLS-1$
+
+        if (in.readInt() != MAGIC || in.readInt() != VERSION)
+        {
+            throw new IOException(Messages.getString("ItemManifest.InvalidManifest")); //$NON-NLS-1$
+        }
+
+        if (!ServerPath.equals(serverPath, in.readUTF()))
+        {
+            return null;
+        }
+
+        final int size = in.readInt();
+
+        if (size < 1)
+        {
+            throw new IOException(Messages.getString("ItemManifest.InvalidManifest")); //$NON-NLS-1$
+        }
+
+        final ItemManifest manifest = new ItemManifest(serverPath, size);
+        final byte[] blobID = new byte[Constants.OBJECT_ID_LENGTH];
+
+        for (int node = 0; node < size; node++)
+        {
+            final int parent = in.readInt();
+            final String name = in.readUTF();
+
+            /* Parents precede their children */
+            if (node > ROOT && (parent < ROOT || parent >= node))
+            {
+                throw new IOException(Messages.getString("ItemManifest.InvalidManifest")); //$NON-NLS-1$
+            }
+
+            manifest.addNode(node > ROOT ? name : null, node > ROOT ? parent : -1);
+            manifest.changesetIDs[node] = in.readInt();
+            manifest.itemIDs[node] = in.readInt();
+
+            final byte flags = in.readByte();
+            manifest.flags[node] = (byte) (flags & (FILE | FOLDER));
+
+            if ((flags & HAS_BLOB) != 0)
+            {
+                in.readFully(blobID);
+                manifest.setBlobID(node, ObjectId.fromRaw(blobID));
+            }
+        }
+
+        manifest.indexChildren();
+
+        return manifest;
+    }
+
+    /**
+     * Writes the manifest.
+     * 
+     * @param out
+     *        the output to write to
+     * @throws IOException
+     */
+    public void write(final DataOutput out)
+        throws IOException
+    {
+        Check.notNull(out, "out"); //$NON-NLS-1$
+
+        /* Parents are written before their children, which are written in order */
+        final int[] order = getTreeOrder();
+        final int[] writtenNodes = new int[size];
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(serverPath);
+        out.writeInt(order.length);
+
+        for (int i = 0; i < order.length; i++)
+        {
+            final int node = order[i];
+            writtenNodes[node] = i;
+
+            out.writeInt(node > ROOT ? writtenNodes[parents[node]] : -1);
+            out.writeUTF(node > ROOT ? names[node] : ""); //$NON-NLS-1$
+            out.writeInt(changesetIDs[node]);
+            out.writeInt(itemIDs[node]);
+            out.writeByte(flags[node]);
+
+            if (hasBlobID(node))
+            {
+                out.write(blobIDs, node * Constants.OBJECT_ID_LENGTH, Constants.OBJECT_ID_LENGTH);
+            }
+        }
+    }
+
+    /**
+     * Creates items for the files and folders of the manifest. The items only
+     * describe the path, type, item id and version of the items; they carry
+     * no download information.
+     * 
+     * @return the items
+     */
+    public Item[] toItems()
+    {
+        final List<Item> items = new ArrayList<Item>(size);
+
+        for (int node = 0; node < size; node++)
+        {
+            if (!isFile(node) && !isFolder(node))
+            {
+                continue;
+            }
+
+            final Item item = new Item();
+            item.setServerItem(node == ROOT ? serverPath : ServerPath.combine(serverPath, getRepositoryPath(node)));
+            item.setItemType(isFolder(node) ? ItemType.FOLDER : ItemType.FILE);
+            item.setChangeSetID(changesetIDs[node]);
+            item.setItemID(itemIDs[node]);
+
+            items.add(item);
+        }
+
+        return items.toArray(new Item[items.size()]);
+    }
+
+    /**
+     * @return the server path the items are listed under
+     */
+    public String getServerPath()
+    {
+        return serverPath;
+    }
+
+    /**
+     * @return the number of nodes in the manifest, nodes are numbered from
+     *         <code>0</code>, the server path itself. Nodes of removed items
+     *         are counted until the manifest is compacted, they are neither
+     *         files nor folders.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Finds an item by its server path, ignoring case.
+     * 
+     * @param serverItem
+     *        the server path of the item
+     * @return the node of the item, or <code>-1</code> if there is no node with
+     *         the path
+     */
+    public int find(final String serverItem)
+    {
+        final int start = getRelativeStart(serverItem);
+
+        return start >= 0 ? find(serverItem, start) : -1;
+    }
+
+    /**
+     * Finds an item by its path relative to the server path, ignoring case.
+     * 
+     * @param repositoryPath
+     *        the path of the item relative to the server path
+     * @return the node of the item, or <code>-1</code> if there is no node with
+     *         the path
+     */
+    public int findRepositoryPath(final String repositoryPath)
+    {
+        return find(repositoryPath, 0);
+    }
+
+    public boolean isFile(final int node)
+    {
+        return (flags[node] & FILE) != 0;
+    }
+
+    public boolean isFolder(final int node)
+    {
+        return (flags[node] & FOLDER) != 0;
+    }
+
+    /**
+     * @return the changeset the item was last changed in
+     */
+    public int getChangesetID(final int node)
+    {
+        return changesetIDs[node];
+    }
+
+    /**
+     * Determines whether the path of a node has the same case as the given
+     * server path. The server path must have been found at this node.
+     * 
+     * @param node
+     *        the node
+     * @param serverItem
+     *        the server path the node was found at
+     * @return <code>true</code> if the paths match including case
+     */
+    public boolean hasSameCase(final int node, final String serverItem)
+    {
+        int end = serverItem.length();
+
+        for (int current = node; current != ROOT; current = parents[current])
+        {
+            final String name = names[current];
+            final int start = end - name.length();
+
+            if (start < 0 || !serverItem.regionMatches(start, name, 0, name.length()))
+            {
+                return false;
+            }
+
+            end = start - 1;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the path of the node relative to the server path
+     */
+    public String getRepositoryPath(final int node)
+    {
+        if (node == ROOT)
+        {
+            return ""; //$NON-NLS-1$
+        }
+
+        final StringBuilder path = new StringBuilder(names[node]);
+
+        for (int current = parents[node]; current != ROOT; current = parents[current])
+        {
+            path.insert(0, '/');
+            path.insert(0, names[current]);
+        }
+
+        return path.toString();
+    }
+
+    /**
+     * @return the id of the blob holding the content of the file, or
+     *         <code>null</code> if it is not known
+     */
+    public ObjectId getBlobID(final int node)
+    {
+        if ((flags[node] & HAS_BLOB) == 0)
+        {
+            return null;
+        }
+
+        return ObjectId.fromRaw(blobIDs, node * Constants.OBJECT_ID_LENGTH);
+    }
+
+    public boolean hasBlobID(final int node)
+    {
+        return (flags[node] & HAS_BLOB) != 0;
+    }
+
+    /**
+     * Records the id of the blob holding the content of the file.
+     * 
+     * @param node
+     *        the node of the file
+     * @param blobID
+     *        the blob id
+     */
+    public void setBlobID(final int node, final AnyObjectId blobID)
+    {
+        Check.notNull(blobID, "blobID"); //$NON-NLS-1$
+
+        if (blobIDs == null)
+        {
+            blobIDs = new byte[names.length * Constants.OBJECT_ID_LENGTH];
+        }
+
+        blobID.copyRawTo(blobIDs, node * Constants.OBJECT_ID_LENGTH);
+        flags[node] |= HAS_BLOB;
+    }
+
+    /**
+     * Copies the blob id of a node of another manifest, if it is known.
+     * 
+     * @param node
+     *        the node to set the blob id of
+     * @param source
+     *        the manifest to copy from
+     * @param sourceNode
+     *        the node to copy the blob id of
+     */
+    public void copyBlobID(final int node, final ItemManifest source, final int sourceNode)
+    {
+        if (source.hasBlobID(sourceNode))
+        {
+            setBlobID(node, source.getBlobID(sourceNode));
+        }
+    }
+
+    /**
+     * Finds an item by its item id.
+     * 
+     * @param itemID
+     *        the item id
+     * @return the node of the item, or <code>-1</code> if there is no item
+     *         with the id
+     */
+    int findItemID(final int itemID)
+    {
+        if (itemID == 0)
+        {
+            return -1;
+        }
+
+        if (itemIndex == null)
+        {
+            indexItemIDs();
+        }
+
+        final int mask = itemIndex.length - 1;
+
+        for (int slot = hash(itemID) & mask; itemIndex[slot] != 0; slot = (slot + 1) & mask)
+        {
+            final int node = itemIndex[slot] - 1;
+
+            if (itemIDs[node] == itemID)
+            {
+                return node;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return <code>true</code> if there are items under the node
+     */
+    boolean hasChildren(final int node)
+    {
+        return children[node] != null;
+    }
+
+    /**
+     * Adds an item, or updates the item at its path. Folders above the item
+     * that are not in the manifest yet are added as well, as neither files
+     * nor folders. The blob id of the item is cleared.
+     * 
+     * @param serverItem
+     *        the server path of the item, which must be under the server path
+     *        of the manifest
+     * @param itemID
+     *        the item id
+     * @param changesetID
+     *        the changeset the item was last changed in
+     * @param folder
+     *        <code>true</code> if the item is a folder
+     * @return the node of the item
+     */
+    int add(final String serverItem, final int itemID, final int changesetID, final boolean folder)
+    {
+        final int start = getRelativeStart(serverItem);
+
+        Check.isTrue(start >= 0, "start >= 0"); //$NON-NLS-1$
+
+        int node = ROOT;
+        int segmentStart = start;
+
+        while (segmentStart < serverItem.length())
+        {
+            int segmentEnd = serverItem.indexOf('/', segmentStart);
+            if (segmentEnd < 0)
+            {
+                segmentEnd = serverItem.length();
+            }
+
+            int child = findChild(node, serverItem, segmentStart, segmentEnd);
+
+            if (child < 0)
+            {
+                child = addNode(serverItem.substring(segmentStart, segmentEnd), node);
+                insertChild(node, child);
+            }
+
+            node = child;
+            segmentStart = segmentEnd + 1;
+        }
+
+        if (itemIndex != null)
+        {
+            unindexItemID(node);
+        }
+
+        changesetIDs[node] = changesetID;
+        itemIDs[node] = itemID;
+        flags[node] = folder ? FOLDER : FILE;
+
+        if (itemIndex != null)
+        {
+            indexItemID(node);
+        }
+
+        return node;
+    }
+
+    /**
+     * Removes an item and the items under it. The node of the item is not
+     * reused.
+     * 
+     * @param node
+     *        the node of the item
+     */
+    void remove(final int node)
+    {
+        Check.isTrue(node != ROOT, "node != ROOT"); //$NON-NLS-1$
+
+        if ((flags[node] & REMOVED) != 0)
+        {
+            return;
+        }
+
+        removeChild(parents[node], node);
+        removeTree(node);
+    }
+
+    /**
+     * Drops the nodes of removed items once they make up more than half of
+     * the manifest. The remaining nodes are renumbered.
+     */
+    void compact()
+    {
+        if (removedCount * 2 <= size)
+        {
+            return;
+        }
+
+        final int[] order = getTreeOrder();
+        final int[] newNodes = new int[size];
+        final int capacity = Math.max(order.length, 1);
+
+        final String[] newNames = new String[capacity];
+        final int[] newParents = new int[capacity];
+        final int[] newChangesetIDs = new int[capacity];
+        final int[] newItemIDs = new int[capacity];
+        final byte[] newFlags = new byte[capacity];
+        final byte[] newBlobIDs = blobIDs != null ? new byte[capacity * Constants.OBJECT_ID_LENGTH] : null;
+
+        for (int i = 0; i < order.length; i++)
+        {
+            final int node = order[i];
+            newNodes[node] = i;
+
+            newNames[i] = names[node];
+            newParents[i] = node > ROOT ? newNodes[parents[node]] : -1;
+            newChangesetIDs[i] = changesetIDs[node];
+            newItemIDs[i] = itemIDs[node];
+            newFlags[i] = flags[node];
+
+            if (newBlobIDs != null)
+            {
+                System.arraycopy(
+                    blobIDs,
+                    node * Constants.OBJECT_ID_LENGTH,
+                    newBlobIDs,
+                    i * Constants.OBJECT_ID_LENGTH,
+                    Constants.OBJECT_ID_LENGTH);
+            }
+        }
+
+        names = newNames;
+        parents = newParents;
+        changesetIDs = newChangesetIDs;
+        itemIDs = newItemIDs;
+        flags = newFlags;
+        blobIDs = newBlobIDs;
+
+        size = order.length;
+        removedCount = 0;
+        itemIndex = null;
+        itemIndexCount = 0;
+
+        indexChildren();
+    }
+
+    private int find(final String path, final int start)
+    {
+        int node = ROOT;
+        int segmentStart = start;
+
+        while (segmentStart < path.length())
+        {
+            int segmentEnd = path.indexOf('/', segmentStart);
+            if (segmentEnd < 0)
+            {
+                segmentEnd = path.length();
+            }
+
+            node = findChild(node, path, segmentStart, segmentEnd);
+
+            if (node < 0)
+            {
+                return -1;
+            }
+
+            segmentStart = segmentEnd + 1;
+        }
+
+        return node;
+    }
+
+    private int findChild(final int node, final String path, final int start, final int end)
+    {
+        final int index = indexOfChild(node, path, start, end);
+
+        return index >= 0 ? children[node][index] : -1;
+    }
+
+    /**
+     * @return the index of the child in the children of the node, or
+     *         <code>-(insertion index + 1)</code> if there is no child with the
+     *         name
+     */
+    private int indexOfChild(final int node, final String path, final int start, final int end)
+    {
+        final int[] nodeChildren = children[node];
+
+        if (nodeChildren == null)
+        {
+            return -1;
+        }
+
+        int low = 0;
+        int high = nodeChildren.length - 1;
+
+        while (low <= high)
+        {
+            final int middle = (low + high) >>> 1;
+            final int comparison = compareName(names[nodeChildren[middle]], path, start, end);
+
+            if (comparison < 0)
+            {
+                low = middle + 1;
+            }
+            else if (comparison > 0)
+            {
+                high = middle - 1;
+            }
+            else
+            {
+                return middle;
+            }
+        }
+
+        return -(low + 1);
+    }
+
+    private void insertChild(final int parent, final int child)
+    {
+        final String name = names[child];
+        final int index = -(indexOfChild(parent, name, 0, name.length()) + 1);
+
+        Check.isTrue(index >= 0, "index >= 0"); //$NON-NLS-1$
+
+        final int[] siblings = children[parent];
+        final int count = siblings != null ? siblings.length : 0;
+        final int[] newSiblings = new int[count + 1];
+
+        if (siblings != null)
+        {
+            System.arraycopy(siblings, 0, newSiblings, 0, index);
+            System.arraycopy(siblings, index, newSiblings, index + 1, count - index);
+        }
+
+        newSiblings[index] = child;
+        children[parent] = newSiblings;
+    }
+
+    private void removeChild(final int parent, final int child)
+    {
+        final String name = names[child];
+        final int index = indexOfChild(parent, name, 0, name.length());
+        final int[] siblings = children[parent];
+
+        Check.isTrue(index >= 0 && siblings[index] == child, "index >= 0"); //$NON-NLS-1$
+
+        if (siblings.length == 1)
+        {
+            children[parent] = null;
+            return;
+        }
+
+        final int[] newSiblings = new int[siblings.length - 1];
+        System.arraycopy(siblings, 0, newSiblings, 0, index);
+        System.arraycopy(siblings, index + 1, newSiblings, index, newSiblings.length - index);
+        children[parent] = newSiblings;
+    }
+
+    private void removeTree(final int node)
+    {
+        final int[] nodeChildren = children[node];
+
+        if (nodeChildren != null)
+        {
+            for (final int child : nodeChildren)
+            {
+                removeTree(child);
+            }
+        }
+
+        if (itemIndex != null)
+        {
+            unindexItemID(node);
+        }
+
+        children[node] = null;
+        flags[node] = REMOVED;
+        removedCount++;
+    }
+
+    /**
+     * @return the nodes that were not removed, each folder followed by the
+     *         items under it and its children in order
+     */
+    private int[] getTreeOrder()
+    {
+        final int[] order = new int[size - removedCount];
+        int count = 0;
+
+        int[] stack = new int[16];
+        int depth = 0;
+
+        stack[depth++] = ROOT;
+
+        while (depth > 0)
+        {
+            final int node = stack[--depth];
+            order[count++] = node;
+
+            final int[] nodeChildren = children[node];
+
+            if (nodeChildren == null)
+            {
+                continue;
+            }
+
+            if (depth + nodeChildren.length > stack.length)
+            {
+                final int[] newStack = new int[Math.max(stack.length * 2, depth + nodeChildren.length)];
+                System.arraycopy(stack, 0, newStack, 0, depth);
+                stack = newStack;
+            }
+
+            /* Push the children in reverse so that they are visited in order */
+            for (int i = nodeChildren.length - 1; i >= 0; i--)
+            {
+                stack[depth++] = nodeChildren[i];
+            }
+        }
+
+        return order;
+    }
+
+    private void indexItemIDs()
+    {
+        int capacity = 16;
+        while (capacity < size * 2)
+        {
+            capacity <<= 1;
+        }
+
+        itemIndex = new int[capacity];
+        itemIndexCount = 0;
+
+        for (int node = 0; node < size; node++)
+        {
+            if ((flags[node] & REMOVED) == 0)
+            {
+                indexItemID(node);
+            }
+        }
+    }
+
+    private void indexItemID(final int node)
+    {
+        final int itemID = itemIDs[node];
+
+        if (itemID == 0)
+        {
+            return;
+        }
+
+        if ((itemIndexCount + 1) * 2 > itemIndex.length)
+        {
+            final int[] oldIndex = itemIndex;
+
+            itemIndex = new int[oldIndex.length * 2];
+            itemIndexCount = 0;
+
+            for (final int entry : oldIndex)
+            {
+                if (entry != 0)
+                {
+                    indexItemID(entry - 1);
+                }
+            }
+        }
+
+        final int mask = itemIndex.length - 1;
+        int slot = hash(itemID) & mask;
+
+        while (itemIndex[slot] != 0)
+        {
+            if (itemIDs[itemIndex[slot] - 1] == itemID)
+            {
+                itemIndex[slot] = node + 1;
+                return;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        itemIndex[slot] = node + 1;
+        itemIndexCount++;
+    }
+
+    private void unindexItemID(final int node)
+    {
+        final int itemID = itemIDs[node];
+
+        if (itemID == 0)
+        {
+            return;
+        }
+
+        final int mask = itemIndex.length - 1;
+        int hole = hash(itemID) & mask;
+
+        while (itemIndex[hole] != node + 1)
+        {
+            if (itemIndex[hole] == 0)
+            {
+                /* Another node with the same item id is indexed */
+                return;
+            }
+
+            hole = (hole + 1) & mask;
+        }
+
+        /* Move the following entries of the run back so that none is cut off */
+        for (int slot = (hole + 1) & mask; itemIndex[slot] != 0; slot = (slot + 1) & mask)
+        {
+            final int home = hash(itemIDs[itemIndex[slot] - 1]) & mask;
+
+            if (((slot - home) & mask) >= ((slot - hole) & mask))
+            {
+                itemIndex[hole] = itemIndex[slot];
+                hole = slot;
+            }
+        }
+
+        itemIndex[hole] = 0;
+        itemIndexCount--;
+    }
+
+    private static int hash(final int itemID)
+    {
+        final int hash = itemID * 0x9E3779B9;
+
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Gets the index the path of the server item relative to the server path
+     * starts at.
+     * 
+     * @return the start index, or <code>-1</code> if the item is not under the
+     *         server path
+     */
+    private int getRelativeStart(final String serverItem)
+    {
+        final int length = serverPath.length();
+
+        if (!serverItem.regionMatches(true, 0, serverPath, 0, length))
+        {
+            return -1;
+        }
+
+        if (serverItem.length() == length || serverPath.charAt(length - 1) == '/')
+        {
+            return length;
+        }
+
+        return serverItem.charAt(length) == '/' ? length + 1 : -1;
+    }
+
+    private int addNode(final String name, final int parent)
+    {
+        if (size == names.length)
+        {
+            grow();
+        }
+
+        names[size] = name;
+        parents[size] = parent;
+
+        return size++;
+    }
+
+    private void grow()
+    {
+        final int capacity = names.length * 2;
+
+        final String[] newNames = new String[capacity];
+        System.arraycopy(names, 0, newNames, 0, size);
+        names = newNames;
+
+        final int[] newParents = new int[capacity];
+        System.arraycopy(parents, 0, newParents, 0, size);
+        parents = newParents;
+
+        final int[] newChangesetIDs = new int[capacity];
+        System.arraycopy(changesetIDs, 0, newChangesetIDs, 0, size);
+        changesetIDs = newChangesetIDs;
+
+        final int[] newItemIDs = new int[capacity];
+        System.arraycopy(itemIDs, 0, newItemIDs, 0, size);
+        itemIDs = newItemIDs;
+
+        final byte[] newFlags = new byte[capacity];
+        System.arraycopy(flags, 0, newFlags, 0, size);
+        flags = newFlags;
+
+        if (blobIDs != null)
+        {
+            final byte[] newBlobIDs = new byte[capacity * Constants.OBJECT_ID_LENGTH];
+            System.arraycopy(blobIDs, 0, newBlobIDs, 0, size * Constants.OBJECT_ID_LENGTH);
+            blobIDs = newBlobIDs;
+        }
+
+        if (children != null)
+        {
+            final int[][] newChildren = new int[capacity][];
+            System.arraycopy(children, 0, newChildren, 0, size);
+            children = newChildren;
+        }
+    }
+
+    /**
+     * Builds the child index. Nodes were added in path order, so the children
+     * of every node are already sorted.
+     */
+    private void indexChildren()
+    {
+        final int[] childCount = new int[size];
+
+        for (int node = 1; node < size; node++)
+        {
+            childCount[parents[node]]++;
+        }
+
+        children = new int[names.length][];
+
+        for (int node = 0; node < size; node++)
+        {
+            if (childCount[node] > 0)
+            {
+                children[node] = new int[childCount[node]];
+                childCount[node] = 0;
+            }
+        }
+
+        for (int node = 1; node < size; node++)
+        {
+            final int parent = parents[node];
+            children[parent][childCount[parent]++] = node;
+        }
+    }
+
+    private static int compareName(final String name, final String path, final int start, final int end)
+    {
+        final int length = Math.min(name.length(), end - start);
+
+        for (int i = 0; i < length; i++)
+        {
+            final int difference = getSortKey(name.charAt(i)) - getSortKey(path.charAt(start + i));
+
+            if (difference != 0)
+            {
+                return difference;
+            }
+        }
+
+        return name.length() - (end - start);
+    }
+
+    private static int getSortKey(final char c)
+    {
+        /* Folder separators sort first so that a folder precedes its siblings */
+        return c == '/' ? -1 : Character.toLowerCase(c);
+    }
+}
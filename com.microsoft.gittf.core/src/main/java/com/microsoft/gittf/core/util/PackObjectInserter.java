@@ -0,0 +1,637 @@
+/***********************************************************************************************
+ * Copyright (c) Microsoft Corporation All rights reserved.
+ * 
+ * MIT License:
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ***********************************************************************************************/
+
+package com.microsoft.gittf.core.util;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.internal.storage.file.ObjectDirectory;
+import org.eclipse.jgit.internal.storage.file.PackIndexWriter;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.CoreConfig;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdOwnerMap;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.PackParser;
+import org.eclipse.jgit.transport.PackedObjectInfo;
+import org.eclipse.jgit.util.NB;
+
+import com.microsoft.gittf.core.Messages;
+
+/**
+ * An object inserter that writes objects into a pack file instead of creating
+ * a loose object for each of them. This is used when importing history, where
+ * a loose object per file version quickly adds up to millions of files.
+ * 
+ * The pack is indexed and added to the repository when the inserter is
+ * flushed. Until then the objects can only be read through a reader created by
+ * {@link #newReader()}. Callers should flush once {@link #isFull()} returns
+ * true; the limits are read from the GITTF_PACK_MAX_OBJECTS and
+ * GITTF_PACK_MAX_MEGABYTES environment variables.
+ * 
+ * This class is not thread safe.
+ */
+public class PackObjectInserter
+    extends ObjectInserter
+{
+    private static final Log log = LogFactory.getLog(PackObjectInserter.class);
+
+    private static final String PACK_MAX_OBJECTS_NAME = "GITTF_PACK_MAX_OBJECTS"; //$NON-NLS-1$
+    private static final int DEFAULT_PACK_MAX_OBJECTS = 500000;
+
+    private static final String PACK_MAX_MEGABYTES_NAME = "GITTF_PACK_MAX_MEGABYTES"; //$NON-NLS-1$
+    private static final int DEFAULT_PACK_MAX_MEGABYTES = 1024;
+
+    private static final int PACK_VERSION = 2;
+    private static final int PACK_HEADER_LENGTH = 12;
+    private static final int INDEX_VERSION = 2;
+
+    private final ObjectDirectory objectDirectory;
+    private final File packDirectory;
+    private final ObjectReader databaseReader;
+    private final int compression;
+    private final int maxObjects;
+    private final long maxBytes;
+
+    private final byte[] buffer = new byte[8192];
+    private final byte[] deflateBuffer = new byte[8192];
+    private final CRC32 crc = new CRC32();
+    private Deflater deflater;
+
+    private File packFile;
+    private FileOutputStream packFileOut;
+    private OutputStream packOut;
+    private long packLength;
+    private RandomAccessFile packReader;
+
+    private final ObjectIdOwnerMap<PendingObject> pendingObjects = new ObjectIdOwnerMap<PendingObject>();
+    private final List<PendingObject> pendingObjectList = new ArrayList<PendingObject>();
+
+    /**
+     * Constructor
+     * 
+     * @param repository
+     *        the git repository, which must be stored in a file system object
+     *        directory (see {@link #isSupported(Repository)})
+     */
+    public PackObjectInserter(final Repository repository)
+    {
+        Check.notNull(repository, "repository"); //$NON-NLS-1$
+        Check.isTrue(isSupported(repository), "isSupported(repository)"); //$NON-NLS-1$
+
+        this.objectDirectory = (ObjectDirectory) repository.getObjectDatabase();
+        this.packDirectory = new File(objectDirectory.getDirectory(), "pack"); //$NON-NLS-1$
+        this.databaseReader = objectDirectory.newReader();
+        this.compression = repository.getConfig().get(CoreConfig.KEY).getCompression();
+        this.maxObjects = EnvironmentUtil.getPositiveInt(PACK_MAX_OBJECTS_NAME, DEFAULT_PACK_MAX_OBJECTS);
+        this.maxBytes =
+            EnvironmentUtil.getPositiveInt(PACK_MAX_MEGABYTES_NAME, DEFAULT_PACK_MAX_MEGABYTES) * 1024L * 1024L;
+    }
+
+    /**
+     * Determines whether objects can be written to packs in the repository.
+     * 
+     * @param repository
+     *        the git repository
+     * @return
+     */
+    public static boolean isSupported(final Repository repository)
+    {
+        return repository.getObjectDatabase() instanceof ObjectDirectory;
+    }
+
+    /**
+     * Determines whether the current pack has reached its size limits and
+     * should be flushed.
+     * 
+     * @return
+     */
+    public boolean isFull()
+    {
+        return pendingObjectList.size() >= maxObjects || packLength >= maxBytes;
+    }
+
+    /**
+     * Creates a reader that can read the objects inserted but not yet flushed
+     * as well as the objects of the repository.
+     * 
+     * @return
+     */
+    public ObjectReader newReader()
+    {
+        return new PendingObjectReader(objectDirectory.newReader());
+    }
+
+    @Override
+    public ObjectId insert(final int type, final long length, final InputStream in)
+        throws IOException
+    {
+        if (packOut == null)
+        {
+            beginPack();
+        }
+
+        final long offset = packLength;
+        final MessageDigest objectDigest = newDigest();
+
+        objectDigest.update(Constants.encodedTypeString(type));
+        objectDigest.update((byte) ' ');
+        objectDigest.update(Constants.encodeASCII(length));
+        objectDigest.update((byte) 0);
+
+        crc.reset();
+        writeEntryHeader(type, length);
+        final long dataOffset = packLength;
+
+        deflater.reset();
+
+        long remaining = length;
+        while (remaining > 0)
+        {
+            final int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read <= 0)
+            {
+                throw new EOFException();
+            }
+
+            objectDigest.update(buffer, 0, read);
+            deflater.setInput(buffer, 0, read);
+
+            while (!deflater.needsInput())
+            {
+                writeDeflated();
+            }
+
+            remaining -= read;
+        }
+
+        deflater.finish();
+        while (!deflater.finished())
+        {
+            writeDeflated();
+        }
+
+        final ObjectId objectID = ObjectId.fromRaw(objectDigest.digest());
+
+        if (pendingObjects.contains(objectID) || databaseReader.has(objectID))
+        {
+            /* Drop the duplicate entry */
+            truncatePack(offset);
+            return objectID;
+        }
+
+        final PendingObject pendingObject = new PendingObject(objectID, type, length, dataOffset, packLength);
+        pendingObject.setOffset(offset);
+        pendingObject.setCRC((int) crc.getValue());
+
+        pendingObjects.add(pendingObject);
+        pendingObjectList.add(pendingObject);
+
+        return objectID;
+    }
+
+    @Override
+    public PackParser newPackParser(final InputStream in)
+        throws IOException
+    {
+        /* Received packs are indexed into the repository on their own */
+        final ObjectInserter inserter = objectDirectory.newInserter();
+
+        try
+        {
+            return inserter.newPackParser(in);
+        }
+        finally
+        {
+            inserter.release();
+        }
+    }
+
+    /**
+     * Indexes the current pack and adds it to the repository.
+     */
+    @Override
+    public void flush()
+        throws IOException
+    {
+        if (packOut == null)
+        {
+            return;
+        }
+
+        if (pendingObjectList.isEmpty())
+        {
+            discardPack();
+            return;
+        }
+
+        packOut.close();
+        packOut = null;
+        closePackReader();
+
+        final byte[] packChecksum = writePackTrailer();
+
+        /* Pack files are named after the objects they contain */
+        Collections.sort(pendingObjectList);
+
+        final MessageDigest nameDigest = newDigest();
+        final byte[] rawID = new byte[Constants.OBJECT_ID_LENGTH];
+        for (final PendingObject pendingObject : pendingObjectList)
+        {
+            pendingObject.copyRawTo(rawID, 0);
+            nameDigest.update(rawID);
+        }
+
+        final String packName = "pack-" + ObjectId.fromRaw(nameDigest.digest()).name(); //$NON-NLS-1$
+        final File finalPackFile = new File(packDirectory, packName + ".pack"); //$NON-NLS-1$
+        final File finalIndexFile = new File(packDirectory, packName + ".idx"); //$NON-NLS-1$
+
+        final File indexFile = new File(packDirectory, packFile.getName().replaceFirst("\\.pack$", ".idx")); //$NON-NLS-1$ //$NON-NLS-2$
+        final OutputStream indexOut = new BufferedOutputStream(new FileOutputStream(indexFile));
+        try
+        {
+            PackIndexWriter.createVersion(indexOut, INDEX_VERSION).write(pendingObjectList, packChecksum);
+        }
+        finally
+        {
+            indexOut.close();
+        }
+
+        if (!packFile.renameTo(finalPackFile) || !indexFile.renameTo(finalIndexFile))
+        {
+            indexFile.delete();
+            throw new IOException(Messages.formatString("PackObjectInserter.CouldNotCreatePackFormat", //$NON-NLS-1$
+                finalPackFile.getAbsolutePath()));
+        }
+
+        objectDirectory.openPack(finalPackFile);
+
+        log.debug("Wrote " + pendingObjectList.size() + " objects to " + finalPackFile.getName()); //$NON-NLS-1$ //$NON-NLS-2$
+
+        packFile = null;
+        pendingObjects.clear();
+        pendingObjectList.clear();
+    }
+
+    /**
+     * Releases the inserter. Objects that have not been flushed are discarded.
+     */
+    @Override
+    public void release()
+    {
+        try
+        {
+            discardPack();
+        }
+        catch (IOException e)
+        {
+            log.warn(e);
+        }
+
+        if (deflater != null)
+        {
+            deflater.end();
+            deflater = null;
+        }
+
+        databaseReader.release();
+    }
+
+    private void beginPack()
+        throws IOException
+    {
+        if (deflater == null)
+        {
+            deflater = new Deflater(compression);
+        }
+
+        if (!packDirectory.isDirectory() && !packDirectory.mkdirs())
+        {
+            throw new IOException(Messages.formatString("PackObjectInserter.CouldNotCreatePackFormat", //$NON-NLS-1$
+                packDirectory.getAbsolutePath()));
+        }
+
+        packFile = File.createTempFile("insert_", ".pack", packDirectory); //$NON-NLS-1$ //$NON-NLS-2$
+        packFileOut = new FileOutputStream(packFile);
+        packOut = new BufferedOutputStream(packFileOut);
+        packLength = 0;
+
+        /* The object count is filled in once the pack is complete */
+        final byte[] header = new byte[PACK_HEADER_LENGTH];
+        System.arraycopy(Constants.PACK_SIGNATURE, 0, header, 0, 4);
+        NB.encodeInt32(header, 4, PACK_VERSION);
+        NB.encodeInt32(header, 8, 0);
+        write(header, 0, header.length);
+    }
+
+    private void discardPack()
+        throws IOException
+    {
+        closePackReader();
+
+        if (packOut != null)
+        {
+            packOut.close();
+            packOut = null;
+        }
+
+        if (packFile != null)
+        {
+            packFile.delete();
+            packFile = null;
+        }
+
+        pendingObjects.clear();
+        pendingObjectList.clear();
+    }
+
+    private byte[] writePackTrailer()
+        throws IOException
+    {
+        final RandomAccessFile pack = new RandomAccessFile(packFile, "rw"); //$NON-NLS-1$
+
+        try
+        {
+            pack.seek(8);
+            pack.writeInt(pendingObjectList.size());
+
+            final MessageDigest packDigest = newDigest();
+            pack.seek(0);
+
+            int read;
+            while ((read = pack.read(buffer)) > 0)
+            {
+                packDigest.update(buffer, 0, read);
+            }
+
+            final byte[] packChecksum = packDigest.digest();
+            pack.write(packChecksum);
+
+            return packChecksum;
+        }
+        finally
+        {
+            pack.close();
+        }
+    }
+
+    private void writeEntryHeader(final int type, final long length)
+        throws IOException
+    {
+        final byte[] header = new byte[16];
+        long remaining = length;
+        int count = 0;
+
+        int c = (type << 4) | (int) (remaining & 0x0f);
+        remaining >>>= 4;
+
+        while (remaining > 0)
+        {
+            header[count++] = (byte) (c | 0x80);
+            c = (int) (remaining & 0x7f);
+            remaining >>>= 7;
+        }
+        header[count++] = (byte) c;
+
+        write(header, 0, count);
+    }
+
+    private void writeDeflated()
+        throws IOException
+    {
+        final int count = deflater.deflate(deflateBuffer);
+
+        if (count > 0)
+        {
+            write(deflateBuffer, 0, count);
+        }
+    }
+
+    private void write(final byte[] data, final int offset, final int length)
+        throws IOException
+    {
+        packOut.write(data, offset, length);
+        crc.update(data, offset, length);
+        packLength += length;
+    }
+
+    private void truncatePack(final long length)
+        throws IOException
+    {
+        packOut.flush();
+        packFileOut.getChannel().truncate(length);
+        packFileOut.getChannel().position(length);
+        packLength = length;
+    }
+
+    private void closePackReader()
+        throws IOException
+    {
+        if (packReader != null)
+        {
+            packReader.close();
+            packReader = null;
+        }
+    }
+
+    private ObjectLoader openPending(final PendingObject pendingObject)
+        throws IOException
+    {
+        packOut.flush();
+
+        if (packReader == null)
+        {
+            packReader = new RandomAccessFile(packFile, "r"); //$NON-NLS-1$
+        }
+
+        final byte[] deflated = new byte[(int) (pendingObject.dataEnd - pendingObject.dataOffset)];
+        packReader.seek(pendingObject.dataOffset);
+        packReader.readFully(deflated);
+
+        final byte[] data = new byte[(int) pendingObject.size];
+        final Inflater inflater = new Inflater();
+
+        try
+        {
+            inflater.setInput(deflated);
+
+            int count = 0;
+            while (count < data.length && !inflater.finished())
+            {
+                final int inflated = inflater.inflate(data, count, data.length - count);
+                if (inflated == 0 && inflater.needsInput())
+                {
+                    throw new EOFException();
+                }
+                count += inflated;
+            }
+        }
+        catch (DataFormatException e)
+        {
+            throw new IOException(e.getMessage());
+        }
+        finally
+        {
+            inflater.end();
+        }
+
+        return new ObjectLoader.SmallObject(pendingObject.type, data);
+    }
+
+    private static MessageDigest newDigest()
+    {
+        return Constants.newMessageDigest();
+    }
+
+    /**
+     * An object written to the current pack
+     */
+    private static class PendingObject
+        extends PackedObjectInfo
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int type;
+        private final long size;
+        private final long dataOffset;
+        private final long dataEnd;
+
+        public PendingObject(
+            final AnyObjectId id,
+            final int type,
+            final long size,
+            final long dataOffset,
+            final long dataEnd)
+        {
+            super(id);
+
+            this.type = type;
+            this.size = size;
+            this.dataOffset = dataOffset;
+            this.dataEnd = dataEnd;
+        }
+    }
+
+    /**
+     * Reads pending objects from the current pack and everything else from the
+     * repository
+     */
+    private class PendingObjectReader
+        extends ObjectReader
+    {
+        private final ObjectReader delegate;
+
+        public PendingObjectReader(final ObjectReader delegate)
+        {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public ObjectReader newReader()
+        {
+            return new PendingObjectReader(delegate.newReader());
+        }
+
+        @Override
+        public Collection<ObjectId> resolve(final AbbreviatedObjectId id)
+            throws IOException
+        {
+            return delegate.resolve(id);
+        }
+
+        @Override
+        public boolean has(final AnyObjectId objectId, final int typeHint)
+            throws IOException
+        {
+            final PendingObject pendingObject = pendingObjects.get(objectId);
+
+            if (pendingObject != null)
+            {
+                return typeHint == OBJ_ANY || pendingObject.type == typeHint;
+            }
+
+            return delegate.has(objectId, typeHint);
+        }
+
+        @Override
+        public ObjectLoader open(final AnyObjectId objectId, final int typeHint)
+            throws MissingObjectException,
+                IncorrectObjectTypeException,
+                IOException
+        {
+            final PendingObject pendingObject = pendingObjects.get(objectId);
+
+            if (pendingObject == null)
+            {
+                return delegate.open(objectId, typeHint);
+            }
+
+            if (typeHint != OBJ_ANY && pendingObject.type != typeHint)
+            {
+                throw new IncorrectObjectTypeException(objectId.copy(), typeHint);
+            }
+
+            return openPending(pendingObject);
+        }
+
+        @Override
+        public Set<ObjectId> getShallowCommits()
+            throws IOException
+        {
+            return delegate.getShallowCommits();
+        }
+
+        @Override
+        public void release()
+        {
+            delegate.release();
+        }
+    }
+}
@@ -0,0 +1,444 @@
+/***********************************************************************************************
+ * Copyright (c) Microsoft Corporation All rights reserved.
+ * 
+ * MIT License:
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ***********************************************************************************************/
+package com.microsoft.gittf.core.util;
+
+import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.CoreConfig.AutoCRLF;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.WorkingTreeOptions;
+import org.eclipse.jgit.util.FS;
+
+import com.microsoft.gittf.core.GitTFConstants;
+import com.microsoft.gittf.core.Messages;
+import com.microsoft.tfs.jni.FileSystemAttributes;
+import com.microsoft.tfs.jni.FileSystemUtils;
+import com.microsoft.tfs.util.Platform;
+
+/**
+ * Checks out a tree into an empty working tree with a pool of worker threads
+ * and writes the matching index.
+ * 
+ * The files of the tree are split into partitions of neighbouring paths, so
+ * that a worker mostly writes the files of one directory. Every worker thread
+ * reads blobs through its own {@link ObjectReader}, which keeps its inflater
+ * across files. Executable bits are set as the files are written and the
+ * index entries take their length and modification time from the written
+ * files, so neither the tree nor the working tree is walked a second time.
+ * 
+ * Trees that need content conversion or contain anything but regular and
+ * executable files are not supported; {@link #checkout()} returns
+ * <code>false</code> for them without touching the working tree so that the
+ * caller can fall back to a regular checkout.
+ * 
+ * The number of workers is read from the GITTF_CHECKOUT_THREADS environment
+ * variable and defaults to the number of processors.
+ */
+public class ParallelCheckout
+{
+    private static final String CHECKOUT_THREADS_NAME = "GITTF_CHECKOUT_THREADS"; //$NON-NLS-1$
+
+    /* The minimum number of files in a partition */
+    private static final int PARTITION_SIZE = 256;
+
+    private static final AtomicInteger poolCounter = new AtomicInteger();
+
+    private final Repository repository;
+    private final AnyObjectId treeID;
+    private final int threadCount;
+
+    /* The readers created for the worker threads, guarded by itself */
+    private final List<ObjectReader> readers = new ArrayList<ObjectReader>();
+
+    private final ThreadLocal<ObjectReader> threadReader = new ThreadLocal<ObjectReader>()
+    {
+        @Override
+        protected ObjectReader initialValue()
+        {
+            final ObjectReader reader = repository.newObjectReader();
+
+            synchronized (readers)
+            {
+                readers.add(reader);
+            }
+
+            return reader;
+        }
+    };
+
+    /**
+     * Constructor
+     * 
+     * @param repository
+     *        the repository with the working tree to check out into
+     * @param treeID
+     *        the tree to check out
+     */
+    public ParallelCheckout(final Repository repository, final AnyObjectId treeID)
+    {
+        this(repository, treeID, EnvironmentUtil.getPositiveInt(CHECKOUT_THREADS_NAME, Runtime.getRuntime()
+            .availableProcessors()));
+    }
+
+    /**
+     * Constructor
+     * 
+     * @param repository
+     *        the repository with the working tree to check out into
+     * @param treeID
+     *        the tree to check out
+     * @param threadCount
+     *        the number of worker threads
+     */
+    public ParallelCheckout(final Repository repository, final AnyObjectId treeID, final int threadCount)
+    {
+        Check.notNull(repository, "repository"); //$NON-NLS-1$
+        Check.notNull(treeID, "treeID"); //$NON-NLS-1$
+        Check.isTrue(threadCount > 0, "threadCount > 0"); //$NON-NLS-1$
+
+        this.repository = repository;
+        this.treeID = treeID;
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Writes the files of the tree into the working tree and replaces the
+     * index with the entries of the tree.
+     * 
+     * @return <code>true</code> if the tree was checked out,
+     *         <code>false</code> if the tree cannot be checked out by this
+     *         class
+     * @throws IOException
+     */
+    public boolean checkout()
+        throws IOException
+    {
+        final WorkingTreeOptions options = repository.getConfig().get(WorkingTreeOptions.KEY);
+
+        if (options.getAutoCRLF() != AutoCRLF.FALSE)
+        {
+            return false;
+        }
+
+        final List<DirCacheEntry> entries = listEntries();
+
+        if (entries == null)
+        {
+            return false;
+        }
+
+        final DirCache dirCache = repository.lockDirCache();
+
+        try
+        {
+            createDirectories(entries);
+            writeFiles(entries);
+
+            final DirCacheBuilder builder = dirCache.builder();
+
+            for (final DirCacheEntry entry : entries)
+            {
+                builder.add(entry);
+            }
+
+            if (!builder.commit())
+            {
+                throw new IOException(Messages.getString("ParallelCheckout.CouldNotWriteIndex")); //$NON-NLS-1$
+            }
+        }
+        finally
+        {
+            dirCache.unlock();
+        }
+
+        return true;
+    }
+
+    private List<DirCacheEntry> listEntries()
+        throws IOException
+    {
+        final List<DirCacheEntry> entries = new ArrayList<DirCacheEntry>();
+        final TreeWalk treeWalk = new TreeWalk(repository);
+
+        try
+        {
+            treeWalk.addTree(treeID);
+            treeWalk.setRecursive(true);
+
+            while (treeWalk.next())
+            {
+                final FileMode fileMode = treeWalk.getFileMode(0);
+
+                if (fileMode != FileMode.REGULAR_FILE && fileMode != FileMode.EXECUTABLE_FILE)
+                {
+                    return null;
+                }
+
+                final DirCacheEntry entry = new DirCacheEntry(treeWalk.getRawPath());
+                entry.setFileMode(fileMode);
+                entry.setObjectId(treeWalk.getObjectId(0));
+
+                entries.add(entry);
+            }
+        }
+        finally
+        {
+            treeWalk.release();
+        }
+
+        return entries;
+    }
+
+    private void createDirectories(final List<DirCacheEntry> entries)
+        throws IOException
+    {
+        final File workingDirectory = repository.getWorkTree();
+        final Set<String> createdDirectories = new HashSet<String>();
+
+        for (final DirCacheEntry entry : entries)
+        {
+            final String parentPath = getParentPath(entry.getPathString());
+
+            if (parentPath == null || !createdDirectories.add(parentPath))
+            {
+                continue;
+            }
+
+            final File directory = new File(workingDirectory, parentPath);
+
+            if (!directory.mkdirs() && !directory.isDirectory())
+            {
+                throw new IOException(Messages.formatString("ParallelCheckout.CouldNotCreateDirectoryFormat", //$NON-NLS-1$
+                    directory.getAbsolutePath()));
+            }
+        }
+    }
+
+    private void writeFiles(final List<DirCacheEntry> entries)
+        throws IOException
+    {
+        final File workingDirectory = repository.getWorkTree();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount, new CheckoutThreadFactory());
+        final List<Future<Void>> partitions = new ArrayList<Future<Void>>();
+
+        try
+        {
+            int start = 0;
+
+            while (start < entries.size())
+            {
+                final int end = getPartitionEnd(entries, start);
+                final List<DirCacheEntry> partition = entries.subList(start, end);
+
+                partitions.add(executor.submit(new Callable<Void>()
+                {
+                    public Void call()
+                        throws IOException
+                    {
+                        writePartition(workingDirectory, partition);
+                        return null;
+                    }
+                }));
+
+                start = end;
+            }
+
+            for (final Future<Void> partition : partitions)
+            {
+                partition.get();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            final IOException exception = new IOException(e.getMessage());
+            exception.initCause(e);
+            throw exception;
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
+            {
+                throw (IOException) e.getCause();
+            }
+
+            if (e.getCause() instanceof RuntimeException)
+            {
+                throw (RuntimeException) e.getCause();
+            }
+
+            final IOException exception = new IOException(e.getCause().getMessage());
+            exception.initCause(e.getCause());
+            throw exception;
+        }
+        finally
+        {
+            executor.shutdownNow();
+
+            /* Other partitions may still be reading when one has failed */
+            try
+            {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            synchronized (readers)
+            {
+                for (final ObjectReader reader : readers)
+                {
+                    reader.release();
+                }
+
+                readers.clear();
+            }
+        }
+    }
+
+    private void writePartition(final File workingDirectory, final List<DirCacheEntry> partition)
+        throws IOException
+    {
+        final ObjectReader reader = threadReader.get();
+        final FS fs = repository.getFS();
+
+        for (final DirCacheEntry entry : partition)
+        {
+            final File file = new File(workingDirectory, entry.getPathString());
+            final FileOutputStream out = new FileOutputStream(file);
+
+            try
+            {
+                reader.open(entry.getObjectId(), OBJ_BLOB).copyTo(out);
+            }
+            finally
+            {
+                out.close();
+            }
+
+            if (entry.getFileMode() == FileMode.EXECUTABLE_FILE)
+            {
+                setExecutable(fs, file);
+            }
+
+            entry.setLength(file.length());
+            entry.setLastModified(file.lastModified());
+        }
+    }
+
+    private static void setExecutable(final FS fs, final File file)
+    {
+        if (fs.supportsExecute())
+        {
+            fs.setExecute(file, true);
+        }
+        else if (Platform.isCurrentPlatform(Platform.GENERIC_UNIX))
+        {
+            final FileSystemAttributes attr = FileSystemUtils.getInstance().getAttributes(file);
+
+            attr.setExecutable(true);
+            FileSystemUtils.getInstance().setAttributes(file, attr);
+        }
+    }
+
+    /**
+     * Gets the end of the partition starting at the given entry. Partitions
+     * hold at least {@link #PARTITION_SIZE} entries and end where the parent
+     * directory changes, so that the files of a directory are written by the
+     * same worker whenever possible.
+     */
+    private static int getPartitionEnd(final List<DirCacheEntry> entries, final int start)
+    {
+        int end = Math.min(start + PARTITION_SIZE, entries.size());
+
+        if (end == entries.size())
+        {
+            return end;
+        }
+
+        final String parentPath = getParentPath(entries.get(end - 1).getPathString());
+
+        while (end < entries.size() && isSamePath(parentPath, getParentPath(entries.get(end).getPathString())))
+        {
+            end++;
+        }
+
+        return end;
+    }
+
+    private static String getParentPath(final String path)
+    {
+        final int separator = path.lastIndexOf('/');
+
+        return separator >= 0 ? path.substring(0, separator) : null;
+    }
+
+    private static boolean isSamePath(final String first, final String second)
+    {
+        return first == null ? second == null : first.equals(second);
+    }
+
+    private static class CheckoutThreadFactory
+        implements ThreadFactory
+    {
+        private final int poolNumber = poolCounter.incrementAndGet();
+        private final AtomicInteger threadCounter = new AtomicInteger();
+
+        public Thread newThread(final Runnable runnable)
+        {
+            final Thread thread = new Thread(runnable, GitTFConstants.GIT_TF_NAME + "-checkout-" //$NON-NLS-1$
+                + poolNumber
+                + "-" //$NON-NLS-1$
+                + threadCounter.incrementAndGet());
+
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    }
+}
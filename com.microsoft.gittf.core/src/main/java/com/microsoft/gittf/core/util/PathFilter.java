@@ -0,0 +1,322 @@
+/***********************************************************************************************
+ * Copyright (c) Microsoft Corporation All rights reserved.
+ * 
+ * MIT License:
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ***********************************************************************************************/
+package com.microsoft.gittf.core.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import com.microsoft.gittf.core.config.GitTFConfiguration;
+import com.microsoft.tfs.core.clients.versioncontrol.path.ServerPath;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Item;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.ItemType;
+
+/**
+ * Selects the paths under the configured server path that are bridged to the
+ * git repository, based on glob style include and exclude patterns.
+ * 
+ * Patterns are matched case insensitively against paths relative to the
+ * server path. A pattern without a separator, such as <code>*.dll</code> or
+ * <code>packages</code>, matches an item whose name, or the name of any of its
+ * parent folders, matches the pattern. A pattern with a separator, such as
+ * <code>src/test/data</code> or <code>lib/**&#47;*.jar</code>, matches the
+ * path of an item or of any of its parent folders from the server path down.
+ * <code>*</code> and <code>?</code> do not match separators, <code>**</code>
+ * matches any number of folders.
+ * 
+ * A file is selected if it matches no exclude pattern and, when include
+ * patterns are given, matches an include pattern. A folder is selected unless
+ * it matches an exclude pattern, since included files may lie beneath it.
+ */
+public final class PathFilter
+{
+    /**
+     * A filter that selects every path.
+     */
+    public static final PathFilter ALL = new PathFilter(null, null);
+
+    private final String[] includes;
+    private final String[] excludes;
+
+    private final Pattern[] includePatterns;
+    private final boolean[] includeNamePatterns;
+    private final Pattern[] excludePatterns;
+    private final boolean[] excludeNamePatterns;
+
+    /**
+     * Constructor
+     * 
+     * @param includes
+     *        the patterns of the files to include, or <code>null</code> or an
+     *        empty array to include every file
+     * @param excludes
+     *        the patterns of the files and folders to exclude, may be
+     *        <code>null</code>
+     */
+    public PathFilter(final String[] includes, final String[] excludes)
+    {
+        this.includes = normalize(includes);
+        this.excludes = normalize(excludes);
+
+        this.includePatterns = new Pattern[this.includes.length];
+        this.includeNamePatterns = new boolean[this.includes.length];
+        compile(this.includes, includePatterns, includeNamePatterns);
+
+        this.excludePatterns = new Pattern[this.excludes.length];
+        this.excludeNamePatterns = new boolean[this.excludes.length];
+        compile(this.excludes, excludePatterns, excludeNamePatterns);
+    }
+
+    /**
+     * Creates the filter configured for a repository.
+     * 
+     * @param configuration
+     *        the git-tf configuration of the repository (must not be
+     *        <code>null</code>)
+     * @return the path filter
+     */
+    public static PathFilter create(final GitTFConfiguration configuration)
+    {
+        Check.notNull(configuration, "configuration"); //$NON-NLS-1$
+
+        return new PathFilter(configuration.getIncludePaths(), configuration.getExcludePaths());
+    }
+
+    /**
+     * @return <code>true</code> if the filter does not select every path
+     */
+    public boolean isFiltering()
+    {
+        return includes.length > 0 || excludes.length > 0;
+    }
+
+    public String[] getIncludes()
+    {
+        return includes.clone();
+    }
+
+    public String[] getExcludes()
+    {
+        return excludes.clone();
+    }
+
+    /**
+     * Determines whether the item at a path is selected by the filter.
+     * 
+     * @param repositoryPath
+     *        the path of the item relative to the server path, separated by
+     *        '/'; the empty path is the server path itself
+     * @param folder
+     *        <code>true</code> if the item is a folder
+     * @return <code>true</code> if the item is selected
+     */
+    public boolean includes(final String repositoryPath, final boolean folder)
+    {
+        Check.notNull(repositoryPath, "repositoryPath"); //$NON-NLS-1$
+
+        if (repositoryPath.length() == 0)
+        {
+            return true;
+        }
+
+        if (matches(excludePatterns, excludeNamePatterns, repositoryPath))
+        {
+            return false;
+        }
+
+        return folder || includePatterns.length == 0 || matches(includePatterns, includeNamePatterns, repositoryPath);
+    }
+
+    /**
+     * Removes the items that are not selected by the filter.
+     * 
+     * @param serverPath
+     *        the server path the items are listed under
+     * @param items
+     *        the items to filter, may be <code>null</code>
+     * @return the items that are selected, or the given array if the filter
+     *         selects every path
+     */
+    public Item[] filter(final String serverPath, final Item[] items)
+    {
+        Check.notNullOrEmpty(serverPath, "serverPath"); //$NON-NLS-1$
+
+        if (items == null || !isFiltering())
+        {
+            return items;
+        }
+
+        final List<Item> selected = new ArrayList<Item>(items.length);
+
+        for (final Item item : items)
+        {
+            final String serverItem = item.getServerItem();
+
+            if (serverItem == null
+                || !ServerPath.isChild(serverPath, serverItem)
+                || includes(ServerPath.makeRelative(serverItem, serverPath), item.getItemType() == ItemType.FOLDER))
+            {
+                selected.add(item);
+            }
+        }
+
+        return selected.size() == items.length ? items : selected.toArray(new Item[selected.size()]);
+    }
+
+    /**
+     * @return a description of the patterns, which is the same for filters
+     *         that select the same paths
+     */
+    @Override
+    public String toString()
+    {
+        final StringBuilder sb = new StringBuilder();
+
+        for (final String include : includes)
+        {
+            sb.append('+').append(include).append('\n');
+        }
+
+        for (final String exclude : excludes)
+        {
+            sb.append('-').append(exclude).append('\n');
+        }
+
+        return sb.toString();
+    }
+
+    private static boolean matches(final Pattern[] patterns, final boolean[] namePatterns, final String path)
+    {
+        for (int i = 0; i < patterns.length; i++)
+        {
+            int start = 0;
+
+            /* Try the path of every parent folder and the path itself */
+            for (int end = path.indexOf('/'); start <= path.length(); end = path.indexOf('/', start))
+            {
+                if (end < 0)
+                {
+                    end = path.length();
+                }
+
+                final String candidate = namePatterns[i] ? path.substring(start, end) : path.substring(0, end);
+
+                if (patterns[i].matcher(candidate).matches())
+                {
+                    return true;
+                }
+
+                start = end + 1;
+            }
+        }
+
+        return false;
+    }
+
+    private static String[] normalize(final String[] patterns)
+    {
+        if (patterns == null)
+        {
+            return new String[0];
+        }
+
+        final List<String> normalized = new ArrayList<String>(patterns.length);
+
+        for (String pattern : patterns)
+        {
+            if (pattern == null)
+            {
+                continue;
+            }
+
+            pattern = pattern.trim().replace('\\', '/');
+
+            while (pattern.startsWith("/")) //$NON-NLS-1$
+            {
+                pattern = pattern.substring(1);
+            }
+
+            while (pattern.endsWith("/")) //$NON-NLS-1$
+            {
+                pattern = pattern.substring(0, pattern.length() - 1);
+            }
+
+            if (pattern.length() > 0 && !normalized.contains(pattern))
+            {
+                normalized.add(pattern);
+            }
+        }
+
+        return normalized.toArray(new String[normalized.size()]);
+    }
+
+    private static void compile(final String[] globs, final Pattern[] patterns, final boolean[] namePatterns)
+    {
+        for (int i = 0; i < globs.length; i++)
+        {
+            namePatterns[i] = globs[i].indexOf('/') < 0;
+            patterns[i] = Pattern.compile(toRegex(globs[i]), Pattern.CASE_INSENSITIVE);
+        }
+    }
+
+    private static String toRegex(final String glob)
+    {
+        final StringBuilder regex = new StringBuilder();
+
+        for (int i = 0; i < glob.length(); i++)
+        {
+            final char c = glob.charAt(i);
+
+            if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*')
+            {
+                i++;
+
+                if (i + 1 < glob.length() && glob.charAt(i + 1) == '/')
+                {
+                    /* "**" followed by a separator matches any number of folders */
+                    i++;
+                    regex.append("(?:.*/)?"); //$NON-NLS-1$
+                }
+                else
+                {
+                    regex.append(".*"); //$NON-NLS-1$
+                }
+            }
+            else if (c == '*')
+            {
+                regex.append("[^/]*"); //$NON-NLS-1$
+            }
+            else if (c == '?')
+            {
+                regex.append("[^/]"); //$NON-NLS-1$
+            }
+            else
+            {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+
+        return regex.toString();
+    }
+}
@@ -24,21 +24,35 @@
 
 package com.microsoft.gittf.core.util;
 
+import java.io.IOException;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.TagCommand;
+import org.eclipse.jgit.internal.storage.file.RefDirectory;
+import org.eclipse.jgit.lib.BatchRefUpdate;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TagBuilder;
 import org.eclipse.jgit.revwalk.RevObject;
 import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.ReceiveCommand;
 
 import com.microsoft.gittf.core.GitTFConstants;
 import com.microsoft.gittf.core.Messages;
+import com.microsoft.gittf.core.config.ChangesetCommit;
 import com.microsoft.gittf.core.config.GitTFConfiguration;
 
 public final class TagUtil
@@ -65,14 +79,159 @@ public final class TagUtil
             return false;
         }
 
-        String tagName = Messages.formatString("CreateCommitTask.TagNameFormat", //$NON-NLS-1$
+        String tagName = getTFSChangesetTagName(changesetID);
+        PersonIdent tagOwner = getTFSTagOwner(configuration);
+
+        return createTag(repository, commitID, tagName, tagOwner);
+    }
+
+    /**
+     * Writes the tfs tag objects for the changesets specified, if tagging is
+     * enabled. The tags are not visible until the inserter has been flushed and
+     * their refs have been created with {@link #updateTags(Repository, Map)}.
+     * 
+     * @param repository
+     *        the git repository
+     * @param inserter
+     *        the inserter to write the tag objects with
+     * @param changesetCommits
+     *        the changesets and the commits they map to
+     * @return the tag objects keyed by tag name, empty if tagging is disabled
+     * @throws IOException
+     */
+    public static Map<String, ObjectId> insertTFSChangesetTags(
+        final Repository repository,
+        final ObjectInserter inserter,
+        final List<ChangesetCommit> changesetCommits)
+        throws IOException
+    {
+        final Map<String, ObjectId> tags = new LinkedHashMap<String, ObjectId>();
+
+        if (changesetCommits.isEmpty())
+        {
+            return tags;
+        }
+
+        GitTFConfiguration configuration = GitTFConfiguration.loadFrom(repository);
+
+        if (configuration == null || !configuration.getTag())
+        {
+            return tags;
+        }
+
+        PersonIdent tagOwner = getTFSTagOwner(configuration);
+
+        for (ChangesetCommit changesetCommit : changesetCommits)
+        {
+            String tagName = getTFSChangesetTagName(changesetCommit.getChangesetID());
+
+            TagBuilder tag = new TagBuilder();
+            tag.setTag(tagName);
+            tag.setTagger(tagOwner);
+            tag.setObjectId(changesetCommit.getCommitID(), Constants.OBJ_COMMIT);
+
+            tags.put(tagName, inserter.insert(tag));
+        }
+
+        return tags;
+    }
+
+    /**
+     * Points the tags specified at their tag objects with a single batch ref
+     * update and moves the refs to the packed-refs file, replacing existing
+     * tags with the same names.
+     * 
+     * @param repository
+     *        the git repository
+     * @param tags
+     *        the tag objects keyed by tag name
+     * @return
+     */
+    public static boolean updateTags(final Repository repository, final Map<String, ObjectId> tags)
+    {
+        if (tags.isEmpty())
+        {
+            return true;
+        }
+
+        final RevWalk walker = new RevWalk(repository);
+        try
+        {
+            final RefDatabase refDatabase = repository.getRefDatabase();
+            final Map<String, Ref> existingTags = refDatabase.getRefs(Constants.R_TAGS);
+
+            final BatchRefUpdate batchUpdate = refDatabase.newBatchUpdate();
+            batchUpdate.setAllowNonFastForwards(true);
+            batchUpdate.disableRefLog();
+
+            for (Map.Entry<String, ObjectId> tag : tags.entrySet())
+            {
+                Ref existingTag = existingTags.get(tag.getKey());
+                ObjectId existingTagID = existingTag != null ? existingTag.getObjectId() : ObjectId.zeroId();
+
+                if (!existingTagID.equals(tag.getValue()))
+                {
+                    batchUpdate.addCommand(new ReceiveCommand(existingTagID, tag.getValue(), Constants.R_TAGS
+                        + tag.getKey()));
+                }
+            }
+
+            batchUpdate.execute(walker, NullProgressMonitor.INSTANCE);
+
+            boolean succeeded = true;
+            List<String> updatedRefs = new ArrayList<String>(batchUpdate.getCommands().size());
+
+            for (ReceiveCommand command : batchUpdate.getCommands())
+            {
+                if (command.getResult() == ReceiveCommand.Result.OK)
+                {
+                    updatedRefs.add(command.getRefName());
+                }
+                else
+                {
+                    log.warn("Failed to tag commit: " + command.getRefName() + " " + command.getResult()); //$NON-NLS-1$ //$NON-NLS-2$
+
+                    succeeded = false;
+                }
+            }
+
+            /*
+             * The batch update writes a loose ref per tag, move them all to
+             * the packed-refs file at once.
+             */
+            if (!updatedRefs.isEmpty() && refDatabase instanceof RefDirectory)
+            {
+                ((RefDirectory) refDatabase).pack(updatedRefs);
+            }
+
+            return succeeded;
+        }
+        catch (Exception e)
+        {
+            // this is not a critical failure so we can still continue with the
+            // operation even if tagging failed.
+
+            log.error(e);
+
+            return false;
+        }
+        finally
+        {
+            walker.release();
+        }
+    }
+
+    private static String getTFSChangesetTagName(final int changesetID)
+    {
+        return Messages.formatString("CreateCommitTask.TagNameFormat", //$NON-NLS-1$
             Integer.toString(changesetID));
+    }
 
-        PersonIdent tagOwner = new PersonIdent(GitTFConstants.GIT_TF_NAME, MessageFormat.format("{0} - {1}", //$NON-NLS-1$
+    private static PersonIdent getTFSTagOwner(final GitTFConfiguration configuration)
+    {
+        return new PersonIdent(GitTFConstants.GIT_TF_NAME, MessageFormat.format("{0} - {1}", //$NON-NLS-1$
             configuration.getServerURI().toString(),
             configuration.getServerPath()));
-
-        return createTag(repository, commitID, tagName, tagOwner);
     }
 
     /**
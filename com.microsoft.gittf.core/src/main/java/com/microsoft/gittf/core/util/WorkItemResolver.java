@@ -0,0 +1,439 @@
+/***********************************************************************************************
+ * Copyright (c) Microsoft Corporation All rights reserved.
+ * 
+ * MIT License:
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ***********************************************************************************************/
+package com.microsoft.gittf.core.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.microsoft.gittf.core.GitTFConstants;
+import com.microsoft.tfs.core.artifact.ArtifactID;
+import com.microsoft.tfs.core.artifact.ArtifactIDFactory;
+import com.microsoft.tfs.core.clients.workitem.CoreFieldReferenceNames;
+import com.microsoft.tfs.core.clients.workitem.WorkItem;
+import com.microsoft.tfs.core.clients.workitem.WorkItemClient;
+import com.microsoft.tfs.core.clients.workitem.query.Query;
+import com.microsoft.tfs.core.clients.workitem.query.WorkItemCollection;
+
+/**
+ * Resolves the work items associated with changesets on background threads
+ * ahead of the caller creating the commits for them.
+ * 
+ * Changesets are resolved in batches: the work items linked to each changeset
+ * of a batch are queried, and the titles of all work items of the batch that
+ * are not cached yet are then read with a single query. Titles are kept in a
+ * least recently used {@link TitleCache}, so work items mentioned by many
+ * changesets are only read once. A history that is resolved by one resolver
+ * per page shares one cache between the resolvers.
+ * 
+ * The batch size, the number of worker threads and the size of the title
+ * cache are read from the GITTF_WORK_ITEM_BATCH, GITTF_WORK_ITEM_THREADS and
+ * GITTF_WORK_ITEM_CACHE_SIZE environment variables.
+ */
+public class WorkItemResolver
+{
+    private static final String WORK_ITEM_BATCH_NAME = "GITTF_WORK_ITEM_BATCH"; //$NON-NLS-1$
+    private static final int DEFAULT_WORK_ITEM_BATCH = 25;
+
+    private static final String WORK_ITEM_THREADS_NAME = "GITTF_WORK_ITEM_THREADS"; //$NON-NLS-1$
+    private static final int DEFAULT_WORK_ITEM_THREADS = 1;
+
+    private static final String WORK_ITEM_CACHE_SIZE_NAME = "GITTF_WORK_ITEM_CACHE_SIZE"; //$NON-NLS-1$
+    private static final int DEFAULT_WORK_ITEM_CACHE_SIZE = 10000;
+
+    /* The number of batches resolved ahead of the caller per worker thread */
+    private static final int BATCHES_AHEAD_PER_THREAD = 2;
+
+    private static final String TITLE_QUERY = "SELECT [" //$NON-NLS-1$
+        + CoreFieldReferenceNames.ID
+        + "], [" //$NON-NLS-1$
+        + CoreFieldReferenceNames.TITLE
+        + "] FROM WorkItems"; //$NON-NLS-1$
+
+    private static final AtomicInteger poolCounter = new AtomicInteger();
+
+    private final WorkItemClient witClient;
+    private final int[] changesetIDs;
+    private final Map<Integer, Integer> changesetIndexes;
+    private final int batchSize;
+    private final int batchesAhead;
+    private final ExecutorService executor;
+
+    /* Guarded by this */
+    private final List<Future<Map<Integer, Map<Integer, String>>>> batches;
+    private int releasedCount = 0;
+
+    private final TitleCache titles;
+
+    /**
+     * Constructor
+     * 
+     * @param witClient
+     *        the work item client
+     * @param changesetIDs
+     *        the changesets to resolve, in the order they will be requested
+     */
+    public WorkItemResolver(final WorkItemClient witClient, final int[] changesetIDs)
+    {
+        this(witClient, changesetIDs, new TitleCache());
+    }
+
+    /**
+     * Constructor
+     * 
+     * @param witClient
+     *        the work item client
+     * @param changesetIDs
+     *        the changesets to resolve, in the order they will be requested
+     * @param titles
+     *        the cache of work item titles, which may be shared with other
+     *        resolvers
+     */
+    public WorkItemResolver(final WorkItemClient witClient, final int[] changesetIDs, final TitleCache titles)
+    {
+        this(
+            witClient,
+            changesetIDs,
+            titles,
+            EnvironmentUtil.getPositiveInt(WORK_ITEM_BATCH_NAME, DEFAULT_WORK_ITEM_BATCH),
+            EnvironmentUtil.getPositiveInt(WORK_ITEM_THREADS_NAME, DEFAULT_WORK_ITEM_THREADS));
+    }
+
+    /**
+     * Constructor
+     * 
+     * @param witClient
+     *        the work item client
+     * @param changesetIDs
+     *        the changesets to resolve, in the order they will be requested
+     * @param titles
+     *        the cache of work item titles, which may be shared with other
+     *        resolvers
+     * @param batchSize
+     *        the number of changesets resolved together
+     * @param threadCount
+     *        the number of worker threads
+     */
+    public WorkItemResolver(
+        final WorkItemClient witClient,
+        final int[] changesetIDs,
+        final TitleCache titles,
+        final int batchSize,
+        final int threadCount)
+    {
+        Check.notNull(witClient, "witClient"); //$NON-NLS-1$
+        Check.notNull(changesetIDs, "changesetIDs"); //$NON-NLS-1$
+        Check.notNull(titles, "titles"); //$NON-NLS-1$
+        Check.isTrue(batchSize > 0, "batchSize > 0"); //$NON-NLS-1$
+        Check.isTrue(threadCount > 0, "threadCount > 0"); //$NON-NLS-1$
+
+        this.witClient = witClient;
+        this.changesetIDs = changesetIDs;
+        this.titles = titles;
+        this.batchSize = batchSize;
+        this.batchesAhead = threadCount * BATCHES_AHEAD_PER_THREAD;
+        this.executor = Executors.newFixedThreadPool(threadCount, new ResolverThreadFactory());
+
+        this.changesetIndexes = new HashMap<Integer, Integer>(changesetIDs.length);
+        for (int i = 0; i < changesetIDs.length; i++)
+        {
+            changesetIndexes.put(changesetIDs[i], i);
+        }
+
+        this.batches =
+            new ArrayList<Future<Map<Integer, Map<Integer, String>>>>((changesetIDs.length + batchSize - 1) / batchSize);
+    }
+
+    /**
+     * Starts resolving the first batches of changesets in the background.
+     */
+    public synchronized void start()
+    {
+        submitBatches(batchesAhead);
+    }
+
+    /**
+     * Waits for the work items of the changeset to be resolved and returns
+     * them. Changesets should be requested in the order they were given to the
+     * constructor.
+     * 
+     * @param changesetID
+     *        the changeset to get the work items of
+     * @return the titles of the work items associated with the changeset keyed
+     *         by work item id, or <code>null</code> if the changeset is not
+     *         resolved by this resolver
+     * @throws InterruptedException
+     */
+    public Map<Integer, String> getWorkItems(final int changesetID)
+        throws InterruptedException
+    {
+        final Integer index = changesetIndexes.get(changesetID);
+
+        if (index == null)
+        {
+            return null;
+        }
+
+        final int batch = index / batchSize;
+        final Future<Map<Integer, Map<Integer, String>>> future;
+
+        synchronized (this)
+        {
+            if (batch < releasedCount)
+            {
+                return null;
+            }
+
+            /* Release the batches the caller has moved past */
+            for (; releasedCount < batch; releasedCount++)
+            {
+                batches.set(releasedCount, null);
+            }
+
+            submitBatches(batch + batchesAhead);
+            future = batches.get(batch);
+        }
+
+        try
+        {
+            return future.get().get(changesetID);
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof RuntimeException)
+            {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Stops resolving changesets.
+     */
+    public void close()
+    {
+        executor.shutdownNow();
+    }
+
+    private void submitBatches(final int batchCount)
+    {
+        while (batches.size() < batchCount && batches.size() * batchSize < changesetIDs.length)
+        {
+            final int start = batches.size() * batchSize;
+            final int end = Math.min(start + batchSize, changesetIDs.length);
+
+            batches.add(executor.submit(new Callable<Map<Integer, Map<Integer, String>>>()
+            {
+                public Map<Integer, Map<Integer, String>> call()
+                {
+                    return resolveBatch(start, end);
+                }
+            }));
+        }
+    }
+
+    private Map<Integer, Map<Integer, String>> resolveBatch(final int start, final int end)
+    {
+        final Map<Integer, int[]> links = new HashMap<Integer, int[]>(end - start);
+        final Map<Integer, String> batchTitles = new HashMap<Integer, String>();
+        final List<Integer> unknownIDs = new ArrayList<Integer>();
+
+        for (int i = start; i < end; i++)
+        {
+            final int[] workItemIDs = queryLinkedWorkItems(changesetIDs[i]);
+            links.put(changesetIDs[i], workItemIDs);
+
+            for (final int workItemID : workItemIDs)
+            {
+                if (batchTitles.containsKey(workItemID))
+                {
+                    continue;
+                }
+
+                final String title = titles.get(workItemID);
+
+                batchTitles.put(workItemID, title);
+
+                if (title == null)
+                {
+                    unknownIDs.add(workItemID);
+                }
+            }
+        }
+
+        if (!unknownIDs.isEmpty())
+        {
+            queryTitles(unknownIDs, batchTitles);
+        }
+
+        final Map<Integer, Map<Integer, String>> result = new HashMap<Integer, Map<Integer, String>>(end - start);
+
+        for (int i = start; i < end; i++)
+        {
+            final Map<Integer, String> workItems = new LinkedHashMap<Integer, String>();
+
+            for (final int workItemID : links.get(changesetIDs[i]))
+            {
+                final String title = batchTitles.get(workItemID);
+
+                /* Work items that can no longer be read are not mentioned */
+                if (title != null)
+                {
+                    workItems.put(workItemID, title);
+                }
+            }
+
+            result.put(changesetIDs[i], workItems);
+        }
+
+        return result;
+    }
+
+    private int[] queryLinkedWorkItems(final int changesetID)
+    {
+        final ArtifactID changesetArtifactId = ArtifactIDFactory.newChangesetArtifactID(changesetID);
+
+        final Query query = witClient.createReferencingQuery(changesetArtifactId.encodeURI());
+
+        return query.runQuery().getIDs();
+    }
+
+    private void queryTitles(final List<Integer> workItemIDs, final Map<Integer, String> batchTitles)
+    {
+        final int[] ids = new int[workItemIDs.size()];
+        for (int i = 0; i < ids.length; i++)
+        {
+            ids[i] = workItemIDs.get(i);
+        }
+
+        final WorkItemCollection collection = witClient.query(ids, TITLE_QUERY);
+
+        for (int i = 0; i < collection.size(); i++)
+        {
+            final WorkItem workItem = collection.getWorkItem(i);
+            final String title = String.valueOf(workItem.getFields().getField(CoreFieldReferenceNames.TITLE).getValue());
+
+            batchTitles.put(workItem.getID(), title);
+            titles.put(workItem.getID(), title);
+        }
+    }
+
+    /**
+     * A least recently used cache of work item titles that can be shared by
+     * the resolvers of successive pages of a history. The size of the cache is
+     * read from the GITTF_WORK_ITEM_CACHE_SIZE environment variable.
+     */
+    public static class TitleCache
+    {
+        /* Guarded by itself */
+        private final Map<Integer, String> titles;
+
+        public TitleCache()
+        {
+            this(EnvironmentUtil.getPositiveInt(WORK_ITEM_CACHE_SIZE_NAME, DEFAULT_WORK_ITEM_CACHE_SIZE));
+        }
+
+        /**
+         * Constructor
+         * 
+         * @param cacheSize
+         *        the number of titles to keep
+         */
+        public TitleCache(final int cacheSize)
+        {
+            Check.isTrue(cacheSize > 0, "cacheSize > 0"); //$NON-NLS-1$
+
+            this.titles = new LinkedHashMap<Integer, String>(16, 0.75f, true)
+            {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<Integer, String> eldest)
+                {
+                    return size() > cacheSize;
+                }
+            };
+        }
+
+        /**
+         * @param workItemID
+         *        the work item id
+         * @return the cached title of the work item, or <code>null</code> if
+         *         it is not cached
+         */
+        public String get(final int workItemID)
+        {
+            synchronized (titles)
+            {
+                return titles.get(workItemID);
+            }
+        }
+
+        /**
+         * Caches the title of a work item.
+         * 
+         * @param workItemID
+         *        the work item id
+         * @param title
+         *        the title
+         */
+        public void put(final int workItemID, final String title)
+        {
+            synchronized (titles)
+            {
+                titles.put(workItemID, title);
+            }
+        }
+    }
+
+    private static class ResolverThreadFactory
+        implements ThreadFactory
+    {
+        private final int poolNumber = poolCounter.incrementAndGet();
+        private final AtomicInteger threadCounter = new AtomicInteger();
+
+        public Thread newThread(final Runnable runnable)
+        {
+            final Thread thread = new Thread(runnable, GitTFConstants.GIT_TF_NAME + "-workitems-" //$NON-NLS-1$
+                + poolNumber
+                + "-" //$NON-NLS-1$
+                + threadCounter.incrementAndGet());
+
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    }
+}
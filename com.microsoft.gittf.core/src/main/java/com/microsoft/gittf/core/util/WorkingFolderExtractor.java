@@ -0,0 +1,414 @@
+/***********************************************************************************************
+ * Copyright (c) Microsoft Corporation All rights reserved.
+ * 
+ * MIT License:
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ***********************************************************************************************/
+package com.microsoft.gittf.core.util;
+
+import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ObjectStream;
+import org.eclipse.jgit.lib.Repository;
+
+import com.microsoft.gittf.core.GitTFConstants;
+import com.microsoft.gittf.core.Messages;
+
+/**
+ * Extracts blobs from the repository into a working folder with a pool of
+ * worker threads, so that the files of later changes are written while
+ * earlier changes are sent to the server.
+ * 
+ * Extractions are scheduled ahead of time with
+ * {@link #schedule(String, ObjectId)}; {@link #extract(String, ObjectId)}
+ * waits for a scheduled extraction to finish or extracts the item on the
+ * calling thread if it was never scheduled. Every worker thread reads blobs
+ * through its own {@link ObjectReader} and writes them through a
+ * {@link FileChannel} straight from the loader's buffer, or streams them when
+ * the blob is too large to be held in memory.
+ * 
+ * The number of workers is read from the GITTF_EXTRACT_THREADS environment
+ * variable and defaults to the number of processors.
+ */
+public class WorkingFolderExtractor
+{
+    private static final String EXTRACT_THREADS_NAME = "GITTF_EXTRACT_THREADS"; //$NON-NLS-1$
+
+    private static final AtomicInteger poolCounter = new AtomicInteger();
+
+    private final Repository repository;
+    private final File workingFolder;
+    private final ExecutorService executor;
+
+    /* The scheduled extractions by path, guarded by this */
+    private final Map<String, Extraction> extractions = new HashMap<String, Extraction>();
+
+    /* The readers created for the worker threads, guarded by itself */
+    private final List<ObjectReader> readers = new ArrayList<ObjectReader>();
+
+    private final ThreadLocal<ObjectReader> threadReader = new ThreadLocal<ObjectReader>()
+    {
+        @Override
+        protected ObjectReader initialValue()
+        {
+            final ObjectReader reader = repository.newObjectReader();
+
+            synchronized (readers)
+            {
+                readers.add(reader);
+            }
+
+            return reader;
+        }
+    };
+
+    /**
+     * Constructor
+     * 
+     * @param repository
+     *        the repository to read the blobs from
+     * @param workingFolder
+     *        the folder to extract the items into
+     */
+    public WorkingFolderExtractor(final Repository repository, final File workingFolder)
+    {
+        this(repository, workingFolder, EnvironmentUtil.getPositiveInt(EXTRACT_THREADS_NAME, Runtime.getRuntime()
+            .availableProcessors()));
+    }
+
+    /**
+     * Constructor
+     * 
+     * @param repository
+     *        the repository to read the blobs from
+     * @param workingFolder
+     *        the folder to extract the items into
+     * @param threadCount
+     *        the number of worker threads
+     */
+    public WorkingFolderExtractor(final Repository repository, final File workingFolder, final int threadCount)
+    {
+        Check.notNull(repository, "repository"); //$NON-NLS-1$
+        Check.notNull(workingFolder, "workingFolder"); //$NON-NLS-1$
+        Check.isTrue(threadCount > 0, "threadCount > 0"); //$NON-NLS-1$
+
+        this.repository = repository;
+        this.workingFolder = workingFolder;
+        this.executor = Executors.newFixedThreadPool(threadCount, new ExtractThreadFactory());
+    }
+
+    /**
+     * Schedules the extraction of a blob on the worker threads. An item that
+     * is already scheduled is not extracted again.
+     * 
+     * @param itemPath
+     *        the path of the item relative to the working folder
+     * @param objectID
+     *        the blob to extract
+     */
+    public synchronized void schedule(final String itemPath, final ObjectId objectID)
+    {
+        Check.notNullOrEmpty(itemPath, "itemPath"); //$NON-NLS-1$
+        Check.notNull(objectID, "objectID"); //$NON-NLS-1$
+
+        if (extractions.containsKey(itemPath))
+        {
+            return;
+        }
+
+        final Future<Void> future = executor.submit(new Callable<Void>()
+        {
+            public Void call()
+                throws IOException
+            {
+                write(threadReader.get(), itemPath, objectID);
+                return null;
+            }
+        });
+
+        extractions.put(itemPath, new Extraction(objectID, future));
+    }
+
+    /**
+     * Ensures that the blob has been extracted to the item path, waiting for
+     * a scheduled extraction or extracting it on the calling thread.
+     * 
+     * @param itemPath
+     *        the path of the item relative to the working folder
+     * @param objectID
+     *        the blob to extract
+     * @throws IOException
+     */
+    public void extract(final String itemPath, final ObjectId objectID)
+        throws IOException
+    {
+        Check.notNullOrEmpty(itemPath, "itemPath"); //$NON-NLS-1$
+        Check.notNull(objectID, "objectID"); //$NON-NLS-1$
+
+        final Extraction extraction;
+        synchronized (this)
+        {
+            extraction = extractions.get(itemPath);
+        }
+
+        if (extraction != null)
+        {
+            waitFor(extraction.future);
+
+            if (extraction.objectID.equals(objectID))
+            {
+                return;
+            }
+        }
+
+        final ObjectReader reader = repository.newObjectReader();
+
+        try
+        {
+            write(reader, itemPath, objectID);
+        }
+        finally
+        {
+            reader.release();
+        }
+    }
+
+    /**
+     * Waits for every scheduled extraction to finish.
+     * 
+     * @throws IOException
+     *         if any of the scheduled extractions failed
+     */
+    public void finish()
+        throws IOException
+    {
+        final List<Extraction> scheduled;
+        synchronized (this)
+        {
+            scheduled = new ArrayList<Extraction>(extractions.values());
+        }
+
+        for (final Extraction extraction : scheduled)
+        {
+            waitFor(extraction.future);
+        }
+    }
+
+    /**
+     * Stops the worker threads and releases their readers. Extractions that
+     * have not started are abandoned.
+     */
+    public void close()
+    {
+        executor.shutdownNow();
+
+        try
+        {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (readers)
+        {
+            for (final ObjectReader reader : readers)
+            {
+                reader.release();
+            }
+
+            readers.clear();
+        }
+    }
+
+    private void write(final ObjectReader reader, final String itemPath, final ObjectId objectID)
+        throws IOException
+    {
+        /* Ensure that the location exists */
+        final File workingFile = new File(workingFolder, itemPath);
+        final File parentDir = workingFile.getParentFile();
+
+        /* Another thread may be creating the same folder */
+        if (!parentDir.mkdirs() && !parentDir.isDirectory())
+        {
+            throw new IOException(Messages.formatString(
+                "WorkingFolderExtractor.CouldNotCreateItemPathFormat", parentDir.getAbsolutePath())); //$NON-NLS-1$
+        }
+
+        if (workingFile.exists())
+        {
+            workingFile.delete();
+        }
+
+        final ObjectLoader loader = reader.open(objectID, OBJ_BLOB);
+        final FileOutputStream workingOutput = new FileOutputStream(workingFile);
+
+        try
+        {
+            final FileChannel channel = workingOutput.getChannel();
+
+            if (!loader.isLarge())
+            {
+                /* Write the loader's own buffer without copying it */
+                final ByteBuffer buffer = ByteBuffer.wrap(loader.getCachedBytes());
+
+                while (buffer.hasRemaining())
+                {
+                    channel.write(buffer);
+                }
+            }
+            else
+            {
+                transfer(loader, channel);
+            }
+        }
+        finally
+        {
+            workingOutput.close();
+        }
+
+        if (!workingFile.exists())
+        {
+            throw new IOException(Messages.formatString("WorkingFolderExtractor.CouldNotCreateItemFormat", itemPath)); //$NON-NLS-1$
+        }
+    }
+
+    private static void transfer(final ObjectLoader loader, final FileChannel channel)
+        throws IOException
+    {
+        final ObjectStream stream = loader.openStream();
+
+        try
+        {
+            final ReadableByteChannel source = Channels.newChannel(stream);
+            final long size = loader.getSize();
+            long position = 0;
+
+            while (position < size)
+            {
+                final long transferred = channel.transferFrom(source, position, size - position);
+
+                if (transferred <= 0)
+                {
+                    break;
+                }
+
+                position += transferred;
+            }
+
+            if (position < size)
+            {
+                throw new EOFException(MessageFormat.format("blob ended after {0} of {1} bytes", position, size)); //$NON-NLS-1$
+            }
+        }
+        finally
+        {
+            stream.close();
+        }
+    }
+
+    private static void waitFor(final Future<Void> future)
+        throws IOException
+    {
+        try
+        {
+            future.get();
+        }
+        catch (InterruptedException e)
+        {
+            final IOException exception = new IOException(e.getMessage());
+            exception.initCause(e);
+            throw exception;
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
+            {
+                throw (IOException) e.getCause();
+            }
+
+            if (e.getCause() instanceof RuntimeException)
+            {
+                throw (RuntimeException) e.getCause();
+            }
+
+            final IOException exception = new IOException(e.getCause().getMessage());
+            exception.initCause(e.getCause());
+            throw exception;
+        }
+    }
+
+    private static class Extraction
+    {
+        private final ObjectId objectID;
+        private final Future<Void> future;
+
+        public Extraction(final ObjectId objectID, final Future<Void> future)
+        {
+            this.objectID = objectID;
+            this.future = future;
+        }
+    }
+
+    private static class ExtractThreadFactory
+        implements ThreadFactory
+    {
+        private final int poolNumber = poolCounter.incrementAndGet();
+        private final AtomicInteger threadCounter = new AtomicInteger();
+
+        public Thread newThread(final Runnable runnable)
+        {
+            final Thread thread = new Thread(runnable, GitTFConstants.GIT_TF_NAME + "-extract-" //$NON-NLS-1$
+                + poolNumber
+                + "-" //$NON-NLS-1$
+                + threadCounter.incrementAndGet());
+
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    }
+}
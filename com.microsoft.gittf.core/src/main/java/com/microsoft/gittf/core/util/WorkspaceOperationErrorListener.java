@@ -25,6 +25,7 @@
 package com.microsoft.gittf.core.util;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import com.microsoft.gittf.core.Messages;
@@ -40,7 +41,8 @@ public class WorkspaceOperationErrorListener
 
 {
     private Workspace workspace;
-    private List<String> errors = new ArrayList<String>();
+    /* Changes may be pended from more than one thread */
+    private List<String> errors = Collections.synchronizedList(new ArrayList<String>());
 
     /**
      * Empty error listener - used by the preview workspace
@@ -90,6 +92,12 @@ public class WorkspaceOperationErrorListener
     public void validate()
         throws Exception
     {
+        final List<String> errors;
+        synchronized (this.errors)
+        {
+            errors = new ArrayList<String>(this.errors);
+        }
+
         if (errors.size() > 0)
         {
             StringBuilder sb = new StringBuilder();
@@ -0,0 +1,551 @@
+/***********************************************************************************************
+ * Copyright (c) Microsoft Corporation All rights reserved.
+ * 
+ * MIT License:
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ***********************************************************************************************/
+package com.microsoft.gittf.core.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.text.MessageFormat;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.RawParseUtils;
+
+import com.microsoft.gittf.core.GitTFConstants;
+import com.microsoft.gittf.core.Messages;
+import com.microsoft.tfs.core.clients.versioncontrol.GetOptions;
+import com.microsoft.tfs.core.clients.versioncontrol.VersionControlClient;
+import com.microsoft.tfs.core.clients.versioncontrol.VersionControlConstants;
+import com.microsoft.tfs.core.clients.versioncontrol.WorkspaceLocation;
+import com.microsoft.tfs.core.clients.versioncontrol.WorkspaceOptions;
+import com.microsoft.tfs.core.clients.versioncontrol.path.LocalPath;
+import com.microsoft.tfs.core.clients.versioncontrol.path.ServerPath;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.PendingSet;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.RecursionType;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.WorkingFolder;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Workspace;
+import com.microsoft.tfs.core.clients.versioncontrol.specs.ItemSpec;
+import com.microsoft.tfs.util.FileHelpers;
+import com.microsoft.tfs.util.GUID;
+
+/**
+ * A pool of long-lived server workspaces that belong to a repository and are
+ * reused by successive check-ins and shelves instead of creating and deleting
+ * a workspace every time.
+ * 
+ * Each slot of the pool has a working folder under the git-tf directory of the
+ * repository and a workspace named after the pool and the slot. A slot is
+ * leased by locking its lock file, so a slot is never used by two processes at
+ * once and the lease ends when the process does. A leased workspace whose
+ * mapping no longer matches the repository is deleted and created again;
+ * pending changes left behind by an earlier run are undone.
+ * 
+ * A workspace whose last lease ended without pending changes is reported as
+ * in sync: the local versions the server holds for it are accurate, so it
+ * only needs to be updated with the changes made since.
+ * 
+ * The number of slots is read from the GITTF_WORKSPACE_POOL_SIZE environment
+ * variable and defaults to 2. When every slot is leased, {@link #lease()}
+ * returns <code>null</code> and the caller falls back to a temporary
+ * workspace.
+ */
+public class WorkspacePool
+{
+    private static final Log log = LogFactory.getLog(WorkspacePool.class);
+
+    private static final String POOL_SIZE_NAME = "GITTF_WORKSPACE_POOL_SIZE"; //$NON-NLS-1$
+    private static final int DEFAULT_POOL_SIZE = 2;
+
+    private static final String POOL_DIR_NAME = "workspaces"; //$NON-NLS-1$
+    private static final String POOL_ID_FILE_NAME = "id"; //$NON-NLS-1$
+    private static final String LOCK_FILE_SUFFIX = ".lock"; //$NON-NLS-1$
+    private static final String RESYNC_FILE_SUFFIX = ".resync"; //$NON-NLS-1$
+
+    private final VersionControlClient versionControlClient;
+    private final String serverPath;
+    private final File poolDirectory;
+    private final int size;
+
+    /**
+     * Constructor
+     * 
+     * @param versionControlClient
+     *        the version control client
+     * @param repository
+     *        the repository the pool belongs to
+     * @param serverPath
+     *        the server path the workspaces map
+     */
+    public WorkspacePool(
+        final VersionControlClient versionControlClient,
+        final Repository repository,
+        final String serverPath)
+    {
+        this(versionControlClient, repository, serverPath, EnvironmentUtil.getPositiveInt(
+            POOL_SIZE_NAME,
+            DEFAULT_POOL_SIZE));
+    }
+
+    /**
+     * Constructor
+     * 
+     * @param versionControlClient
+     *        the version control client
+     * @param repository
+     *        the repository the pool belongs to
+     * @param serverPath
+     *        the server path the workspaces map
+     * @param size
+     *        the number of workspaces in the pool
+     */
+    public WorkspacePool(
+        final VersionControlClient versionControlClient,
+        final Repository repository,
+        final String serverPath,
+        final int size)
+    {
+        Check.notNull(versionControlClient, "versionControlClient"); //$NON-NLS-1$
+        Check.notNull(repository, "repository"); //$NON-NLS-1$
+        Check.notNullOrEmpty(serverPath, "serverPath"); //$NON-NLS-1$
+        Check.isTrue(size > 0, "size > 0"); //$NON-NLS-1$
+
+        this.versionControlClient = versionControlClient;
+        this.serverPath = serverPath;
+        /*
+         * The configurable temp directory may be shared by several
+         * repositories, the pool id and the workspace names derived from it
+         * must not be.
+         */
+        this.poolDirectory = new File(DirectoryUtil.getGitTFDir(repository), POOL_DIR_NAME);
+        this.size = size;
+    }
+
+    /**
+     * Leases a workspace from the pool, creating it if the slot has none yet.
+     * 
+     * @return the lease, or <code>null</code> if every workspace in the pool
+     *         is leased or none could be prepared
+     */
+    public Lease lease()
+    {
+        if (!poolDirectory.isDirectory() && !poolDirectory.mkdirs())
+        {
+            log.warn(MessageFormat.format("Could not create the workspace pool directory {0}", //$NON-NLS-1$
+                poolDirectory.getAbsolutePath()));
+
+            return null;
+        }
+
+        final String poolID;
+
+        try
+        {
+            poolID = getPoolID();
+        }
+        catch (IOException e)
+        {
+            log.warn("Could not read the workspace pool id", e); //$NON-NLS-1$
+            return null;
+        }
+
+        for (int slot = 0; slot < size; slot++)
+        {
+            final SlotLock lock = SlotLock.tryLock(new File(poolDirectory, slot + LOCK_FILE_SUFFIX));
+
+            if (lock == null)
+            {
+                continue;
+            }
+
+            final String workspaceName = MessageFormat.format("{0}-{1}-{2}", //$NON-NLS-1$
+                GitTFConstants.GIT_TF_NAME,
+                poolID,
+                Integer.toString(slot));
+            final File workingFolder = new File(poolDirectory, Integer.toString(slot));
+            final File resyncMarker = new File(poolDirectory, slot + RESYNC_FILE_SUFFIX);
+
+            try
+            {
+                final Lease lease = prepare(workspaceName, workingFolder, resyncMarker, lock);
+
+                log.debug(MessageFormat.format("Leased pooled workspace {0}, {1}", //$NON-NLS-1$
+                    workspaceName,
+                    lease.isInSync() ? "in sync" : "needs a full update")); //$NON-NLS-1$ //$NON-NLS-2$
+
+                return lease;
+            }
+            catch (Exception e)
+            {
+                log.warn(MessageFormat.format("Could not prepare pooled workspace {0}", workspaceName), e); //$NON-NLS-1$
+
+                discard(workspaceName, workingFolder);
+                lock.release();
+
+                return null;
+            }
+        }
+
+        log.debug("Every pooled workspace is leased"); //$NON-NLS-1$
+
+        return null;
+    }
+
+    private Lease prepare(
+        final String workspaceName,
+        final File workingFolder,
+        final File resyncMarker,
+        final SlotLock lock)
+        throws IOException
+    {
+        /*
+         * The local versions the server holds for a workspace are only trusted
+         * if its last lease ended cleanly
+         */
+        boolean inSync = !resyncMarker.exists();
+
+        Workspace workspace = versionControlClient.queryWorkspace(workspaceName, VersionControlConstants.AUTHENTICATED_USER);
+
+        if (workspace != null && !isMappedTo(workspace, workingFolder))
+        {
+            log.info(MessageFormat.format("Pooled workspace {0} does not map {1}, recreating it", //$NON-NLS-1$
+                workspaceName,
+                serverPath));
+
+            versionControlClient.deleteWorkspace(workspace);
+            workspace = null;
+        }
+
+        if (workspace != null && undoPendingChanges(workspace) > 0)
+        {
+            inSync = false;
+        }
+
+        resetFolder(workingFolder);
+
+        if (workspace == null)
+        {
+            inSync = false;
+
+            workspace = versionControlClient.createWorkspace(new WorkingFolder[]
+            {
+                new WorkingFolder(serverPath, workingFolder.getAbsolutePath())
+            }, workspaceName, Messages.getString("WorkspacePool.WorkspaceComment"), //$NON-NLS-1$
+                WorkspaceLocation.SERVER,
+                WorkspaceOptions.NONE);
+        }
+
+        return new Lease(workspace, workingFolder, resyncMarker, lock, inSync);
+    }
+
+    private boolean isMappedTo(final Workspace workspace, final File workingFolder)
+    {
+        final WorkingFolder[] folders = workspace.getFolders();
+
+        if (workspace.getLocation() != WorkspaceLocation.SERVER || folders == null || folders.length != 1)
+        {
+            return false;
+        }
+
+        return !folders[0].isCloaked()
+            && ServerPath.equals(folders[0].getServerItem(), serverPath)
+            && LocalPath.equals(folders[0].getLocalItem(), workingFolder.getAbsolutePath());
+    }
+
+    /**
+     * Undoes the pending changes left in the workspace
+     * 
+     * @return the number of pending changes that were undone
+     */
+    private int undoPendingChanges(final Workspace workspace)
+    {
+        final PendingSet pendingSet = workspace.getPendingChanges();
+
+        if (pendingSet == null || pendingSet.getPendingChanges() == null || pendingSet.getPendingChanges().length == 0)
+        {
+            return 0;
+        }
+
+        log.info(MessageFormat.format("Undoing {0} changes left in pooled workspace {1}", //$NON-NLS-1$
+            pendingSet.getPendingChanges().length,
+            workspace.getName()));
+
+        workspace.undo(new ItemSpec[]
+        {
+            new ItemSpec(serverPath, RecursionType.FULL)
+        }, GetOptions.NO_DISK_UPDATE);
+
+        return pendingSet.getPendingChanges().length;
+    }
+
+    private static void resetFolder(final File workingFolder)
+        throws IOException
+    {
+        if (workingFolder.exists())
+        {
+            FileHelpers.deleteDirectory(workingFolder);
+        }
+
+        if (!workingFolder.mkdirs())
+        {
+            throw new IOException(Messages.formatString("WorkspacePool.CouldNotCreateFolderFormat", //$NON-NLS-1$
+                workingFolder.getAbsolutePath()));
+        }
+    }
+
+    private void discard(final String workspaceName, final File workingFolder)
+    {
+        try
+        {
+            final Workspace workspace =
+                versionControlClient.queryWorkspace(workspaceName, VersionControlConstants.AUTHENTICATED_USER);
+
+            if (workspace != null)
+            {
+                versionControlClient.deleteWorkspace(workspace);
+            }
+        }
+        catch (Exception e)
+        {
+            log.warn(MessageFormat.format("Could not delete pooled workspace {0}", workspaceName), e); //$NON-NLS-1$
+        }
+
+        if (workingFolder.exists())
+        {
+            FileHelpers.deleteDirectory(workingFolder);
+        }
+    }
+
+    /**
+     * Gets the id that names the workspaces of this pool, creating it on
+     * first use.
+     */
+    private String getPoolID()
+        throws IOException
+    {
+        final File idFile = new File(poolDirectory, POOL_ID_FILE_NAME);
+
+        if (!idFile.exists())
+        {
+            final File newIdFile = File.createTempFile(POOL_ID_FILE_NAME, null, poolDirectory);
+            final FileOutputStream out = new FileOutputStream(newIdFile);
+
+            try
+            {
+                out.write(Constants.encode(GUID.newGUID().getGUIDString()));
+            }
+            finally
+            {
+                out.close();
+            }
+
+            /* Another process may have created the id in the meantime */
+            if (!newIdFile.renameTo(idFile))
+            {
+                newIdFile.delete();
+            }
+        }
+
+        return RawParseUtils.decode(IO.readFully(idFile)).trim();
+    }
+
+    /**
+     * A workspace leased from the pool
+     */
+    public class Lease
+    {
+        private final Workspace workspace;
+        private final File workingFolder;
+        private final File resyncMarker;
+        private final SlotLock lock;
+        private final boolean inSync;
+
+        private Lease(
+            final Workspace workspace,
+            final File workingFolder,
+            final File resyncMarker,
+            final SlotLock lock,
+            final boolean inSync)
+        {
+            this.workspace = workspace;
+            this.workingFolder = workingFolder;
+            this.resyncMarker = resyncMarker;
+            this.lock = lock;
+            this.inSync = inSync;
+        }
+
+        public Workspace getWorkspace()
+        {
+            return workspace;
+        }
+
+        public File getWorkingFolder()
+        {
+            return workingFolder;
+        }
+
+        /**
+         * @return <code>true</code> if the local versions the server holds for
+         *         the workspace are accurate, so that it only needs to be
+         *         updated with the changes since its last use
+         */
+        public boolean isInSync()
+        {
+            return inSync;
+        }
+
+        /**
+         * Returns the workspace to the pool. Pending changes are undone and
+         * the working folder is emptied; a workspace that cannot be cleaned
+         * up, or that the caller no longer trusts, is deleted so that it is
+         * created again on its next lease.
+         * 
+         * @param reusable
+         *        <code>false</code> to delete the workspace
+         */
+        public void release(final boolean reusable)
+        {
+            try
+            {
+                boolean keep = reusable;
+
+                if (keep)
+                {
+                    try
+                    {
+                        /*
+                         * Undoing changes without touching the disk may leave
+                         * local versions the server holds out of date, so the
+                         * next lease updates the workspace in full
+                         */
+                        if (undoPendingChanges(workspace) > 0)
+                        {
+                            resyncMarker.createNewFile();
+                        }
+                        else if (resyncMarker.exists() && !resyncMarker.delete())
+                        {
+                            throw new IOException(Messages.formatString("WorkspacePool.CouldNotDeleteFormat", //$NON-NLS-1$
+                                resyncMarker.getAbsolutePath()));
+                        }
+
+                        resetFolder(workingFolder);
+                    }
+                    catch (Exception e)
+                    {
+                        log.warn(MessageFormat.format("Could not clean up pooled workspace {0}", //$NON-NLS-1$
+                            workspace.getName()), e);
+
+                        keep = false;
+                    }
+                }
+
+                if (!keep)
+                {
+                    discard(workspace.getName(), workingFolder);
+                }
+            }
+            finally
+            {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * An exclusive lock on a pool slot, held through the operating system so
+     * that it ends with the process holding it
+     */
+    private static class SlotLock
+    {
+        private final RandomAccessFile file;
+        private final FileLock lock;
+
+        private SlotLock(final RandomAccessFile file, final FileLock lock)
+        {
+            this.file = file;
+            this.lock = lock;
+        }
+
+        public static SlotLock tryLock(final File lockFile)
+        {
+            RandomAccessFile file = null;
+
+            try
+            {
+                file = new RandomAccessFile(lockFile, "rw"); //$NON-NLS-1$
+                final FileLock lock = file.getChannel().tryLock();
+
+                if (lock != null)
+                {
+                    return new SlotLock(file, lock);
+                }
+            }
+            catch (OverlappingFileLockException e)
+            {
+                /* Leased by this process */
+            }
+            catch (IOException e)
+            {
+                log.warn(MessageFormat.format("Could not lock {0}", lockFile.getAbsolutePath()), e); //$NON-NLS-1$
+            }
+
+            closeQuietly(file);
+            return null;
+        }
+
+        public void release()
+        {
+            try
+            {
+                lock.release();
+            }
+            catch (IOException e)
+            {
+                log.warn("Could not release a workspace pool lock", e); //$NON-NLS-1$
+            }
+
+            closeQuietly(file);
+        }
+
+        private static void closeQuietly(final RandomAccessFile file)
+        {
+            if (file != null)
+            {
+                try
+                {
+                    file.close();
+                }
+                catch (IOException e)
+                {
+                    /* suppress */
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/***********************************************************************************************
+ * Copyright (c) Microsoft Corporation All rights reserved.
+ * 
+ * MIT License:
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ***********************************************************************************************/
+
+
+package com.microsoft.gittf.core.util.tree;
+
+import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
+import static org.eclipse.jgit.lib.Constants.OBJ_TREE;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+
+import com.microsoft.gittf.core.util.Check;
+import com.microsoft.gittf.core.util.RepositoryPath;
+
+/**
+ * Builds a commit tree by applying file additions and removals to a base
+ * tree. Only the folders on the path of a change are rewritten, the trees of
+ * untouched folders are reused from the base tree as they are. Without a base
+ * tree the builder creates the whole tree from the files added to it.
+ * 
+ * Folder and file names are matched case insensitively, the case of an
+ * existing folder is preserved. Folders left without files are removed.
+ */
+public class CommitTreeBuilder
+{
+    private final ObjectReader objectReader;
+    private final ObjectId baseTreeID;
+    private final TreeNode root = new TreeNode(""); //$NON-NLS-1$
+
+    /**
+     * Constructor
+     * 
+     * @param objectReader
+     *        the reader to read the base trees with
+     * @param baseTreeID
+     *        the tree to apply the changes to, or <code>null</code> to build
+     *        the tree from scratch
+     */
+    public CommitTreeBuilder(final ObjectReader objectReader, final ObjectId baseTreeID)
+    {
+        Check.notNull(objectReader, "objectReader"); //$NON-NLS-1$
+
+        this.objectReader = objectReader;
+        this.baseTreeID = baseTreeID;
+    }
+
+    /**
+     * Adds a file to the tree, replacing any file at the same path.
+     * 
+     * @param path
+     *        the repository relative path of the file
+     * @param fileMode
+     *        the file mode
+     * @param objectID
+     *        the blob id
+     */
+    public void add(final String path, final FileMode fileMode, final ObjectId objectID)
+    {
+        Check.notNullOrEmpty(path, "path"); //$NON-NLS-1$
+
+        getParentNode(path).files.put(getKey(path), new FileEdit(
+            RepositoryPath.getFileName(path),
+            new CommitTreeEntry(fileMode, objectID)));
+    }
+
+    /**
+     * Removes a file from the tree if it exists.
+     * 
+     * @param path
+     *        the repository relative path of the file
+     */
+    public void remove(final String path)
+    {
+        Check.notNullOrEmpty(path, "path"); //$NON-NLS-1$
+
+        getParentNode(path).files.put(getKey(path), new FileEdit(RepositoryPath.getFileName(path), null));
+    }
+
+    /**
+     * Inserts the rewritten trees.
+     * 
+     * @param objectInserter
+     *        the inserter to insert the trees with
+     * @return the id of the root tree
+     * @throws IOException
+     */
+    public ObjectId build(final ObjectInserter objectInserter)
+        throws IOException
+    {
+        Check.notNull(objectInserter, "objectInserter"); //$NON-NLS-1$
+
+        final ObjectId rootTreeID = build(objectInserter, root, baseTreeID);
+
+        return rootTreeID != null ? rootTreeID : new TreeFormatter().insertTo(objectInserter);
+    }
+
+    private ObjectId build(final ObjectInserter objectInserter, final TreeNode node, final ObjectId nodeBaseTreeID)
+        throws IOException
+    {
+        final Map<CommitTreePath, CommitTreeEntry> tree = new TreeMap<CommitTreePath, CommitTreeEntry>();
+        final Map<String, CommitTreePath> paths = new HashMap<String, CommitTreePath>();
+
+        if (nodeBaseTreeID != null)
+        {
+            final CanonicalTreeParser parser = new CanonicalTreeParser(null, objectReader, nodeBaseTreeID);
+
+            while (!parser.eof())
+            {
+                final FileMode fileMode = parser.getEntryFileMode();
+                final CommitTreePath path =
+                    new CommitTreePath(parser.getEntryPathString(), fileMode == FileMode.TREE ? OBJ_TREE : OBJ_BLOB);
+
+                tree.put(path, new CommitTreeEntry(fileMode, parser.getEntryObjectId()));
+                paths.put(getKey(path), path);
+
+                parser.next(1);
+            }
+        }
+
+        for (final TreeNode child : node.folders.values())
+        {
+            final CommitTreePath existingPath = paths.get(getKey(new CommitTreePath(child.name, OBJ_TREE)));
+            final ObjectId childBaseTreeID;
+            final String childName;
+
+            if (existingPath != null)
+            {
+                childBaseTreeID = tree.remove(existingPath).getObjectID();
+                childName = existingPath.getName();
+            }
+            else
+            {
+                childBaseTreeID = null;
+                childName = child.name;
+            }
+
+            final ObjectId childTreeID = build(objectInserter, child, childBaseTreeID);
+
+            if (childTreeID != null)
+            {
+                tree.put(new CommitTreePath(childName, OBJ_TREE), new CommitTreeEntry(FileMode.TREE, childTreeID));
+            }
+        }
+
+        for (final Entry<String, FileEdit> file : node.files.entrySet())
+        {
+            final CommitTreePath existingPath = paths.get(file.getKey());
+
+            if (existingPath != null)
+            {
+                tree.remove(existingPath);
+            }
+
+            if (file.getValue().entry != null)
+            {
+                tree.put(new CommitTreePath(file.getValue().name, OBJ_BLOB), file.getValue().entry);
+            }
+        }
+
+        if (tree.isEmpty())
+        {
+            return null;
+        }
+
+        final TreeFormatter treeFormatter = new TreeFormatter();
+
+        for (final Entry<CommitTreePath, CommitTreeEntry> entry : tree.entrySet())
+        {
+            treeFormatter.append(
+                entry.getKey().getName(),
+                entry.getValue().getFileMode(),
+                entry.getValue().getObjectID());
+        }
+
+        return treeFormatter.insertTo(objectInserter);
+    }
+
+    private TreeNode getParentNode(final String path)
+    {
+        TreeNode node = root;
+        int start = 0;
+        int end;
+
+        while ((end = path.indexOf(RepositoryPath.PREFERRED_SEPARATOR_CHARACTER, start)) >= 0)
+        {
+            final String name = path.substring(start, end);
+            final String key = name.toLowerCase();
+
+            TreeNode child = node.folders.get(key);
+            if (child == null)
+            {
+                child = new TreeNode(name);
+                node.folders.put(key, child);
+            }
+
+            node = child;
+            start = end + 1;
+        }
+
+        return node;
+    }
+
+    private static String getKey(final String path)
+    {
+        return RepositoryPath.getFileName(path).toLowerCase();
+    }
+
+    private static String getKey(final CommitTreePath path)
+    {
+        return path.getFullName().toLowerCase();
+    }
+
+    /**
+     * A folder on the path of a change
+     */
+    private static class TreeNode
+    {
+        private final String name;
+        private final Map<String, TreeNode> folders = new HashMap<String, TreeNode>();
+        private final Map<String, FileEdit> files = new HashMap<String, FileEdit>();
+
+        public TreeNode(final String name)
+        {
+            this.name = name;
+        }
+    }
+
+    /**
+     * A file added to a folder, or removed from it if the entry is
+     * <code>null</code>
+     */
+    private static class FileEdit
+    {
+        private final String name;
+        private final CommitTreeEntry entry;
+
+        public FileEdit(final String name, final CommitTreeEntry entry)
+        {
+            this.name = name;
+            this.entry = entry;
+        }
+    }
+}
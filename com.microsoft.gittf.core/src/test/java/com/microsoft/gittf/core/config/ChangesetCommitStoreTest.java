@@ -0,0 +1,185 @@
+/***********************************************************************************************
+ * Copyright (c) Microsoft Corporation All rights reserved.
+ * 
+ * MIT License:
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ***********************************************************************************************/
+package com.microsoft.gittf.core.config;
+
+import java.io.File;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileBasedConfig;
+import org.eclipse.jgit.util.FS;
+
+import com.microsoft.gittf.core.GitTFConstants;
+import com.microsoft.gittf.core.test.Util;
+import com.microsoft.gittf.core.util.RepositoryUtil;
+
+public class ChangesetCommitStoreTest
+    extends TestCase
+{
+    private Repository repository;
+
+    protected void setUp()
+        throws Exception
+    {
+        Util.setUp(getName());
+
+        repository = RepositoryUtil.createNewRepository(Util.getRepositoryFile(getName()).getAbsolutePath(), false);
+        repository.create();
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        repository.close();
+
+        Util.tearDown(getName());
+    }
+
+    public void testLookups()
+        throws Exception
+    {
+        ChangesetCommitStore store = new ChangesetCommitStore(repository);
+        assertEquals(-1, store.getHighWaterMark());
+
+        store.setChangesetCommit(10, createCommitID(10), false);
+        store.setChangesetCommit(30, createCommitID(30), false);
+        store.setChangesetCommit(20, createCommitID(20), false);
+
+        ChangesetCommitStore reloaded = new ChangesetCommitStore(repository);
+        assertEquals(30, reloaded.getHighWaterMark());
+        assertEquals(createCommitID(20), reloaded.getCommitID(20));
+        assertNull(reloaded.getCommitID(25));
+        assertEquals(30, reloaded.getChangesetID(createCommitID(30)));
+        assertEquals(-1, reloaded.getChangesetID(createCommitID(25)));
+        assertEquals(20, reloaded.getPreviousChangesetID(30));
+        assertEquals(20, reloaded.getPreviousChangesetID(25));
+        assertEquals(-1, reloaded.getPreviousChangesetID(10));
+    }
+
+    public void testRemappedChangeset()
+        throws Exception
+    {
+        ChangesetCommitStore store = new ChangesetCommitStore(repository);
+        store.setChangesetCommit(10, createCommitID(1), false);
+        store.setChangesetCommit(20, createCommitID(2), false);
+        store.setChangesetCommit(10, createCommitID(3), true);
+
+        ChangesetCommitStore reloaded = new ChangesetCommitStore(repository);
+        assertEquals(10, reloaded.getHighWaterMark());
+        assertEquals(createCommitID(3), reloaded.getCommitID(10));
+        assertEquals(10, reloaded.getChangesetID(createCommitID(3)));
+        assertEquals(-1, reloaded.getChangesetID(createCommitID(1)));
+    }
+
+    public void testBatchUpdate()
+        throws Exception
+    {
+        ChangesetCommitStore store = new ChangesetCommitStore(repository);
+        store.setChangesetCommit(50, createCommitID(50), false);
+
+        List<ChangesetCommit> changesetCommits = new ArrayList<ChangesetCommit>();
+        changesetCommits.add(new ChangesetCommit(40, createCommitID(40), true));
+        changesetCommits.add(new ChangesetCommit(45, createCommitID(45), false));
+        store.setChangesetCommits(changesetCommits);
+
+        ChangesetCommitStore reloaded = new ChangesetCommitStore(repository);
+        assertEquals(45, reloaded.getHighWaterMark());
+        assertEquals(createCommitID(40), reloaded.getCommitID(40));
+        assertEquals(45, reloaded.getChangesetID(createCommitID(45)));
+        assertEquals(45, reloaded.getPreviousChangesetID(50));
+    }
+
+    public void testJournalIsMergedIntoIndex()
+        throws Exception
+    {
+        ChangesetCommitStore store = new ChangesetCommitStore(repository);
+
+        for (int i = 1; i <= 3000; i++)
+        {
+            store.setChangesetCommit(i, createCommitID(i), false);
+        }
+
+        ChangesetCommitStore reloaded = new ChangesetCommitStore(repository);
+        assertEquals(3000, reloaded.getHighWaterMark());
+
+        for (int i = 1; i <= 3000; i++)
+        {
+            assertEquals(createCommitID(i), reloaded.getCommitID(i));
+            assertEquals(i, reloaded.getChangesetID(createCommitID(i)));
+        }
+    }
+
+    public void testLegacyFileIsReadAndMigrated()
+        throws Exception
+    {
+        File legacyFile = new File(repository.getDirectory(), GitTFConstants.GIT_TF_NAME);
+        FileBasedConfig legacyConfig = new FileBasedConfig(legacyFile, FS.DETECTED);
+
+        for (int i = 1; i <= 2; i++)
+        {
+            legacyConfig.setString(
+                ConfigurationConstants.CONFIGURATION_SECTION,
+                ConfigurationConstants.COMMIT_SUBSECTION,
+                MessageFormat.format(ConfigurationConstants.COMMIT_CHANGESET_FORMAT, Integer.toString(i)),
+                createCommitID(i).getName());
+        }
+
+        legacyConfig.setInt(
+            ConfigurationConstants.CONFIGURATION_SECTION,
+            ConfigurationConstants.CHANGESET_SUBSECTION,
+            ConfigurationConstants.CHANGESET_HIGHWATER,
+            2);
+        legacyConfig.save();
+
+        ChangesetCommitStore store = new ChangesetCommitStore(repository);
+        assertEquals(2, store.getHighWaterMark());
+        assertEquals(1, store.getChangesetID(createCommitID(1)));
+        assertTrue(legacyFile.exists());
+
+        store.upgradeLegacyFile();
+        assertFalse(legacyFile.exists());
+
+        ChangesetCommitStore reloaded = new ChangesetCommitStore(repository);
+        assertEquals(2, reloaded.getHighWaterMark());
+        assertEquals(createCommitID(1), reloaded.getCommitID(1));
+        assertEquals(createCommitID(2), reloaded.getCommitID(2));
+    }
+
+    private static ObjectId createCommitID(int seed)
+    {
+        byte[] raw = new byte[20];
+
+        for (int i = 0; i < raw.length; i++)
+        {
+            raw[i] = (byte) (seed * 31 + seed / (i + 1));
+        }
+
+        return ObjectId.fromRaw(raw);
+    }
+}
@@ -0,0 +1,146 @@
+/***********************************************************************************************
+ * Copyright (c) Microsoft Corporation All rights reserved.
+ * 
+ * MIT License:
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ***********************************************************************************************/
+
+
+package com.microsoft.gittf.core.config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+
+import com.microsoft.gittf.core.GitTFConstants;
+import com.microsoft.gittf.core.test.Util;
+import com.microsoft.gittf.core.util.RepositoryUtil;
+
+public class ContentHashIndexTest
+    extends TestCase
+{
+    private static final ObjectId BLOB_ID = ObjectId.fromString("0123456789012345678901234567890123456789"); //$NON-NLS-1$
+
+    private Repository repository;
+
+    protected void setUp()
+        throws Exception
+    {
+        Util.setUp(getName());
+
+        repository = RepositoryUtil.createNewRepository(Util.getRepositoryFile(getName()).getAbsolutePath(), false);
+        repository.create();
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        repository.close();
+
+        Util.tearDown(getName());
+    }
+
+    public void testEntriesArePersisted()
+        throws Exception
+    {
+        ContentHashIndex index = new ContentHashIndex(repository);
+        index.put(createHash(1), BLOB_ID);
+
+        assertEquals(BLOB_ID, index.get(createHash(1)));
+        assertNull(new ContentHashIndex(repository).get(createHash(1)));
+
+        index.save();
+
+        ContentHashIndex reloaded = new ContentHashIndex(repository);
+        assertEquals(BLOB_ID, reloaded.get(createHash(1)));
+        assertNull(reloaded.get(createHash(2)));
+        assertNull(reloaded.get(null));
+    }
+
+    public void testSavedWhenBatchIsCommitted()
+        throws Exception
+    {
+        ContentHashIndex index = new ContentHashIndex(repository);
+
+        ChangesetCommitBatch batch = new ChangesetCommitBatch(repository, null);
+        batch.setContentHashIndex(index);
+
+        index.put(createHash(1), BLOB_ID);
+        assertNull(new ContentHashIndex(repository).get(createHash(1)));
+
+        batch.commit();
+        assertEquals(BLOB_ID, new ContentHashIndex(repository).get(createHash(1)));
+    }
+
+    public void testPartialRecordIsIgnored()
+        throws Exception
+    {
+        ContentHashIndex index = new ContentHashIndex(repository);
+        index.put(createHash(1), BLOB_ID);
+        index.save();
+
+        FileOutputStream out =
+            new FileOutputStream(new File(repository.getDirectory(), GitTFConstants.GIT_TF_CONTENT_HASHES_NAME), true);
+        out.write(createHash(2));
+        out.close();
+
+        ContentHashIndex reloaded = new ContentHashIndex(repository);
+        assertEquals(BLOB_ID, reloaded.get(createHash(1)));
+        assertNull(reloaded.get(createHash(2)));
+    }
+
+    public void testRecordsAfterPartialRecordStayAligned()
+        throws Exception
+    {
+        ContentHashIndex index = new ContentHashIndex(repository);
+        index.put(createHash(1), BLOB_ID);
+        index.save();
+
+        FileOutputStream out =
+            new FileOutputStream(new File(repository.getDirectory(), GitTFConstants.GIT_TF_CONTENT_HASHES_NAME), true);
+        out.write(createHash(2));
+        out.close();
+
+        ContentHashIndex reloaded = new ContentHashIndex(repository);
+        reloaded.put(createHash(3), BLOB_ID);
+        reloaded.save();
+
+        ContentHashIndex again = new ContentHashIndex(repository);
+        assertEquals(BLOB_ID, again.get(createHash(1)));
+        assertNull(again.get(createHash(2)));
+        assertEquals(BLOB_ID, again.get(createHash(3)));
+    }
+
+    private static byte[] createHash(int seed)
+    {
+        byte[] hash = new byte[16];
+
+        for (int i = 0; i < hash.length; i++)
+        {
+            hash[i] = (byte) (seed * 31 + i);
+        }
+
+        return hash;
+    }
+}
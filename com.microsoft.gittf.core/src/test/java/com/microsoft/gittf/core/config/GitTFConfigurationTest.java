@@ -0,0 +1,203 @@
+/***********************************************************************************************
+ * Copyright (c) Microsoft Corporation All rights reserved.
+ * 
+ * MIT License:
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ***********************************************************************************************/
+package com.microsoft.gittf.core.config;
+
+import java.io.File;
+import java.net.URI;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileBasedConfig;
+import org.eclipse.jgit.util.FS;
+import org.eclipse.jgit.util.SystemReader;
+
+import com.microsoft.gittf.core.test.Util;
+import com.microsoft.gittf.core.util.RepositoryUtil;
+
+public class GitTFConfigurationTest
+    extends TestCase
+{
+    private Repository repository;
+
+    protected void setUp()
+        throws Exception
+    {
+        Util.setUp(getName());
+
+        repository = RepositoryUtil.createNewRepository(Util.getRepositoryFile(getName()).getAbsolutePath(), false);
+        repository.create();
+
+        new GitTFConfiguration(new URI("http://server:8080/tfs"), "$/project").saveTo(repository); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        repository.close();
+
+        Util.tearDown(getName());
+    }
+
+    public void testLoadReturnsCopy()
+        throws Exception
+    {
+        GitTFConfiguration configuration = GitTFConfiguration.loadFrom(repository);
+        assertTrue(configuration.getTag());
+
+        configuration.setTag(false);
+
+        assertTrue(GitTFConfiguration.loadFrom(repository).getTag());
+    }
+
+    public void testSaveAndRemoveAreVisible()
+        throws Exception
+    {
+        GitTFConfiguration configuration = GitTFConfiguration.loadFrom(repository);
+        configuration.setTag(false);
+        configuration.saveTo(repository);
+
+        assertFalse(GitTFConfiguration.loadFrom(repository).getTag());
+
+        GitTFConfiguration.removeFrom(repository);
+        assertNull(GitTFConfiguration.loadFrom(repository));
+    }
+
+    public void testExternalChangeIsVisible()
+        throws Exception
+    {
+        assertEquals("$/project", GitTFConfiguration.loadFrom(repository).getServerPath()); //$NON-NLS-1$
+
+        FileBasedConfig config = new FileBasedConfig(new File(repository.getDirectory(), Constants.CONFIG), repository.getFS());
+        config.load();
+        config.setString(
+            ConfigurationConstants.CONFIGURATION_SECTION,
+            ConfigurationConstants.SERVER_SUBSECTION,
+            ConfigurationConstants.SERVER_PATH,
+            "$/project/other"); //$NON-NLS-1$
+        config.save();
+
+        assertEquals("$/project/other", GitTFConfiguration.loadFrom(repository).getServerPath()); //$NON-NLS-1$
+    }
+
+    public void testSystemConfigChangeIsVisible()
+        throws Exception
+    {
+        final File systemConfigFile = new File(Util.getTemporaryTestFilesLocation(getName()), "gitconfig"); //$NON-NLS-1$
+        final SystemReader defaultReader = SystemReader.getInstance();
+
+        SystemReader.setInstance(new DelegatingSystemReader(defaultReader)
+        {
+            @Override
+            public FileBasedConfig openSystemConfig(final Config parent, final FS fs)
+            {
+                return new FileBasedConfig(parent, systemConfigFile, fs);
+            }
+        });
+
+        try
+        {
+            /* The repository opens the system config when it is created */
+            final File directory = repository.getDirectory();
+            repository.close();
+
+            /* Only a change to the system config can invalidate the cache */
+            assertTrue(new File(directory, Constants.CONFIG).setLastModified(System.currentTimeMillis() - 60000));
+
+            repository = new FileRepository(directory);
+
+            assertNull(GitTFConfiguration.loadFrom(repository).getUserMap());
+
+            FileBasedConfig config = new FileBasedConfig(systemConfigFile, repository.getFS());
+            config.setString(
+                ConfigurationConstants.CONFIGURATION_SECTION,
+                ConfigurationConstants.GENERAL_SUBSECTION,
+                ConfigurationConstants.USER_MAP,
+                "users.txt"); //$NON-NLS-1$
+            config.save();
+
+            assertEquals("users.txt", GitTFConfiguration.loadFrom(repository).getUserMap()); //$NON-NLS-1$
+        }
+        finally
+        {
+            SystemReader.setInstance(defaultReader);
+        }
+    }
+
+    private static class DelegatingSystemReader
+        extends SystemReader
+    {
+        private final SystemReader delegate;
+
+        public DelegatingSystemReader(final SystemReader delegate)
+        {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public String getHostname()
+        {
+            return delegate.getHostname();
+        }
+
+        @Override
+        public String getenv(final String variable)
+        {
+            return delegate.getenv(variable);
+        }
+
+        @Override
+        public String getProperty(final String key)
+        {
+            return delegate.getProperty(key);
+        }
+
+        @Override
+        public FileBasedConfig openUserConfig(final Config parent, final FS fs)
+        {
+            return delegate.openUserConfig(parent, fs);
+        }
+
+        @Override
+        public FileBasedConfig openSystemConfig(final Config parent, final FS fs)
+        {
+            return delegate.openSystemConfig(parent, fs);
+        }
+
+        @Override
+        public long getCurrentTime()
+        {
+            return delegate.getCurrentTime();
+        }
+
+        @Override
+        public int getTimezone(final long when)
+        {
+            return delegate.getTimezone(when);
+        }
+    }
+}
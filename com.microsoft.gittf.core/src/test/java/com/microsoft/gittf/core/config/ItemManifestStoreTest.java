@@ -0,0 +1,90 @@
+/***********************************************************************************************
+ * Copyright (c) Microsoft Corporation All rights reserved.
+ * 
+ * MIT License:
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ***********************************************************************************************/
+package com.microsoft.gittf.core.config;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+
+import com.microsoft.gittf.core.test.Util;
+import com.microsoft.gittf.core.util.ItemManifest;
+import com.microsoft.gittf.core.util.PathFilter;
+import com.microsoft.gittf.core.util.RepositoryUtil;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Item;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.ItemType;
+
+public class ItemManifestStoreTest
+    extends TestCase
+{
+    private static final String SERVER_PATH = "$/project"; //$NON-NLS-1$
+
+    private static final ObjectId COMMIT_ID = ObjectId.fromString("0123456789012345678901234567890123456789"); //$NON-NLS-1$
+
+    private Repository repository;
+
+    protected void setUp()
+        throws Exception
+    {
+        Util.setUp(getName());
+
+        repository = RepositoryUtil.createNewRepository(Util.getRepositoryFile(getName()).getAbsolutePath(), false);
+        repository.create();
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        repository.close();
+
+        Util.tearDown(getName());
+    }
+
+    public void testSaveAndLoad()
+        throws Exception
+    {
+        assertNull(ItemManifestStore.load(repository, SERVER_PATH, PathFilter.ALL, COMMIT_ID));
+
+        Item item = new Item();
+        item.setServerItem(SERVER_PATH + "/a.txt"); //$NON-NLS-1$
+        item.setItemType(ItemType.FILE);
+        item.setChangeSetID(7);
+
+        ItemManifestStore.save(repository, COMMIT_ID, PathFilter.ALL, ItemManifest.create(SERVER_PATH, new Item[]
+        {
+            item
+        }));
+
+        ItemManifest manifest = ItemManifestStore.load(repository, SERVER_PATH, PathFilter.ALL, COMMIT_ID);
+        assertNotNull(manifest);
+        assertEquals(7, manifest.getChangesetID(manifest.find(SERVER_PATH + "/a.txt"))); //$NON-NLS-1$
+
+        assertNull(ItemManifestStore.load(repository, SERVER_PATH, PathFilter.ALL, ObjectId.zeroId()));
+        assertNull(ItemManifestStore.load(repository, "$/other", PathFilter.ALL, COMMIT_ID)); //$NON-NLS-1$
+        assertNull(ItemManifestStore.load(repository, SERVER_PATH, new PathFilter(null, new String[]
+        {
+            "*.dll" //$NON-NLS-1$
+        }), COMMIT_ID));
+    }
+}
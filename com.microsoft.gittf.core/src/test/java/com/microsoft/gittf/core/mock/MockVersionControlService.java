@@ -25,8 +25,8 @@
 package com.microsoft.gittf.core.mock;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -35,6 +35,8 @@ import com.microsoft.gittf.core.OutputConstants;
 import com.microsoft.gittf.core.interfaces.VersionControlService;
 import com.microsoft.gittf.core.test.Util;
 import com.microsoft.tfs.core.clients.versioncontrol.GetItemsOptions;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Change;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.ChangeType;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Changeset;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.DeletedState;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Item;
@@ -54,6 +56,7 @@ public class MockVersionControlService
 
     private HashMap<Integer, HashSet<String>> itemData = new HashMap<Integer, HashSet<String>>();
     private HashMap<Integer, MockChangesetProperties> changesetData = new HashMap<Integer, MockChangesetProperties>();
+    private HashMap<String, Integer> itemIDs = new HashMap<String, Integer>();
 
     private int latestChangeset;
 
@@ -132,24 +135,22 @@ public class MockVersionControlService
         return toReturn.toArray(items);
     }
 
-    public void downloadFile(Item item, String downloadTo)
+    public boolean downloadFile(Item item, OutputStream outputStream)
         throws IOException
     {
-        FileWriter fw = new FileWriter(new File(downloadTo));
+        outputStream.write(generatFileContent(item).getBytes());
 
-        fw.write(generatFileContent(item));
-
-        fw.close();
+        return true;
     }
 
-    public void downloadShelvedFile(PendingChange shelvedChange, String downloadTo)
+    public boolean downloadShelvedFile(PendingChange shelvedChange, OutputStream outputStream)
     {
-
+        return false;
     }
 
-    public void downloadBaseFile(PendingChange pendingChange, String downloadTo)
+    public boolean downloadBaseFile(PendingChange pendingChange, OutputStream outputStream)
     {
-
+        return false;
     }
 
     public Changeset getChangeset(int changesetID)
@@ -166,6 +167,35 @@ public class MockVersionControlService
         return null;
     }
 
+    public Changeset getChangeset(int changesetID, boolean includeChanges, boolean includeDownloadInfo)
+    {
+        // every file of the changeset is reported as added or edited
+
+        Changeset changeset = getChangeset(changesetID);
+
+        if (changeset != null && includeChanges)
+        {
+            ArrayList<Change> changes = new ArrayList<Change>();
+
+            if (itemData.containsKey(new Integer(changesetID)))
+            {
+                for (String changesetItemPath : itemData.get(new Integer(changesetID)))
+                {
+                    Item item = createFileItem(changesetItemPath, changesetID);
+                    ChangeType changeType =
+                        isInEarlierChangeset(changesetItemPath, changesetID) ? ChangeType.EDIT : ChangeType.ADD;
+
+                    changes.add(new Change(item, changeType, null));
+                }
+            }
+
+            Change[] changesetChanges = new Change[changes.size()];
+            changeset.setChanges(changes.toArray(changesetChanges));
+        }
+
+        return changeset;
+    }
+
     public Changeset[] queryHistory(
         String serverOrLocalPath,
         VersionSpec version,
@@ -186,6 +216,7 @@ public class MockVersionControlService
         // - versionFrom
         // - versionTo
         // - maxCount
+        // - sortAscending
 
         ArrayList<Changeset> toReturn = new ArrayList<Changeset>();
 
@@ -204,41 +235,43 @@ public class MockVersionControlService
                 versionToChangeSetNumber = latestChangeset;
             }
 
-            for (int backwardChangesetCounter = latestChangeset; backwardChangesetCounter > 0; backwardChangesetCounter--)
+            for (int counter = 0; counter < latestChangeset; counter++)
             {
+                int changesetNumber = sortAscending ? counter + 1 : latestChangeset - counter;
+
                 if (toReturn.size() >= maxCount)
                 {
                     break;
                 }
 
-                if (backwardChangesetCounter < versionFromChangeSetNumber)
+                if (changesetNumber < versionFromChangeSetNumber)
                 {
-                    break;
+                    continue;
                 }
 
-                if (backwardChangesetCounter > versionToChangeSetNumber)
+                if (changesetNumber > versionToChangeSetNumber)
                 {
                     continue;
                 }
 
-                if (backwardChangesetCounter > versionChangesetNumber)
+                if (changesetNumber > versionChangesetNumber)
                 {
                     continue;
                 }
 
-                if (!itemData.containsKey(new Integer(backwardChangesetCounter)))
+                if (!itemData.containsKey(new Integer(changesetNumber)))
                 {
                     continue;
                 }
 
-                HashSet<String> changesetData = itemData.get(new Integer(backwardChangesetCounter));
+                HashSet<String> changesetData = itemData.get(new Integer(changesetNumber));
                 if (!DoesChangesetDataHasServerPath(changesetData, serverOrLocalPath))
                 {
                     continue;
                 }
 
                 Changeset change = new Changeset();
-                change.setChangesetID(backwardChangesetCounter);
+                change.setChangesetID(changesetNumber);
                 UpdateChangesetOption(change);
 
                 toReturn.add(change);
@@ -380,12 +413,7 @@ public class MockVersionControlService
         {
             if (changesetItemPath.startsWith(serverPath))
             {
-                Item item = new Item();
-                item.setServerItem(changesetItemPath);
-                item.setChangeSetID(changesetNumber);
-                item.setItemType(ItemType.FILE);
-
-                toReturn.add(item);
+                toReturn.add(createFileItem(changesetItemPath, changesetNumber));
             }
         }
 
@@ -393,6 +421,35 @@ public class MockVersionControlService
         return toReturn.toArray(items);
     }
 
+    private Item createFileItem(String changesetItemPath, int changesetNumber)
+    {
+        if (!itemIDs.containsKey(changesetItemPath))
+        {
+            itemIDs.put(changesetItemPath, new Integer(itemIDs.size() + 1));
+        }
+
+        Item item = new Item();
+        item.setServerItem(changesetItemPath);
+        item.setChangeSetID(changesetNumber);
+        item.setItemType(ItemType.FILE);
+        item.setItemID(itemIDs.get(changesetItemPath).intValue());
+
+        return item;
+    }
+
+    private boolean isInEarlierChangeset(String changesetItemPath, int changesetNumber)
+    {
+        for (int counter = changesetNumber - 1; counter > 0; counter--)
+        {
+            if (itemData.containsKey(new Integer(counter)) && itemData.get(new Integer(counter)).contains(changesetItemPath))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
     public Shelveset[] queryShelvesets(String shelvesetName, String shelvesetOwner)
     {
         return null;
@@ -0,0 +1,197 @@
+/***********************************************************************************************
+ * Copyright (c) Microsoft Corporation All rights reserved.
+ * 
+ * MIT License:
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ***********************************************************************************************/
+
+package com.microsoft.gittf.core.tasks;
+
+import java.net.URI;
+import java.util.Calendar;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.Test;
+
+import com.microsoft.gittf.core.GitTFConstants;
+import com.microsoft.gittf.core.config.ChangesetCommitMap;
+import com.microsoft.gittf.core.mock.MockChangesetProperties;
+import com.microsoft.gittf.core.mock.MockVersionControlService;
+import com.microsoft.gittf.core.tasks.framework.NullTaskProgressMonitor;
+import com.microsoft.gittf.core.tasks.framework.TaskStatus;
+import com.microsoft.gittf.core.test.Util;
+import com.microsoft.gittf.core.util.RepositoryUtil;
+
+public class BackfillTaskTest
+    extends TestCase
+{
+    protected void setUp()
+        throws Exception
+    {
+        Util.setUp(getName());
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        Util.tearDown(getName());
+    }
+
+    @Test
+    public void testBackfill()
+        throws Exception
+    {
+        final Repository repository = cloneShallow();
+        final ObjectId tipCommitID = repository.resolve(Constants.HEAD);
+
+        final BackfillTask backfillTask = new BackfillTask(repository, createVersionControlService());
+        final TaskStatus backfillTaskStatus = backfillTask.run(new NullTaskProgressMonitor());
+
+        assertTrue(backfillTaskStatus.isOK());
+        assertEquals(3, backfillTask.getBackfilledChangesetCount());
+
+        // The tip keeps its id and is the last bridged changeset
+        final ChangesetCommitMap changesetCommitMap = new ChangesetCommitMap(repository);
+
+        assertEquals(tipCommitID, repository.resolve(Constants.HEAD));
+        assertEquals(4, changesetCommitMap.getLastBridgedChangesetID(true));
+        assertEquals(tipCommitID, changesetCommitMap.getCommitID(4, true));
+
+        // The tip is replaced by a copy that has the older changesets beneath
+        final RevWalk revWalk = new RevWalk(repository);
+        final RevCommit tipCommit = revWalk.parseCommit(tipCommitID);
+        final RevCommit replacement = revWalk.parseCommit(getReplacement(repository, tipCommitID));
+
+        assertEquals(tipCommit.getTree(), replacement.getTree());
+        assertEquals(tipCommit.getFullMessage(), replacement.getFullMessage());
+        assertEquals(tipCommit.getAuthorIdent(), replacement.getAuthorIdent());
+        assertEquals(tipCommit.getCommitterIdent(), replacement.getCommitterIdent());
+        assertEquals(1, replacement.getParentCount());
+
+        RevCommit commit = replacement;
+        for (int changesetID = 3; changesetID >= 1; changesetID--)
+        {
+            assertEquals(changesetCommitMap.getCommitID(changesetID, true), commit.getParent(0));
+
+            commit = revWalk.parseCommit(commit.getParent(0));
+            assertEquals("comment" + changesetID, commit.getFullMessage()); //$NON-NLS-1$
+        }
+
+        assertEquals(0, commit.getParentCount());
+        assertNull(repository.getRef(GitTFConstants.GIT_TF_BACKFILL_REF));
+
+        // Nothing is left to backfill
+        final BackfillTask secondBackfillTask = new BackfillTask(repository, createVersionControlService());
+        assertTrue(secondBackfillTask.run(new NullTaskProgressMonitor()).isOK());
+        assertEquals(0, secondBackfillTask.getBackfilledChangesetCount());
+
+        repository.close();
+    }
+
+    @Test
+    public void testResumeBackfill()
+        throws Exception
+    {
+        final Repository repository = cloneShallow();
+        final ObjectId tipCommitID = repository.resolve(Constants.HEAD);
+
+        assertTrue(new BackfillTask(repository, createVersionControlService()).run(new NullTaskProgressMonitor()).isOK());
+
+        final ObjectId replacementID = getReplacement(repository, tipCommitID);
+        final ChangesetCommitMap changesetCommitMap = new ChangesetCommitMap(repository);
+
+        // Go back to a backfill interrupted after changeset 2
+        RefUpdate update = repository.updateRef(Constants.R_REFS + "replace/" + tipCommitID.name()); //$NON-NLS-1$
+        update.setForceUpdate(true);
+        assertEquals(RefUpdate.Result.FORCED, update.delete());
+
+        update = repository.updateRef(GitTFConstants.GIT_TF_BACKFILL_REF);
+        update.setNewObjectId(changesetCommitMap.getCommitID(2, true));
+        assertEquals(RefUpdate.Result.NEW, update.update());
+
+        final BackfillTask backfillTask = new BackfillTask(repository, createVersionControlService());
+        final TaskStatus backfillTaskStatus = backfillTask.run(new NullTaskProgressMonitor());
+
+        assertTrue(backfillTaskStatus.isOK());
+        assertEquals(1, backfillTask.getBackfilledChangesetCount());
+        assertEquals(replacementID, getReplacement(repository, tipCommitID));
+        assertNull(repository.getRef(GitTFConstants.GIT_TF_BACKFILL_REF));
+
+        repository.close();
+    }
+
+    private Repository cloneShallow()
+        throws Exception
+    {
+        URI projectCollectionURI = new URI("http://fakeCollection:8080/tfs/DefaultCollection"); //$NON-NLS-1$
+        String tfsPath = "$/project"; //$NON-NLS-1$
+        String gitRepositoryPath = Util.getRepositoryFile(getName()).getAbsolutePath();
+
+        final Repository repository = RepositoryUtil.createNewRepository(gitRepositoryPath, false);
+
+        CloneTask cloneTask = new CloneTask(projectCollectionURI, createVersionControlService(), tfsPath, repository);
+        TaskStatus cloneTaskStatus = cloneTask.run(new NullTaskProgressMonitor());
+
+        assertTrue(cloneTaskStatus.isOK());
+
+        return repository;
+    }
+
+    private MockVersionControlService createVersionControlService()
+    {
+        final MockVersionControlService mockVersionControlService = new MockVersionControlService();
+
+        Calendar date = Calendar.getInstance();
+        date.set(2012, 11, 12, 18, 15, 0);
+
+        for (int changesetID = 1; changesetID <= 4; changesetID++)
+        {
+            mockVersionControlService.AddFile("$/project/folder/file" + changesetID + ".txt", changesetID); //$NON-NLS-1$ //$NON-NLS-2$
+            mockVersionControlService.AddFile("$/project/folder/file0.txt", changesetID); //$NON-NLS-1$
+
+            MockChangesetProperties changesetProperties = new MockChangesetProperties("ownerDisplayName", //$NON-NLS-1$
+                "ownerName", //$NON-NLS-1$
+                "committerDisplayName", //$NON-NLS-1$
+                "committerName", //$NON-NLS-1$
+                "comment" + changesetID, //$NON-NLS-1$
+                date);
+            mockVersionControlService.updateChangesetInformation(changesetProperties, changesetID);
+        }
+
+        return mockVersionControlService;
+    }
+
+    private ObjectId getReplacement(final Repository repository, final ObjectId commitID)
+        throws Exception
+    {
+        final Ref replaceRef = repository.getRef(Constants.R_REFS + "replace/" + commitID.name()); //$NON-NLS-1$
+        assertNotNull(replaceRef);
+
+        return replaceRef.getObjectId();
+    }
+}
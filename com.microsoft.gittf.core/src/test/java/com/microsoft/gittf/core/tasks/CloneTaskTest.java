@@ -32,13 +32,17 @@ import java.util.List;
 import junit.framework.TestCase;
 
 import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
 import org.junit.Test;
 
 import com.microsoft.gittf.core.GitTFConstants;
+import com.microsoft.gittf.core.config.ChangesetCommitMap;
 import com.microsoft.gittf.core.config.ConfigurationConstants;
 import com.microsoft.gittf.core.config.GitTFConfiguration;
 import com.microsoft.gittf.core.mock.MockChangesetProperties;
@@ -47,6 +51,10 @@ import com.microsoft.gittf.core.tasks.framework.NullTaskProgressMonitor;
 import com.microsoft.gittf.core.tasks.framework.TaskStatus;
 import com.microsoft.gittf.core.test.Util;
 import com.microsoft.gittf.core.util.RepositoryUtil;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Changeset;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Item;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.RecursionType;
+import com.microsoft.tfs.core.clients.versioncontrol.specs.version.ChangesetVersionSpec;
 
 public class CloneTaskTest
     extends TestCase
@@ -194,6 +202,272 @@ public class CloneTaskTest
         assertEquals(1, tags.size());
     }
 
+    @Test
+    public void testCloneWithPathFilter()
+        throws Exception
+    {
+        URI projectCollectionURI = new URI("http://fakeCollection:8080/tfs/DefaultCollection"); //$NON-NLS-1$
+        String tfsPath = "$/project"; //$NON-NLS-1$
+        String gitRepositoryPath = Util.getRepositoryFile(getName()).getAbsolutePath();
+
+        final MockVersionControlService mockVersionControlService = new MockVersionControlService();
+
+        mockVersionControlService.AddFile("$/project/src/file0.txt", 1); //$NON-NLS-1$
+        mockVersionControlService.AddFile("$/project/src/lib.dll", 1); //$NON-NLS-1$
+        mockVersionControlService.AddFile("$/project/packages/package/file0.txt", 1); //$NON-NLS-1$
+        mockVersionControlService.AddFile("$/project/test/file0.txt", 1); //$NON-NLS-1$
+
+        Calendar date = Calendar.getInstance();
+        date.set(2012, 11, 12, 18, 15);
+
+        MockChangesetProperties changesetProperties = new MockChangesetProperties("ownerDisplayName", //$NON-NLS-1$
+            "ownerName", //$NON-NLS-1$
+            "committerDisplayName", //$NON-NLS-1$
+            "committerName", //$NON-NLS-1$
+            "comment", //$NON-NLS-1$
+            date);
+        mockVersionControlService.updateChangesetInformation(changesetProperties, 1);
+
+        final Repository repository = RepositoryUtil.createNewRepository(gitRepositoryPath, false);
+
+        CloneTask cloneTask = new CloneTask(projectCollectionURI, mockVersionControlService, tfsPath, repository);
+        cloneTask.setIncludePaths(new String[]
+        {
+            "src/**", "packages" //$NON-NLS-1$ //$NON-NLS-2$
+        });
+        cloneTask.setExcludePaths(new String[]
+        {
+            "packages", "*.dll" //$NON-NLS-1$ //$NON-NLS-2$
+        });
+        TaskStatus cloneTaskStatus = cloneTask.run(new NullTaskProgressMonitor());
+
+        // Verify task completed without errors
+        assertTrue(cloneTaskStatus.isOK());
+
+        // Verify only the included files were cloned
+        assertTrue(mockVersionControlService.verifyFileContent(new File(gitRepositoryPath, "src/file0.txt"), //$NON-NLS-1$
+            "$/project/src/file0.txt", //$NON-NLS-1$
+            1));
+
+        assertFalse(new File(gitRepositoryPath, "src/lib.dll").exists()); //$NON-NLS-1$
+        assertFalse(new File(gitRepositoryPath, "packages").exists()); //$NON-NLS-1$
+        assertFalse(new File(gitRepositoryPath, "test").exists()); //$NON-NLS-1$
+
+        // Verify the filter was saved
+        GitTFConfiguration gitRepoServerConfig = GitTFConfiguration.loadFrom(repository);
+
+        assertEquals(2, gitRepoServerConfig.getIncludePaths().length);
+        assertEquals(2, gitRepoServerConfig.getExcludePaths().length);
+    }
+
+    @Test
+    public void testResumeDeepClone()
+        throws Exception
+    {
+        URI projectCollectionURI = new URI("http://fakeCollection:8080/tfs/DefaultCollection"); //$NON-NLS-1$
+        String tfsPath = "$/project"; //$NON-NLS-1$
+        String gitRepositoryPath = Util.getRepositoryFile(getName()).getAbsolutePath();
+
+        final boolean[] failing = new boolean[] {
+            true
+        };
+
+        final MockVersionControlService mockVersionControlService = new MockVersionControlService()
+        {
+            @Override
+            public Changeset getChangeset(int changesetID, boolean includeChanges, boolean includeDownloadInfo)
+            {
+                if (failing[0] && changesetID == 3)
+                {
+                    throw new RuntimeException("connection lost"); //$NON-NLS-1$
+                }
+
+                return super.getChangeset(changesetID, includeChanges, includeDownloadInfo);
+            }
+
+            @Override
+            public Item[] getItems(String path, ChangesetVersionSpec version, RecursionType recursion)
+            {
+                if (failing[0] && version.getChangeset() == 3)
+                {
+                    throw new RuntimeException("connection lost"); //$NON-NLS-1$
+                }
+
+                return super.getItems(path, version, recursion);
+            }
+        };
+
+        Calendar date = Calendar.getInstance();
+        date.set(2012, 11, 12, 18, 15);
+
+        for (int changesetID = 1; changesetID <= 4; changesetID++)
+        {
+            mockVersionControlService.AddFile("$/project/folder/file" + changesetID + ".txt", changesetID); //$NON-NLS-1$ //$NON-NLS-2$
+            mockVersionControlService.updateChangesetInformation(new MockChangesetProperties("ownerDisplayName", //$NON-NLS-1$
+                "ownerName", //$NON-NLS-1$
+                "committerDisplayName", //$NON-NLS-1$
+                "committerName", //$NON-NLS-1$
+                "comment" + changesetID, //$NON-NLS-1$
+                date), changesetID);
+        }
+
+        final Repository repository = RepositoryUtil.createNewRepository(gitRepositoryPath, false);
+
+        CloneTask cloneTask = new CloneTask(projectCollectionURI, mockVersionControlService, tfsPath, repository);
+        cloneTask.setDepth(Integer.MAX_VALUE);
+
+        TaskStatus cloneTaskStatus;
+        try
+        {
+            cloneTaskStatus = cloneTask.run(new NullTaskProgressMonitor());
+        }
+        catch (Exception e)
+        {
+            cloneTaskStatus = new TaskStatus(TaskStatus.ERROR, e);
+        }
+
+        // The interrupted clone must leave a checkpoint behind
+        assertFalse(cloneTaskStatus.isOK());
+        assertTrue(CloneTask.isResumable(repository, projectCollectionURI, tfsPath));
+
+        final ChangesetCommitMap changesetCommitMap = new ChangesetCommitMap(repository);
+        assertNotNull(changesetCommitMap.getCommitID(2, true));
+        assertNull(changesetCommitMap.getCommitID(3, true));
+
+        // Resume the clone once the server is reachable again
+        failing[0] = false;
+
+        cloneTask = new CloneTask(projectCollectionURI, mockVersionControlService, tfsPath, repository);
+        cloneTask.setDepth(Integer.MAX_VALUE);
+        cloneTask.setResume(true);
+
+        cloneTaskStatus = cloneTask.run(new NullTaskProgressMonitor());
+
+        assertTrue(cloneTaskStatus.isOK());
+
+        for (int changesetID = 1; changesetID <= 4; changesetID++)
+        {
+            assertNotNull(changesetCommitMap.getCommitID(changesetID, true));
+        }
+
+        final RevCommit head = new RevWalk(repository).parseCommit(repository.resolve(Constants.HEAD));
+        assertEquals(changesetCommitMap.getCommitID(4, true), head);
+        assertEquals(changesetCommitMap.getCommitID(3, true), head.getParent(0));
+
+        assertTrue(mockVersionControlService.verifyFileContent(new File(gitRepositoryPath, "folder/file1.txt"), //$NON-NLS-1$
+            "$/project/folder/file1.txt", //$NON-NLS-1$
+            1));
+
+        assertTrue(mockVersionControlService.verifyFileContent(new File(gitRepositoryPath, "folder/file4.txt"), //$NON-NLS-1$
+            "$/project/folder/file4.txt", //$NON-NLS-1$
+            4));
+
+        assertNull(repository.getRef(GitTFConstants.GIT_TF_CLONE_REF));
+        assertFalse(CloneTask.isResumable(repository, projectCollectionURI, tfsPath));
+    }
+
+    @Test
+    public void testResumeDeepCloneWithoutCheckpoint()
+        throws Exception
+    {
+        URI projectCollectionURI = new URI("http://fakeCollection:8080/tfs/DefaultCollection"); //$NON-NLS-1$
+        String tfsPath = "$/project"; //$NON-NLS-1$
+        String gitRepositoryPath = Util.getRepositoryFile(getName()).getAbsolutePath();
+
+        final boolean[] failing = new boolean[] {
+            true
+        };
+
+        final MockVersionControlService mockVersionControlService = new MockVersionControlService()
+        {
+            @Override
+            public Changeset getChangeset(int changesetID, boolean includeChanges, boolean includeDownloadInfo)
+            {
+                if (failing[0] && changesetID == 3)
+                {
+                    throw new OutOfMemoryError("out of memory"); //$NON-NLS-1$
+                }
+
+                return super.getChangeset(changesetID, includeChanges, includeDownloadInfo);
+            }
+
+            @Override
+            public Item[] getItems(String path, ChangesetVersionSpec version, RecursionType recursion)
+            {
+                if (failing[0] && version.getChangeset() == 3)
+                {
+                    throw new OutOfMemoryError("out of memory"); //$NON-NLS-1$
+                }
+
+                return super.getItems(path, version, recursion);
+            }
+        };
+
+        Calendar date = Calendar.getInstance();
+        date.set(2012, 11, 12, 18, 15);
+
+        for (int changesetID = 1; changesetID <= 4; changesetID++)
+        {
+            mockVersionControlService.AddFile("$/project/folder/file" + changesetID + ".txt", changesetID); //$NON-NLS-1$ //$NON-NLS-2$
+            mockVersionControlService.updateChangesetInformation(new MockChangesetProperties("ownerDisplayName", //$NON-NLS-1$
+                "ownerName", //$NON-NLS-1$
+                "committerDisplayName", //$NON-NLS-1$
+                "committerName", //$NON-NLS-1$
+                "comment" + changesetID, //$NON-NLS-1$
+                date), changesetID);
+        }
+
+        final Repository repository = RepositoryUtil.createNewRepository(gitRepositoryPath, false);
+
+        CloneTask cloneTask = new CloneTask(projectCollectionURI, mockVersionControlService, tfsPath, repository);
+        cloneTask.setDepth(Integer.MAX_VALUE);
+
+        Throwable failure = null;
+        try
+        {
+            cloneTask.run(new NullTaskProgressMonitor());
+        }
+        catch (Throwable e)
+        {
+            failure = e;
+        }
+
+        // A clone stopped by an error keeps the changesets cloned so far
+        assertNotNull(failure);
+        assertTrue(CloneTask.hasCheckpoint(repository));
+
+        final ChangesetCommitMap changesetCommitMap = new ChangesetCommitMap(repository);
+        assertNotNull(changesetCommitMap.getCommitID(2, true));
+        assertNull(changesetCommitMap.getCommitID(3, true));
+
+        // A clone killed before it saved a checkpoint can be resumed as well
+        final RefUpdate update = repository.updateRef(GitTFConstants.GIT_TF_CLONE_REF);
+        update.setForceUpdate(true);
+        assertEquals(RefUpdate.Result.FORCED, update.delete());
+
+        assertFalse(CloneTask.hasCheckpoint(repository));
+        assertTrue(CloneTask.isResumable(repository, projectCollectionURI, tfsPath));
+
+        failing[0] = false;
+
+        cloneTask = new CloneTask(projectCollectionURI, mockVersionControlService, tfsPath, repository);
+        cloneTask.setDepth(Integer.MAX_VALUE);
+        cloneTask.setResume(true);
+
+        assertTrue(cloneTask.run(new NullTaskProgressMonitor()).isOK());
+
+        final RevCommit head = new RevWalk(repository).parseCommit(repository.resolve(Constants.HEAD));
+        assertEquals(changesetCommitMap.getCommitID(4, true), head);
+        assertEquals(changesetCommitMap.getCommitID(3, true), head.getParent(0));
+
+        assertTrue(mockVersionControlService.verifyFileContent(new File(gitRepositoryPath, "folder/file4.txt"), //$NON-NLS-1$
+            "$/project/folder/file4.txt", //$NON-NLS-1$
+            4));
+
+        // The completed clone can no longer be resumed
+        assertFalse(CloneTask.isResumable(repository, projectCollectionURI, tfsPath));
+    }
+
     @Test
     public void testDeepCloneFilesAndFoldersSimple()
         throws Exception
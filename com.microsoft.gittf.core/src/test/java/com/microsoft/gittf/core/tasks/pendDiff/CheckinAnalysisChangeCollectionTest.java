@@ -50,6 +50,7 @@ import com.microsoft.gittf.core.tasks.CloneTask;
 import com.microsoft.gittf.core.tasks.framework.NullTaskProgressMonitor;
 import com.microsoft.gittf.core.tasks.framework.TaskStatus;
 import com.microsoft.gittf.core.test.Util;
+import com.microsoft.gittf.core.util.PathFilter;
 import com.microsoft.gittf.core.util.RepositoryUtil;
 
 public class CheckinAnalysisChangeCollectionTest
@@ -162,8 +163,65 @@ public class CheckinAnalysisChangeCollectionTest
         assertTrue(CheckinAnalysisChangeCollectionUtil.contains(analysis, "root/parent/child/grandChild")); //$NON-NLS-1$
     }
 
+    public void testDeletesOfExcludedPaths()
+        throws Exception
+    {
+        new File(repository.getWorkTree(), "root/file2.txt").delete(); //$NON-NLS-1$
+        new File(repository.getWorkTree(), "root/parent/child/file1.txt").delete(); //$NON-NLS-1$
+        new File(repository.getWorkTree(), "root/parent/child/file2.txt").delete(); //$NON-NLS-1$
+        new File(repository.getWorkTree(), "root/parent/child/file3.txt").delete(); //$NON-NLS-1$
+
+        RevCommit newCommit = commit();
+
+        CheckinAnalysisChangeCollection analysis =
+            PendDifferenceTask.analyzeDifferences(
+                repository,
+                initialCommit.getTree(),
+                newCommit.getTree(),
+                RenameMode.JUSTFILES,
+                new PathFilter(null, new String[]
+                {
+                    "child" //$NON-NLS-1$
+                }),
+                new NullTaskProgressMonitor());
+
+        assertEquals(1, analysis.size());
+        assertTrue(CheckinAnalysisChangeCollectionUtil.contains(analysis, "root/file2.txt")); //$NON-NLS-1$
+        assertTrue(analysis.getUnbridgedPaths().isEmpty());
+    }
+
     /* Edit Tests */
 
+    public void testEditsOfExcludedPaths()
+        throws Exception
+    {
+        Util.touchFile(new File(repository.getWorkTree(), "root/file2.txt")); //$NON-NLS-1$
+        Util.touchFile(new File(repository.getWorkTree(), "root/parent/child/file1.txt")); //$NON-NLS-1$
+
+        add("root"); //$NON-NLS-1$
+
+        RevCommit newCommit = commit();
+
+        CheckinAnalysisChangeCollection analysis =
+            PendDifferenceTask.analyzeDifferences(
+                repository,
+                initialCommit.getTree(),
+                newCommit.getTree(),
+                RenameMode.JUSTFILES,
+                new PathFilter(null, new String[]
+                {
+                    "child" //$NON-NLS-1$
+                }),
+                new NullTaskProgressMonitor());
+
+        assertEquals(1, analysis.getEdits().size());
+        assertEquals("root/file2.txt", analysis.getEdits().get(0).getPath()); //$NON-NLS-1$
+
+        /* The edit that is left out is reported */
+        assertEquals(1, analysis.getUnbridgedPaths().size());
+        assertEquals("root/parent/child/file1.txt", analysis.getUnbridgedPaths().get(0)); //$NON-NLS-1$
+    }
+
     /* Rename Tests */
 
     public void testFileRenames()
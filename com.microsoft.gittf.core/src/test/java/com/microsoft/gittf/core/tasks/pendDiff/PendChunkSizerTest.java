@@ -0,0 +1,91 @@
+/***********************************************************************************************
+ * Copyright (c) Microsoft Corporation All rights reserved.
+ * 
+ * MIT License:
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ***********************************************************************************************/
+package com.microsoft.gittf.core.tasks.pendDiff;
+
+import junit.framework.TestCase;
+
+public class PendChunkSizerTest
+    extends TestCase
+{
+    public void testGrowsWhileLatencyIsFlat()
+    {
+        final PendChunkSizer sizer = new PendChunkSizer(10, 100, 10000);
+
+        sizer.succeeded(10, 100);
+        assertEquals(20, sizer.getChunkSize());
+
+        sizer.succeeded(20, 200);
+        assertEquals(40, sizer.getChunkSize());
+
+        sizer.succeeded(40, 400);
+        assertEquals(80, sizer.getChunkSize());
+
+        sizer.succeeded(80, 800);
+        assertEquals(100, sizer.getChunkSize());
+
+        sizer.succeeded(100, 1000);
+        assertEquals(100, sizer.getChunkSize());
+    }
+
+    public void testHoldsWhileLatencyRises()
+    {
+        final PendChunkSizer sizer = new PendChunkSizer(10, 100, 10000);
+
+        sizer.succeeded(10, 100);
+        assertEquals(20, sizer.getChunkSize());
+
+        /* Twice the time per change: stop growing */
+        sizer.succeeded(20, 400);
+        assertEquals(20, sizer.getChunkSize());
+
+        /* Four times the time per change: back off */
+        sizer.succeeded(20, 800);
+        assertEquals(10, sizer.getChunkSize());
+    }
+
+    public void testBacksOffOnFailureAndSlowChunks()
+    {
+        final PendChunkSizer sizer = new PendChunkSizer(40, 100, 1000);
+
+        sizer.failed();
+        assertEquals(20, sizer.getChunkSize());
+
+        sizer.succeeded(20, 5000);
+        assertEquals(10, sizer.getChunkSize());
+
+        sizer.failed();
+        sizer.failed();
+        sizer.failed();
+        sizer.failed();
+        assertEquals(1, sizer.getChunkSize());
+    }
+
+    public void testIgnoresShortChunks()
+    {
+        final PendChunkSizer sizer = new PendChunkSizer(10, 100, 10000);
+
+        sizer.succeeded(3, 3000);
+        assertEquals(10, sizer.getChunkSize());
+    }
+}
@@ -0,0 +1,194 @@
+/***********************************************************************************************
+ * Copyright (c) Microsoft Corporation All rights reserved.
+ * 
+ * MIT License:
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ***********************************************************************************************/
+package com.microsoft.gittf.core.util;
+
+import junit.framework.TestCase;
+
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Change;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.ChangeType;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Item;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.ItemType;
+
+public class ChangesetDeltaTest
+    extends TestCase
+{
+    private static final String SERVER_PATH = "$/project"; //$NON-NLS-1$
+
+    private ItemManifest manifest;
+
+    protected void setUp()
+        throws Exception
+    {
+        manifest = ItemManifest.create(SERVER_PATH, new Item[]
+        {
+            createItem(1, SERVER_PATH, ItemType.FOLDER, 1),
+            createItem(2, SERVER_PATH + "/a.txt", ItemType.FILE, 1), //$NON-NLS-1$
+            createItem(3, SERVER_PATH + "/folder", ItemType.FOLDER, 1), //$NON-NLS-1$
+            createItem(4, SERVER_PATH + "/folder/b.txt", ItemType.FILE, 2) //$NON-NLS-1$
+        });
+    }
+
+    public void testEditAddAndDelete()
+    {
+        ChangesetDelta delta = ChangesetDelta.create(manifest, PathFilter.ALL, new Change[]
+        {
+            createChange(createItem(2, SERVER_PATH + "/a.txt", ItemType.FILE, 3), ChangeType.EDIT), //$NON-NLS-1$
+            createChange(createItem(5, SERVER_PATH + "/c.txt", ItemType.FILE, 3), ChangeType.ADD), //$NON-NLS-1$
+            createChange(createItem(4, SERVER_PATH + "/folder/b.txt", ItemType.FILE, 3), ChangeType.DELETE) //$NON-NLS-1$
+        });
+
+        assertNotNull(delta);
+        assertEquals(2, delta.getChangedItems().length);
+        assertEquals(1, delta.getRemovedPaths().size());
+        assertEquals("folder/b.txt", delta.getRemovedPaths().get(0)); //$NON-NLS-1$
+
+        /* The manifest is patched once the delta is applied */
+        assertEquals(1, manifest.getChangesetID(manifest.find(SERVER_PATH + "/a.txt"))); //$NON-NLS-1$
+
+        delta.apply();
+
+        assertEquals(3, manifest.getChangesetID(manifest.find(SERVER_PATH + "/a.txt"))); //$NON-NLS-1$
+        assertTrue(manifest.isFile(manifest.find(SERVER_PATH + "/c.txt"))); //$NON-NLS-1$
+        assertEquals(manifest.find(SERVER_PATH + "/c.txt"), manifest.findItemID(5)); //$NON-NLS-1$
+        assertEquals(-1, manifest.find(SERVER_PATH + "/folder/b.txt")); //$NON-NLS-1$
+        assertTrue(manifest.isFolder(manifest.find(SERVER_PATH + "/folder"))); //$NON-NLS-1$
+    }
+
+    public void testUnchangedItemsAreSkipped()
+    {
+        ChangesetDelta delta = ChangesetDelta.create(manifest, PathFilter.ALL, new Change[]
+        {
+            createChange(createItem(2, SERVER_PATH + "/a.txt", ItemType.FILE, 1), ChangeType.MERGE), //$NON-NLS-1$
+            createChange(createItem(6, "$/other/d.txt", ItemType.FILE, 3), ChangeType.ADD) //$NON-NLS-1$
+        });
+
+        assertNotNull(delta);
+        assertEquals(0, delta.getChangedItems().length);
+        assertEquals(0, delta.getRemovedPaths().size());
+    }
+
+    public void testFileRenames()
+    {
+        ChangesetDelta delta = ChangesetDelta.create(manifest, PathFilter.ALL, new Change[]
+        {
+            createChange(createItem(2, SERVER_PATH + "/folder/A.txt", ItemType.FILE, 3), ChangeType.RENAME), //$NON-NLS-1$
+            createChange(createItem(4, "$/other/b.txt", ItemType.FILE, 3), ChangeType.RENAME) //$NON-NLS-1$
+        });
+
+        assertNotNull(delta);
+        assertEquals(1, delta.getChangedItems().length);
+        assertEquals(2, delta.getRemovedPaths().size());
+
+        delta.apply();
+
+        assertEquals(-1, manifest.find(SERVER_PATH + "/a.txt")); //$NON-NLS-1$
+        assertEquals(-1, manifest.find(SERVER_PATH + "/folder/b.txt")); //$NON-NLS-1$
+
+        int node = manifest.find(SERVER_PATH + "/folder/A.txt"); //$NON-NLS-1$
+        assertEquals(node, manifest.findItemID(2));
+        assertTrue(manifest.hasSameCase(node, SERVER_PATH + "/folder/A.txt")); //$NON-NLS-1$
+    }
+
+    public void testCaseRename()
+    {
+        ChangesetDelta delta = ChangesetDelta.create(manifest, PathFilter.ALL, new Change[]
+        {
+            createChange(createItem(2, SERVER_PATH + "/A.txt", ItemType.FILE, 3), ChangeType.RENAME) //$NON-NLS-1$
+        });
+
+        assertNotNull(delta);
+        assertEquals(1, delta.getChangedItems().length);
+        assertEquals("a.txt", delta.getRemovedPaths().get(0)); //$NON-NLS-1$
+
+        delta.apply();
+
+        assertTrue(manifest.hasSameCase(manifest.find(SERVER_PATH + "/a.txt"), SERVER_PATH + "/A.txt")); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    public void testExcludedItems()
+    {
+        PathFilter pathFilter = new PathFilter(null, new String[]
+        {
+            "*.dll" //$NON-NLS-1$
+        });
+
+        ChangesetDelta delta = ChangesetDelta.create(manifest, pathFilter, new Change[]
+        {
+            createChange(createItem(5, SERVER_PATH + "/lib.dll", ItemType.FILE, 3), ChangeType.ADD), //$NON-NLS-1$
+            createChange(createItem(2, SERVER_PATH + "/a.dll", ItemType.FILE, 3), ChangeType.RENAME) //$NON-NLS-1$
+        });
+
+        assertNotNull(delta);
+        assertEquals(0, delta.getChangedItems().length);
+        assertEquals("a.txt", delta.getRemovedPaths().get(0)); //$NON-NLS-1$
+    }
+
+    public void testFolderChangesRequireListing()
+    {
+        Change[] changes = new Change[]
+        {
+            createChange(createItem(3, SERVER_PATH + "/renamed", ItemType.FOLDER, 3), ChangeType.RENAME) //$NON-NLS-1$
+        };
+
+        assertTrue(ChangesetDelta.requiresListing(SERVER_PATH, changes));
+        assertNull(ChangesetDelta.create(manifest, PathFilter.ALL, changes));
+
+        /* Only the manifest knows that the folder was under the server path */
+        changes = new Change[]
+        {
+            createChange(createItem(3, "$/other/folder", ItemType.FOLDER, 3), ChangeType.RENAME) //$NON-NLS-1$
+        };
+
+        assertFalse(ChangesetDelta.requiresListing(SERVER_PATH, changes));
+        assertNull(ChangesetDelta.create(manifest, PathFilter.ALL, changes));
+
+        /* The case of folder names is only changed by a listing */
+        assertNull(ChangesetDelta.create(manifest, PathFilter.ALL, new Change[]
+        {
+            createChange(createItem(5, SERVER_PATH + "/Folder/c.txt", ItemType.FILE, 3), ChangeType.ADD) //$NON-NLS-1$
+        }));
+    }
+
+    public void testMissingChangesRequireListing()
+    {
+        assertTrue(ChangesetDelta.requiresListing(SERVER_PATH, null));
+        assertNull(ChangesetDelta.create(manifest, PathFilter.ALL, null));
+    }
+
+    private static Item createItem(int itemID, String serverItem, ItemType itemType, int changesetID)
+    {
+        Item item = new Item();
+        item.setItemID(itemID);
+        item.setServerItem(serverItem);
+        item.setItemType(itemType);
+        item.setChangeSetID(changesetID);
+
+        return item;
+    }
+
+    private static Change createChange(Item item, ChangeType changeType)
+    {
+        return new Change(item, changeType, null);
+    }
+}
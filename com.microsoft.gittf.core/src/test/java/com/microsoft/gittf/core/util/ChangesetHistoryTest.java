@@ -0,0 +1,125 @@
+/***********************************************************************************************
+ * Copyright (c) Microsoft Corporation All rights reserved.
+ * 
+ * MIT License:
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ***********************************************************************************************/
+
+package com.microsoft.gittf.core.util;
+
+import junit.framework.TestCase;
+
+import com.microsoft.gittf.core.mock.MockVersionControlService;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Changeset;
+
+public class ChangesetHistoryTest
+    extends TestCase
+{
+    private MockVersionControlService versionControlService;
+
+    protected void setUp()
+        throws Exception
+    {
+        versionControlService = new MockVersionControlService();
+
+        for (int changesetID = 1; changesetID <= 7; changesetID++)
+        {
+            versionControlService.AddFile("$/project/file" + changesetID + ".txt", changesetID); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+
+    public void testPages()
+        throws Exception
+    {
+        final ChangesetHistory history = new ChangesetHistory(versionControlService, "$/project", 0, 7, 3); //$NON-NLS-1$
+
+        assertPage(history.nextPage(), 1, 3);
+        assertPage(history.nextPage(), 4, 6);
+        assertPage(history.nextPage(), 7, 7);
+        assertEquals(0, history.nextPage().length);
+        assertEquals(0, history.nextPage().length);
+    }
+
+    public void testRange()
+        throws Exception
+    {
+        final ChangesetHistory history = new ChangesetHistory(versionControlService, "$/project", 3, 5, 2); //$NON-NLS-1$
+
+        assertPage(history.nextPage(), 3, 4);
+        assertPage(history.nextPage(), 5, 5);
+        assertEquals(0, history.nextPage().length);
+    }
+
+    public void testEmptyRange()
+        throws Exception
+    {
+        final ChangesetHistory history = new ChangesetHistory(versionControlService, "$/project", 5, 4, 2); //$NON-NLS-1$
+
+        assertEquals(0, history.getWork());
+        assertEquals(0, history.nextPage().length);
+    }
+
+    public void testWork()
+        throws Exception
+    {
+        final ChangesetHistory history = new ChangesetHistory(versionControlService, "$/project", 0, 7, 4); //$NON-NLS-1$
+
+        int work = 0;
+        Changeset[] page;
+
+        while ((page = history.nextPage()).length > 0)
+        {
+            for (final Changeset changeset : page)
+            {
+                work += history.getWork(changeset);
+            }
+        }
+
+        assertEquals(history.getWork(), work);
+    }
+
+    public void testQueriedChangesets()
+        throws Exception
+    {
+        final Changeset[] changesets = new Changeset[2];
+        for (int i = 0; i < changesets.length; i++)
+        {
+            changesets[i] = new Changeset();
+            changesets[i].setChangesetID(i + 3);
+        }
+
+        final ChangesetHistory history = new ChangesetHistory(changesets);
+
+        assertEquals(2, history.getWork());
+        assertTrue(changesets == history.nextPage());
+        assertEquals(1, history.getWork(changesets[0]));
+        assertEquals(0, history.nextPage().length);
+    }
+
+    private static void assertPage(final Changeset[] page, final int firstChangesetID, final int lastChangesetID)
+    {
+        assertEquals(lastChangesetID - firstChangesetID + 1, page.length);
+
+        for (int i = 0; i < page.length; i++)
+        {
+            assertEquals(firstChangesetID + i, page[i].getChangesetID());
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/***********************************************************************************************
+ * Copyright (c) Microsoft Corporation All rights reserved.
+ * 
+ * MIT License:
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ***********************************************************************************************/
+
+package com.microsoft.gittf.core.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import com.microsoft.gittf.core.mock.MockVersionControlService;
+import com.microsoft.gittf.core.test.Util;
+import com.microsoft.gittf.core.util.ItemDownloader.ItemDownload;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Item;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.ItemType;
+
+public class ItemDownloaderTest
+    extends TestCase
+{
+    private File tempDir;
+
+    protected void setUp()
+        throws Exception
+    {
+        Util.setUp(getName());
+
+        tempDir = Util.getTemporaryTestFilesLocation(getName());
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        Util.tearDown(getName());
+    }
+
+    public void testDiscardReleasesPrefetch()
+        throws Exception
+    {
+        /* One worker thread allows eight unclaimed prefetches */
+        final ItemDownloader downloader = new ItemDownloader(new MockVersionControlService(), tempDir, 1);
+
+        try
+        {
+            for (int i = 0; i < 8; i++)
+            {
+                assertTrue(downloader.prefetch(createItem(i)));
+            }
+
+            assertFalse(downloader.prefetch(createItem(8)));
+
+            /* The content of every prefetched item was found by its hash */
+            for (int i = 0; i < 8; i++)
+            {
+                downloader.discard(createItem(i));
+            }
+
+            for (int i = 8; i < 16; i++)
+            {
+                assertTrue(downloader.prefetch(createItem(i)));
+            }
+
+            /* A discarded item is downloaded again if it is submitted */
+            downloader.submit(createItem(0));
+
+            final ItemDownload download = downloader.next();
+
+            try
+            {
+                assertEquals("$/project/file0.txt", download.getItem().getServerItem()); //$NON-NLS-1$
+                assertNotNull(download.getContent());
+            }
+            finally
+            {
+                download.dispose();
+            }
+        }
+        finally
+        {
+            downloader.close();
+        }
+    }
+
+    public void testDiscardBeforeDownloadStarts()
+        throws Exception
+    {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final AtomicInteger downloads = new AtomicInteger();
+
+        final MockVersionControlService service = new MockVersionControlService()
+        {
+            @Override
+            public boolean downloadFile(final Item item, final OutputStream outputStream)
+                throws IOException
+            {
+                downloads.incrementAndGet();
+                started.countDown();
+
+                try
+                {
+                    blocked.await();
+                }
+                catch (InterruptedException e)
+                {
+                    throw new IOException(e.getMessage());
+                }
+
+                return super.downloadFile(item, outputStream);
+            }
+        };
+
+        final ItemDownloader downloader = new ItemDownloader(service, tempDir, 1);
+
+        try
+        {
+            /* The first download occupies the only worker */
+            assertTrue(downloader.prefetch(createItem(0)));
+            assertTrue(downloader.prefetch(createItem(1)));
+            started.await();
+
+            downloader.discard(createItem(0));
+            downloader.discard(createItem(1));
+
+            blocked.countDown();
+
+            /* Claiming a new item waits for the worker to drain its queue */
+            downloader.submit(createItem(2));
+            downloader.next().dispose();
+
+            /* The second item was never downloaded */
+            assertEquals(2, downloads.get());
+        }
+        finally
+        {
+            downloader.close();
+        }
+    }
+
+    private static Item createItem(final int index)
+    {
+        final Item item = new Item();
+        item.setServerItem("$/project/file" + index + ".txt"); //$NON-NLS-1$ //$NON-NLS-2$
+        item.setChangeSetID(1);
+        item.setItemType(ItemType.FILE);
+
+        return item;
+    }
+}
@@ -0,0 +1,242 @@
+/***********************************************************************************************
+ * Copyright (c) Microsoft Corporation All rights reserved.
+ * 
+ * MIT License:
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ***********************************************************************************************/
+package com.microsoft.gittf.core.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Item;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.ItemType;
+
+public class ItemManifestTest
+    extends TestCase
+{
+    private static final String SERVER_PATH = "$/project"; //$NON-NLS-1$
+
+    private ItemManifest manifest;
+
+    protected void setUp()
+        throws Exception
+    {
+        manifest = ItemManifest.create(SERVER_PATH, new Item[]
+        {
+            createItem(SERVER_PATH + "/Folder/b.txt", ItemType.FILE, 2), //$NON-NLS-1$
+            createItem(SERVER_PATH + "/a-b.txt", ItemType.FILE, 4), //$NON-NLS-1$
+            createItem(SERVER_PATH, ItemType.FOLDER, 1),
+            createItem(SERVER_PATH + "/a.txt", ItemType.FILE, 3), //$NON-NLS-1$
+            createItem(SERVER_PATH + "/Folder", ItemType.FOLDER, 1), //$NON-NLS-1$
+            createItem(SERVER_PATH + "/unlisted/c.txt", ItemType.FILE, 5), //$NON-NLS-1$
+            createItem("$/other/d.txt", ItemType.FILE, 6) //$NON-NLS-1$
+        });
+    }
+
+    public void testFind()
+    {
+        int node = manifest.find(SERVER_PATH + "/folder/B.TXT"); //$NON-NLS-1$
+        assertTrue(node > 0);
+        assertTrue(manifest.isFile(node));
+        assertEquals(2, manifest.getChangesetID(node));
+        assertEquals("Folder/b.txt", manifest.getRepositoryPath(node)); //$NON-NLS-1$
+        assertEquals(node, manifest.findRepositoryPath("folder/b.txt")); //$NON-NLS-1$
+
+        assertEquals(3, manifest.getChangesetID(manifest.find(SERVER_PATH + "/a.txt"))); //$NON-NLS-1$
+        assertEquals(4, manifest.getChangesetID(manifest.find(SERVER_PATH + "/A-B.txt"))); //$NON-NLS-1$
+        assertTrue(manifest.isFolder(manifest.find(SERVER_PATH + "/folder"))); //$NON-NLS-1$
+        assertEquals(0, manifest.find(SERVER_PATH));
+
+        assertEquals(-1, manifest.find(SERVER_PATH + "/missing.txt")); //$NON-NLS-1$
+        assertEquals(-1, manifest.find("$/other/d.txt")); //$NON-NLS-1$
+        assertEquals(-1, manifest.find(SERVER_PATH + "x/a.txt")); //$NON-NLS-1$
+    }
+
+    public void testUnlistedFolder()
+    {
+        int node = manifest.find(SERVER_PATH + "/unlisted"); //$NON-NLS-1$
+        assertTrue(node > 0);
+        assertFalse(manifest.isFile(node));
+        assertFalse(manifest.isFolder(node));
+
+        assertTrue(manifest.isFile(manifest.find(SERVER_PATH + "/unlisted/c.txt"))); //$NON-NLS-1$
+    }
+
+    public void testCase()
+    {
+        int node = manifest.find(SERVER_PATH + "/folder/b.txt"); //$NON-NLS-1$
+        assertFalse(manifest.hasSameCase(node, SERVER_PATH + "/folder/b.txt")); //$NON-NLS-1$
+        assertTrue(manifest.hasSameCase(node, SERVER_PATH + "/Folder/b.txt")); //$NON-NLS-1$
+    }
+
+    public void testBlobIDs()
+    {
+        int node = manifest.find(SERVER_PATH + "/a.txt"); //$NON-NLS-1$
+        assertFalse(manifest.hasBlobID(node));
+        assertNull(manifest.getBlobID(node));
+
+        ObjectId blobID = ObjectId.fromString("0123456789012345678901234567890123456789"); //$NON-NLS-1$
+        manifest.setBlobID(node, blobID);
+        assertEquals(blobID, manifest.getBlobID(node));
+
+        ItemManifest copy = ItemManifest.create(SERVER_PATH, new Item[]
+        {
+            createItem(SERVER_PATH + "/a.txt", ItemType.FILE, 3) //$NON-NLS-1$
+        });
+        int copyNode = copy.find(SERVER_PATH + "/a.txt"); //$NON-NLS-1$
+        copy.copyBlobID(copyNode, manifest, node);
+        assertEquals(blobID, copy.getBlobID(copyNode));
+    }
+
+    public void testWriteAndRead()
+        throws Exception
+    {
+        int node = manifest.find(SERVER_PATH + "/Folder/b.txt"); //$NON-NLS-1$
+        ObjectId blobID = ObjectId.fromString("0123456789012345678901234567890123456789"); //$NON-NLS-1$
+        manifest.setBlobID(node, blobID);
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        manifest.write(new DataOutputStream(buffer));
+
+        ItemManifest read =
+            ItemManifest.read(SERVER_PATH, new DataInputStream(new ByteArrayInputStream(buffer.toByteArray())));
+        assertEquals(manifest.size(), read.size());
+
+        int readNode = read.find(SERVER_PATH + "/folder/b.txt"); //$NON-NLS-1$
+        assertTrue(read.isFile(readNode));
+        assertEquals(2, read.getChangesetID(readNode));
+        assertTrue(read.hasSameCase(readNode, SERVER_PATH + "/Folder/b.txt")); //$NON-NLS-1$
+        assertEquals(blobID, read.getBlobID(readNode));
+        assertFalse(read.hasBlobID(read.find(SERVER_PATH + "/a.txt"))); //$NON-NLS-1$
+
+        assertNull(ItemManifest.read("$/other", //$NON-NLS-1$
+            new DataInputStream(new ByteArrayInputStream(buffer.toByteArray()))));
+    }
+
+    public void testAddAndRemove()
+        throws Exception
+    {
+        int node = manifest.add(SERVER_PATH + "/New/e.txt", 10, 7, false); //$NON-NLS-1$
+        assertEquals(node, manifest.find(SERVER_PATH + "/new/e.txt")); //$NON-NLS-1$
+        assertEquals(node, manifest.findItemID(10));
+        assertTrue(manifest.isFile(node));
+        assertEquals(7, manifest.getChangesetID(node));
+        assertTrue(manifest.hasSameCase(node, SERVER_PATH + "/New/e.txt")); //$NON-NLS-1$
+        assertFalse(manifest.isFolder(manifest.find(SERVER_PATH + "/new"))); //$NON-NLS-1$
+
+        int updatedNode = manifest.find(SERVER_PATH + "/a.txt"); //$NON-NLS-1$
+        manifest.setBlobID(updatedNode, ObjectId.fromString("0123456789012345678901234567890123456789")); //$NON-NLS-1$
+        assertEquals(updatedNode, manifest.add(SERVER_PATH + "/a.txt", 11, 8, false)); //$NON-NLS-1$
+        assertEquals(8, manifest.getChangesetID(updatedNode));
+        assertFalse(manifest.hasBlobID(updatedNode));
+
+        int folderNode = manifest.find(SERVER_PATH + "/Folder"); //$NON-NLS-1$
+        int fileNode = manifest.find(SERVER_PATH + "/Folder/b.txt"); //$NON-NLS-1$
+        manifest.remove(folderNode);
+        assertEquals(-1, manifest.find(SERVER_PATH + "/Folder")); //$NON-NLS-1$
+        assertEquals(-1, manifest.find(SERVER_PATH + "/Folder/b.txt")); //$NON-NLS-1$
+        assertFalse(manifest.isFolder(folderNode));
+        assertFalse(manifest.isFile(fileNode));
+
+        manifest.remove(node);
+        assertEquals(-1, manifest.findItemID(10));
+        assertEquals(updatedNode, manifest.findItemID(11));
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        manifest.write(new DataOutputStream(buffer));
+
+        ItemManifest read =
+            ItemManifest.read(SERVER_PATH, new DataInputStream(new ByteArrayInputStream(buffer.toByteArray())));
+        assertEquals(manifest.toItems().length, read.toItems().length);
+        assertEquals(-1, read.find(SERVER_PATH + "/Folder/b.txt")); //$NON-NLS-1$
+        assertEquals(8, read.getChangesetID(read.find(SERVER_PATH + "/a.txt"))); //$NON-NLS-1$
+        assertEquals(read.find(SERVER_PATH + "/a.txt"), read.findItemID(11)); //$NON-NLS-1$
+        assertTrue(read.isFile(read.find(SERVER_PATH + "/unlisted/c.txt"))); //$NON-NLS-1$
+    }
+
+    public void testCompact()
+    {
+        Item[] items = new Item[100];
+        for (int i = 0; i < items.length; i++)
+        {
+            items[i] = createItem(SERVER_PATH + "/file" + i + ".txt", ItemType.FILE, i + 1); //$NON-NLS-1$ //$NON-NLS-2$
+            items[i].setItemID(i + 1);
+        }
+
+        manifest = ItemManifest.create(SERVER_PATH, items);
+
+        for (int i = 0; i < items.length; i++)
+        {
+            if (i % 4 != 0)
+            {
+                manifest.remove(manifest.findItemID(i + 1));
+            }
+        }
+
+        for (int i = 0; i < items.length; i++)
+        {
+            assertEquals(i % 4 == 0, manifest.findItemID(i + 1) >= 0);
+        }
+
+        manifest.compact();
+        assertEquals(26, manifest.size());
+
+        for (int i = 0; i < items.length; i++)
+        {
+            int node = manifest.find(items[i].getServerItem());
+            assertEquals(i % 4 == 0, node >= 0);
+            assertEquals(node, manifest.findItemID(i + 1));
+        }
+    }
+
+    public void testToItems()
+    {
+        Item[] items = manifest.toItems();
+
+        int files = 0;
+        for (Item item : items)
+        {
+            if (item.getItemType() == ItemType.FILE)
+            {
+                files++;
+                assertEquals(manifest.getChangesetID(manifest.find(item.getServerItem())), item.getChangeSetID());
+            }
+        }
+
+        assertEquals(4, files);
+    }
+
+    private static Item createItem(String serverItem, ItemType itemType, int changesetID)
+    {
+        Item item = new Item();
+        item.setServerItem(serverItem);
+        item.setItemType(itemType);
+        item.setChangeSetID(changesetID);
+
+        return item;
+    }
+}
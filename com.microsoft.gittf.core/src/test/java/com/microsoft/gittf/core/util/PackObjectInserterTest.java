@@ -0,0 +1,187 @@
+/***********************************************************************************************
+ * Copyright (c) Microsoft Corporation All rights reserved.
+ * 
+ * MIT License:
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ***********************************************************************************************/
+package com.microsoft.gittf.core.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.PackParser;
+
+import com.microsoft.gittf.core.test.Util;
+
+public class PackObjectInserterTest
+    extends TestCase
+{
+    private Repository repository;
+
+    protected void setUp()
+        throws Exception
+    {
+        Util.setUp(getName());
+
+        repository = RepositoryUtil.createNewRepository(Util.getRepositoryFile(getName()).getAbsolutePath(), false);
+        repository.create();
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        repository.close();
+
+        Util.tearDown(getName());
+    }
+
+    public void testPendingObjectsAreReadableBeforeFlush()
+        throws Exception
+    {
+        PackObjectInserter inserter = new PackObjectInserter(repository);
+        ObjectReader reader = inserter.newReader();
+
+        try
+        {
+            byte[] content = createContent(100000);
+            ObjectId blobID = inserter.insert(Constants.OBJ_BLOB, content);
+
+            assertTrue(reader.has(blobID, Constants.OBJ_BLOB));
+            assertFalse(repository.hasObject(blobID));
+            assertTrue(Arrays.equals(content, reader.open(blobID).getBytes()));
+        }
+        finally
+        {
+            reader.release();
+            inserter.release();
+        }
+    }
+
+    public void testFlushAddsPackToRepository()
+        throws Exception
+    {
+        PackObjectInserter inserter = new PackObjectInserter(repository);
+
+        try
+        {
+            ObjectId firstID = inserter.insert(Constants.OBJ_BLOB, createContent(10));
+            ObjectId secondID = inserter.insert(Constants.OBJ_BLOB, createContent(20));
+            assertEquals(firstID, inserter.insert(Constants.OBJ_BLOB, createContent(10)));
+
+            inserter.flush();
+
+            assertTrue(repository.hasObject(firstID));
+            assertTrue(repository.hasObject(secondID));
+            assertEquals(20, repository.open(secondID).getSize());
+        }
+        finally
+        {
+            inserter.release();
+        }
+    }
+
+    public void testReceivedPackIsParsedIntoRepository()
+        throws Exception
+    {
+        Repository source =
+            RepositoryUtil.createNewRepository(
+                new File(Util.getTemporaryTestFilesLocation(getName()), "source").getAbsolutePath(), //$NON-NLS-1$
+                false);
+        source.create();
+
+        try
+        {
+            PackObjectInserter sourceInserter = new PackObjectInserter(source);
+            ObjectId blobID;
+
+            try
+            {
+                blobID = sourceInserter.insert(Constants.OBJ_BLOB, createContent(1000));
+                sourceInserter.flush();
+            }
+            finally
+            {
+                sourceInserter.release();
+            }
+
+            File[] packs = new File(source.getDirectory(), "objects/pack").listFiles(); //$NON-NLS-1$
+            File packFile = null;
+            for (File pack : packs)
+            {
+                if (pack.getName().endsWith(".pack")) //$NON-NLS-1$
+                {
+                    packFile = pack;
+                }
+            }
+            assertNotNull(packFile);
+
+            PackObjectInserter inserter = new PackObjectInserter(repository);
+            InputStream in = new FileInputStream(packFile);
+
+            try
+            {
+                PackParser parser = inserter.newPackParser(in);
+                parser.parse(NullProgressMonitor.INSTANCE);
+            }
+            finally
+            {
+                in.close();
+                inserter.release();
+            }
+
+            assertTrue(repository.hasObject(blobID));
+        }
+        finally
+        {
+            source.close();
+        }
+    }
+
+    public void testReleaseDiscardsUnflushedObjects()
+        throws Exception
+    {
+        PackObjectInserter inserter = new PackObjectInserter(repository);
+        ObjectId blobID = inserter.insert(Constants.OBJ_BLOB, createContent(10));
+        inserter.release();
+
+        assertFalse(repository.hasObject(blobID));
+    }
+
+    private static byte[] createContent(int length)
+    {
+        byte[] content = new byte[length];
+
+        for (int i = 0; i < content.length; i++)
+        {
+            content[i] = (byte) (i % 251);
+        }
+
+        return content;
+    }
+}
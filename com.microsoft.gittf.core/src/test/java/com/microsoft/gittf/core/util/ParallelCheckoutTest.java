@@ -0,0 +1,116 @@
+/***********************************************************************************************
+ * Copyright (c) Microsoft Corporation All rights reserved.
+ * 
+ * MIT License:
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ***********************************************************************************************/
+package com.microsoft.gittf.core.util;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.Status;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+
+import com.microsoft.gittf.core.test.Util;
+
+public class ParallelCheckoutTest
+    extends TestCase
+{
+    private Repository repository;
+
+    protected void setUp()
+        throws Exception
+    {
+        Util.setUp(getName());
+
+        repository = RepositoryUtil.createNewRepository(Util.getRepositoryFile(getName()).getAbsolutePath(), false);
+        repository.create();
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        repository.close();
+
+        Util.tearDown(getName());
+    }
+
+    public void testCheckout()
+        throws Exception
+    {
+        final ObjectInserter inserter = repository.newObjectInserter();
+        final ObjectId treeID;
+
+        try
+        {
+            final TreeFormatter subTree = new TreeFormatter();
+            subTree.append("a.txt", FileMode.REGULAR_FILE, insertBlob(inserter, "a")); //$NON-NLS-1$ //$NON-NLS-2$
+            subTree.append("run.sh", FileMode.EXECUTABLE_FILE, insertBlob(inserter, "#!/bin/sh")); //$NON-NLS-1$ //$NON-NLS-2$
+
+            final TreeFormatter rootTree = new TreeFormatter();
+            rootTree.append("dir", FileMode.TREE, inserter.insert(subTree)); //$NON-NLS-1$
+            rootTree.append("root.txt", FileMode.REGULAR_FILE, insertBlob(inserter, "root content")); //$NON-NLS-1$ //$NON-NLS-2$
+
+            treeID = inserter.insert(rootTree);
+            inserter.flush();
+        }
+        finally
+        {
+            inserter.release();
+        }
+
+        assertTrue(new ParallelCheckout(repository, treeID, 2).checkout());
+
+        final File workTree = repository.getWorkTree();
+        assertTrue(Util.verifyFileContent(new File(workTree, "dir/a.txt"), "a")); //$NON-NLS-1$ //$NON-NLS-2$
+        assertTrue(Util.verifyFileContent(new File(workTree, "root.txt"), "root content")); //$NON-NLS-1$ //$NON-NLS-2$
+
+        if (repository.getFS().supportsExecute())
+        {
+            assertTrue(repository.getFS().canExecute(new File(workTree, "dir/run.sh"))); //$NON-NLS-1$
+        }
+
+        final DirCache dirCache = repository.readDirCache();
+        assertEquals(3, dirCache.getEntryCount());
+        assertEquals(FileMode.EXECUTABLE_FILE, dirCache.getEntry("dir/run.sh").getFileMode()); //$NON-NLS-1$
+
+        /* The working tree matches the index */
+        final Status status = new Git(repository).status().call();
+        assertTrue(status.getModified().isEmpty());
+        assertTrue(status.getMissing().isEmpty());
+        assertTrue(status.getUntracked().isEmpty());
+        assertEquals(3, status.getAdded().size());
+    }
+
+    private static ObjectId insertBlob(final ObjectInserter inserter, final String content)
+        throws Exception
+    {
+        return inserter.insert(Constants.OBJ_BLOB, Constants.encode(content));
+    }
+}
@@ -0,0 +1,142 @@
+/***********************************************************************************************
+ * Copyright (c) Microsoft Corporation All rights reserved.
+ * 
+ * MIT License:
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ***********************************************************************************************/
+package com.microsoft.gittf.core.util;
+
+import junit.framework.TestCase;
+
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Item;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.ItemType;
+
+public class PathFilterTest
+    extends TestCase
+{
+    public void testAll()
+    {
+        assertFalse(PathFilter.ALL.isFiltering());
+        assertTrue(PathFilter.ALL.includes("any/path.txt", false)); //$NON-NLS-1$
+    }
+
+    public void testExcludeName()
+    {
+        PathFilter filter = new PathFilter(null, new String[]
+        {
+            "packages", "*.DLL" //$NON-NLS-1$ //$NON-NLS-2$
+        });
+
+        assertTrue(filter.isFiltering());
+        assertTrue(filter.includes("", true)); //$NON-NLS-1$
+        assertTrue(filter.includes("src/a.txt", false)); //$NON-NLS-1$
+        assertFalse(filter.includes("src/lib.dll", false)); //$NON-NLS-1$
+        assertFalse(filter.includes("Packages", true)); //$NON-NLS-1$
+        assertFalse(filter.includes("src/packages/a/b.txt", false)); //$NON-NLS-1$
+        assertTrue(filter.includes("src/packages.txt", false)); //$NON-NLS-1$
+    }
+
+    public void testExcludePath()
+    {
+        PathFilter filter = new PathFilter(null, new String[]
+        {
+            "/test/data/", "lib/**/*.jar" //$NON-NLS-1$ //$NON-NLS-2$
+        });
+
+        assertFalse(filter.includes("test/data", true)); //$NON-NLS-1$
+        assertFalse(filter.includes("test/data/big.bin", false)); //$NON-NLS-1$
+        assertTrue(filter.includes("src/test/data/big.bin", false)); //$NON-NLS-1$
+        assertTrue(filter.includes("test/database.txt", false)); //$NON-NLS-1$
+
+        assertFalse(filter.includes("lib/a.jar", false)); //$NON-NLS-1$
+        assertFalse(filter.includes("lib/x/y/a.jar", false)); //$NON-NLS-1$
+        assertTrue(filter.includes("lib/a.txt", false)); //$NON-NLS-1$
+    }
+
+    public void testInclude()
+    {
+        PathFilter filter = new PathFilter(new String[]
+        {
+            "src", "doc?/*.txt" //$NON-NLS-1$ //$NON-NLS-2$
+        }, new String[]
+        {
+            "src/generated" //$NON-NLS-1$
+        });
+
+        assertTrue(filter.includes("src/a/b.java", false)); //$NON-NLS-1$
+        assertTrue(filter.includes("docs/a.txt", false)); //$NON-NLS-1$
+        assertFalse(filter.includes("docs/a/b.txt", false)); //$NON-NLS-1$
+        assertFalse(filter.includes("build.xml", false)); //$NON-NLS-1$
+        assertFalse(filter.includes("src/generated/a.java", false)); //$NON-NLS-1$
+
+        /* Folders may hold included files */
+        assertTrue(filter.includes("other", true)); //$NON-NLS-1$
+        assertFalse(filter.includes("src/generated", true)); //$NON-NLS-1$
+    }
+
+    public void testFilter()
+    {
+        PathFilter filter = new PathFilter(null, new String[]
+        {
+            "packages" //$NON-NLS-1$
+        });
+
+        Item[] items = filter.filter("$/project", new Item[] //$NON-NLS-1$
+        {
+            createItem("$/project", ItemType.FOLDER), //$NON-NLS-1$
+            createItem("$/project/packages", ItemType.FOLDER), //$NON-NLS-1$
+            createItem("$/project/packages/a.nupkg", ItemType.FILE), //$NON-NLS-1$
+            createItem("$/project/src/a.txt", ItemType.FILE) //$NON-NLS-1$
+        });
+
+        assertEquals(2, items.length);
+        assertEquals("$/project", items[0].getServerItem()); //$NON-NLS-1$
+        assertEquals("$/project/src/a.txt", items[1].getServerItem()); //$NON-NLS-1$
+    }
+
+    public void testDescription()
+    {
+        PathFilter filter = new PathFilter(new String[]
+        {
+            "src/" //$NON-NLS-1$
+        }, new String[]
+        {
+            "*.dll", "*.dll" //$NON-NLS-1$ //$NON-NLS-2$
+        });
+
+        assertEquals(new PathFilter(new String[]
+        {
+            "/src" //$NON-NLS-1$
+        }, new String[]
+        {
+            "*.dll" //$NON-NLS-1$
+        }).toString(), filter.toString());
+        assertFalse(filter.toString().equals(PathFilter.ALL.toString()));
+    }
+
+    private static Item createItem(String serverItem, ItemType itemType)
+    {
+        Item item = new Item();
+        item.setServerItem(serverItem);
+        item.setItemType(itemType);
+
+        return item;
+    }
+}
@@ -0,0 +1,158 @@
+/***********************************************************************************************
+ * Copyright (c) Microsoft Corporation All rights reserved.
+ * 
+ * MIT License:
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ***********************************************************************************************/
+package com.microsoft.gittf.core.util;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+
+import com.microsoft.gittf.core.config.ChangesetCommit;
+import com.microsoft.gittf.core.config.GitTFConfiguration;
+import com.microsoft.gittf.core.test.Util;
+
+public class TagUtilTest
+    extends TestCase
+{
+    private Repository repository;
+
+    protected void setUp()
+        throws Exception
+    {
+        Util.setUp(getName());
+
+        repository = RepositoryUtil.createNewRepository(Util.getRepositoryFile(getName()).getAbsolutePath(), false);
+        repository.create();
+
+        GitTFConfiguration configuration =
+            new GitTFConfiguration(new URI("http://fakeCollection:8080/tfs/DefaultCollection"), "$/project"); //$NON-NLS-1$ //$NON-NLS-2$
+        configuration.setTag(true);
+        configuration.saveTo(repository);
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        repository.close();
+
+        Util.tearDown(getName());
+    }
+
+    public void testTagsArePacked()
+        throws Exception
+    {
+        ObjectId firstCommitID = createCommit("first"); //$NON-NLS-1$
+        ObjectId secondCommitID = createCommit("second"); //$NON-NLS-1$
+
+        List<ChangesetCommit> changesetCommits = new ArrayList<ChangesetCommit>();
+        changesetCommits.add(new ChangesetCommit(1, firstCommitID, false));
+        changesetCommits.add(new ChangesetCommit(2, secondCommitID, false));
+
+        assertTrue(TagUtil.updateTags(repository, insertTags(changesetCommits)));
+
+        Map<String, Ref> tags = repository.getRefDatabase().getRefs(Constants.R_TAGS);
+        assertEquals(2, tags.size());
+
+        for (Ref tag : tags.values())
+        {
+            assertFalse(new File(repository.getDirectory(), tag.getName()).exists());
+        }
+
+        assertEquals(secondCommitID, repository.peel(tags.get("TFS_C2")).getPeeledObjectId()); //$NON-NLS-1$
+    }
+
+    public void testExistingTagIsReplaced()
+        throws Exception
+    {
+        ObjectId firstCommitID = createCommit("first"); //$NON-NLS-1$
+        ObjectId secondCommitID = createCommit("second"); //$NON-NLS-1$
+
+        List<ChangesetCommit> changesetCommits = new ArrayList<ChangesetCommit>();
+        changesetCommits.add(new ChangesetCommit(1, firstCommitID, false));
+        assertTrue(TagUtil.updateTags(repository, insertTags(changesetCommits)));
+
+        changesetCommits.clear();
+        changesetCommits.add(new ChangesetCommit(1, secondCommitID, true));
+        assertTrue(TagUtil.updateTags(repository, insertTags(changesetCommits)));
+
+        Ref tag = repository.getRef(Constants.R_TAGS + "TFS_C1"); //$NON-NLS-1$
+        assertEquals(secondCommitID, repository.peel(tag).getPeeledObjectId());
+    }
+
+    private Map<String, ObjectId> insertTags(List<ChangesetCommit> changesetCommits)
+        throws Exception
+    {
+        ObjectInserter inserter = repository.newObjectInserter();
+
+        try
+        {
+            Map<String, ObjectId> tags = TagUtil.insertTFSChangesetTags(repository, inserter, changesetCommits);
+            inserter.flush();
+
+            return tags;
+        }
+        finally
+        {
+            inserter.release();
+        }
+    }
+
+    private ObjectId createCommit(String message)
+        throws Exception
+    {
+        ObjectInserter inserter = repository.newObjectInserter();
+
+        try
+        {
+            PersonIdent person = new PersonIdent("name", "name@example.com"); //$NON-NLS-1$ //$NON-NLS-2$
+
+            CommitBuilder commit = new CommitBuilder();
+            commit.setTreeId(inserter.insert(new TreeFormatter()));
+            commit.setAuthor(person);
+            commit.setCommitter(person);
+            commit.setMessage(message);
+
+            ObjectId commitID = inserter.insert(commit);
+            inserter.flush();
+
+            return commitID;
+        }
+        finally
+        {
+            inserter.release();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/***********************************************************************************************
+ * Copyright (c) Microsoft Corporation All rights reserved.
+ * 
+ * MIT License:
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ***********************************************************************************************/
+package com.microsoft.gittf.core.util;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
+
+import com.microsoft.gittf.core.test.Util;
+
+public class WorkingFolderExtractorTest
+    extends TestCase
+{
+    private Repository repository;
+    private File workingFolder;
+
+    protected void setUp()
+        throws Exception
+    {
+        Util.setUp(getName());
+
+        repository = RepositoryUtil.createNewRepository(Util.getRepositoryFile(getName()).getAbsolutePath(), false);
+        repository.create();
+
+        workingFolder = new File(repository.getDirectory(), "checkin"); //$NON-NLS-1$
+        assertTrue(workingFolder.mkdirs());
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        repository.close();
+
+        Util.tearDown(getName());
+    }
+
+    public void testScheduledExtraction()
+        throws Exception
+    {
+        final ObjectId first = insertBlob("first"); //$NON-NLS-1$
+        final ObjectId second = insertBlob("second"); //$NON-NLS-1$
+        final ObjectId third = insertBlob("third"); //$NON-NLS-1$
+
+        final WorkingFolderExtractor extractor = new WorkingFolderExtractor(repository, workingFolder, 2);
+
+        try
+        {
+            extractor.schedule("a/first.txt", first); //$NON-NLS-1$
+            extractor.schedule("a/b/second.txt", second); //$NON-NLS-1$
+            extractor.schedule("a/b/second.txt", second); //$NON-NLS-1$
+
+            extractor.extract("a/first.txt", first); //$NON-NLS-1$
+            extractor.extract("a/b/second.txt", second); //$NON-NLS-1$
+
+            /* Items that were never scheduled are extracted on demand */
+            extractor.extract("c/third.txt", third); //$NON-NLS-1$
+        }
+        finally
+        {
+            extractor.close();
+        }
+
+        assertTrue(Util.verifyFileContent(new File(workingFolder, "a/first.txt"), "first")); //$NON-NLS-1$ //$NON-NLS-2$
+        assertTrue(Util.verifyFileContent(new File(workingFolder, "a/b/second.txt"), "second")); //$NON-NLS-1$ //$NON-NLS-2$
+        assertTrue(Util.verifyFileContent(new File(workingFolder, "c/third.txt"), "third")); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    public void testExtractDifferentBlob()
+        throws Exception
+    {
+        final ObjectId first = insertBlob("first"); //$NON-NLS-1$
+        final ObjectId second = insertBlob("second"); //$NON-NLS-1$
+
+        final WorkingFolderExtractor extractor = new WorkingFolderExtractor(repository, workingFolder, 1);
+
+        try
+        {
+            extractor.schedule("file.txt", first); //$NON-NLS-1$
+            extractor.extract("file.txt", second); //$NON-NLS-1$
+        }
+        finally
+        {
+            extractor.close();
+        }
+
+        assertTrue(Util.verifyFileContent(new File(workingFolder, "file.txt"), "second")); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    public void testFinish()
+        throws Exception
+    {
+        final ObjectId first = insertBlob("first"); //$NON-NLS-1$
+        final ObjectId second = insertBlob("second"); //$NON-NLS-1$
+
+        final WorkingFolderExtractor extractor = new WorkingFolderExtractor(repository, workingFolder, 2);
+
+        try
+        {
+            extractor.schedule("first.txt", first); //$NON-NLS-1$
+            extractor.schedule("a/second.txt", second); //$NON-NLS-1$
+
+            extractor.finish();
+
+            /* Every scheduled item is on disk before the extractor is closed */
+            assertTrue(Util.verifyFileContent(new File(workingFolder, "first.txt"), "first")); //$NON-NLS-1$ //$NON-NLS-2$
+            assertTrue(Util.verifyFileContent(new File(workingFolder, "a/second.txt"), "second")); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        finally
+        {
+            extractor.close();
+        }
+    }
+
+    public void testExtractLargeBlob()
+        throws Exception
+    {
+        final StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 1000; i++)
+        {
+            content.append("line " + i + "\n"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+
+        final ObjectId large = insertBlob(content.toString());
+
+        /* Blobs above the threshold are streamed rather than loaded */
+        final WindowCacheConfig config = new WindowCacheConfig();
+        config.setStreamFileThreshold(1024);
+        config.install();
+
+        final WorkingFolderExtractor extractor = new WorkingFolderExtractor(repository, workingFolder, 1);
+
+        try
+        {
+            extractor.schedule("large.txt", large); //$NON-NLS-1$
+            extractor.extract("large.txt", large); //$NON-NLS-1$
+        }
+        finally
+        {
+            extractor.close();
+            new WindowCacheConfig().install();
+        }
+
+        assertTrue(Util.verifyFileContent(new File(workingFolder, "large.txt"), content.toString())); //$NON-NLS-1$
+    }
+
+    private ObjectId insertBlob(final String content)
+        throws Exception
+    {
+        final ObjectInserter inserter = repository.newObjectInserter();
+
+        try
+        {
+            final ObjectId blobID = inserter.insert(Constants.OBJ_BLOB, Constants.encode(content));
+            inserter.flush();
+
+            return blobID;
+        }
+        finally
+        {
+            inserter.release();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/***********************************************************************************************
+ * Copyright (c) Microsoft Corporation All rights reserved.
+ * 
+ * MIT License:
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ***********************************************************************************************/
+
+
+package com.microsoft.gittf.core.util.tree;
+
+import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+import com.microsoft.gittf.core.test.Util;
+import com.microsoft.gittf.core.util.RepositoryUtil;
+
+public class CommitTreeBuilderTest
+    extends TestCase
+{
+    private Repository repository;
+    private ObjectInserter inserter;
+    private ObjectReader reader;
+
+    protected void setUp()
+        throws Exception
+    {
+        Util.setUp(getName());
+
+        repository = RepositoryUtil.createNewRepository(Util.getRepositoryFile(getName()).getAbsolutePath(), false);
+        repository.create();
+
+        inserter = repository.newObjectInserter();
+        reader = repository.newObjectReader();
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        reader.release();
+        inserter.release();
+        repository.close();
+
+        Util.tearDown(getName());
+    }
+
+    public void testIncrementalBuildMatchesFullBuild()
+        throws Exception
+    {
+        CommitTreeBuilder baseBuilder = new CommitTreeBuilder(reader, null);
+        add(baseBuilder, "a.txt"); //$NON-NLS-1$
+        add(baseBuilder, "dir/b.txt"); //$NON-NLS-1$
+        add(baseBuilder, "dir/sub/c.txt"); //$NON-NLS-1$
+        add(baseBuilder, "other/d.txt"); //$NON-NLS-1$
+        ObjectId baseTreeID = build(baseBuilder);
+
+        CommitTreeBuilder incrementalBuilder = new CommitTreeBuilder(reader, baseTreeID);
+        addContent(incrementalBuilder, "dir/sub/c.txt", "edited"); //$NON-NLS-1$ //$NON-NLS-2$
+        incrementalBuilder.remove("other/d.txt"); //$NON-NLS-1$
+        add(incrementalBuilder, "new/e.txt"); //$NON-NLS-1$
+        ObjectId incrementalTreeID = build(incrementalBuilder);
+
+        CommitTreeBuilder fullBuilder = new CommitTreeBuilder(reader, null);
+        add(fullBuilder, "a.txt"); //$NON-NLS-1$
+        add(fullBuilder, "dir/b.txt"); //$NON-NLS-1$
+        addContent(fullBuilder, "dir/sub/c.txt", "edited"); //$NON-NLS-1$ //$NON-NLS-2$
+        add(fullBuilder, "new/e.txt"); //$NON-NLS-1$
+        ObjectId fullTreeID = build(fullBuilder);
+
+        assertEquals(fullTreeID, incrementalTreeID);
+        assertNull(TreeWalk.forPath(reader, "other", incrementalTreeID)); //$NON-NLS-1$
+    }
+
+    public void testFolderCaseIsPreserved()
+        throws Exception
+    {
+        CommitTreeBuilder baseBuilder = new CommitTreeBuilder(reader, null);
+        add(baseBuilder, "Dir/b.txt"); //$NON-NLS-1$
+        ObjectId baseTreeID = build(baseBuilder);
+
+        CommitTreeBuilder incrementalBuilder = new CommitTreeBuilder(reader, baseTreeID);
+        add(incrementalBuilder, "dir/c.txt"); //$NON-NLS-1$
+        ObjectId incrementalTreeID = build(incrementalBuilder);
+
+        assertNotNull(TreeWalk.forPath(reader, "Dir/b.txt", incrementalTreeID)); //$NON-NLS-1$
+        assertNotNull(TreeWalk.forPath(reader, "Dir/c.txt", incrementalTreeID)); //$NON-NLS-1$
+        assertNull(TreeWalk.forPath(reader, "dir", incrementalTreeID)); //$NON-NLS-1$
+    }
+
+    public void testRemovingAllFilesCreatesEmptyTree()
+        throws Exception
+    {
+        CommitTreeBuilder baseBuilder = new CommitTreeBuilder(reader, null);
+        add(baseBuilder, "dir/b.txt"); //$NON-NLS-1$
+        ObjectId baseTreeID = build(baseBuilder);
+
+        CommitTreeBuilder incrementalBuilder = new CommitTreeBuilder(reader, baseTreeID);
+        incrementalBuilder.remove("dir/b.txt"); //$NON-NLS-1$
+
+        assertEquals(build(new CommitTreeBuilder(reader, null)), build(incrementalBuilder));
+    }
+
+    private void add(CommitTreeBuilder builder, String path)
+        throws Exception
+    {
+        addContent(builder, path, path);
+    }
+
+    private void addContent(CommitTreeBuilder builder, String path, String content)
+        throws Exception
+    {
+        builder.add(path, FileMode.REGULAR_FILE, inserter.insert(OBJ_BLOB, content.getBytes("UTF-8"))); //$NON-NLS-1$
+    }
+
+    private ObjectId build(CommitTreeBuilder builder)
+        throws Exception
+    {
+        ObjectId treeID = builder.build(inserter);
+        inserter.flush();
+
+        return treeID;
+    }
+}